@@ -0,0 +1,79 @@
+package ma.mundiapolis.apigateway;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Les endpoints /internal/** des services ne traversent pas la gateway, ni par les routes
+ * déclarées ni par celles du locator de découverte (/<service-id>/**).
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "eureka.client.enabled=false"
+})
+@AutoConfigureWebTestClient
+class RoutesInternesTest {
+
+    private static final AtomicInteger APPELS = new AtomicInteger();
+    private static final HttpServer SERVICE = demarrer();
+
+    @Autowired
+    private WebTestClient client;
+
+    @DynamicPropertySource
+    static void service(DynamicPropertyRegistry registry) {
+        String uri = "http://localhost:" + SERVICE.getAddress().getPort();
+        registry.add("spring.cloud.discovery.client.simple.instances.ms-emprunt[0].uri", () -> uri);
+    }
+
+    @AfterAll
+    static void arreter() {
+        SERVICE.stop(0);
+    }
+
+    @Test
+    void internesRefusesPublicsRelayes() {
+        int avant = APPELS.get();
+        client.delete().uri("/ms-emprunt/internal/cache/livres/1").exchange().expectStatus().isNotFound();
+        client.post().uri("/ms-emprunt/internal/evenements/users").exchange().expectStatus().isNotFound();
+        client.delete().uri("/internal/cache/users/1").exchange().expectStatus().isNotFound();
+        // Rien n'a atteint le service
+        assertEquals(avant, APPELS.get());
+
+        client.get().uri("/api/emprunts/stats").exchange().expectStatus().isOk();
+        client.get().uri("/ms-emprunt/api/emprunts/stats").exchange().expectStatus().isOk();
+    }
+
+    private static HttpServer demarrer() {
+        try {
+            HttpServer serveur = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            serveur.createContext("/", echange -> {
+                APPELS.incrementAndGet();
+                byte[] corps = "{}".getBytes(StandardCharsets.UTF_8);
+                echange.getResponseHeaders().add("Content-Type", "application/json");
+                echange.sendResponseHeaders(200, corps.length);
+                try (OutputStream out = echange.getResponseBody()) {
+                    out.write(corps);
+                }
+            });
+            serveur.start();
+            return serveur;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -5,7 +5,7 @@ import { Button } from "@/components/ui/Button";
 import { Card } from "@/components/ui/Card";
 import { Modal } from "@/components/ui/Modal";
 import { Input, Select } from "@/components/ui/Input";
-import { livresApi, Livre, LivreInput } from "@/lib/api";
+import { livresApi, Livre, LivreInput, LivreListe } from "@/lib/api";
 
 const categories = [
     { value: "ROMAN", label: "Roman" },
@@ -17,11 +17,21 @@ const categories = [
     { value: "AUTRE", label: "Autre" },
 ];
 
+// Livres par page, en consultation comme en recherche
+const TAILLE_PAGE = 50;
+
 export default function BooksPage() {
-    const [books, setBooks] = useState<Livre[]>([]);
+    // Page courante : catalogue filtré côté serveur, ou résultats de la recherche
+    const [books, setBooks] = useState<LivreListe[]>([]);
+    const [total, setTotal] = useState(0);
+    const [page, setPage] = useState(0);
     const [loading, setLoading] = useState(true);
     const [search, setSearch] = useState("");
+    // Saisie retenue une fois la frappe arrêtée (250 ms)
+    const [query, setQuery] = useState("");
     const [categoryFilter, setCategoryFilter] = useState("");
+    // Incrémenté après un ajout, une modification ou une suppression : recharge la page courante
+    const [version, setVersion] = useState(0);
     const [isModalOpen, setIsModalOpen] = useState(false);
     const [editingBook, setEditingBook] = useState<Livre | null>(null);
     const [formData, setFormData] = useState<LivreInput>({
@@ -36,28 +46,39 @@ export default function BooksPage() {
     const [submitting, setSubmitting] = useState(false);
 
     useEffect(() => {
-        fetchBooks();
-    }, []);
+        const timer = setTimeout(() => {
+            setQuery(search.trim());
+            setPage(0);
+        }, 250);
+        return () => clearTimeout(timer);
+    }, [search]);
 
-    async function fetchBooks() {
-        try {
-            const data = await livresApi.getAll();
-            setBooks(data);
-        } catch (error) {
-            console.error("Error fetching books:", error);
-        } finally {
-            setLoading(false);
-        }
-    }
+    useEffect(() => {
+        // Une seule requête en vol : la précédente est annulée, sa réponse ne peut plus
+        // remplacer celle de la saisie ou de la page courante
+        const controller = new AbortController();
+        const chargement: Promise<{ livres: LivreListe[]; total: number }> = query
+            ? livresApi.search(query, page, TAILLE_PAGE, controller.signal)
+            : livresApi.getCatalogue({ categorie: categoryFilter, page, taille: TAILLE_PAGE }, controller.signal);
+        chargement
+            .then((resultat) => {
+                setBooks(resultat.livres);
+                setTotal(resultat.total);
+            })
+            .catch((error) => {
+                if (error.name !== "AbortError") console.error("Error fetching books:", error);
+            })
+            .finally(() => {
+                if (!controller.signal.aborted) setLoading(false);
+            });
+        return () => controller.abort();
+    }, [query, categoryFilter, page, version]);
 
-    const filteredBooks = books.filter((book) => {
-        const matchesSearch =
-            book.titre.toLowerCase().includes(search.toLowerCase()) ||
-            book.auteur.toLowerCase().includes(search.toLowerCase()) ||
-            book.isbn.toLowerCase().includes(search.toLowerCase());
-        const matchesCategory = !categoryFilter || book.categorie === categoryFilter;
-        return matchesSearch && matchesCategory;
-    });
+    // La recherche ne filtre pas par catégorie : le filtre s'applique à la page de résultats
+    const filteredBooks = query
+        ? books.filter((book) => !categoryFilter || book.categorie === categoryFilter)
+        : books;
+    const pages = Math.max(1, Math.ceil(total / TAILLE_PAGE));
 
     function openCreateModal() {
         setEditingBook(null);
@@ -73,7 +94,15 @@ export default function BooksPage() {
         setIsModalOpen(true);
     }
 
-    function openEditModal(book: Livre) {
+    async function openEditModal(ligne: LivreListe) {
+        // La ligne de liste n'a pas tous les champs du formulaire : le livre est relu
+        let book: Livre;
+        try {
+            book = await livresApi.getById(ligne.id);
+        } catch (error) {
+            console.error("Error fetching book:", error);
+            return;
+        }
         setEditingBook(book);
         setFormData({
             titre: book.titre,
@@ -98,7 +127,7 @@ export default function BooksPage() {
                 await livresApi.create(formData);
             }
             setIsModalOpen(false);
-            fetchBooks();
+            setVersion((v) => v + 1);
         } catch (error) {
             console.error("Error saving book:", error);
         } finally {
@@ -111,7 +140,7 @@ export default function BooksPage() {
 
         try {
             await livresApi.delete(id);
-            fetchBooks();
+            setVersion((v) => v + 1);
         } catch (error) {
             console.error("Error deleting book:", error);
         }
@@ -131,7 +160,9 @@ export default function BooksPage() {
             <div className="flex items-center justify-between">
                 <div>
                     <h1 className="text-2xl font-semibold text-black">Livres</h1>
-                    <p className="text-neutral-500 mt-1">{books.length} livres dans le catalogue</p>
+                    <p className="text-neutral-500 mt-1">
+                        {total} {query ? "résultats" : categoryFilter ? "livres dans cette catégorie" : "livres dans le catalogue"}
+                    </p>
                 </div>
                 <Button onClick={openCreateModal}>
                     <svg className="w-4 h-4" fill="none" stroke="currentColor" viewBox="0 0 24 24">
@@ -162,7 +193,10 @@ export default function BooksPage() {
                 </div>
                 <select
                     value={categoryFilter}
-                    onChange={(e) => setCategoryFilter(e.target.value)}
+                    onChange={(e) => {
+                        setCategoryFilter(e.target.value);
+                        setPage(0);
+                    }}
                     className="px-4 py-2.5 bg-white border border-neutral-200 rounded-lg text-black focus:outline-none focus:ring-2 focus:ring-black"
                 >
                     <option value="">Toutes les catégories</option>
@@ -228,6 +262,19 @@ export default function BooksPage() {
                         <p className="text-neutral-400">Aucun livre trouvé</p>
                     </div>
                 )}
+                {pages > 1 && (
+                    <div className="flex items-center justify-between px-6 py-3 border-t border-neutral-200">
+                        <Button variant="ghost" size="sm" disabled={page === 0} onClick={() => setPage(page - 1)}>
+                            Précédent
+                        </Button>
+                        <span className="text-sm text-neutral-500">
+                            Page {page + 1} / {pages}
+                        </span>
+                        <Button variant="ghost" size="sm" disabled={page + 1 >= pages} onClick={() => setPage(page + 1)}>
+                            Suivant
+                        </Button>
+                    </div>
+                )}
             </Card>
 
             {/* Modal */}
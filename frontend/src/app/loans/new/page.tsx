@@ -4,50 +4,74 @@ import { useEffect, useState } from "react";
 import { useRouter } from "next/navigation";
 import { Button } from "@/components/ui/Button";
 import { Card } from "@/components/ui/Card";
-import { empruntsApi, usersApi, livresApi, User, Livre } from "@/lib/api";
+import { empruntsApi, usersApi, livresApi, User, LivreListe } from "@/lib/api";
+
+// Livres chargés à la fois (catalogue des disponibles ou résultats de recherche)
+const TAILLE_PAGE = 20;
 
 export default function NewLoanPage() {
     const router = useRouter();
     const [users, setUsers] = useState<User[]>([]);
-    const [books, setBooks] = useState<Livre[]>([]);
+    // Livres chargés jusqu'ici, page par page
+    const [books, setBooks] = useState<LivreListe[]>([]);
+    const [booksTotal, setBooksTotal] = useState(0);
+    const [booksPage, setBooksPage] = useState(0);
     const [loading, setLoading] = useState(true);
     const [submitting, setSubmitting] = useState(false);
     const [selectedUser, setSelectedUser] = useState<number | null>(null);
-    const [selectedBook, setSelectedBook] = useState<number | null>(null);
+    // Livre retenu, gardé même s'il sort de la liste affichée après une nouvelle recherche
+    const [selectedBook, setSelectedBook] = useState<LivreListe | null>(null);
     const [userSearch, setUserSearch] = useState("");
     const [bookSearch, setBookSearch] = useState("");
+    // Saisie retenue une fois la frappe arrêtée (250 ms)
+    const [bookQuery, setBookQuery] = useState("");
     const [error, setError] = useState<string | null>(null);
 
     useEffect(() => {
-        async function fetchData() {
+        async function fetchUsers() {
             try {
-                const [usersData, booksData] = await Promise.all([
-                    usersApi.getAll(),
-                    livresApi.getAll(),
-                ]);
-                setUsers(usersData);
-                setBooks(booksData.filter((b) => b.quantiteDisponible > 0));
+                setUsers(await usersApi.getAll());
             } catch (error) {
-                console.error("Error fetching data:", error);
+                console.error("Error fetching users:", error);
             } finally {
                 setLoading(false);
             }
         }
-        fetchData();
+        fetchUsers();
     }, []);
 
+    useEffect(() => {
+        const timer = setTimeout(() => {
+            setBookQuery(bookSearch.trim());
+            setBooksPage(0);
+        }, 250);
+        return () => clearTimeout(timer);
+    }, [bookSearch]);
+
+    useEffect(() => {
+        // Recherche plein texte dans tout le catalogue, sinon les livres disponibles par titre ;
+        // la requête précédente est annulée pour qu'une réponse en retard ne remplace pas la liste
+        const controller = new AbortController();
+        const chargement: Promise<{ livres: LivreListe[]; total: number }> = bookQuery
+            ? livresApi.search(bookQuery, booksPage, TAILLE_PAGE, controller.signal)
+            : livresApi.getCatalogue({ disponible: true, tri: 'titre', page: booksPage, taille: TAILLE_PAGE }, controller.signal);
+        chargement
+            .then((resultat) => {
+                setBooks((precedents) => (booksPage === 0 ? resultat.livres : [...precedents, ...resultat.livres]));
+                setBooksTotal(resultat.total);
+            })
+            .catch((error) => {
+                if (error.name !== "AbortError") console.error("Error fetching books:", error);
+            });
+        return () => controller.abort();
+    }, [bookQuery, booksPage]);
+
     const filteredUsers = users.filter(
         (user) =>
             user.nom.toLowerCase().includes(userSearch.toLowerCase()) ||
             user.email.toLowerCase().includes(userSearch.toLowerCase())
     );
 
-    const filteredBooks = books.filter(
-        (book) =>
-            book.titre.toLowerCase().includes(bookSearch.toLowerCase()) ||
-            book.auteur.toLowerCase().includes(bookSearch.toLowerCase())
-    );
-
     async function handleSubmit() {
         if (!selectedUser || !selectedBook) return;
 
@@ -56,7 +80,7 @@ export default function NewLoanPage() {
         try {
             await empruntsApi.create({
                 utilisateurId: selectedUser,
-                livreId: selectedBook,
+                livreId: selectedBook.id,
             });
             router.push("/loans");
         } catch (error: any) {
@@ -148,11 +172,13 @@ export default function NewLoanPage() {
                         className="w-full px-4 py-2.5 bg-white border border-neutral-200 rounded-lg text-black placeholder-neutral-400 focus:outline-none focus:ring-2 focus:ring-black mb-4"
                     />
                     <div className="space-y-2 max-h-64 overflow-y-auto">
-                        {filteredBooks.map((book) => (
+                        {books.map((book) => (
                             <button
                                 key={book.id}
-                                onClick={() => setSelectedBook(book.id)}
-                                className={`w-full p-3 rounded-lg text-left transition-all border ${selectedBook === book.id
+                                onClick={() => setSelectedBook(book)}
+                                // La recherche couvre tout le catalogue : un livre sans exemplaire ne se sélectionne pas
+                                disabled={book.quantiteDisponible <= 0}
+                                className={`w-full p-3 rounded-lg text-left transition-all border disabled:opacity-50 disabled:cursor-not-allowed ${selectedBook?.id === book.id
                                     ? "bg-black text-white border-black"
                                     : "bg-white border-neutral-200 hover:border-neutral-300"
                                     }`}
@@ -160,19 +186,28 @@ export default function NewLoanPage() {
                                 <div className="flex items-center justify-between">
                                     <div>
                                         <p className="font-medium">{book.titre}</p>
-                                        <p className={`text-sm ${selectedBook === book.id ? "text-neutral-300" : "text-neutral-500"}`}>
+                                        <p className={`text-sm ${selectedBook?.id === book.id ? "text-neutral-300" : "text-neutral-500"}`}>
                                             {book.auteur}
                                         </p>
                                     </div>
-                                    <span className={`px-2 py-1 text-xs rounded-full ${selectedBook === book.id ? "bg-white text-black" : "bg-green-100 text-green-700"
+                                    <span className={`px-2 py-1 text-xs rounded-full ${selectedBook?.id === book.id
+                                        ? "bg-white text-black"
+                                        : book.quantiteDisponible > 0 ? "bg-green-100 text-green-700" : "bg-red-100 text-red-600"
                                         }`}>
-                                        {book.quantiteDisponible} dispo
+                                        {book.quantiteDisponible > 0 ? `${book.quantiteDisponible} dispo` : "indisponible"}
                                     </span>
                                 </div>
                             </button>
                         ))}
-                        {filteredBooks.length === 0 && (
-                            <p className="text-neutral-400 text-center py-4 text-sm">Aucun livre disponible</p>
+                        {books.length === 0 && (
+                            <p className="text-neutral-400 text-center py-4 text-sm">
+                                {bookQuery ? "Aucun livre trouvé" : "Aucun livre disponible"}
+                            </p>
+                        )}
+                        {books.length < booksTotal && (
+                            <Button variant="ghost" size="sm" onClick={() => setBooksPage(booksPage + 1)} className="w-full">
+                                Afficher plus ({booksTotal - books.length} restants)
+                            </Button>
                         )}
                     </div>
                 </Card>
@@ -201,9 +236,7 @@ export default function NewLoanPage() {
                     <div className="p-4 bg-neutral-50 rounded-lg border border-neutral-200">
                         <p className="text-neutral-500 text-sm mb-1">Livre</p>
                         {selectedBook ? (
-                            <p className="font-medium text-black">
-                                {books.find((b) => b.id === selectedBook)?.titre}
-                            </p>
+                            <p className="font-medium text-black">{selectedBook.titre}</p>
                         ) : (
                             <p className="text-neutral-400">Non sélectionné</p>
                         )}
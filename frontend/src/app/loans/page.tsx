@@ -6,12 +6,17 @@ import { Button } from "@/components/ui/Button";
 import { Card } from "@/components/ui/Card";
 import { Modal } from "@/components/ui/Modal";
 import { Input } from "@/components/ui/Input";
-import { empruntsApi, Emprunt } from "@/lib/api";
+import { empruntsApi, Emprunt, EmpruntStats } from "@/lib/api";
 
 type FilterType = "all" | "EN_COURS" | "RETOURNE" | "EN_RETARD";
 
 export default function LoansPage() {
     const [loans, setLoans] = useState<Emprunt[]>([]);
+    // Pagination par curseur : id du dernier emprunt chargé, null s'il n'y a plus de page
+    const [curseur, setCurseur] = useState<number | null>(null);
+    const [chargementSuite, setChargementSuite] = useState(false);
+    // Compteurs par statut tenus par ms-emprunt : exacts même si toutes les pages ne sont pas chargées
+    const [compteurs, setCompteurs] = useState<EmpruntStats | null>(null);
     const [loading, setLoading] = useState(true);
     const [filter, setFilter] = useState<FilterType>("all");
     const [returning, setReturning] = useState<number | null>(null);
@@ -28,8 +33,10 @@ export default function LoansPage() {
 
     async function fetchLoans() {
         try {
-            const data = await empruntsApi.getAll();
-            setLoans(data);
+            const [page, stats] = await Promise.all([empruntsApi.getPage(), empruntsApi.getStats(0)]);
+            setLoans(page.emprunts);
+            setCurseur(page.curseurSuivant);
+            setCompteurs(stats);
         } catch (error) {
             console.error("Error fetching loans:", error);
         } finally {
@@ -37,11 +44,30 @@ export default function LoansPage() {
         }
     }
 
+    async function chargerSuite() {
+        if (curseur == null) return;
+        setChargementSuite(true);
+        try {
+            const page = await empruntsApi.getPage(curseur);
+            setLoans((courants) => [...courants, ...page.emprunts]);
+            setCurseur(page.curseurSuivant);
+        } catch (error) {
+            console.error("Error fetching loans:", error);
+        } finally {
+            setChargementSuite(false);
+        }
+    }
+
+    // Remplace l'emprunt modifié dans les pages déjà chargées, sans tout recharger
+    function remplacer(emprunt: Emprunt) {
+        setLoans((courants) => courants.map((l) => (l.id === emprunt.id ? emprunt : l)));
+    }
+
     async function handleReturn(id: number) {
         setReturning(id);
         try {
-            await empruntsApi.retourner(id);
-            fetchLoans();
+            remplacer(await empruntsApi.retourner(id));
+            empruntsApi.getStats(0).then(setCompteurs).catch(() => undefined);
         } catch (error) {
             console.error("Error returning book:", error);
         } finally {
@@ -78,13 +104,12 @@ export default function LoansPage() {
             // For simplicity, let's append T00:00:00 for now or rely on existing time if possible. 
             // Backend dateEmprunt is LocalDateTime.
 
-            await empruntsApi.update(editingLoan.id, {
+            remplacer(await empruntsApi.update(editingLoan.id, {
                 dateEmprunt: editDateEmprunt + "T00:00:00",
                 dureePrevueJours: durationDays
-            });
+            }));
 
             setEditingLoan(null);
-            fetchLoans();
         } catch (error) {
             console.error("Error updating loan:", error);
             alert("Erreur lors de la modification");
@@ -99,10 +124,10 @@ export default function LoansPage() {
     });
 
     const stats = {
-        total: loans.length,
-        enCours: loans.filter((l) => l.statut === "EN_COURS").length,
-        retourne: loans.filter((l) => l.statut === "RETOURNE").length,
-        enRetard: loans.filter((l) => l.statut === "EN_RETARD").length,
+        total: compteurs?.total ?? loans.length,
+        enCours: compteurs?.parStatut.EN_COURS ?? loans.filter((l) => l.statut === "EN_COURS").length,
+        retourne: compteurs?.parStatut.RETOURNE ?? loans.filter((l) => l.statut === "RETOURNE").length,
+        enRetard: compteurs?.parStatut.EN_RETARD ?? loans.filter((l) => l.statut === "EN_RETARD").length,
     };
 
     if (loading) {
@@ -247,6 +272,13 @@ export default function LoansPage() {
                         <p className="text-neutral-400">Aucun emprunt trouvé</p>
                     </div>
                 )}
+                {curseur != null && (
+                    <div className="flex justify-center py-4 border-t border-neutral-100">
+                        <Button variant="secondary" size="sm" onClick={chargerSuite} isLoading={chargementSuite}>
+                            Charger plus ({loans.length} / {stats.total})
+                        </Button>
+                    </div>
+                )}
             </Card>
 
 
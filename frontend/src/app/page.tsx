@@ -18,22 +18,23 @@ export default function DashboardPage() {
     useEffect(() => {
         async function fetchData() {
             try {
-                const [users, books, loans, late] = await Promise.all([
-                    usersApi.getAll(),
-                    livresApi.getAll(),
-                    empruntsApi.getAll(),
-                    empruntsApi.getEnRetard(),
+                // Compteurs et 5 derniers emprunts : aucune liste complète n'est chargée
+                const [users, books, loanStats, late] = await Promise.all([
+                    usersApi.count(),
+                    livresApi.count(),
+                    empruntsApi.getStats(5),
+                    empruntsApi.getEnRetard(null, 5),
                 ]);
 
                 setStats({
-                    users: users.length,
-                    books: books.length,
-                    loans: loans.length,
-                    lateLoans: late.length,
+                    users,
+                    books,
+                    loans: loanStats.total,
+                    lateLoans: loanStats.enRetard,
                 });
 
-                setRecentLoans(loans.slice(-5).reverse());
-                setLateLoans(late.slice(0, 5));
+                setRecentLoans(loanStats.recents);
+                setLateLoans(late);
             } catch (error) {
                 console.error("Error fetching dashboard data:", error);
             } finally {
@@ -49,6 +49,89 @@ export interface Emprunt {
     livre?: Livre;
 }
 
+// Page de résultats paginée par curseur (id du dernier emprunt reçu)
+export interface EmpruntPage {
+    emprunts: Emprunt[];
+    curseurSuivant: number | null;
+}
+
+function pageQuery(apres?: number | null, taille?: number): string {
+    const params = new URLSearchParams();
+    if (apres != null) params.set('apres', String(apres));
+    if (taille != null) params.set('taille', String(taille));
+    const query = params.toString();
+    return query ? `?${query}` : '';
+}
+
+// Statistiques du tableau de bord (compteurs tenus à jour par ms-emprunt)
+export interface EmpruntStats {
+    total: number;
+    parStatut: Record<Emprunt['statut'], number>;
+    enRetard: number;
+    recents: Emprunt[];
+}
+
+// Place dans la file d'attente d'un livre sans exemplaire disponible
+export interface Reservation {
+    id: number;
+    utilisateurId: number;
+    livreId: number;
+    statut: 'EN_ATTENTE' | 'DISPONIBLE' | 'HONOREE' | 'EXPIREE' | 'ANNULEE';
+    position: number | null;
+    dateDemande: string;
+    dateMiseADisposition: string | null;
+    dateExpiration: string | null;
+    empruntId: number | null;
+}
+
+// Delta du flux SSE : dernier état des emprunts / livres modifiés depuis l'événement précédent
+export interface Changements {
+    sequence: number;
+    emprunts: Emprunt[];
+    livres: Livre[];
+    // Emprunts EN_COURS dont dateRetourPrevue < retardsAvant : passés EN_RETARD
+    retardsAvant: string | null;
+    // Delta abandonné (client trop lent) : recharger les listes
+    resynchroniser: boolean;
+}
+
+// Ligne du catalogue (GET /api/livre/catalogue)
+export interface LivreListe {
+    id: number;
+    titre: string;
+    auteur: string;
+    categorie: string;
+    isbn: string;
+    quantiteDisponible: number;
+    quantiteTotale: number;
+}
+
+export interface LivrePage {
+    livres: LivreListe[];
+    total: number;
+    page: number;
+    taille: number;
+}
+
+export interface FiltreCatalogue {
+    categorie?: string;
+    disponible?: boolean;
+    auteur?: string;
+    isbn?: string;
+    tri?: 'titre' | 'auteur' | 'categorie' | 'quantiteDisponible' | 'id';
+    ordre?: 'asc' | 'desc';
+    page?: number;
+    taille?: number;
+}
+
+// Page de résultats de la recherche plein texte (classés par pertinence)
+export interface RechercheLivres {
+    livres: Livre[];
+    total: number;
+    page: number;
+    taille: number;
+}
+
 export interface EmpruntInput {
     utilisateurId?: number;
     livreId?: number;
@@ -64,6 +147,12 @@ export const usersApi = {
         return res.json();
     },
 
+    count: async (): Promise<number> => {
+        const res = await fetch(`${API_BASE_URL}/api/users/count`);
+        if (!res.ok) throw new Error('Failed to count users');
+        return res.json();
+    },
+
     getById: async (id: number): Promise<User> => {
         const res = await fetch(`${API_BASE_URL}/api/users/${id}`);
         if (!res.ok) throw new Error('Failed to fetch user');
@@ -110,6 +199,31 @@ export const livresApi = {
         return res.json();
     },
 
+    // Catalogue filtré, trié et paginé côté serveur
+    getCatalogue: async (filtre: FiltreCatalogue = {}, signal?: AbortSignal): Promise<LivrePage> => {
+        const params = new URLSearchParams();
+        Object.entries(filtre).forEach(([cle, valeur]) => {
+            if (valeur != null && valeur !== '') params.set(cle, String(valeur));
+        });
+        const res = await fetch(`${API_BASE_URL}/api/livre/catalogue?${params}`, { signal });
+        if (!res.ok) throw new Error('Failed to fetch catalog');
+        return res.json();
+    },
+
+    // Recherche par titre, auteur ou isbn (sans accents, début de mot accepté)
+    search: async (q: string, page: number = 0, taille: number = 20, signal?: AbortSignal): Promise<RechercheLivres> => {
+        const params = new URLSearchParams({ q, page: String(page), taille: String(taille) });
+        const res = await fetch(`${API_BASE_URL}/api/livre/search?${params}`, { signal });
+        if (!res.ok) throw new Error('Failed to search books');
+        return res.json();
+    },
+
+    count: async (): Promise<number> => {
+        const res = await fetch(`${API_BASE_URL}/api/livre/count`);
+        if (!res.ok) throw new Error('Failed to count books');
+        return res.json();
+    },
+
     getById: async (id: number): Promise<Livre> => {
         const res = await fetch(`${API_BASE_URL}/api/livre/${id}`);
         if (!res.ok) throw new Error('Failed to fetch book');
@@ -146,46 +260,58 @@ export const livresApi = {
 
 // Emprunts API
 export const empruntsApi = {
-    getAll: async (): Promise<Emprunt[]> => {
-        const res = await fetch(`${API_BASE_URL}/api/emprunts`);
+    getPage: async (apres?: number | null, taille?: number): Promise<EmpruntPage> => {
+        const res = await fetch(`${API_BASE_URL}/api/emprunts${pageQuery(apres, taille)}`);
         if (!res.ok) throw new Error('Failed to fetch loans');
         return res.json();
     },
 
+    getStats: async (recents?: number): Promise<EmpruntStats> => {
+        const query = recents != null ? `?recents=${recents}` : '';
+        const res = await fetch(`${API_BASE_URL}/api/emprunts/stats${query}`);
+        if (!res.ok) throw new Error('Failed to fetch loan stats');
+        return res.json();
+    },
+
     getById: async (id: number): Promise<Emprunt> => {
         const res = await fetch(`${API_BASE_URL}/api/emprunts/${id}`);
         if (!res.ok) throw new Error('Failed to fetch loan');
         return res.json();
     },
 
-    getEnCours: async (): Promise<Emprunt[]> => {
-        const res = await fetch(`${API_BASE_URL}/api/emprunts/en-cours`);
+    getEnCours: async (apres?: number | null, taille?: number): Promise<Emprunt[]> => {
+        const res = await fetch(`${API_BASE_URL}/api/emprunts/en-cours${pageQuery(apres, taille)}`);
         if (!res.ok) throw new Error('Failed to fetch active loans');
-        return res.json();
+        const page: EmpruntPage = await res.json();
+        return page.emprunts;
     },
 
-    getEnRetard: async (): Promise<Emprunt[]> => {
-        const res = await fetch(`${API_BASE_URL}/api/emprunts/en-retard`);
+    getEnRetard: async (apres?: number | null, taille?: number): Promise<Emprunt[]> => {
+        const res = await fetch(`${API_BASE_URL}/api/emprunts/en-retard${pageQuery(apres, taille)}`);
         if (!res.ok) throw new Error('Failed to fetch late loans');
-        return res.json();
+        const page: EmpruntPage = await res.json();
+        return page.emprunts;
     },
 
-    getByUserId: async (userId: number): Promise<Emprunt[]> => {
-        const res = await fetch(`${API_BASE_URL}/api/emprunts/user/${userId}`);
+    getByUserId: async (userId: number, apres?: number | null, taille?: number): Promise<Emprunt[]> => {
+        const res = await fetch(`${API_BASE_URL}/api/emprunts/user/${userId}${pageQuery(apres, taille)}`);
         if (!res.ok) throw new Error('Failed to fetch user loans');
-        return res.json();
+        const page: EmpruntPage = await res.json();
+        return page.emprunts;
     },
 
-    getByLivreId: async (livreId: number): Promise<Emprunt[]> => {
-        const res = await fetch(`${API_BASE_URL}/api/emprunts/livre/${livreId}`);
+    getByLivreId: async (livreId: number, apres?: number | null, taille?: number): Promise<Emprunt[]> => {
+        const res = await fetch(`${API_BASE_URL}/api/emprunts/livre/${livreId}${pageQuery(apres, taille)}`);
         if (!res.ok) throw new Error('Failed to fetch book loans');
-        return res.json();
+        const page: EmpruntPage = await res.json();
+        return page.emprunts;
     },
 
-    create: async (emprunt: EmpruntInput): Promise<Emprunt> => {
+    // idempotencyKey : à réutiliser pour renvoyer la même demande (réponse rejouée, pas de second emprunt)
+    create: async (emprunt: EmpruntInput, idempotencyKey: string = crypto.randomUUID()): Promise<Emprunt> => {
         const res = await fetch(`${API_BASE_URL}/api/emprunts`, {
             method: 'POST',
-            headers: { 'Content-Type': 'application/json' },
+            headers: { 'Content-Type': 'application/json', 'Idempotency-Key': idempotencyKey },
             body: JSON.stringify(emprunt),
         });
         if (!res.ok) {
@@ -220,11 +346,98 @@ export const empruntsApi = {
         return res.json();
     },
 
-    retourner: async (id: number): Promise<Emprunt> => {
+    retourner: async (id: number, idempotencyKey: string = crypto.randomUUID()): Promise<Emprunt> => {
         const res = await fetch(`${API_BASE_URL}/api/emprunts/${id}/retourner`, {
             method: 'PUT',
+            headers: { 'Idempotency-Key': idempotencyKey },
         });
         if (!res.ok) throw new Error('Failed to return book');
         return res.json();
     },
 };
+
+export const reservationsApi = {
+    create: async (utilisateurId: number, livreId: number): Promise<Reservation> => {
+        const res = await fetch(`${API_BASE_URL}/api/emprunts/reservations`, {
+            method: 'POST',
+            headers: { 'Content-Type': 'application/json' },
+            body: JSON.stringify({ utilisateurId, livreId }),
+        });
+        if (!res.ok) {
+            const errorText = await res.text();
+            try {
+                const errorJson = JSON.parse(errorText);
+                throw new Error(errorJson.message || 'Failed to reserve book');
+            } catch (e) {
+                throw new Error(errorText || 'Failed to reserve book');
+            }
+        }
+        return res.json();
+    },
+
+    get: async (id: number): Promise<Reservation> => {
+        const res = await fetch(`${API_BASE_URL}/api/emprunts/reservations/${id}`);
+        if (!res.ok) throw new Error('Failed to fetch reservation');
+        return res.json();
+    },
+
+    // Long-poll : répond dès que la réservation change d'état (exemplaire mis de côté...)
+    // ou après `delai` secondes avec l'état inchangé ; à rappeler tant que statut = EN_ATTENTE
+    attendre: async (id: number, delai: number = 30): Promise<Reservation> => {
+        const res = await fetch(`${API_BASE_URL}/api/emprunts/reservations/${id}/attendre?delai=${delai}`);
+        if (!res.ok) throw new Error('Failed to wait for reservation');
+        return res.json();
+    },
+
+    getByUser: async (userId: number): Promise<Reservation[]> => {
+        const res = await fetch(`${API_BASE_URL}/api/emprunts/reservations/user/${userId}`);
+        if (!res.ok) throw new Error('Failed to fetch user reservations');
+        return res.json();
+    },
+
+    annuler: async (id: number): Promise<Reservation> => {
+        const res = await fetch(`${API_BASE_URL}/api/emprunts/reservations/${id}/annuler`, {
+            method: 'PUT',
+        });
+        if (!res.ok) throw new Error('Failed to cancel reservation');
+        return res.json();
+    },
+};
+
+// Flux SSE des changements (EventSource se reconnecte seul)
+export const evenementsApi = {
+    // onConnecte : à l'ouverture et après chaque reconnexion, charger l'état courant ;
+    // onChangements : appliquer le delta (remplacer par id). Retourne la fonction de désabonnement.
+    abonner: (onConnecte: () => void, onChangements: (changements: Changements) => void): (() => void) => {
+        const source = new EventSource(`${API_BASE_URL}/api/emprunts/evenements`);
+        source.addEventListener('connecte', () => onConnecte());
+        source.addEventListener('changements', (event) => {
+            const changements: Changements = JSON.parse((event as MessageEvent).data);
+            if (changements.resynchroniser) {
+                onConnecte();
+            }
+            onChangements(changements);
+        });
+        return () => source.close();
+    },
+};
+
+// Applique un delta SSE à une liste d'emprunts déjà chargée
+export function appliquerChangements(emprunts: Emprunt[], changements: Changements): Emprunt[] {
+    const modifies = new Map(changements.emprunts.map((e) => [e.id, e]));
+    const livres = new Map(changements.livres.map((l) => [l.id, l]));
+    const resultat = emprunts.map((e) => {
+        let emprunt = modifies.get(e.id) ?? e;
+        modifies.delete(e.id);
+        if (changements.retardsAvant && emprunt.statut === 'EN_COURS'
+                && emprunt.dateRetourPrevue < changements.retardsAvant) {
+            emprunt = { ...emprunt, statut: 'EN_RETARD' };
+        }
+        if (emprunt.livre && livres.has(emprunt.livreId)) {
+            emprunt = { ...emprunt, livre: livres.get(emprunt.livreId) };
+        }
+        return emprunt;
+    });
+    // Nouveaux emprunts en tête (liste triée par id décroissant)
+    return [...Array.from(modifies.values()), ...resultat];
+}
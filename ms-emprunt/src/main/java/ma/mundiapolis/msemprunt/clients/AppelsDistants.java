@@ -0,0 +1,94 @@
+package ma.mundiapolis.msemprunt.clients;
+
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Lance en parallèle des appels indépendants vers les autres microservices
+ * et les attend avec un délai global unique.
+ * <p>
+ * Le thread appelant n'attend jamais au-delà de ce délai, mais un appel abandonné n'est pas
+ * interrompu : il se termine dans le pool, au plus tard au read-timeout Feign. Le pool est borné
+ * et refuse les appels quand il est plein : l'appelant reçoit alors une 503 sans attendre.
+ */
+@Component
+public class AppelsDistants {
+
+    private final Executor executor;
+    private final EmpruntProperties properties;
+
+    public AppelsDistants(@Qualifier("remoteCallExecutor") Executor executor, EmpruntProperties properties) {
+        this.executor = executor;
+        this.properties = properties;
+    }
+
+    // Pool saturé : future en échec (503), relancée par attendre() comme l'échec d'un appel
+    public <T> CompletableFuture<T> lancer(Supplier<T> appel) {
+        try {
+            return CompletableFuture.supplyAsync(appel, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Trop d'appels en attente vers les services distants"));
+        }
+    }
+
+    /**
+     * Attend la fin de tous les appels dans la limite du délai global.
+     * En cas d'échec d'un appel, les autres sont abandonnés (leurs étapes dépendantes ne
+     * s'exécuteront pas) et l'exception d'origine est relancée.
+     */
+    public void attendre(CompletableFuture<?>... appels) {
+        CompletableFuture<Void> tous = CompletableFuture.allOf(appels);
+        try {
+            tous.get(properties.getRemote().getDelaiGlobalMs(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            annuler(appels);
+            throw new IllegalStateException("Les services distants n'ont pas répondu dans le délai imparti");
+        } catch (InterruptedException e) {
+            annuler(appels);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Appel distant interrompu");
+        } catch (ExecutionException e) {
+            annuler(appels);
+            throw relancer(e.getCause());
+        }
+    }
+
+    public <T> T resultat(CompletableFuture<T> appel) {
+        // À appeler après attendre() : le résultat est déjà disponible
+        try {
+            return appel.join();
+        } catch (CompletionException e) {
+            throw relancer(e.getCause());
+        }
+    }
+
+    // N'interrompt pas un appel HTTP en cours : la future passe seulement à l'état annulé
+    private void annuler(CompletableFuture<?>... appels) {
+        for (CompletableFuture<?> appel : appels) {
+            appel.cancel(true);
+        }
+    }
+
+    private RuntimeException relancer(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        return new IllegalStateException(cause);
+    }
+}
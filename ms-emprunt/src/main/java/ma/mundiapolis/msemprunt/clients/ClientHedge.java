@@ -0,0 +1,258 @@
+package ma.mundiapolis.msemprunt.clients;
+
+import feign.Client;
+import feign.MethodMetadata;
+import feign.Request;
+import feign.Response;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Doublement (hedging) et reprises des lectures marquées @LectureIdempotente.
+ * <p>
+ * Si la réponse n'est pas arrivée au bout du p95 observé pour cette méthode, une seconde
+ * requête identique part ; le load balancer (round robin) l'envoie à l'instance suivante
+ * et la première réponse reçue est retenue. Les doublements sont limités par un budget :
+ * au plus tauxMax des requêtes. Les erreurs réseau et réponses 500 / 502 / 504 sont
+ * reprises avec une attente exponentielle aléatoire. Les autres méthodes (emprunter,
+ * retourner...) passent directement, sans doublement ni reprise.
+ * <p>
+ * Métriques : emprunt.lectures (latence par service / méthode, p50 / p95 / p99),
+ * emprunt.hedging (requete, double, gagne_par_double, budget_epuise), emprunt.lectures.reprises.
+ */
+public class ClientHedge implements Client {
+
+    // Budget en millièmes de requête doublée ; plafond = rafale maximale de doublements
+    private static final long COUT_DOUBLEMENT = 1000;
+    private static final long PLAFOND_BUDGET = 10 * COUT_DOUBLEMENT;
+
+    private final Client delegue;
+    private final Executor executor;
+    private final EmpruntProperties.Hedging config;
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicLong budget = new AtomicLong(PLAFOND_BUDGET);
+    private final Map<String, Timer> latences = new ConcurrentHashMap<>();
+
+    public ClientHedge(Client delegue,
+                       Executor executor,
+                       EmpruntProperties.Hedging config,
+                       MeterRegistry meterRegistry) {
+        this.delegue = delegue;
+        this.executor = executor;
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Response execute(Request request, Request.Options options) throws IOException {
+        MethodMetadata methode = request.requestTemplate().methodMetadata();
+        if (!config.isActif()
+                || request.httpMethod() != Request.HttpMethod.GET
+                || methode == null
+                || !methode.method().isAnnotationPresent(LectureIdempotente.class)) {
+            return delegue.execute(request, options);
+        }
+
+        String service = request.requestTemplate().feignTarget().name();
+        Timer latence = latence(service, methode.configKey());
+        compteur(service, "requete").increment();
+        crediterBudget();
+
+        CompletableFuture<Response> primaire;
+        try {
+            primaire = lancer(() -> avecReprises(service, request, options, latence));
+        } catch (RejectedExecutionException e) {
+            // Pool des doublements plein : appel direct, sans doublement
+            try {
+                return avecReprises(service, request, options, latence);
+            } catch (InterruptedException interruption) {
+                throw echec(interruption);
+            }
+        }
+
+        try {
+            return primaire.get(delaiDoublement(latence).toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Pas de réponse au p95 : doublement si le budget le permet
+        } catch (ExecutionException | InterruptedException e) {
+            throw echec(e);
+        }
+
+        if (!consommerBudget()) {
+            compteur(service, "budget_epuise").increment();
+            return resultat(primaire);
+        }
+        CompletableFuture<Response> secours;
+        try {
+            secours = lancer(() -> mesurer(request, options, latence));
+        } catch (RejectedExecutionException e) {
+            return resultat(primaire);
+        }
+        compteur(service, "double").increment();
+
+        Response reponse = resultat(premierSucces(primaire, secours));
+        if (reponse == secours.getNow(null)) {
+            compteur(service, "gagne_par_double").increment();
+        }
+        return reponse;
+    }
+
+    private interface Appel {
+        Response executer() throws IOException, InterruptedException;
+    }
+
+    private CompletableFuture<Response> lancer(Appel appel) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(appel.executer());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    // Première réponse reçue ; l'autre, si elle arrive, est fermée (connexion libérée).
+    // Si les deux échouent, la dernière erreur est propagée.
+    private static CompletableFuture<Response> premierSucces(CompletableFuture<Response> a,
+                                                             CompletableFuture<Response> b) {
+        CompletableFuture<Response> gagnant = new CompletableFuture<>();
+        AtomicInteger echecs = new AtomicInteger();
+        for (CompletableFuture<Response> candidat : new CompletableFuture[]{a, b}) {
+            candidat.whenComplete((reponse, erreur) -> {
+                if (erreur == null) {
+                    if (!gagnant.complete(reponse)) {
+                        reponse.close();
+                    }
+                } else if (echecs.incrementAndGet() == 2) {
+                    gagnant.completeExceptionally(erreur);
+                }
+            });
+        }
+        return gagnant;
+    }
+
+    private Response avecReprises(String service, Request request, Request.Options options, Timer latence)
+            throws IOException, InterruptedException {
+        for (int tentative = 0; ; tentative++) {
+            try {
+                Response reponse = mesurer(request, options, latence);
+                if (!aReprendre(reponse.status()) || tentative >= config.getReprisesMax()) {
+                    return reponse;
+                }
+                reponse.close();
+            } catch (IOException e) {
+                if (tentative >= config.getReprisesMax()) {
+                    throw e;
+                }
+            }
+            meterRegistry.counter("emprunt.lectures.reprises", "service", service).increment();
+            Thread.sleep(attente(tentative));
+        }
+    }
+
+    private Response mesurer(Request request, Request.Options options, Timer latence) throws IOException {
+        long debut = System.nanoTime();
+        try {
+            return delegue.execute(request, options);
+        } finally {
+            latence.record(System.nanoTime() - debut, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // 503 exclu : refus du bulkhead / circuit breaker, ou service surchargé
+    private static boolean aReprendre(int statut) {
+        return statut == 500 || statut == 502 || statut == 504;
+    }
+
+    // Attente exponentielle bornée, tirée au hasard entre 0 et le plafond (full jitter)
+    private long attente(int tentative) {
+        long plafond = Math.min(config.getRepriseMax().toMillis(),
+                config.getRepriseBase().toMillis() << Math.min(tentative, 20));
+        return ThreadLocalRandom.current().nextLong(plafond + 1);
+    }
+
+    private Duration delaiDoublement(Timer latence) {
+        if (latence.count() < config.getEchantillonMin()) {
+            return config.getDelaiDefaut();
+        }
+        for (ValueAtPercentile valeur : latence.takeSnapshot().percentileValues()) {
+            if (valeur.percentile() == 0.95) {
+                Duration p95 = Duration.ofNanos((long) valeur.value(TimeUnit.NANOSECONDS));
+                return p95.compareTo(config.getDelaiMin()) < 0 ? config.getDelaiMin() : p95;
+            }
+        }
+        return config.getDelaiDefaut();
+    }
+
+    private void crediterBudget() {
+        long credit = Math.round(config.getTauxMax() * COUT_DOUBLEMENT);
+        budget.updateAndGet(jetons -> Math.min(PLAFOND_BUDGET, jetons + credit));
+    }
+
+    private boolean consommerBudget() {
+        long jetons;
+        do {
+            jetons = budget.get();
+            if (jetons < COUT_DOUBLEMENT) {
+                return false;
+            }
+        } while (!budget.compareAndSet(jetons, jetons - COUT_DOUBLEMENT));
+        return true;
+    }
+
+    private Timer latence(String service, String methode) {
+        return latences.computeIfAbsent(service + " " + methode, cle -> Timer.builder("emprunt.lectures")
+                .description("Latence des lectures idempotentes vers les autres microservices")
+                .tags("service", service, "methode", methode)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .distributionStatisticExpiry(Duration.ofMinutes(1))
+                .register(meterRegistry));
+    }
+
+    private Counter compteur(String service, String evenement) {
+        return meterRegistry.counter("emprunt.hedging", "service", service, "evenement", evenement);
+    }
+
+    private static Response resultat(CompletableFuture<Response> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException | InterruptedException e) {
+            throw echec(e);
+        }
+    }
+
+    private static IOException echec(Exception e) {
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            return new IOException("Lecture interrompue", e);
+        }
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException io) {
+            return io;
+        }
+        if (cause instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        return new IOException(cause);
+    }
+}
@@ -0,0 +1,83 @@
+package ma.mundiapolis.msemprunt.clients;
+
+import feign.Client;
+import feign.Request;
+import feign.Response;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client HTTP Feign protégé par un bulkhead et un circuit breaker par service distant
+ * (nom du @FeignClient : ms-users, ms-livre).
+ * <p>
+ * Un appel refusé (trop d'appels simultanés, ou circuit ouvert) ne part pas sur le réseau :
+ * il reçoit aussitôt une réponse 503, que Feign transforme en FeignException.ServiceUnavailable.
+ * Les appelants gardent donc leur gestion habituelle des FeignException.
+ * Les erreurs réseau et les réponses 5xx comptent comme des échecs ; les 4xx (404 compris)
+ * sont des réponses métier normales.
+ */
+public class ClientProtege implements Client {
+
+    private final Client delegue;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final BulkheadRegistry bulkheadRegistry;
+
+    public ClientProtege(Client delegue,
+                         CircuitBreakerRegistry circuitBreakerRegistry,
+                         BulkheadRegistry bulkheadRegistry) {
+        this.delegue = delegue;
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+        this.bulkheadRegistry = bulkheadRegistry;
+    }
+
+    @Override
+    public Response execute(Request request, Request.Options options) throws IOException {
+        String service = request.requestTemplate().feignTarget().name();
+        Bulkhead bulkhead = bulkheadRegistry.bulkhead(service);
+        CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker(service);
+
+        if (!bulkhead.tryAcquirePermission()) {
+            return refus(request, "Trop d'appels simultanés vers " + service);
+        }
+        try {
+            if (!circuitBreaker.tryAcquirePermission()) {
+                return refus(request, "Circuit ouvert vers " + service);
+            }
+            long debut = System.nanoTime();
+            Response response;
+            try {
+                response = delegue.execute(request, options);
+            } catch (IOException | RuntimeException e) {
+                circuitBreaker.onError(System.nanoTime() - debut, TimeUnit.NANOSECONDS, e);
+                throw e;
+            }
+            long duree = System.nanoTime() - debut;
+            if (response.status() >= 500) {
+                circuitBreaker.onError(duree, TimeUnit.NANOSECONDS,
+                        new IOException(service + " a répondu " + response.status()));
+            } else {
+                circuitBreaker.onSuccess(duree, TimeUnit.NANOSECONDS);
+            }
+            return response;
+        } finally {
+            bulkhead.onComplete();
+        }
+    }
+
+    private static Response refus(Request request, String motif) {
+        return Response.builder()
+                .request(request)
+                .status(503)
+                .reason(motif)
+                .headers(Map.of())
+                .body(motif, StandardCharsets.UTF_8)
+                .build();
+    }
+}
@@ -0,0 +1,18 @@
+package ma.mundiapolis.msemprunt.clients;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marque une méthode GET d'un client Feign comme lecture idempotente : elle peut être
+ * doublée (hedging) ou rejouée (reprises) par ClientHedge. À ne jamais poser sur une
+ * méthode qui modifie le stock ou un autre état distant.
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface LectureIdempotente {
+}
@@ -1,20 +1,46 @@
 package ma.mundiapolis.msemprunt.clients;
 
 import ma.mundiapolis.msemprunt.dto.LivreDto;
+import ma.mundiapolis.msemprunt.dto.MouvementStockDto;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 @FeignClient(name = "ms-livre")
 public interface LivreClient {
 
+    @LectureIdempotente
     @GetMapping("/api/livre/{id}")
     LivreDto getLivreById(@PathVariable Long id);
 
+    // Un seul appel pour tout un lot de livres (les ids inconnus sont absents de la map)
+    @PostMapping("/api/livre/bulk")
+    Map<Long, LivreDto> getLivresByIds(@RequestBody Collection<Long> ids);
+
+    // Idempotency-Key facultative (null : en-tête absent)
     @PutMapping("/api/livre/{id}/emprunter")
-    LivreDto emprunterLivre(@PathVariable Long id);
+    LivreDto emprunterLivre(@PathVariable Long id,
+                            @RequestHeader(name = "Idempotency-Key", required = false) String cleIdempotence);
 
     @PutMapping("/api/livre/{id}/retourner")
-    LivreDto retournerLivre(@PathVariable Long id);
-}
\ No newline at end of file
+    LivreDto retournerLivre(@PathVariable Long id,
+                            @RequestHeader(name = "Idempotency-Key", required = false) String cleIdempotence);
+
+    // Mouvements groupés : livreId -> nombre d'exemplaires (un seul appel pour tout un lot),
+    // Idempotency-Key propre au lot : un lot rejoué avec sa clé n'est appliqué qu'une fois
+    @PutMapping("/api/livre/batch/emprunter")
+    List<MouvementStockDto> emprunterLot(@RequestBody Map<Long, Integer> quantites,
+                                         @RequestHeader(name = "Idempotency-Key", required = false) String cleIdempotence);
+
+    @PutMapping("/api/livre/batch/retourner")
+    List<MouvementStockDto> retournerLot(@RequestBody Map<Long, Integer> quantites,
+                                         @RequestHeader(name = "Idempotency-Key", required = false) String cleIdempotence);
+}
@@ -4,10 +4,20 @@ import ma.mundiapolis.msemprunt.dto.UserDto;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+
+import java.util.Collection;
+import java.util.Map;
 
 @FeignClient(name = "ms-users")
 public interface UserClient {
 
+    @LectureIdempotente
     @GetMapping("/api/users/{id}")
     UserDto getUserById(@PathVariable Long id);
-}
\ No newline at end of file
+
+    // Un seul appel pour tout un lot d'utilisateurs (les ids inconnus sont absents de la map)
+    @PostMapping("/api/users/bulk")
+    Map<Long, UserDto> getUsersByIds(@RequestBody Collection<Long> ids);
+}
@@ -0,0 +1,166 @@
+package ma.mundiapolis.msemprunt.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Paramètres de ms-emprunt (préfixe "emprunt" dans application.yml)
+ */
+@Data
+@ConfigurationProperties(prefix = "emprunt")
+public class EmpruntProperties {
+
+    // Nombre maximal d'emprunts EN_COURS simultanés par utilisateur
+    private int maxEmpruntsActifs = 3;
+
+    private Remote remote = new Remote();
+    private Cache cache = new Cache();
+    private Pagination pagination = new Pagination();
+    private Retard retard = new Retard();
+    private Outbox outbox = new Outbox();
+    private Lot lot = new Lot();
+    private Analyse analyse = new Analyse();
+    private Hedging hedging = new Hedging();
+    private Transport transport = new Transport();
+    private Idempotence idempotence = new Idempotence();
+    private Reservation reservation = new Reservation();
+    private Flux flux = new Flux();
+    private Export export = new Export();
+    private Compteurs compteurs = new Compteurs();
+
+    @Data
+    public static class Remote {
+        // Délai global accordé à l'ensemble des appels parallèles d'une requête
+        private long delaiGlobalMs = 4000;
+        // Taille du pool de threads dédié aux appels Feign
+        private int poolCore = 16;
+        private int poolMax = 64;
+        private int fileAttente = 500;
+    }
+
+    @Data
+    public static class Cache {
+        // Nombre maximal d'entrées par cache (utilisateurs, livres)
+        private long tailleMax = 10000;
+        // Durée de vie d'une entrée après son chargement
+        private Duration ttl = Duration.ofMinutes(5);
+        // Durée de conservation de la dernière valeur connue, servie quand le service ne répond pas
+        private Duration ttlSecours = Duration.ofHours(1);
+    }
+
+    @Data
+    public static class Pagination {
+        private int tailleDefaut = 50;
+        // Borne haute du paramètre "taille" des listes paginées
+        private int tailleMax = 500;
+        // Nombre d'emprunts lus et enrichis à la fois en mode flux (NDJSON)
+        private int tailleLotFlux = 500;
+    }
+
+    @Data
+    public static class Retard {
+        // Nombre maximal de lignes modifiées par UPDATE (une transaction par lot)
+        private int tailleLot = 5000;
+        // Délai maximal entre deux vérifications, même sans échéance connue
+        private Duration intervalleMax = Duration.ofHours(1);
+    }
+
+    @Data
+    public static class Outbox {
+        // Nombre maximal d'envois pour une opération de stock avant abandon
+        private int maxTentatives = 10;
+        private Duration delaiInitial = Duration.ofSeconds(2);
+        private Duration delaiMax = Duration.ofMinutes(10);
+        // Opérations reprises à chaque passage du dispatcher
+        private int tailleLot = 100;
+    }
+
+    @Data
+    public static class Lot {
+        // Nombre maximal d'éléments par emprunt / retour groupé
+        private int tailleMax = 100;
+    }
+
+    @Data
+    public static class Analyse {
+        // Nombre de livres suivis par le résumé top-K de chaque fenêtre (Space-Saving)
+        private int capacite = 1000;
+        // Borne haute du paramètre "k" de /stats/top-livres
+        private int topMax = 100;
+        // Emprunts lus à la fois par la reconstruction depuis l'historique
+        private int tailleLot = 5000;
+    }
+
+    @Data
+    public static class Hedging {
+        // Doublement des lectures @LectureIdempotente (à activer explicitement)
+        private boolean actif = false;
+        // Délai avant la requête de secours tant que le p95 observé n'est pas significatif
+        private Duration delaiDefaut = Duration.ofMillis(150);
+        private Duration delaiMin = Duration.ofMillis(20);
+        // Nombre d'appels observés avant d'utiliser le p95 mesuré
+        private int echantillonMin = 50;
+        // Part maximale de requêtes doublées (budget de charge supplémentaire)
+        private double tauxMax = 0.1;
+        // Reprises des lectures en erreur réseau / 5xx, avec attente exponentielle aléatoire
+        private int reprisesMax = 2;
+        private Duration repriseBase = Duration.ofMillis(50);
+        private Duration repriseMax = Duration.ofMillis(500);
+        // Threads des requêtes doublées (pool plein : pas de doublement)
+        private int pool = 32;
+    }
+
+    @Data
+    public static class Transport {
+        // Réponses Smile (binaire) demandées à ms-users / ms-livre, JSON sinon
+        private boolean binaire = true;
+    }
+
+    @Data
+    public static class Idempotence {
+        // Durée de conservation des réponses rejouables (Idempotency-Key)
+        private Duration retention = Duration.ofHours(24);
+        // Au-delà, une requête restée en cours est considérée abandonnée et peut être reprise
+        private Duration verrouMax = Duration.ofSeconds(30);
+        private int tailleLotPurge = 1000;
+    }
+
+    @Data
+    public static class Reservation {
+        // Délai laissé pour emprunter un exemplaire mis de côté avant qu'il passe au suivant
+        private Duration dureeMiseADisposition = Duration.ofHours(48);
+        // Durée maximale d'un long-poll GET /reservations/{id}/attendre
+        private Duration attenteMax = Duration.ofSeconds(60);
+        private int maxParUtilisateur = 5;
+        // Mises à disposition échues traitées par passage du job d'expiration
+        private int tailleLot = 100;
+    }
+
+    @Data
+    public static class Flux {
+        // Abonnés simultanés au flux SSE ; au-delà, 503
+        private int abonnesMax = 5000;
+        // Durée d'une connexion SSE ; le client se reconnecte ensuite (EventSource)
+        private Duration dureeMax = Duration.ofMinutes(30);
+        // Délai de reconnexion suggéré au client
+        private Duration reconnexion = Duration.ofSeconds(3);
+        private Duration pulsation = Duration.ofSeconds(30);
+        // Éléments en attente pour un abonné lent avant de lui demander de tout recharger
+        private int deltaMax = 1000;
+        private int pool = 8;
+    }
+
+    @Data
+    public static class Export {
+        // Lignes ramenées par paquet du curseur MySQL pendant un export
+        private int tailleFetch = 1000;
+    }
+
+    @Data
+    public static class Compteurs {
+        // Lignes par statut : chaque incrément en verrouille une au hasard, la lecture les additionne
+        private int tranches = 16;
+    }
+}
@@ -0,0 +1,23 @@
+package ma.mundiapolis.msemprunt.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class FluxConfig {
+
+    // Envois SSE : un envoi bloqué sur un client lent n'occupe qu'un thread de ce pool.
+    // Pool et file pleins : l'envoi est rejeté et le delta attend le tick suivant
+    @Bean(name = "fluxExecutor")
+    public ThreadPoolTaskExecutor fluxExecutor(EmpruntProperties properties) {
+        EmpruntProperties.Flux flux = properties.getFlux();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(flux.getPool());
+        executor.setMaxPoolSize(flux.getPool());
+        executor.setQueueCapacity(flux.getAbonnesMax());
+        executor.setThreadNamePrefix("flux-");
+        executor.initialize();
+        return executor;
+    }
+}
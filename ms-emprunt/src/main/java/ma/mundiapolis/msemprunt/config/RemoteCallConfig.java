@@ -0,0 +1,30 @@
+package ma.mundiapolis.msemprunt.config;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+@EnableConfigurationProperties(EmpruntProperties.class)
+public class RemoteCallConfig {
+
+    // Pool dédié aux appels vers ms-users / ms-livre, séparé du pool Tomcat :
+    // un service lent sature ce pool borné au lieu de bloquer les threads HTTP
+    @Bean(name = "remoteCallExecutor")
+    public ThreadPoolTaskExecutor remoteCallExecutor(EmpruntProperties properties) {
+        EmpruntProperties.Remote remote = properties.getRemote();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(remote.getPoolCore());
+        executor.setMaxPoolSize(remote.getPoolMax());
+        executor.setQueueCapacity(remote.getFileAttente());
+        executor.setThreadNamePrefix("remote-");
+        // Pool et file pleins : refus immédiat (503 via AppelsDistants) plutôt que d'exécuter
+        // l'appel dans le thread Tomcat, hors du délai global
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,75 @@
+package ma.mundiapolis.msemprunt.config;
+
+import feign.Capability;
+import feign.Client;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import ma.mundiapolis.msemprunt.clients.ClientHedge;
+import ma.mundiapolis.msemprunt.clients.ClientProtege;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Applique ClientHedge puis ClientProtege à tous les clients Feign (UserClient, LivreClient) :
+ * chaque tentative ou requête doublée passe par le bulkhead et le circuit breaker.
+ * Réglages par service sous resilience4j.circuitbreaker / resilience4j.bulkhead,
+ * états et compteurs publiés dans /actuator/metrics (resilience4j.circuitbreaker.*).
+ */
+@Configuration
+public class ResilienceConfig {
+
+    @Bean
+    public Capability clientProtegeCapability(CircuitBreakerRegistry circuitBreakerRegistry,
+                                              BulkheadRegistry bulkheadRegistry,
+                                              @Qualifier("hedgingExecutor") Executor hedgingExecutor,
+                                              EmpruntProperties properties,
+                                              MeterRegistry meterRegistry) {
+        return new ClientsResilients(circuitBreakerRegistry, bulkheadRegistry, hedgingExecutor,
+                properties.getHedging(), meterRegistry);
+    }
+
+    // Classe publique : Feign appelle enrich() par réflexion, ce qu'il ne peut pas faire sur une classe anonyme
+    public static class ClientsResilients implements Capability {
+
+        private final CircuitBreakerRegistry circuitBreakerRegistry;
+        private final BulkheadRegistry bulkheadRegistry;
+        private final Executor hedgingExecutor;
+        private final EmpruntProperties.Hedging hedging;
+        private final MeterRegistry meterRegistry;
+
+        public ClientsResilients(CircuitBreakerRegistry circuitBreakerRegistry,
+                                 BulkheadRegistry bulkheadRegistry,
+                                 Executor hedgingExecutor,
+                                 EmpruntProperties.Hedging hedging,
+                                 MeterRegistry meterRegistry) {
+            this.circuitBreakerRegistry = circuitBreakerRegistry;
+            this.bulkheadRegistry = bulkheadRegistry;
+            this.hedgingExecutor = hedgingExecutor;
+            this.hedging = hedging;
+            this.meterRegistry = meterRegistry;
+        }
+
+        @Override
+        public Client enrich(Client client) {
+            return new ClientHedge(new ClientProtege(client, circuitBreakerRegistry, bulkheadRegistry),
+                    hedgingExecutor, hedging, meterRegistry);
+        }
+    }
+
+    // Requêtes doublées : pas de file d'attente, un pool plein signifie "pas de doublement"
+    @Bean(name = "hedgingExecutor")
+    public ThreadPoolTaskExecutor hedgingExecutor(EmpruntProperties properties) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(properties.getHedging().getPool());
+        executor.setMaxPoolSize(properties.getHedging().getPool());
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("hedging-");
+        executor.initialize();
+        return executor;
+    }
+}
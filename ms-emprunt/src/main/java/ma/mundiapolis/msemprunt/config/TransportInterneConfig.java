@@ -0,0 +1,58 @@
+package ma.mundiapolis.msemprunt.config;
+
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import feign.RequestInterceptor;
+import feign.codec.Decoder;
+import feign.optionals.OptionalDecoder;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.cloud.openfeign.support.ResponseEntityDecoder;
+import org.springframework.cloud.openfeign.support.SpringDecoder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.util.function.SingletonSupplier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Réponses binaires (Smile) pour les appels Feign vers ms-users / ms-livre.
+ * <p>
+ * Les clients demandent Smile en priorité et JSON en repli : une instance qui ne connaît pas
+ * Smile répond en JSON, décodé comme avant. Les corps de requête (listes d'ids, quantités)
+ * restent en JSON. L'API REST publique n'est pas concernée : sans cet en-tête, JSON reste le défaut.
+ */
+@Configuration
+public class TransportInterneConfig {
+
+    static final String ACCEPT_INTERNE = "application/x-jackson-smile, application/json;q=0.5";
+
+    // Décodeur des seuls clients Feign (le MVC de ms-emprunt reste en JSON) : convertisseurs de
+    // l'application plus Smile. La liste de HttpMessageConverters n'est pas modifiable, elle est
+    // donc recopiée une fois, au premier appel.
+    @Bean
+    public Decoder feignDecoder(ObjectFactory<HttpMessageConverters> messageConverters,
+                                Jackson2ObjectMapperBuilder objectMapperBuilder) {
+        SingletonSupplier<HttpMessageConverters> avecSmile = SingletonSupplier.of(() -> {
+            List<HttpMessageConverter<?>> convertisseurs = new ArrayList<>(messageConverters.getObject().getConverters());
+            convertisseurs.add(new MappingJackson2SmileHttpMessageConverter(
+                    objectMapperBuilder.factory(new SmileFactory()).build()));
+            return new HttpMessageConverters(false, convertisseurs);
+        });
+        return new OptionalDecoder(new ResponseEntityDecoder(new SpringDecoder(avecSmile::obtain)));
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "emprunt.transport", name = "binaire", havingValue = "true", matchIfMissing = true)
+    public RequestInterceptor acceptSmileInterceptor() {
+        return template -> {
+            template.removeHeader(HttpHeaders.ACCEPT);
+            template.header(HttpHeaders.ACCEPT, ACCEPT_INTERNE);
+        };
+    }
+}
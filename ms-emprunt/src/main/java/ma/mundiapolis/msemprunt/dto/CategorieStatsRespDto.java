@@ -0,0 +1,16 @@
+package ma.mundiapolis.msemprunt.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class CategorieStatsRespDto {
+
+    private String categorie;
+    private long nombre;
+}
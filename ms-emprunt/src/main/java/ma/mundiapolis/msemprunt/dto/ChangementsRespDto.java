@@ -0,0 +1,29 @@
+package ma.mundiapolis.msemprunt.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Delta envoyé sur le flux SSE : dernier état connu de chaque emprunt / livre modifié
+ * depuis l'envoi précédent (un seul élément par id).
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ChangementsRespDto {
+
+    // Numéro du dernier lot de changements inclus (id de l'événement SSE)
+    private long sequence;
+    private List<EmpruntRespDto> emprunts;
+    private List<LivreDto> livres;
+    // Si renseigné : les emprunts EN_COURS dont la date de retour prévue précède cette date sont EN_RETARD
+    private LocalDateTime retardsAvant;
+    // Trop de changements non envoyés (client lent) : le delta est abandonné, recharger les listes
+    private boolean resynchroniser;
+}
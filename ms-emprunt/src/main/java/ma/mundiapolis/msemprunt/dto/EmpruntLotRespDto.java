@@ -0,0 +1,25 @@
+package ma.mundiapolis.msemprunt.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Résultat d'un élément d'une opération par lot (emprunt ou retour).
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class EmpruntLotRespDto {
+
+    // Position de l'élément dans la requête
+    private int index;
+    private boolean succes;
+    // Motif de l'échec (null en cas de succès)
+    private String erreur;
+
+    // Emprunt créé ou retourné (null en cas d'échec)
+    private EmpruntRespDto emprunt;
+}
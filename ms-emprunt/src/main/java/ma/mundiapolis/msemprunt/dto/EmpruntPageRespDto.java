@@ -0,0 +1,21 @@
+package ma.mundiapolis.msemprunt.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class EmpruntPageRespDto {
+
+    private List<EmpruntRespDto> emprunts;
+
+    // Id du dernier emprunt de la page, à passer en paramètre "apres" pour la page suivante
+    // (null quand il n'y a plus rien à lire)
+    private Long curseurSuivant;
+}
@@ -25,4 +25,8 @@ public class EmpruntRespDto {
     // Informations enrichies depuis les autres microservices
     private UserDto utilisateur;
     private LivreDto livre;
+
+    // true si ms-users ou ms-livre n'a pas répondu : utilisateur / livre viennent alors
+    // du cache de secours ou de la copie stockée sur l'emprunt, et peuvent manquer ou dater
+    private boolean degrade;
 }
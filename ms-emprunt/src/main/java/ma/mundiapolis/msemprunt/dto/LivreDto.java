@@ -19,4 +19,7 @@ public class LivreDto {
     private Integer quantiteTotale;
     private Integer quantiteDisponible;
     private Integer quantiteEmpruntee;
+
+    // Version de l'entité dans son service (null si le service ne la fournit pas)
+    private Long version;
 }
@@ -0,0 +1,19 @@
+package ma.mundiapolis.msemprunt.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Résultat d'un mouvement de stock groupé renvoyé par ms-livre
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class MouvementStockDto {
+
+    private Long livreId;
+    private Integer demande;
+    private Integer accorde;
+    private LivreDto livre;
+}
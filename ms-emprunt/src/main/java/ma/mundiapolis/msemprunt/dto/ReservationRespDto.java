@@ -0,0 +1,28 @@
+package ma.mundiapolis.msemprunt.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ma.mundiapolis.msemprunt.enums.StatutReservation;
+
+import java.time.LocalDateTime;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ReservationRespDto {
+
+    private Long id;
+    private Long utilisateurId;
+    private Long livreId;
+    private StatutReservation statut;
+    // Rang dans la file (1 = prochain servi), uniquement EN_ATTENTE
+    private Long position;
+    private LocalDateTime dateDemande;
+    private LocalDateTime dateMiseADisposition;
+    // Date limite pour emprunter l'exemplaire mis de côté (DISPONIBLE)
+    private LocalDateTime dateExpiration;
+    private Long empruntId;
+}
@@ -0,0 +1,24 @@
+package ma.mundiapolis.msemprunt.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ma.mundiapolis.msemprunt.enums.StatutEmprunt;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class StatistiquesEmpruntRespDto {
+
+    private long total;
+    private Map<StatutEmprunt, Long> parStatut;
+    private long enRetard;
+
+    // Derniers emprunts créés, du plus récent au plus ancien
+    private List<EmpruntRespDto> recents;
+}
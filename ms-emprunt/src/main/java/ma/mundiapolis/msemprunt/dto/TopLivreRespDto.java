@@ -0,0 +1,20 @@
+package ma.mundiapolis.msemprunt.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class TopLivreRespDto {
+
+    private Long livreId;
+    private LivreDto livre;
+
+    // Nombre d'emprunts sur la fenêtre (peut être surestimé d'au plus "erreur")
+    private long nombre;
+    private long erreur;
+}
@@ -17,4 +17,7 @@ public class UserDto {
     private String email;
     private String adresse;
     private String tel;
+
+    // Version de l'entité dans son service (null si le service ne la fournit pas)
+    private Long version;
 }
@@ -0,0 +1,38 @@
+package ma.mundiapolis.msemprunt.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ma.mundiapolis.msemprunt.enums.StatutEmprunt;
+
+/**
+ * Une tranche du nombre d'emprunts d'un statut, tenue à jour dans les mêmes transactions que
+ * les emprunts (création, retour, passage en retard). Le compteur d'un statut est la somme de
+ * ses tranches : des transactions concurrentes ne se disputent pas une seule ligne.
+ * Les statistiques se lisent sans parcourir la table emprunt.
+ */
+@Entity
+// Remplace l'ancienne table à une ligne par statut, réinitialisée au démarrage depuis la table emprunt
+@Table(name = "compteur_emprunt_tranche", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_compteur_emprunt_statut_tranche", columnNames = {"statut", "tranche"})
+})
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class CompteurEmprunt {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    private StatutEmprunt statut;
+
+    private int tranche;
+
+    // Peut être négatif : seule la somme des tranches d'un statut a un sens
+    private long nombre;
+}
@@ -11,6 +11,16 @@ import java.time.LocalDateTime;
 
 
 @Entity
+@Table(indexes = {
+        // Contrôles à la création et emprunts d'un utilisateur
+        @Index(name = "idx_emprunt_utilisateur_statut", columnList = "utilisateur_id, statut"),
+        // Historique et emprunts actifs d'un livre
+        @Index(name = "idx_emprunt_livre_statut", columnList = "livre_id, statut"),
+        // Job des retards : statut + plage de dates de retour prévue
+        @Index(name = "idx_emprunt_statut_retour", columnList = "statut, date_retour_prevue"),
+        // Export de l'historique par période
+        @Index(name = "idx_emprunt_date_emprunt", columnList = "date_emprunt")
+})
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
@@ -30,4 +40,17 @@ public class Emprunt {
 
     @Enumerated(EnumType.STRING)
     private StatutEmprunt statut;
+
+    // Copie des champs d'affichage de l'utilisateur et du livre, prise à la création et
+    // tenue à jour par les événements de ms-users / ms-livre : les listes se lisent sans appel distant
+    private String utilisateurNom;
+    private String utilisateurEmail;
+    private String livreTitre;
+    private String livreAuteur;
+    private String livreIsbn;
+
+    // Version de l'utilisateur / du livre dont la copie est issue : une copie plus ancienne,
+    // arrivée en retard, ne remplace pas une plus récente
+    private Long utilisateurVersion;
+    private Long livreVersion;
 }
@@ -0,0 +1,38 @@
+package ma.mundiapolis.msemprunt.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+/**
+ * Nombre d'emprunts d'un livre sur une journée (agrégat alimenté à chaque emprunt).
+ * Les statistiques sur une semaine ou un mois se calculent sur ces lignes, pas sur la table emprunt.
+ */
+@Entity
+@Table(uniqueConstraints = {
+        @UniqueConstraint(name = "uk_emprunt_journalier_jour_livre", columnNames = {"jour", "livre_id"})
+}, indexes = {
+        @Index(name = "idx_emprunt_journalier_jour_categorie", columnList = "jour, categorie")
+})
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class EmpruntJournalier {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private LocalDate jour;
+    private Long livreId;
+
+    // Catégorie du livre (enum Category de ms-livre) au moment de l'emprunt
+    private String categorie;
+
+    private long nombre;
+}
@@ -0,0 +1,58 @@
+package ma.mundiapolis.msemprunt.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ma.mundiapolis.msemprunt.enums.StatutOperationStock;
+import ma.mundiapolis.msemprunt.enums.TypeOperationStock;
+
+import java.time.LocalDateTime;
+
+/**
+ * Outbox des mouvements de stock à envoyer à ms-livre.
+ * La ligne est écrite dans la même transaction locale que l'emprunt concerné,
+ * puis envoyée (et renvoyée en cas d'échec) hors transaction par OperationStockDispatcher.
+ */
+@Entity
+@Table(indexes = {
+        @Index(name = "idx_operation_stock_statut_tentative", columnList = "statut, prochaine_tentative"),
+        @Index(name = "idx_operation_stock_cle_lot", columnList = "cle_lot")
+})
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class OperationStock {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    private TypeOperationStock type;
+
+    private Long livreId;
+    private Long empruntId;
+
+    // Annulation d'un emprunt : Idempotency-Key de la demande envoyée à ms-livre, rejouée avant
+    // le retour pour savoir si l'exemplaire a réellement été réservé (réponse perdue, arrêt)
+    private String cleEmprunt;
+
+    // Envoi groupé : Idempotency-Key du lot envoyé à ms-livre. Si l'issue de l'appel est inconnue,
+    // tout le lot est rejoué avec cette clé (un exemplaire par opération) au lieu d'envois unitaires
+    private String cleLot;
+
+    @Enumerated(EnumType.STRING)
+    private StatutOperationStock statut;
+
+    private int tentatives;
+    private LocalDateTime prochaineTentative;
+    private String derniereErreur;
+    private LocalDateTime dateCreation;
+
+    // Empêche deux instances d'envoyer la même opération en même temps
+    @Version
+    private Long version;
+}
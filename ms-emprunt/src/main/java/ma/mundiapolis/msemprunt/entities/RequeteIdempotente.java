@@ -0,0 +1,45 @@
+package ma.mundiapolis.msemprunt.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ma.mundiapolis.msemprunt.enums.StatutRequeteIdempotente;
+
+import java.time.LocalDateTime;
+
+/**
+ * Requête reçue avec un en-tête Idempotency-Key et sa réponse, conservées jusqu'à dateExpiration.
+ * L'unicité de la clé départage les doublons concurrents.
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_requete_idempotente_cle", columnNames = "cle"),
+        indexes = @Index(name = "idx_requete_idempotente_expiration", columnList = "date_expiration"))
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class RequeteIdempotente {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String cle;
+
+    // SHA-256 de l'opération et du corps : une clé réutilisée pour une autre requête est refusée
+    @Column(nullable = false, length = 64)
+    private String empreinte;
+
+    @Enumerated(EnumType.STRING)
+    private StatutRequeteIdempotente statut;
+
+    // Corps JSON de la réponse (TERMINEE)
+    @Lob
+    private String reponse;
+
+    private LocalDateTime dateCreation;
+    private LocalDateTime dateExpiration;
+}
@@ -0,0 +1,54 @@
+package ma.mundiapolis.msemprunt.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ma.mundiapolis.msemprunt.enums.StatutReservation;
+
+import java.time.LocalDateTime;
+
+/**
+ * Place d'un utilisateur dans la file d'attente (FIFO, par id) d'un livre sans exemplaire disponible.
+ * Un exemplaire rendu passe à la tête de la file (DISPONIBLE) au lieu de retourner au stock de ms-livre.
+ */
+@Entity
+@Table(uniqueConstraints = {
+        // Une seule réservation active par utilisateur et par livre, même pour des demandes
+        // simultanées : "active" vaut NULL une fois la réservation terminée (NULL distincts)
+        @UniqueConstraint(name = "uk_reservation_active", columnNames = {"utilisateur_id", "livre_id", "active"})
+}, indexes = {
+        // Tête de la file d'un livre : un seul parcours d'index
+        @Index(name = "idx_reservation_livre_statut", columnList = "livre_id, statut, id"),
+        @Index(name = "idx_reservation_statut_expiration", columnList = "statut, date_expiration"),
+        @Index(name = "idx_reservation_utilisateur", columnList = "utilisateur_id, statut")
+})
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class Reservation {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private Long utilisateurId;
+    private Long livreId;
+
+    @Enumerated(EnumType.STRING)
+    private StatutReservation statut;
+
+    private LocalDateTime dateDemande;
+    private LocalDateTime dateMiseADisposition;
+    // Fin de la mise à disposition (DISPONIBLE)
+    private LocalDateTime dateExpiration;
+    // Emprunt créé en honorant la réservation
+    private Long empruntId;
+
+    // Colonne calculée par la base : 1 tant que la réservation est EN_ATTENTE ou DISPONIBLE
+    @Column(insertable = false, updatable = false, columnDefinition =
+            "integer generated always as (case when statut in ('EN_ATTENTE', 'DISPONIBLE') then 1 end)")
+    private Integer active;
+}
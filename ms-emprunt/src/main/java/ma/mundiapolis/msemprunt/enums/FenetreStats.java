@@ -0,0 +1,17 @@
+package ma.mundiapolis.msemprunt.enums;
+
+public enum FenetreStats {
+    JOUR(1),
+    SEMAINE(7),
+    MOIS(30);
+
+    private final int jours;
+
+    FenetreStats(int jours) {
+        this.jours = jours;
+    }
+
+    public int getJours() {
+        return jours;
+    }
+}
@@ -0,0 +1,8 @@
+package ma.mundiapolis.msemprunt.enums;
+
+// Format des exports de l'historique des emprunts
+public enum FormatFichier {
+    CSV,
+    // Un emprunt JSON par ligne
+    NDJSON
+}
@@ -0,0 +1,8 @@
+package ma.mundiapolis.msemprunt.enums;
+
+public enum StatutOperationStock {
+    EN_ATTENTE,
+    ENVOYEE,
+    // Abandonnée après le nombre maximal de tentatives : à traiter manuellement
+    ECHEC
+}
@@ -0,0 +1,8 @@
+package ma.mundiapolis.msemprunt.enums;
+
+public enum StatutRequeteIdempotente {
+    // Première requête en cours : les doublons concurrents reçoivent 409
+    EN_COURS,
+    // Réponse enregistrée : les doublons la reçoivent telle quelle
+    TERMINEE
+}
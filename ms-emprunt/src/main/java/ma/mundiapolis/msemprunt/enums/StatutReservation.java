@@ -0,0 +1,13 @@
+package ma.mundiapolis.msemprunt.enums;
+
+public enum StatutReservation {
+    // Dans la file d'attente du livre
+    EN_ATTENTE,
+    // Un exemplaire rendu est mis de côté pour l'utilisateur jusqu'à dateExpiration
+    DISPONIBLE,
+    // Exemplaire emprunté par l'utilisateur
+    HONOREE,
+    // Exemplaire non emprunté à temps : passé au suivant ou rendu au stock
+    EXPIREE,
+    ANNULEE
+}
@@ -0,0 +1,9 @@
+package ma.mundiapolis.msemprunt.enums;
+
+public enum TypeOperationStock {
+    // Retour d'un livre : l'exemplaire est rendu au stock de ms-livre
+    RETOUR,
+    // Compensation : l'exemplaire réservé pour un emprunt qui n'a pas pu être enregistré est rendu
+    // (si la demande à ms-livre porte une clé, rejouée d'abord pour savoir s'il a été réservé)
+    ANNULATION_EMPRUNT
+}
@@ -0,0 +1,13 @@
+package ma.mundiapolis.msemprunt.mappers;
+
+import ma.mundiapolis.msemprunt.dto.ReservationRespDto;
+import ma.mundiapolis.msemprunt.entities.Reservation;
+import org.mapstruct.Mapper;
+import org.mapstruct.ReportingPolicy;
+
+@Mapper(componentModel = "spring", unmappedTargetPolicy = ReportingPolicy.IGNORE)
+public interface ReservationMapper {
+
+    ReservationRespDto toDto(Reservation reservation);
+
+}
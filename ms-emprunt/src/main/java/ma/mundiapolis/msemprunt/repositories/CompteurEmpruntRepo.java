@@ -0,0 +1,25 @@
+package ma.mundiapolis.msemprunt.repositories;
+
+import ma.mundiapolis.msemprunt.entities.CompteurEmprunt;
+import ma.mundiapolis.msemprunt.enums.StatutEmprunt;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+
+@Repository
+public interface CompteurEmpruntRepo extends JpaRepository<CompteurEmprunt, Long> {
+
+    // Incrément relatif en base sur une tranche : deux transactions concurrentes ne perdent pas de mise à jour
+    @Modifying(flushAutomatically = true)
+    @Query("update CompteurEmprunt c set c.nombre = c.nombre + :delta where c.statut = :statut and c.tranche = :tranche")
+    int ajouter(@Param("statut") StatutEmprunt statut, @Param("tranche") int tranche, @Param("delta") long delta);
+
+    // Valeur de chaque compteur : somme de ses tranches
+    @Query("select c.statut as statut, sum(c.nombre) as nombre from CompteurEmprunt c group by c.statut")
+    List<EmpruntsParStatut> sommerParStatut();
+}
@@ -0,0 +1,134 @@
+package ma.mundiapolis.msemprunt.repositories;
+
+import lombok.RequiredArgsConstructor;
+import ma.mundiapolis.msemprunt.dto.LivreDto;
+import ma.mundiapolis.msemprunt.dto.UserDto;
+import ma.mundiapolis.msemprunt.entities.Emprunt;
+import ma.mundiapolis.msemprunt.entities.EmpruntJournalier;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Écritures par lots JDBC (emprunts, copies des données utilisateur / livre, compteurs journaliers).
+ * Avec des ids IDENTITY, Hibernate insère ligne par ligne ; ici un seul executeBatch
+ * (réécrit en INSERT multi-lignes par le driver MySQL avec rewriteBatchedStatements=true).
+ */
+@Repository
+@RequiredArgsConstructor
+public class EmpruntBatchRepo {
+
+    private static final String INSERT_EMPRUNT = "INSERT INTO emprunt "
+            + "(utilisateur_id, livre_id, date_emprunt, date_retour_prevue, date_retour_effective, statut, "
+            + "utilisateur_nom, utilisateur_email, livre_titre, livre_auteur, livre_isbn, "
+            + "utilisateur_version, livre_version) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Copie appliquée seulement si elle est plus récente que celle de la ligne ; une copie
+    // sans version ne complète que les lignes sans version
+    private static final String MAJ_INSTANTANE_USER = "UPDATE emprunt "
+            + "SET utilisateur_nom = ?, utilisateur_email = ?, utilisateur_version = ? "
+            + "WHERE utilisateur_id = ? AND (utilisateur_version IS NULL OR utilisateur_version < ?)";
+
+    private static final String MAJ_INSTANTANE_LIVRE = "UPDATE emprunt "
+            + "SET livre_titre = ?, livre_auteur = ?, livre_isbn = ?, livre_version = ? "
+            + "WHERE livre_id = ? AND (livre_version IS NULL OR livre_version < ?)";
+
+    private static final String AJOUTER_JOURNALIER = "INSERT INTO emprunt_journalier "
+            + "(jour, livre_id, categorie, nombre) VALUES (?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE nombre = nombre + VALUES(nombre)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // Insère les emprunts et renseigne leurs ids générés (à appeler dans une transaction)
+    public void insererTous(List<Emprunt> emprunts) {
+        if (emprunts.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(INSERT_EMPRUNT, Statement.RETURN_GENERATED_KEYS)) {
+                for (Emprunt emprunt : emprunts) {
+                    ps.setLong(1, emprunt.getUtilisateurId());
+                    ps.setLong(2, emprunt.getLivreId());
+                    ps.setTimestamp(3, timestamp(emprunt.getDateEmprunt()));
+                    ps.setTimestamp(4, timestamp(emprunt.getDateRetourPrevue()));
+                    ps.setTimestamp(5, timestamp(emprunt.getDateRetourEffective()));
+                    ps.setString(6, emprunt.getStatut().name());
+                    ps.setString(7, emprunt.getUtilisateurNom());
+                    ps.setString(8, emprunt.getUtilisateurEmail());
+                    ps.setString(9, emprunt.getLivreTitre());
+                    ps.setString(10, emprunt.getLivreAuteur());
+                    ps.setString(11, emprunt.getLivreIsbn());
+                    ps.setObject(12, emprunt.getUtilisateurVersion(), Types.BIGINT);
+                    ps.setObject(13, emprunt.getLivreVersion(), Types.BIGINT);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+
+                try (ResultSet ids = ps.getGeneratedKeys()) {
+                    int i = 0;
+                    while (ids.next() && i < emprunts.size()) {
+                        emprunts.get(i++).setId(ids.getLong(1));
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    // Recopie nom et email de chaque utilisateur sur tous ses emprunts, en un seul lot
+    public void majInstantanesUsers(Collection<UserDto> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(MAJ_INSTANTANE_USER, users, users.size(), (ps, user) -> {
+            ps.setString(1, user.getNom());
+            ps.setString(2, user.getEmail());
+            ps.setObject(3, user.getVersion(), Types.BIGINT);
+            ps.setLong(4, user.getId());
+            ps.setObject(5, user.getVersion(), Types.BIGINT);
+        });
+    }
+
+    // Recopie titre, auteur et ISBN de chaque livre sur tous ses emprunts, en un seul lot
+    public void majInstantanesLivres(Collection<LivreDto> livres) {
+        if (livres.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(MAJ_INSTANTANE_LIVRE, livres, livres.size(), (ps, livre) -> {
+            ps.setString(1, livre.getTitre());
+            ps.setString(2, livre.getAuteur());
+            ps.setString(3, livre.getIsbn());
+            ps.setObject(4, livre.getVersion(), Types.BIGINT);
+            ps.setLong(5, livre.getId());
+            ps.setObject(6, livre.getVersion(), Types.BIGINT);
+        });
+    }
+
+    // Ajoute les nombres aux compteurs journaliers (lignes créées si besoin), en un seul lot
+    public void ajouterJournaliers(List<EmpruntJournalier> lignes) {
+        if (lignes.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(AJOUTER_JOURNALIER, lignes, lignes.size(), (ps, ligne) -> {
+            ps.setDate(1, Date.valueOf(ligne.getJour()));
+            ps.setLong(2, ligne.getLivreId());
+            ps.setString(3, ligne.getCategorie());
+            ps.setLong(4, ligne.getNombre());
+        });
+    }
+
+    private static Timestamp timestamp(LocalDateTime date) {
+        return date == null ? null : Timestamp.valueOf(date);
+    }
+}
@@ -0,0 +1,38 @@
+package ma.mundiapolis.msemprunt.repositories;
+
+import ma.mundiapolis.msemprunt.entities.EmpruntJournalier;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+
+@Repository
+public interface EmpruntJournalierRepo extends JpaRepository<EmpruntJournalier, Long> {
+
+    // Ajoute "nombre" emprunts au compteur du jour (ligne créée au premier emprunt du jour)
+    @Modifying
+    @Query(value = "INSERT INTO emprunt_journalier (jour, livre_id, categorie, nombre) " +
+            "VALUES (:jour, :livreId, :categorie, :nombre) " +
+            "ON DUPLICATE KEY UPDATE nombre = nombre + VALUES(nombre)",
+            nativeQuery = true)
+    int ajouter(@Param("jour") LocalDate jour,
+                @Param("livreId") Long livreId,
+                @Param("categorie") String categorie,
+                @Param("nombre") long nombre);
+
+    // Emprunts par livre depuis une date (à consommer dans une transaction)
+    @Query("select j.livreId as livreId, sum(j.nombre) as nombre from EmpruntJournalier j " +
+            "where j.jour >= :debut group by j.livreId")
+    Stream<EmpruntsParLivre> totalParLivre(@Param("debut") LocalDate debut);
+
+    // Emprunts par catégorie depuis une date
+    @Query("select j.categorie as categorie, sum(j.nombre) as nombre from EmpruntJournalier j " +
+            "where j.jour >= :debut group by j.categorie order by sum(j.nombre) desc")
+    List<EmpruntsParCategorie> totalParCategorie(@Param("debut") LocalDate debut);
+}
@@ -1,35 +1,91 @@
 package ma.mundiapolis.msemprunt.repositories;
 
+import jakarta.persistence.LockModeType;
 import ma.mundiapolis.msemprunt.entities.Emprunt;
 import ma.mundiapolis.msemprunt.enums.StatutEmprunt;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
 
 
 @Repository
 public interface EmpruntRepo extends JpaRepository<Emprunt, Long> {
 
-    // Trouver tous les emprunts d'un utilisateur
-    List<Emprunt> findByUtilisateurId(Long utilisateurId);
+    // Emprunts en retard, en lecture seule : déjà EN_RETARD, ou encore EN_COURS avec une date
+    // de retour prévue dépassée (pas encore traités par le job). Pagination par curseur sur l'id.
+    @Query("select e from Emprunt e where e.id > :apresId and (" +
+            "e.statut = ma.mundiapolis.msemprunt.enums.StatutEmprunt.EN_RETARD or " +
+            "(e.statut = ma.mundiapolis.msemprunt.enums.StatutEmprunt.EN_COURS and e.dateRetourPrevue < :maintenant)) " +
+            "order by e.id")
+    List<Emprunt> findEnRetard(@Param("maintenant") LocalDateTime maintenant,
+                               @Param("apresId") Long apresId,
+                               Limit limit);
 
-    // Trouver tous les emprunts d'un livre
-    List<Emprunt> findByLivreId(Long livreId);
+    // Passe au plus "lot" emprunts échus de EN_COURS à EN_RETARD, sans les charger ; retourne le nombre modifié
+    @Modifying
+    @Query(value = "UPDATE emprunt SET statut = 'EN_RETARD' " +
+            "WHERE statut = 'EN_COURS' AND date_retour_prevue < :maintenant LIMIT :lot",
+            nativeQuery = true)
+    int marquerEnRetard(@Param("maintenant") LocalDateTime maintenant, @Param("lot") int lot);
 
-    // Trouver les emprunts par statut
-    List<Emprunt> findByStatut(StatutEmprunt statut);
+    // Passe l'emprunt à RETOURNE s'il ne l'est pas déjà ; retourne 0 sinon (deux retours concurrents
+    // du même emprunt ne peuvent donc pas rendre deux exemplaires au stock)
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("update Emprunt e set e.statut = ma.mundiapolis.msemprunt.enums.StatutEmprunt.RETOURNE, " +
+            "e.dateRetourEffective = :date " +
+            "where e.id = :id and e.statut <> ma.mundiapolis.msemprunt.enums.StatutEmprunt.RETOURNE")
+    int marquerRetourne(@Param("id") Long id, @Param("date") LocalDateTime date);
 
-    // Vérifier si un utilisateur a déjà emprunté un livre (et ne l'a pas encore retourné)
-    Optional<Emprunt> findByUtilisateurIdAndLivreIdAndStatut(Long utilisateurId, Long livreId, StatutEmprunt statut);
+    // Plus proche date de retour prévue parmi les emprunts EN_COURS (null s'il n'y en a aucun)
+    @Query("select min(e.dateRetourPrevue) from Emprunt e " +
+            "where e.statut = ma.mundiapolis.msemprunt.enums.StatutEmprunt.EN_COURS")
+    LocalDateTime findProchaineEcheance();
 
-    // Trouver les emprunts en retard (date de retour prévue dépassée et statut EN_COURS)
-    List<Emprunt> findByDateRetourPrevueBeforeAndStatut(LocalDateTime date, StatutEmprunt statut);
+    // Emprunts d'un groupe d'utilisateurs dans un statut donné (contrôles des emprunts par lot)
+    List<Emprunt> findByUtilisateurIdInAndStatut(Collection<Long> utilisateurIds, StatutEmprunt statut);
 
-    // Trouver les emprunts en cours d'un utilisateur
-    List<Emprunt> findByUtilisateurIdAndStatut(Long utilisateurId, StatutEmprunt statut);
+    // Verrouille un lot d'emprunts avant leur retour groupé
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select e from Emprunt e where e.id in :ids order by e.id")
+    List<Emprunt> findAllByIdForUpdate(@Param("ids") Collection<Long> ids);
 
+    // Retour groupé (les emprunts doivent avoir été verrouillés par findAllByIdForUpdate)
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("update Emprunt e set e.statut = ma.mundiapolis.msemprunt.enums.StatutEmprunt.RETOURNE, " +
+            "e.dateRetourEffective = :date " +
+            "where e.id in :ids and e.statut <> ma.mundiapolis.msemprunt.enums.StatutEmprunt.RETOURNE")
+    int marquerRetournes(@Param("ids") Collection<Long> ids, @Param("date") LocalDateTime date);
+
+    // Les deux contrôles de creerEmprunt en un seul aller-retour (index utilisateur_id, statut)
+    @Query("select count(e) as total, " +
+            "coalesce(sum(case when e.livreId = :livreId then 1 else 0 end), 0) as memeLivre " +
+            "from Emprunt e where e.utilisateurId = :utilisateurId and e.statut = :statut")
+    EmpruntsActifs compterEmpruntsActifs(@Param("utilisateurId") Long utilisateurId,
+                                         @Param("livreId") Long livreId,
+                                         @Param("statut") StatutEmprunt statut);
+
+    // Nombre d'emprunts par statut (initialisation des compteurs)
+    @Query("select e.statut as statut, count(e) as nombre from Emprunt e group by e.statut")
+    List<EmpruntsParStatut> compterParStatut();
+
+    // Derniers emprunts créés (parcours de la clé primaire à rebours)
+    List<Emprunt> findByOrderByIdDesc(Limit limit);
+
+    // Pagination par curseur (keyset) : emprunts d'id strictement supérieur à "apresId", triés par id
+    List<Emprunt> findByIdGreaterThanOrderByIdAsc(Long apresId, Limit limit);
+
+    List<Emprunt> findByUtilisateurIdAndIdGreaterThanOrderByIdAsc(Long utilisateurId, Long apresId, Limit limit);
+
+    List<Emprunt> findByLivreIdAndIdGreaterThanOrderByIdAsc(Long livreId, Long apresId, Limit limit);
+
+    List<Emprunt> findByStatutAndIdGreaterThanOrderByIdAsc(StatutEmprunt statut, Long apresId, Limit limit);
 
 }
@@ -0,0 +1,13 @@
+package ma.mundiapolis.msemprunt.repositories;
+
+/**
+ * Projection des contrôles faits avant un nouvel emprunt (une seule requête).
+ */
+public interface EmpruntsActifs {
+
+    // Nombre d'emprunts actifs de l'utilisateur
+    long getTotal();
+
+    // Parmi eux, nombre d'emprunts du livre demandé (0 ou 1)
+    long getMemeLivre();
+}
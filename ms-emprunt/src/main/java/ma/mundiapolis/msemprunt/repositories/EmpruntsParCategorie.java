@@ -0,0 +1,11 @@
+package ma.mundiapolis.msemprunt.repositories;
+
+/**
+ * Projection du nombre d'emprunts d'une catégorie de livres sur une période.
+ */
+public interface EmpruntsParCategorie {
+
+    String getCategorie();
+
+    long getNombre();
+}
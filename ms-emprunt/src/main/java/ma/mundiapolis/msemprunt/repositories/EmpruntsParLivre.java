@@ -0,0 +1,11 @@
+package ma.mundiapolis.msemprunt.repositories;
+
+/**
+ * Projection du nombre d'emprunts d'un livre sur une période.
+ */
+public interface EmpruntsParLivre {
+
+    Long getLivreId();
+
+    long getNombre();
+}
@@ -0,0 +1,13 @@
+package ma.mundiapolis.msemprunt.repositories;
+
+import ma.mundiapolis.msemprunt.enums.StatutEmprunt;
+
+/**
+ * Projection du comptage des emprunts par statut (initialisation et lecture des compteurs).
+ */
+public interface EmpruntsParStatut {
+
+    StatutEmprunt getStatut();
+
+    long getNombre();
+}
@@ -0,0 +1,49 @@
+package ma.mundiapolis.msemprunt.repositories;
+
+import ma.mundiapolis.msemprunt.entities.OperationStock;
+import ma.mundiapolis.msemprunt.enums.StatutOperationStock;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface OperationStockRepo extends JpaRepository<OperationStock, Long> {
+
+    // Opérations à (re)tenter maintenant, les plus anciennes d'abord
+    List<OperationStock> findByStatutAndProchaineTentativeLessThanEqualOrderByIdAsc(
+            StatutOperationStock statut, LocalDateTime date, Limit limit);
+
+    // Opérations d'un même envoi groupé, quel que soit leur statut : elles forment le lot rejoué
+    List<OperationStock> findByCleLot(String cleLot);
+
+    // Emprunt groupé enregistré ou refusé par ms-livre : annulations préparées inutiles
+    @Modifying
+    @Query("delete from OperationStock o where o.cleLot = :cleLot")
+    int supprimerLot(@Param("cleLot") String cleLot);
+
+    // Fin d'un envoi groupé : opérations envoyées en un seul appel à ms-livre
+    @Modifying
+    @Query("update OperationStock o set o.statut = ma.mundiapolis.msemprunt.enums.StatutOperationStock.ENVOYEE, " +
+            "o.tentatives = o.tentatives + 1, o.version = o.version + 1 " +
+            "where o.id in :ids and o.statut = ma.mundiapolis.msemprunt.enums.StatutOperationStock.EN_ATTENTE")
+    int marquerEnvoyees(@Param("ids") Collection<Long> ids);
+
+    // Échec d'un envoi groupé : les opérations redeviennent immédiatement reprenables une par une
+    @Modifying
+    @Query("update OperationStock o set o.prochaineTentative = :date, o.version = o.version + 1 " +
+            "where o.id in :ids and o.statut = ma.mundiapolis.msemprunt.enums.StatutOperationStock.EN_ATTENTE")
+    int liberer(@Param("ids") Collection<Long> ids, @Param("date") LocalDateTime date);
+
+    // Lot refusé par ms-livre (rien n'a été appliqué) : chaque opération repart seule, avec sa propre clé
+    @Modifying
+    @Query("update OperationStock o set o.cleLot = null, o.prochaineTentative = :date, o.version = o.version + 1 " +
+            "where o.id in :ids and o.statut = ma.mundiapolis.msemprunt.enums.StatutOperationStock.EN_ATTENTE")
+    int detacherDuLot(@Param("ids") Collection<Long> ids, @Param("date") LocalDateTime date);
+}
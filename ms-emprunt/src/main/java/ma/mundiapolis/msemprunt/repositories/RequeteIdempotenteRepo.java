@@ -0,0 +1,39 @@
+package ma.mundiapolis.msemprunt.repositories;
+
+import ma.mundiapolis.msemprunt.entities.RequeteIdempotente;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface RequeteIdempotenteRepo extends JpaRepository<RequeteIdempotente, Long> {
+
+    Optional<RequeteIdempotente> findByCle(String cle);
+
+    @Modifying
+    @Query("update RequeteIdempotente r " +
+            "set r.statut = ma.mundiapolis.msemprunt.enums.StatutRequeteIdempotente.TERMINEE, r.reponse = :reponse " +
+            "where r.id = :id")
+    int terminer(@Param("id") Long id, @Param("reponse") String reponse);
+
+    // Reprise d'une requête abandonnée (instance arrêtée en plein traitement) : une seule
+    // reprise gagne, grâce à la condition sur la date de création lue
+    @Modifying
+    @Query("update RequeteIdempotente r set r.dateCreation = :maintenant " +
+            "where r.id = :id and r.dateCreation = :dateLue " +
+            "and r.statut = ma.mundiapolis.msemprunt.enums.StatutRequeteIdempotente.EN_COURS")
+    int reprendre(@Param("id") Long id,
+                  @Param("dateLue") LocalDateTime dateLue,
+                  @Param("maintenant") LocalDateTime maintenant);
+
+    // Purge par lots des requêtes expirées
+    @Modifying
+    @Query(value = "DELETE FROM requete_idempotente WHERE date_expiration < :date LIMIT :limite",
+            nativeQuery = true)
+    int purger(@Param("date") LocalDateTime date, @Param("limite") int limite);
+}
@@ -0,0 +1,48 @@
+package ma.mundiapolis.msemprunt.repositories;
+
+import jakarta.persistence.LockModeType;
+import ma.mundiapolis.msemprunt.entities.Reservation;
+import ma.mundiapolis.msemprunt.enums.StatutReservation;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ReservationRepo extends JpaRepository<Reservation, Long> {
+
+    // Tête de la file d'attente d'un livre, verrouillée : deux retours simultanés
+    // ne peuvent pas attribuer leur exemplaire à la même réservation
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<Reservation> findFirstByLivreIdAndStatutOrderByIdAsc(Long livreId, StatutReservation statut);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select r from Reservation r where r.id = :id")
+    Optional<Reservation> findByIdForUpdate(@Param("id") Long id);
+
+    Optional<Reservation> findFirstByUtilisateurIdAndLivreIdAndStatut(Long utilisateurId, Long livreId,
+                                                                      StatutReservation statut);
+
+    List<Reservation> findByUtilisateurIdInAndStatut(Collection<Long> utilisateurIds, StatutReservation statut);
+
+    boolean existsByUtilisateurIdAndLivreIdAndStatutIn(Long utilisateurId, Long livreId,
+                                                       Collection<StatutReservation> statuts);
+
+    long countByUtilisateurIdAndStatutIn(Long utilisateurId, Collection<StatutReservation> statuts);
+
+    // Rang dans la file : réservations en attente plus anciennes
+    long countByLivreIdAndStatutAndIdLessThan(Long livreId, StatutReservation statut, Long id);
+
+    // Mises à disposition échues, les plus anciennes d'abord
+    List<Reservation> findByStatutAndDateExpirationBeforeOrderByDateExpirationAsc(
+            StatutReservation statut, LocalDateTime date, Limit limit);
+
+    List<Reservation> findByUtilisateurIdOrderByIdDesc(Long utilisateurId);
+}
@@ -0,0 +1,271 @@
+package ma.mundiapolis.msemprunt.services;
+
+import feign.FeignException;
+import lombok.extern.slf4j.Slf4j;
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import ma.mundiapolis.msemprunt.dto.CategorieStatsRespDto;
+import ma.mundiapolis.msemprunt.dto.LivreDto;
+import ma.mundiapolis.msemprunt.dto.TopLivreRespDto;
+import ma.mundiapolis.msemprunt.entities.Emprunt;
+import ma.mundiapolis.msemprunt.entities.EmpruntJournalier;
+import ma.mundiapolis.msemprunt.enums.FenetreStats;
+import ma.mundiapolis.msemprunt.repositories.EmpruntBatchRepo;
+import ma.mundiapolis.msemprunt.repositories.EmpruntJournalierRepo;
+import ma.mundiapolis.msemprunt.repositories.EmpruntRepo;
+import ma.mundiapolis.msemprunt.repositories.EmpruntsParLivre;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Statistiques d'emprunts par livre et par catégorie.
+ * <p>
+ * Chaque emprunt incrémente, dans sa transaction, le compteur du jour de son livre
+ * (EmpruntJournalier). Les totaux d'une fenêtre (jour, semaine, mois) se calculent sur
+ * ces lignes. Pour le palmarès des livres, un résumé Space-Saving par fenêtre est tenu
+ * en mémoire : rechargé périodiquement depuis les compteurs journaliers (ce qui fait
+ * glisser la fenêtre et intègre les emprunts des autres instances), et incrémenté
+ * entre deux rechargements par les emprunts de cette instance.
+ */
+@Slf4j
+@Component
+public class AnalyseEmprunts {
+
+    private final EmpruntJournalierRepo empruntJournalierRepo;
+    private final EmpruntRepo empruntRepo;
+    private final EmpruntBatchRepo empruntBatchRepo;
+    private final ReferentielService referentielService;
+    private final TransactionTemplate transactionTemplate;
+    private final EmpruntProperties properties;
+
+    private final Map<FenetreStats, SpaceSaving<Long>> resumes = new EnumMap<>(FenetreStats.class);
+    private final AtomicBoolean reconstructionEnCours = new AtomicBoolean();
+    // Au plus un thread à la fois, garanti par reconstructionEnCours
+    private final Executor reconstructionExecutor = new SimpleAsyncTaskExecutor("stats-reconstruction-");
+
+    public AnalyseEmprunts(EmpruntJournalierRepo empruntJournalierRepo,
+                           EmpruntRepo empruntRepo,
+                           EmpruntBatchRepo empruntBatchRepo,
+                           ReferentielService referentielService,
+                           TransactionTemplate transactionTemplate,
+                           EmpruntProperties properties) {
+        this.empruntJournalierRepo = empruntJournalierRepo;
+        this.empruntRepo = empruntRepo;
+        this.empruntBatchRepo = empruntBatchRepo;
+        this.referentielService = referentielService;
+        this.transactionTemplate = transactionTemplate;
+        this.properties = properties;
+    }
+
+    /**
+     * Compte "nombre" emprunts du livre pour le jour donné. À appeler dans la transaction
+     * qui crée les emprunts ; le résumé en mémoire n'est mis à jour qu'après sa validation.
+     */
+    public void enregistrer(Long livreId, String categorie, LocalDate jour, long nombre) {
+        empruntJournalierRepo.ajouter(jour, livreId, categorie, nombre);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    compter(livreId, nombre);
+                }
+            });
+        } else {
+            compter(livreId, nombre);
+        }
+    }
+
+    private synchronized void compter(Long livreId, long nombre) {
+        resumes.values().forEach(resume -> resume.ajouter(livreId, nombre));
+    }
+
+    // Recharge les résumés depuis les compteurs journaliers (premier passage au démarrage)
+    @Scheduled(fixedDelayString = "${emprunt.analyse.intervalle-ms:300000}")
+    public void rafraichir() {
+        for (FenetreStats fenetre : FenetreStats.values()) {
+            SpaceSaving<Long> resume = charger(fenetre);
+            synchronized (this) {
+                resumes.put(fenetre, resume);
+            }
+        }
+    }
+
+    /**
+     * Les k livres les plus empruntés sur la fenêtre, du plus au moins emprunté.
+     */
+    public List<TopLivreRespDto> topLivres(FenetreStats fenetre, int k) {
+        int nombre = Math.max(1, Math.min(k, properties.getAnalyse().getTopMax()));
+        List<TopLivreRespDto> top;
+        synchronized (this) {
+            SpaceSaving<Long> resume = resumes.get(fenetre);
+            if (resume == null) {
+                resume = charger(fenetre);
+                resumes.put(fenetre, resume);
+            }
+            top = resume.top(nombre).stream()
+                    .map(c -> TopLivreRespDto.builder()
+                            .livreId(c.getElement())
+                            .nombre(c.getNombre())
+                            .erreur(c.getErreur())
+                            .build())
+                    .collect(Collectors.toList());
+        }
+
+        // Enrichissement hors verrou : un appel groupé (servi en grande partie par le cache)
+        try {
+            Map<Long, LivreDto> livres = referentielService.getLivres(
+                    top.stream().map(TopLivreRespDto::getLivreId).collect(Collectors.toSet()));
+            top.forEach(t -> t.setLivre(livres.get(t.getLivreId())));
+        } catch (FeignException e) {
+            log.warn("Palmarès renvoyé sans le détail des livres : {}", e.getMessage());
+        }
+        return top;
+    }
+
+    /**
+     * Nombre d'emprunts par catégorie sur la fenêtre (agrégat des compteurs journaliers).
+     */
+    public List<CategorieStatsRespDto> parCategorie(FenetreStats fenetre) {
+        return empruntJournalierRepo.totalParCategorie(debut(fenetre)).stream()
+                .map(c -> CategorieStatsRespDto.builder()
+                        .categorie(c.getCategorie())
+                        .nombre(c.getNombre())
+                        .build())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Lance en arrière-plan le recalcul des compteurs journaliers depuis l'historique ;
+     * une seule reconstruction à la fois par instance (409 sinon).
+     */
+    public void lancerReconstruction() {
+        if (!reconstructionEnCours.compareAndSet(false, true)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Une reconstruction des statistiques est déjà en cours");
+        }
+        reconstructionExecutor.execute(() -> {
+            try {
+                reconstruire();
+            } catch (FeignException e) {
+                log.warn("ms-livre indisponible, reconstruction des statistiques interrompue : {}", e.getMessage());
+            } catch (RuntimeException e) {
+                log.error("Reconstruction des statistiques interrompue", e);
+            } finally {
+                reconstructionEnCours.set(false);
+            }
+        });
+    }
+
+    /**
+     * Recalcule les compteurs journaliers depuis l'historique des emprunts, lu par pages
+     * (curseur sur l'id) : la table emprunt n'est jamais chargée en entier.
+     * <p>
+     * Le dernier id est lu après la suppression, dans sa transaction : la suppression verrouille
+     * la table des compteurs, un emprunt qui n'était pas encore validé y ajoute sa ligne après
+     * elle (et son id n'est pas relu) ; un emprunt validé avant est relu.
+     */
+    long reconstruire() {
+        Long dernierId = transactionTemplate.execute(status -> {
+            empruntJournalierRepo.deleteAllInBatch();
+            return empruntRepo.findByOrderByIdDesc(Limit.of(1)).stream()
+                    .findFirst()
+                    .map(Emprunt::getId)
+                    .orElse(0L);
+        });
+
+        int taille = properties.getAnalyse().getTailleLot();
+        long relus = 0;
+        Long apres = 0L;
+        while (apres < dernierId) {
+            List<Emprunt> page = empruntRepo.findByIdGreaterThanOrderByIdAsc(apres, Limit.of(taille));
+            if (page.isEmpty()) {
+                break;
+            }
+            List<Emprunt> aCompter = page.stream()
+                    .filter(e -> e.getId() <= dernierId)
+                    .collect(Collectors.toList());
+            empruntBatchRepo.ajouterJournaliers(agreger(aCompter));
+            relus += aCompter.size();
+            apres = page.get(page.size() - 1).getId();
+            if (page.size() < taille) {
+                break;
+            }
+        }
+
+        rafraichir();
+        log.info("Statistiques d'emprunts reconstruites : {} emprunts relus", relus);
+        return relus;
+    }
+
+    // Clé d'un compteur journalier
+    private record JourLivre(LocalDate jour, Long livreId) {
+    }
+
+    // Compteurs journaliers d'une page d'emprunts (catégories lues par un appel groupé)
+    private List<EmpruntJournalier> agreger(List<Emprunt> emprunts) {
+        Set<Long> livreIds = emprunts.stream().map(Emprunt::getLivreId).collect(Collectors.toSet());
+        Map<Long, LivreDto> livres = livreIds.isEmpty() ? Map.of() : referentielService.getLivres(livreIds);
+
+        Map<JourLivre, Long> nombres = new HashMap<>();
+        for (Emprunt emprunt : emprunts) {
+            if (emprunt.getDateEmprunt() == null) {
+                continue;
+            }
+            nombres.merge(new JourLivre(emprunt.getDateEmprunt().toLocalDate(), emprunt.getLivreId()), 1L, Long::sum);
+        }
+        List<EmpruntJournalier> lignes = new ArrayList<>(nombres.size());
+        nombres.forEach((cle, nombre) -> {
+            LivreDto livre = livres.get(cle.livreId());
+            lignes.add(EmpruntJournalier.builder()
+                    .jour(cle.jour())
+                    .livreId(cle.livreId())
+                    .categorie(livre != null ? livre.getCategorie() : null)
+                    .nombre(nombre)
+                    .build());
+        });
+        return lignes;
+    }
+
+    // Résumé d'une fenêtre : les "capacite" livres les plus empruntés, avec leur total exact
+    private SpaceSaving<Long> charger(FenetreStats fenetre) {
+        int capacite = properties.getAnalyse().getCapacite();
+        PriorityQueue<EmpruntsParLivre> plusEmpruntes =
+                new PriorityQueue<>(Comparator.comparingLong(EmpruntsParLivre::getNombre));
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<EmpruntsParLivre> totaux = empruntJournalierRepo.totalParLivre(debut(fenetre))) {
+                totaux.forEach(total -> {
+                    plusEmpruntes.add(total);
+                    if (plusEmpruntes.size() > capacite) {
+                        plusEmpruntes.poll();
+                    }
+                });
+            }
+        });
+        SpaceSaving<Long> resume = new SpaceSaving<>(capacite);
+        plusEmpruntes.forEach(total -> resume.ajouter(total.getLivreId(), total.getNombre()));
+        return resume;
+    }
+
+    private static LocalDate debut(FenetreStats fenetre) {
+        return LocalDate.now().minusDays(fenetre.getJours() - 1L);
+    }
+}
@@ -0,0 +1,150 @@
+package ma.mundiapolis.msemprunt.services;
+
+import lombok.extern.slf4j.Slf4j;
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import ma.mundiapolis.msemprunt.entities.CompteurEmprunt;
+import ma.mundiapolis.msemprunt.enums.StatutEmprunt;
+import ma.mundiapolis.msemprunt.repositories.CompteurEmpruntRepo;
+import ma.mundiapolis.msemprunt.repositories.EmpruntRepo;
+import ma.mundiapolis.msemprunt.repositories.EmpruntsParStatut;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compteurs d'emprunts par statut (table CompteurEmprunt).
+ * <p>
+ * Les méthodes de mise à jour doivent être appelées dans la transaction qui modifie
+ * les emprunts : compteurs et emprunts sont validés ou annulés ensemble. Chaque statut est
+ * réparti sur plusieurs tranches (emprunt.compteurs.tranches) : une transaction verrouille
+ * une tranche tirée au hasard jusqu'au commit, pas la ligne unique du statut.
+ */
+@Slf4j
+@Component
+public class CompteursEmprunts implements SmartInitializingSingleton {
+
+    private final CompteurEmpruntRepo compteurEmpruntRepo;
+    private final EmpruntRepo empruntRepo;
+    private final TransactionTemplate transactionTemplate;
+    private final int tranches;
+
+    public CompteursEmprunts(CompteurEmpruntRepo compteurEmpruntRepo,
+                             EmpruntRepo empruntRepo,
+                             TransactionTemplate transactionTemplate,
+                             EmpruntProperties properties) {
+        this.compteurEmpruntRepo = compteurEmpruntRepo;
+        this.empruntRepo = empruntRepo;
+        this.transactionTemplate = transactionTemplate;
+        this.tranches = Math.max(1, properties.getCompteurs().getTranches());
+    }
+
+    // Avant l'ouverture du serveur web : première mise en service, compteurs initialisés
+    // par un seul comptage de la table emprunt
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (compteurEmpruntRepo.count() > 0) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                Map<StatutEmprunt, Long> nombres = new EnumMap<>(StatutEmprunt.class);
+                for (StatutEmprunt statut : StatutEmprunt.values()) {
+                    nombres.put(statut, 0L);
+                }
+                for (EmpruntsParStatut ligne : empruntRepo.compterParStatut()) {
+                    nombres.put(ligne.getStatut(), ligne.getNombre());
+                }
+                // Valeur initiale sur la tranche 0, les autres partent de zéro
+                List<CompteurEmprunt> lignes = new ArrayList<>();
+                nombres.forEach((statut, nombre) -> {
+                    for (int tranche = 0; tranche < tranches; tranche++) {
+                        lignes.add(CompteurEmprunt.builder()
+                                .statut(statut)
+                                .tranche(tranche)
+                                .nombre(tranche == 0 ? nombre : 0)
+                                .build());
+                    }
+                });
+                compteurEmpruntRepo.saveAll(lignes);
+            });
+            log.info("Compteurs d'emprunts initialisés");
+        } catch (DataIntegrityViolationException e) {
+            // Une autre instance les a initialisés en même temps
+            log.info("Compteurs d'emprunts déjà initialisés par une autre instance");
+        }
+    }
+
+    public void ajouter(StatutEmprunt statut, long delta) {
+        if (delta != 0) {
+            ajouter(statut, trancheDeLaTransaction(), delta);
+        }
+    }
+
+    // Changement de statut de "nombre" emprunts
+    public void transferer(StatutEmprunt de, StatutEmprunt vers, long nombre) {
+        if (nombre != 0 && de != vers) {
+            Map<StatutEmprunt, Long> deltas = new EnumMap<>(StatutEmprunt.class);
+            deltas.put(de, -nombre);
+            deltas.put(vers, nombre);
+            appliquer(deltas);
+        }
+    }
+
+    // Plusieurs statuts modifiés ensemble (ex : retour groupé d'emprunts en cours et en retard).
+    // Lignes verrouillées dans l'ordre des statuts, sur la tranche de la transaction :
+    // deux transactions ne peuvent pas s'attendre mutuellement
+    public void appliquer(Map<StatutEmprunt, Long> deltas) {
+        int tranche = trancheDeLaTransaction();
+        new EnumMap<>(deltas).forEach((statut, delta) -> {
+            if (delta != 0) {
+                ajouter(statut, tranche, delta);
+            }
+        });
+    }
+
+    // Valeur de chaque compteur (0 pour un statut sans ligne)
+    public Map<StatutEmprunt, Long> lire() {
+        Map<StatutEmprunt, Long> nombres = new EnumMap<>(StatutEmprunt.class);
+        for (StatutEmprunt statut : StatutEmprunt.values()) {
+            nombres.put(statut, 0L);
+        }
+        compteurEmpruntRepo.sommerParStatut().forEach(c -> nombres.put(c.getStatut(), c.getNombre()));
+        return nombres;
+    }
+
+    // Tranche tirée une fois par transaction : ses mises à jour successives reprennent les
+    // lignes déjà verrouillées au lieu d'en verrouiller d'autres dans un ordre quelconque
+    private int trancheDeLaTransaction() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return ThreadLocalRandom.current().nextInt(tranches);
+        }
+        Integer tranche = (Integer) TransactionSynchronizationManager.getResource(this);
+        if (tranche == null) {
+            tranche = ThreadLocalRandom.current().nextInt(tranches);
+            TransactionSynchronizationManager.bindResource(this, tranche);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(CompteursEmprunts.this);
+                }
+            });
+        }
+        return tranche;
+    }
+
+    private void ajouter(StatutEmprunt statut, int tranche, long delta) {
+        // Tranche absente (nombre de tranches augmenté depuis l'initialisation) : la tranche 0 existe toujours
+        if (compteurEmpruntRepo.ajouter(statut, tranche, delta) == 0 && tranche != 0) {
+            compteurEmpruntRepo.ajouter(statut, 0, delta);
+        }
+    }
+}
@@ -1,8 +1,16 @@
 package ma.mundiapolis.msemprunt.services;
 
+import ma.mundiapolis.msemprunt.dto.CategorieStatsRespDto;
+import ma.mundiapolis.msemprunt.dto.EmpruntLotRespDto;
+import ma.mundiapolis.msemprunt.dto.EmpruntPageRespDto;
 import ma.mundiapolis.msemprunt.dto.EmpruntReqDto;
 import ma.mundiapolis.msemprunt.dto.EmpruntRespDto;
+import ma.mundiapolis.msemprunt.dto.StatistiquesEmpruntRespDto;
+import ma.mundiapolis.msemprunt.dto.TopLivreRespDto;
+import ma.mundiapolis.msemprunt.enums.FenetreStats;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 public interface EmpruntService {
@@ -10,29 +18,57 @@ public interface EmpruntService {
     // Créer un nouvel emprunt
     EmpruntRespDto creerEmprunt(EmpruntReqDto empruntReqDto);
 
+    // Emprunt groupé (ex : toute une classe) : un résultat par élément, dans l'ordre de la requête
+    List<EmpruntLotRespDto> creerEmprunts(List<EmpruntReqDto> demandes);
+
+    // Retour groupé : un résultat par id d'emprunt, dans l'ordre de la requête
+    List<EmpruntLotRespDto> retournerLivres(List<Long> empruntIds);
+
     // Récupérer un emprunt par ID avec détails
     EmpruntRespDto getEmpruntById(Long id);
 
     // Retourner un livre emprunté
     EmpruntRespDto retournerLivre(Long empruntId);
 
-    // Liste des emprunts d'un utilisateur
-    List<EmpruntRespDto> getEmpruntsByUserId(Long userId);
+    // Liste paginée des emprunts d'un utilisateur (curseur : id du dernier emprunt reçu)
+    EmpruntPageRespDto getEmpruntsByUserId(Long userId, Long apres, Integer taille);
+
+    // Historique paginé des emprunts d'un livre
+    EmpruntPageRespDto getEmpruntsByLivreId(Long livreId, Long apres, Integer taille);
+
+    // Liste paginée des emprunts en cours
+    EmpruntPageRespDto getEmpruntsEnCours(Long apres, Integer taille);
+
+    // Liste paginée des emprunts en retard (lecture seule : le changement de statut est fait par le job)
+    EmpruntPageRespDto getEmpruntsEnRetard(Long apres, Integer taille);
 
-    // Historique des emprunts d'un livre
-    List<EmpruntRespDto> getEmpruntsByLivreId(Long livreId);
+    // Liste paginée de tous les emprunts
+    EmpruntPageRespDto getAllEmprunts(Long apres, Integer taille);
 
-    // Liste de tous les emprunts en cours
-    List<EmpruntRespDto> getEmpruntsEnCours();
+    // Variantes en flux NDJSON (un emprunt enrichi par ligne), lues et enrichies par lots
+    void streamEmpruntsByUserId(Long userId, OutputStream out) throws IOException;
 
-    // Liste des emprunts en retard
-    List<EmpruntRespDto> getEmpruntsEnRetard();
+    void streamEmpruntsByLivreId(Long livreId, OutputStream out) throws IOException;
 
-    // Liste de tous les emprunts
-    List<EmpruntRespDto> getAllEmprunts();
+    void streamEmpruntsEnCours(OutputStream out) throws IOException;
+
+    void streamAllEmprunts(OutputStream out) throws IOException;
 
     // Modifier un emprunt (dates)
     EmpruntRespDto modifierEmprunt(Long id, EmpruntReqDto empruntReqDto);
 
-    void updateEmpruntsEnRetard();
+    // Passer les emprunts échus en EN_RETARD ; retourne le nombre d'emprunts modifiés
+    int updateEmpruntsEnRetard();
+
+    // Tableau de bord : totaux par statut (compteurs) et derniers emprunts créés
+    StatistiquesEmpruntRespDto getStatistiques(Integer recents);
+
+    // Livres les plus empruntés sur la fenêtre (jour, semaine, mois)
+    List<TopLivreRespDto> getTopLivres(FenetreStats fenetre, Integer k);
+
+    // Nombre d'emprunts par catégorie de livre sur la fenêtre
+    List<CategorieStatsRespDto> getStatistiquesParCategorie(FenetreStats fenetre);
+
+    // Lance en arrière-plan le recalcul des statistiques depuis l'historique
+    void reconstruireStatistiques();
 }
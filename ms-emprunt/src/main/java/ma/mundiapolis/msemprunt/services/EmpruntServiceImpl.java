@@ -1,234 +1,894 @@
 package ma.mundiapolis.msemprunt.services;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import feign.FeignException;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import ma.mundiapolis.msemprunt.clients.AppelsDistants;
 import ma.mundiapolis.msemprunt.clients.LivreClient;
-import ma.mundiapolis.msemprunt.clients.UserClient;
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import ma.mundiapolis.msemprunt.dto.CategorieStatsRespDto;
+import ma.mundiapolis.msemprunt.dto.EmpruntLotRespDto;
+import ma.mundiapolis.msemprunt.dto.EmpruntPageRespDto;
 import ma.mundiapolis.msemprunt.dto.EmpruntReqDto;
 import ma.mundiapolis.msemprunt.dto.EmpruntRespDto;
 import ma.mundiapolis.msemprunt.dto.LivreDto;
+import ma.mundiapolis.msemprunt.dto.MouvementStockDto;
+import ma.mundiapolis.msemprunt.dto.StatistiquesEmpruntRespDto;
+import ma.mundiapolis.msemprunt.dto.TopLivreRespDto;
 import ma.mundiapolis.msemprunt.dto.UserDto;
 import ma.mundiapolis.msemprunt.entities.Emprunt;
+import ma.mundiapolis.msemprunt.entities.OperationStock;
+import ma.mundiapolis.msemprunt.enums.FenetreStats;
 import ma.mundiapolis.msemprunt.enums.StatutEmprunt;
+import ma.mundiapolis.msemprunt.enums.TypeOperationStock;
 import ma.mundiapolis.msemprunt.mappers.EmpruntMapper;
+import ma.mundiapolis.msemprunt.repositories.EmpruntBatchRepo;
 import ma.mundiapolis.msemprunt.repositories.EmpruntRepo;
+import ma.mundiapolis.msemprunt.repositories.EmpruntsActifs;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class EmpruntServiceImpl implements EmpruntService {
 
     private final EmpruntRepo empruntRepo;
     private final EmpruntMapper empruntMapper;
-    private final UserClient userClient;
     private final LivreClient livreClient;
-
+    private final ReferentielService referentielService;
+    private final AppelsDistants appelsDistants;
+    private final EmpruntProperties properties;
+    private final ObjectMapper objectMapper;
+    private final RetardScheduler retardScheduler;
+    private final OperationStockDispatcher operationStockDispatcher;
+    private final TransactionTemplate transactionTemplate;
+    private final EmpruntBatchRepo empruntBatchRepo;
+    private final CompteursEmprunts compteursEmprunts;
+    private final AnalyseEmprunts analyseEmprunts;
+    private final InstantanesEmprunts instantanesEmprunts;
+    private final ReservationService reservationService;
+    private final FluxChangements fluxChangements;
+
+    // Saga de création : contrôles et réservation du stock sur ms-livre hors transaction,
+    // puis enregistrement de l'emprunt dans une transaction locale courte ; si cet
+    // enregistrement échoue, l'exemplaire réservé est rendu (compensation via l'outbox)
     @Override
-    @Transactional
     public EmpruntRespDto creerEmprunt(EmpruntReqDto empruntReqDto) {
-        // 1. Vérifier que l'utilisateur existe
-        UserDto user;
-        try {
-            user = userClient.getUserById(empruntReqDto.getUtilisateurId());
-        } catch (FeignException.NotFound e) {
-            throw new EntityNotFoundException(
-                    "Utilisateur avec l'id " + empruntReqDto.getUtilisateurId() + " introuvable");
+        // 1 et 2. Vérifier en parallèle que l'utilisateur et le livre existent
+        CompletableFuture<UserDto> userFuture = appelsDistants.lancer(
+                () -> chargerUser(empruntReqDto.getUtilisateurId()));
+        CompletableFuture<LivreDto> livreFuture = appelsDistants.lancer(
+                () -> chargerLivre(empruntReqDto.getLivreId()));
+        appelsDistants.attendre(userFuture, livreFuture);
+
+        UserDto user = appelsDistants.resultat(userFuture);
+        LivreDto livre = appelsDistants.resultat(livreFuture);
+
+        // 3. Vérifier qu'il y a des exemplaires disponibles, ou qu'un exemplaire rendu a été
+        // mis de côté pour cet utilisateur (réservation DISPONIBLE, déjà retiré du stock)
+        Long reservationId = reservationService.getReservationDisponible(
+                empruntReqDto.getUtilisateurId(), empruntReqDto.getLivreId());
+        if (reservationId == null
+                && (livre.getQuantiteDisponible() == null || livre.getQuantiteDisponible() <= 0)) {
+            throw new IllegalStateException(
+                    "Aucun exemplaire disponible pour ce livre : une réservation est possible");
         }
 
-        // 2. Vérifier que le livre existe et est disponible
-        LivreDto livre;
-        try {
-            livre = livreClient.getLivreById(empruntReqDto.getLivreId());
-        } catch (FeignException.NotFound e) {
-            throw new EntityNotFoundException("Livre avec l'id " + empruntReqDto.getLivreId() + " introuvable");
+        // 4. Limite d'emprunts actifs et emprunt déjà en cours du même livre : une seule requête
+        EmpruntsActifs actifs = empruntRepo.compterEmpruntsActifs(
+                empruntReqDto.getUtilisateurId(),
+                empruntReqDto.getLivreId(),
+                StatutEmprunt.EN_COURS);
+        int maxEmpruntsActifs = properties.getMaxEmpruntsActifs();
+        if (actifs.getTotal() >= maxEmpruntsActifs) {
+            throw new IllegalStateException(
+                    "L'utilisateur a atteint la limite de " + maxEmpruntsActifs + " emprunts actifs");
         }
-
-        // 3. Vérifier qu'il y a des exemplaires disponibles
-        if (livre.getQuantiteDisponible() == null || livre.getQuantiteDisponible() <= 0) {
-            throw new IllegalStateException("Aucun exemplaire disponible pour ce livre");
+        if (actifs.getMemeLivre() > 0) {
+            throw new IllegalStateException(
+                    "L'utilisateur a déjà emprunté ce livre et ne l'a pas encore retourné");
         }
 
-        // Limit check: Max 3 active loans per user
-        List<Emprunt> activeLoans = empruntRepo.findByUtilisateurIdAndStatut(
-                empruntReqDto.getUtilisateurId(),
-                StatutEmprunt.EN_COURS);
-        if (activeLoans.size() >= 3) {
-            throw new IllegalStateException("L'utilisateur a atteint la limite de 3 emprunts actifs");
+        // 5. Réserver un exemplaire : décrément sur ms-livre (la réponse contient le stock à jour).
+        // L'annulation est enregistrée avant l'appel, avec une clé propre à cette tentative : si la
+        // réponse est perdue (délai dépassé, arrêt de l'instance), l'exemplaire éventuellement réservé
+        // est rendu, et une requête reprise ne peut pas rejouer une réservation déjà annulée
+        Long annulationId = null;
+        if (reservationId == null) {
+            String cleEmprunt = "emprunt-" + UUID.randomUUID();
+            annulationId = transactionTemplate.execute(status -> operationStockDispatcher
+                    .enregistrerAnnulation(empruntReqDto.getLivreId(), cleEmprunt)).getId();
+            try {
+                livre = livreClient.emprunterLivre(empruntReqDto.getLivreId(), cleEmprunt);
+                referentielService.majLivre(livre);
+            } catch (FeignException e) {
+                if (OperationStockDispatcher.issueInconnue(e)) {
+                    envoyerCompensation(annulationId);
+                } else {
+                    // Refus de ms-livre : rien n'a été réservé
+                    Long id = annulationId;
+                    transactionTemplate.executeWithoutResult(status -> operationStockDispatcher.retirer(id));
+                }
+                throw new IllegalStateException("Erreur lors de l'emprunt du livre : " + e.getMessage());
+            }
         }
 
-        // 4. Vérifier que l'utilisateur n'a pas déjà emprunté ce livre (et ne l'a pas
-        // retourné)
-        empruntRepo.findByUtilisateurIdAndLivreIdAndStatut(
-                empruntReqDto.getUtilisateurId(),
-                empruntReqDto.getLivreId(),
-                StatutEmprunt.EN_COURS).ifPresent(e -> {
-                    throw new IllegalStateException(
-                            "L'utilisateur a déjà emprunté ce livre et ne l'a pas encore retourné");
-                });
+        // 6. Créer l'emprunt ; l'annulation préparée est retirée dans la même transaction
+        Emprunt emprunt = construireEmprunt(empruntReqDto, user, livre);
+        String categorie = livre.getCategorie();
+        Long annulation = annulationId;
 
-        // 5. Décrémenter la quantité disponible via ms-livre
+        Emprunt savedEmprunt;
         try {
-            livreClient.emprunterLivre(empruntReqDto.getLivreId());
-        } catch (FeignException e) {
-            throw new IllegalStateException("Erreur lors de l'emprunt du livre : " + e.getMessage());
+            savedEmprunt = transactionTemplate.execute(status -> {
+                Emprunt enregistre = empruntRepo.save(emprunt);
+                if (reservationId != null) {
+                    reservationService.honorer(reservationId, enregistre.getId());
+                } else {
+                    operationStockDispatcher.retirer(annulation);
+                }
+                compteursEmprunts.ajouter(StatutEmprunt.EN_COURS, 1);
+                analyseEmprunts.enregistrer(enregistre.getLivreId(), categorie,
+                        enregistre.getDateEmprunt().toLocalDate(), 1);
+                return enregistre;
+            });
+        } catch (RuntimeException e) {
+            if (annulation != null) {
+                envoyerCompensation(annulation);
+            }
+            throw e;
         }
+        retardScheduler.signalerEcheance(savedEmprunt.getDateRetourPrevue());
+
+        // 7. Enrichir la réponse avec les données user et livre
+        return publier(enrichirEmprunt(savedEmprunt, user, livre));
+    }
+
+    @Override
+    public EmpruntRespDto getEmpruntById(Long id) {
+        Emprunt emprunt = empruntRepo.findById(id)
+                .orElseThrow(() -> new EntityNotFoundException("Emprunt avec l'id " + id + " introuvable"));
+
+        return enrichirEmpruntAvecClients(emprunt);
+    }
 
-        // 6. Créer l'emprunt
+    private Emprunt construireEmprunt(EmpruntReqDto empruntReqDto, UserDto user, LivreDto livre) {
         Integer dureePrevue = empruntReqDto.getDureePrevueJours() != null ? empruntReqDto.getDureePrevueJours() : 14;
 
-        Emprunt emprunt = Emprunt.builder()
+        return Emprunt.builder()
                 .utilisateurId(empruntReqDto.getUtilisateurId())
                 .livreId(empruntReqDto.getLivreId())
                 .dateEmprunt(LocalDateTime.now())
                 .dateRetourPrevue(LocalDateTime.now().plusDays(dureePrevue))
                 .statut(StatutEmprunt.EN_COURS)
+                .utilisateurNom(user.getNom())
+                .utilisateurEmail(user.getEmail())
+                .utilisateurVersion(user.getVersion())
+                .livreTitre(livre.getTitre())
+                .livreAuteur(livre.getAuteur())
+                .livreIsbn(livre.getIsbn())
+                .livreVersion(livre.getVersion())
                 .build();
+    }
 
-        Emprunt savedEmprunt = empruntRepo.save(emprunt);
+    @Override
+    public List<EmpruntLotRespDto> creerEmprunts(List<EmpruntReqDto> demandes) {
+        verifierTailleLot(demandes.size());
+        EmpruntLotRespDto[] resultats = new EmpruntLotRespDto[demandes.size()];
+
+        // 1. Utilisateurs et livres du lot : un appel groupé par service, en parallèle
+        Set<Long> userIds = demandes.stream()
+                .map(EmpruntReqDto::getUtilisateurId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Set<Long> livreIds = demandes.stream()
+                .map(EmpruntReqDto::getLivreId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        CompletableFuture<Map<Long, UserDto>> usersFuture = appelsDistants.lancer(
+                () -> referentielService.getUsers(userIds));
+        CompletableFuture<Map<Long, LivreDto>> livresFuture = appelsDistants.lancer(
+                () -> referentielService.getLivresFrais(livreIds));
+        appelsDistants.attendre(usersFuture, livresFuture);
+        Map<Long, UserDto> users = appelsDistants.resultat(usersFuture);
+        Map<Long, LivreDto> livres = new HashMap<>(appelsDistants.resultat(livresFuture));
+
+        // 2. Emprunts en cours de ces utilisateurs : une seule requête (au plus maxEmpruntsActifs par utilisateur)
+        Map<Long, Set<Long>> livresEnCoursParUser = new HashMap<>();
+        if (!userIds.isEmpty()) {
+            empruntRepo.findByUtilisateurIdInAndStatut(userIds, StatutEmprunt.EN_COURS).forEach(e ->
+                    livresEnCoursParUser.computeIfAbsent(e.getUtilisateurId(), id -> new HashSet<>()).add(e.getLivreId()));
+        }
+        // Exemplaires mis de côté pour ces utilisateurs : comme pour un emprunt seul, ils sont
+        // déjà décomptés chez ms-livre et ne passent pas par l'appel groupé
+        Map<Long, Map<Long, Long>> reservationsDisponibles = reservationService.getReservationsDisponibles(userIds);
+
+        // 3. Contrôles en mémoire, dans l'ordre de la requête (les éléments déjà acceptés comptent)
+        Map<Long, Integer> demandeParLivre = new LinkedHashMap<>();
+        Map<Integer, Long> reservationParIndex = new HashMap<>();
+        List<Integer> acceptes = new ArrayList<>();
+        for (int i = 0; i < demandes.size(); i++) {
+            EmpruntReqDto demande = demandes.get(i);
+            Long reservationId = reservationsDisponibles
+                    .getOrDefault(demande.getUtilisateurId(), Map.of())
+                    .get(demande.getLivreId());
+            String erreur = controlerDemande(demande, users, livres, livresEnCoursParUser, demandeParLivre,
+                    reservationId != null);
+            if (erreur != null) {
+                resultats[i] = echecLot(i, erreur);
+                continue;
+            }
+            livresEnCoursParUser.computeIfAbsent(demande.getUtilisateurId(), id -> new HashSet<>())
+                    .add(demande.getLivreId());
+            if (reservationId != null) {
+                reservationParIndex.put(i, reservationId);
+            } else {
+                demandeParLivre.merge(demande.getLivreId(), 1, Integer::sum);
+            }
+            acceptes.add(i);
+        }
+        if (acceptes.isEmpty()) {
+            return Arrays.asList(resultats);
+        }
 
-        // 7. Enrichir la réponse avec les données user et livre
-        return enrichirEmprunt(savedEmprunt, user, livre);
+        // 4. Réserver les exemplaires : un seul appel groupé à ms-livre, avec une clé propre au lot.
+        // Comme pour un emprunt seul, les annulations (une par exemplaire demandé) sont enregistrées
+        // avant l'appel : si la réponse est perdue, le lot est rejoué avec sa clé et ce qui a été
+        // accordé est rendu ; sur un succès ou un refus de ms-livre, elles sont retirées
+        String cleLot = "emprunt-lot-" + UUID.randomUUID();
+        List<Long> annulationIds = demandeParLivre.isEmpty() ? List.of() : transactionTemplate.execute(status ->
+                demandeParLivre.entrySet().stream()
+                        .flatMap(demande -> Collections.nCopies(demande.getValue(), demande.getKey()).stream())
+                        .map(livreId -> operationStockDispatcher.enregistrerAnnulationLot(livreId, cleLot).getId())
+                        .collect(Collectors.toList()));
+        Map<Long, Integer> accordesParLivre = new HashMap<>();
+        // Annulations encore en attente dans l'outbox pour des exemplaires accordés par ms-livre
+        boolean annulationsEnAttente = false;
+        if (!demandeParLivre.isEmpty()) {
+            try {
+                for (MouvementStockDto mouvement : livreClient.emprunterLot(demandeParLivre, cleLot)) {
+                    accordesParLivre.put(mouvement.getLivreId(), mouvement.getAccorde());
+                    if (mouvement.getLivre() != null) {
+                        livres.put(mouvement.getLivreId(), mouvement.getLivre());
+                        referentielService.majLivre(mouvement.getLivre());
+                    }
+                }
+                annulationsEnAttente = true;
+            } catch (FeignException e) {
+                if (OperationStockDispatcher.issueInconnue(e)) {
+                    envoyerCompensation(annulationIds.get(0));
+                } else {
+                    // Refus de ms-livre : rien n'a été réservé
+                    transactionTemplate.executeWithoutResult(status -> operationStockDispatcher.retirerLot(cleLot));
+                }
+                // Les exemplaires mis de côté ne dépendent pas de cet appel : ces demandes restent servies
+                acceptes.stream()
+                        .filter(i -> !reservationParIndex.containsKey(i))
+                        .forEach(i -> resultats[i] = echecLot(i, "Erreur lors de l'emprunt du livre : " + e.getMessage()));
+            }
+        }
+
+        // 5. Répartir les exemplaires accordés dans l'ordre de la requête
+        List<Emprunt> aCreer = new ArrayList<>();
+        List<Integer> indexACreer = new ArrayList<>();
+        for (int i : acceptes) {
+            EmpruntReqDto demande = demandes.get(i);
+            if (resultats[i] != null) {
+                continue;
+            }
+            if (!reservationParIndex.containsKey(i)) {
+                int restants = accordesParLivre.getOrDefault(demande.getLivreId(), 0);
+                if (restants <= 0) {
+                    resultats[i] = echecLot(i, "Aucun exemplaire disponible pour ce livre");
+                    continue;
+                }
+                accordesParLivre.put(demande.getLivreId(), restants - 1);
+            }
+            aCreer.add(construireEmprunt(demande,
+                    users.get(demande.getUtilisateurId()),
+                    livres.get(demande.getLivreId())));
+            indexACreer.add(i);
+        }
+
+        // 6. Insertion JDBC par lots, dans une seule transaction courte ; chaque exemplaire accordé
+        // devient un emprunt, les annulations préparées sont retirées dans la même transaction.
+        // Les réservations honorées le sont aussi : si l'une a expiré entre-temps, rien n'est enregistré
+        boolean retirerAnnulations = annulationsEnAttente;
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                empruntBatchRepo.insererTous(aCreer);
+                for (int k = 0; k < aCreer.size(); k++) {
+                    Long reservationId = reservationParIndex.get(indexACreer.get(k));
+                    if (reservationId != null) {
+                        reservationService.honorer(reservationId, aCreer.get(k).getId());
+                    }
+                }
+                if (retirerAnnulations) {
+                    operationStockDispatcher.retirerLot(cleLot);
+                }
+                compteursEmprunts.ajouter(StatutEmprunt.EN_COURS, aCreer.size());
+                aCreer.stream()
+                        .collect(Collectors.groupingBy(Emprunt::getLivreId, Collectors.counting()))
+                        .forEach((livreId, nombre) -> analyseEmprunts.enregistrer(livreId,
+                                livres.get(livreId).getCategorie(), LocalDate.now(), nombre));
+            });
+        } catch (RuntimeException e) {
+            // Annulations restées dans l'outbox : le lot est rejoué et les exemplaires accordés rendus
+            if (annulationsEnAttente) {
+                envoyerCompensation(annulationIds.get(0));
+            }
+            indexACreer.forEach(i -> resultats[i] = echecLot(i, "Erreur lors de l'enregistrement de l'emprunt"));
+            return Arrays.asList(resultats);
+        }
+
+        // 7. Réponses
+        for (int k = 0; k < aCreer.size(); k++) {
+            Emprunt emprunt = aCreer.get(k);
+            retardScheduler.signalerEcheance(emprunt.getDateRetourPrevue());
+            int i = indexACreer.get(k);
+            resultats[i] = EmpruntLotRespDto.builder()
+                    .index(i)
+                    .succes(true)
+                    .emprunt(publier(enrichirEmprunt(emprunt,
+                            users.get(emprunt.getUtilisateurId()),
+                            livres.get(emprunt.getLivreId()))))
+                    .build();
+        }
+        return Arrays.asList(resultats);
+    }
+
+    // Mêmes règles que creerEmprunt ; retourne le motif du refus, ou null si la demande est acceptable
+    private String controlerDemande(EmpruntReqDto demande,
+                                    Map<Long, UserDto> users,
+                                    Map<Long, LivreDto> livres,
+                                    Map<Long, Set<Long>> livresEnCoursParUser,
+                                    Map<Long, Integer> demandeParLivre,
+                                    boolean exemplaireMisDeCote) {
+        if (demande.getUtilisateurId() == null || !users.containsKey(demande.getUtilisateurId())) {
+            return "Utilisateur avec l'id " + demande.getUtilisateurId() + " introuvable";
+        }
+        LivreDto livre = demande.getLivreId() == null ? null : livres.get(demande.getLivreId());
+        if (livre == null) {
+            return "Livre avec l'id " + demande.getLivreId() + " introuvable";
+        }
+        Set<Long> enCours = livresEnCoursParUser.getOrDefault(demande.getUtilisateurId(), Set.of());
+        if (enCours.size() >= properties.getMaxEmpruntsActifs()) {
+            return "L'utilisateur a atteint la limite de " + properties.getMaxEmpruntsActifs() + " emprunts actifs";
+        }
+        if (enCours.contains(demande.getLivreId())) {
+            return "L'utilisateur a déjà emprunté ce livre et ne l'a pas encore retourné";
+        }
+        int dejaDemandes = demandeParLivre.getOrDefault(demande.getLivreId(), 0);
+        if (!exemplaireMisDeCote && (livre.getQuantiteDisponible() == null || livre.getQuantiteDisponible() <= dejaDemandes)) {
+            return "Aucun exemplaire disponible pour ce livre";
+        }
+        return null;
     }
 
     @Override
-    public EmpruntRespDto getEmpruntById(Long id) {
-        Emprunt emprunt = empruntRepo.findById(id)
-                .orElseThrow(() -> new EntityNotFoundException("Emprunt avec l'id " + id + " introuvable"));
+    public List<EmpruntLotRespDto> retournerLivres(List<Long> empruntIds) {
+        verifierTailleLot(empruntIds.size());
+        EmpruntLotRespDto[] resultats = new EmpruntLotRespDto[empruntIds.size()];
+        LocalDateTime maintenant = LocalDateTime.now();
+
+        // 1. Transaction locale courte : verrouiller le lot, passer les emprunts à RETOURNE
+        // et ajouter les retours d'exemplaires à l'outbox, sous la clé du lot envoyé à ms-livre
+        String cleLot = "retour-lot-" + UUID.randomUUID();
+        RetoursEnregistres retours = transactionTemplate.execute(status -> {
+            List<Emprunt> trouves = empruntRepo.findAllByIdForUpdate(new HashSet<>(empruntIds));
+            List<Emprunt> aRetourner = trouves.stream()
+                    .filter(e -> e.getStatut() != StatutEmprunt.RETOURNE)
+                    .collect(Collectors.toList());
+            if (aRetourner.isEmpty()) {
+                return new RetoursEnregistres(trouves, aRetourner, List.of(), List.of());
+            }
+            empruntRepo.marquerRetournes(aRetourner.stream().map(Emprunt::getId).collect(Collectors.toList()), maintenant);
+            // Tous les statuts quittés en un seul appel : lignes des compteurs verrouillées dans un ordre fixe
+            Map<StatutEmprunt, Long> deltas = new EnumMap<>(StatutEmprunt.class);
+            aRetourner.forEach(e -> deltas.merge(e.getStatut(), -1L, Long::sum));
+            deltas.put(StatutEmprunt.RETOURNE, (long) aRetourner.size());
+            compteursEmprunts.appliquer(deltas);
+            // Exemplaires mis de côté pour les files d'attente ; les autres sont rendus au stock
+            List<Emprunt> rendus = aRetourner.stream()
+                    .filter(e -> !reservationService.attribuerExemplaire(e.getLivreId()))
+                    .collect(Collectors.toList());
+            List<Long> operationIds = rendus.stream()
+                    .map(e -> operationStockDispatcher.enregistrerPourEnvoiGroupe(
+                            TypeOperationStock.RETOUR, e.getLivreId(), e.getId(), cleLot).getId())
+                    .collect(Collectors.toList());
+            return new RetoursEnregistres(trouves, aRetourner, rendus, operationIds);
+        });
+        retours.retournes().forEach(e -> {
+            e.setStatut(StatutEmprunt.RETOURNE);
+            e.setDateRetourEffective(maintenant);
+        });
 
-        return enrichirEmpruntAvecClients(emprunt);
+        // 2. Hors transaction : un seul appel groupé à ms-livre pour rendre les exemplaires. Si ms-livre
+        // refuse le lot, rien n'est rendu : les retours restent dans l'outbox et partent un par un.
+        // Si l'issue est inconnue (délai dépassé, 502-504), ms-livre a pu l'appliquer : le dispatcher
+        // rejoue le même lot avec la même clé, jamais des retours unitaires qui compteraient deux fois.
+        Map<Long, LivreDto> livres = new HashMap<>();
+        if (!retours.operationIds().isEmpty()) {
+            Map<Long, Integer> quantites = retours.rendus().stream()
+                    .collect(Collectors.toMap(Emprunt::getLivreId, e -> 1, Integer::sum));
+            try {
+                for (MouvementStockDto mouvement : livreClient.retournerLot(quantites, cleLot)) {
+                    if (mouvement.getLivre() != null) {
+                        livres.put(mouvement.getLivreId(), mouvement.getLivre());
+                        referentielService.majLivre(mouvement.getLivre());
+                    }
+                }
+                operationStockDispatcher.marquerEnvoyees(retours.operationIds());
+            } catch (FeignException e) {
+                if (OperationStockDispatcher.issueInconnue(e)) {
+                    log.warn("Retour groupé sans réponse de ms-livre, lot rejoué par l'outbox : {}", e.getMessage());
+                    operationStockDispatcher.liberer(retours.operationIds());
+                } else {
+                    log.warn("Retour groupé refusé par ms-livre, reprise unitaire par l'outbox : {}", e.getMessage());
+                    operationStockDispatcher.detacherDuLot(retours.operationIds());
+                }
+            }
+        }
+
+        // 3. Réponses, enrichies avec un appel groupé par service
+        Map<Long, Emprunt> trouvesParId = retours.trouves().stream()
+                .collect(Collectors.toMap(Emprunt::getId, e -> e));
+        Set<Long> retournesIds = retours.retournes().stream().map(Emprunt::getId).collect(Collectors.toSet());
+        Map<Long, EmpruntRespDto> enrichis = enrichirEmpruntsAvecClients(retours.retournes()).stream()
+                .collect(Collectors.toMap(EmpruntRespDto::getId, dto -> dto));
+        Set<Long> dejaTraites = new HashSet<>();
+        for (int i = 0; i < empruntIds.size(); i++) {
+            Long id = empruntIds.get(i);
+            if (!trouvesParId.containsKey(id)) {
+                resultats[i] = echecLot(i, "Emprunt avec l'id " + id + " introuvable");
+            } else if (!retournesIds.contains(id) || !dejaTraites.add(id)) {
+                resultats[i] = echecLot(i, "Ce livre a déjà été retourné");
+            } else {
+                EmpruntRespDto dto = enrichis.get(id);
+                if (livres.containsKey(dto.getLivreId())) {
+                    dto.setLivre(livres.get(dto.getLivreId()));
+                }
+                resultats[i] = EmpruntLotRespDto.builder().index(i).succes(true).emprunt(publier(dto)).build();
+            }
+        }
+        return Arrays.asList(resultats);
     }
 
-    @Override
-    @Transactional
-    public EmpruntRespDto retournerLivre(Long empruntId) {
-        // 1. Récupérer l'emprunt
-        Emprunt emprunt = empruntRepo.findById(empruntId)
-                .orElseThrow(() -> new EntityNotFoundException("Emprunt avec l'id " + empruntId + " introuvable"));
+    // Résultat de la transaction d'un retour groupé
+    private record RetoursEnregistres(List<Emprunt> trouves, List<Emprunt> retournes, List<Emprunt> rendus,
+                                      List<Long> operationIds) {
+    }
 
-        // 2. Vérifier que le livre n'a pas déjà été retourné
-        if (emprunt.getStatut() == StatutEmprunt.RETOURNE) {
-            throw new IllegalStateException("Ce livre a déjà été retourné");
+    private void verifierTailleLot(int taille) {
+        if (taille > properties.getLot().getTailleMax()) {
+            throw new IllegalStateException(
+                    "Un lot ne peut pas dépasser " + properties.getLot().getTailleMax() + " éléments");
         }
+    }
 
-        // 3. Incrémenter la quantité disponible via ms-livre
-        LivreDto livre;
+    private static EmpruntLotRespDto echecLot(int index, String erreur) {
+        return EmpruntLotRespDto.builder().index(index).succes(false).erreur(erreur).build();
+    }
+
+    // L'opération est dans l'outbox : si son envoi échoue ici, seul le dispatcher la renvoie, avec la
+    // même clé (outbox-<id>). Un retour direct compterait l'exemplaire deux fois si ms-livre avait
+    // déjà appliqué le premier envoi.
+    private void envoyerCompensation(Long operationId) {
         try {
-            livre = livreClient.retournerLivre(emprunt.getLivreId());
-        } catch (FeignException e) {
-            throw new IllegalStateException("Erreur lors du retour du livre : " + e.getMessage());
+            operationStockDispatcher.envoyer(operationId);
+        } catch (RuntimeException e) {
+            log.warn("Compensation {} non envoyée, reprise par l'outbox : {}", operationId, e.getMessage());
         }
+    }
 
-        // 4. Mettre à jour l'emprunt
-        emprunt.setDateRetourEffective(LocalDateTime.now());
-        emprunt.setStatut(StatutEmprunt.RETOURNE);
+    // Emprunt retourné et opération de stock associée, enregistrés dans la même transaction
+    private record RetourEnregistre(Emprunt emprunt, OperationStock operation) {
+    }
 
-        Emprunt updatedEmprunt = empruntRepo.save(emprunt);
+    @Override
+    public EmpruntRespDto retournerLivre(Long empruntId) {
+        // 1 et 2. Transaction locale courte : passage à RETOURNE (si ce n'est pas déjà fait)
+        // et ajout du retour d'exemplaire dans l'outbox, validés ensemble
+        RetourEnregistre retour = transactionTemplate.execute(status -> {
+            // Ligne verrouillée : le statut lu (EN_COURS ou EN_RETARD) est celui que l'on quitte
+            Emprunt emprunt = empruntRepo.findAllByIdForUpdate(List.of(empruntId)).stream()
+                    .findFirst()
+                    .orElseThrow(() -> new EntityNotFoundException("Emprunt avec l'id " + empruntId + " introuvable"));
+            StatutEmprunt ancienStatut = emprunt.getStatut();
+            LocalDateTime maintenant = LocalDateTime.now();
+            if (empruntRepo.marquerRetourne(empruntId, maintenant) == 0) {
+                throw new IllegalStateException("Ce livre a déjà été retourné");
+            }
+            emprunt.setStatut(StatutEmprunt.RETOURNE);
+            emprunt.setDateRetourEffective(maintenant);
+            compteursEmprunts.transferer(ancienStatut, StatutEmprunt.RETOURNE, 1);
+            // Exemplaire mis de côté pour le premier de la file d'attente, sinon rendu au stock
+            OperationStock operation = reservationService.attribuerExemplaire(emprunt.getLivreId())
+                    ? null
+                    : operationStockDispatcher.enregistrer(TypeOperationStock.RETOUR, emprunt.getLivreId(), emprunt.getId());
+            return new RetourEnregistre(emprunt, operation);
+        });
+        Emprunt emprunt = retour.emprunt();
+
+        // 3. Hors transaction : rendre l'exemplaire à ms-livre, en parallèle de la
+        // récupération de l'utilisateur pour la réponse. Si ms-livre ne répond pas,
+        // le retour reste dans l'outbox et sera renvoyé par le dispatcher.
+        CompletableFuture<LivreDto> livreFuture = appelsDistants.lancer(() -> {
+            LivreDto livreAJour = retour.operation() == null
+                    ? null : operationStockDispatcher.envoyer(retour.operation().getId());
+            return livreAJour != null ? livreAJour : chargerLivreOuNull(emprunt.getLivreId());
+        });
+        CompletableFuture<UserDto> userFuture = appelsDistants.lancer(
+                () -> chargerUserOuNull(emprunt.getUtilisateurId()));
+        try {
+            appelsDistants.attendre(livreFuture, userFuture);
+        } catch (IllegalStateException | ResponseStatusException e) {
+            // Le retour est déjà enregistré (délai dépassé ou pool saturé) : on répond sans les
+            // données enrichies ; l'opération reste dans l'outbox si elle n'a pas été envoyée
+            return publier(enrichirEmprunt(emprunt, null, null, true));
+        }
 
-        // 5. Enrichir la réponse
-        UserDto user = userClient.getUserById(emprunt.getUtilisateurId());
-        return enrichirEmprunt(updatedEmprunt, user, livre);
+        // 4. Enrichir la réponse
+        return publier(enrichirEmprunt(emprunt, appelsDistants.resultat(userFuture), appelsDistants.resultat(livreFuture)));
     }
 
     @Override
-    public List<EmpruntRespDto> getEmpruntsByUserId(Long userId) {
+    public EmpruntPageRespDto getEmpruntsByUserId(Long userId, Long apres, Integer taille) {
         // Vérifier que l'utilisateur existe
-        try {
-            userClient.getUserById(userId);
-        } catch (FeignException.NotFound e) {
-            throw new EntityNotFoundException("Utilisateur avec l'id " + userId + " introuvable");
-        }
+        chargerUser(userId);
 
-        List<Emprunt> emprunts = empruntRepo.findByUtilisateurId(userId);
-        return emprunts.stream()
-                .map(this::enrichirEmpruntAvecClients)
-                .collect(Collectors.toList());
+        return lirePage(apres, taille,
+                (apresId, limit) -> empruntRepo.findByUtilisateurIdAndIdGreaterThanOrderByIdAsc(userId, apresId, limit));
     }
 
     @Override
-    public List<EmpruntRespDto> getEmpruntsByLivreId(Long livreId) {
+    public EmpruntPageRespDto getEmpruntsByLivreId(Long livreId, Long apres, Integer taille) {
         // Vérifier que le livre existe
-        try {
-            livreClient.getLivreById(livreId);
-        } catch (FeignException.NotFound e) {
-            throw new EntityNotFoundException("Livre avec l'id " + livreId + " introuvable");
-        }
+        chargerLivre(livreId);
 
-        List<Emprunt> emprunts = empruntRepo.findByLivreId(livreId);
-        return emprunts.stream()
-                .map(this::enrichirEmpruntAvecClients)
-                .collect(Collectors.toList());
+        return lirePage(apres, taille,
+                (apresId, limit) -> empruntRepo.findByLivreIdAndIdGreaterThanOrderByIdAsc(livreId, apresId, limit));
     }
 
     @Override
-    public List<EmpruntRespDto> getEmpruntsEnCours() {
-        List<Emprunt> emprunts = empruntRepo.findByStatut(StatutEmprunt.EN_COURS);
-        return emprunts.stream()
-                .map(this::enrichirEmpruntAvecClients)
-                .collect(Collectors.toList());
+    public EmpruntPageRespDto getEmpruntsEnCours(Long apres, Integer taille) {
+        return lirePage(apres, taille,
+                (apresId, limit) -> empruntRepo.findByStatutAndIdGreaterThanOrderByIdAsc(
+                        StatutEmprunt.EN_COURS, apresId, limit));
     }
 
     @Override
-    public List<EmpruntRespDto> getEmpruntsEnRetard() {
-        // Récupérer les emprunts dont la date de retour prévue est dépassée et qui sont
-        // encore EN_COURS
-        List<Emprunt> emprunts = empruntRepo.findByDateRetourPrevueBeforeAndStatut(
-                LocalDateTime.now(),
-                StatutEmprunt.EN_COURS);
+    public EmpruntPageRespDto getEmpruntsEnRetard(Long apres, Integer taille) {
+        // Aucune écriture ici : les emprunts échus mais encore EN_COURS sont inclus tels quels,
+        // leur passage à EN_RETARD reste le travail de RetardScheduler
+        LocalDateTime maintenant = LocalDateTime.now();
+        return lirePage(apres, taille,
+                (apresId, limit) -> empruntRepo.findEnRetard(maintenant, apresId, limit));
+    }
 
-        // Mettre à jour leur statut en EN_RETARD (optionnel)
-        emprunts.forEach(emprunt -> {
-            if (emprunt.getStatut() == StatutEmprunt.EN_COURS) {
-                emprunt.setStatut(StatutEmprunt.EN_RETARD);
-                empruntRepo.save(emprunt);
-            }
-        });
+    @Override
+    public EmpruntPageRespDto getAllEmprunts(Long apres, Integer taille) {
+        return lirePage(apres, taille, empruntRepo::findByIdGreaterThanOrderByIdAsc);
+    }
 
-        return emprunts.stream()
-                .map(this::enrichirEmpruntAvecClients)
-                .collect(Collectors.toList());
+    @Override
+    public StatistiquesEmpruntRespDto getStatistiques(Integer recents) {
+        // Compteurs maintenus à chaque changement de statut : lecture de 3 lignes, sans comptage de la table
+        Map<StatutEmprunt, Long> parStatut = compteursEmprunts.lire();
+        long total = parStatut.values().stream().mapToLong(Long::longValue).sum();
+
+        int nombreRecents = Math.max(0, Math.min(recents == null ? 5 : recents,
+                properties.getPagination().getTailleMax()));
+        List<EmpruntRespDto> derniers = nombreRecents == 0 ? List.of()
+                : enrichirEmpruntsAvecClients(empruntRepo.findByOrderByIdDesc(Limit.of(nombreRecents)));
+
+        return StatistiquesEmpruntRespDto.builder()
+                .total(total)
+                .parStatut(parStatut)
+                .enRetard(parStatut.get(StatutEmprunt.EN_RETARD))
+                .recents(derniers)
+                .build();
     }
 
     @Override
-    public List<EmpruntRespDto> getAllEmprunts() {
-        return empruntRepo.findAll().stream()
-                .map(this::enrichirEmpruntAvecClients)
-                .collect(Collectors.toList());
+    public List<TopLivreRespDto> getTopLivres(FenetreStats fenetre, Integer k) {
+        return analyseEmprunts.topLivres(fenetre, k == null ? 10 : k);
+    }
+
+    @Override
+    public List<CategorieStatsRespDto> getStatistiquesParCategorie(FenetreStats fenetre) {
+        return analyseEmprunts.parCategorie(fenetre);
+    }
+
+    @Override
+    public void reconstruireStatistiques() {
+        analyseEmprunts.lancerReconstruction();
+    }
+
+    @Override
+    public void streamEmpruntsByUserId(Long userId, OutputStream out) throws IOException {
+        chargerUser(userId);
+        ecrireFlux(out,
+                (apresId, limit) -> empruntRepo.findByUtilisateurIdAndIdGreaterThanOrderByIdAsc(userId, apresId, limit));
+    }
+
+    @Override
+    public void streamEmpruntsByLivreId(Long livreId, OutputStream out) throws IOException {
+        chargerLivre(livreId);
+        ecrireFlux(out,
+                (apresId, limit) -> empruntRepo.findByLivreIdAndIdGreaterThanOrderByIdAsc(livreId, apresId, limit));
+    }
+
+    @Override
+    public void streamEmpruntsEnCours(OutputStream out) throws IOException {
+        ecrireFlux(out,
+                (apresId, limit) -> empruntRepo.findByStatutAndIdGreaterThanOrderByIdAsc(
+                        StatutEmprunt.EN_COURS, apresId, limit));
+    }
+
+    @Override
+    public void streamAllEmprunts(OutputStream out) throws IOException {
+        ecrireFlux(out, empruntRepo::findByIdGreaterThanOrderByIdAsc);
+    }
+
+    // Lecture d'une page par curseur : "apresId" = id du dernier emprunt déjà reçu
+    @FunctionalInterface
+    private interface LecturePage {
+        List<Emprunt> lire(Long apresId, Limit limit);
+    }
+
+    private EmpruntPageRespDto lirePage(Long apres, Integer taille, LecturePage lecture) {
+        EmpruntProperties.Pagination pagination = properties.getPagination();
+        int tailleEffective = taille == null ? pagination.getTailleDefaut()
+                : Math.max(1, Math.min(taille, pagination.getTailleMax()));
+
+        // On lit un élément de plus pour savoir s'il existe une page suivante
+        List<Emprunt> emprunts = lecture.lire(apres == null ? 0L : apres, Limit.of(tailleEffective + 1));
+        boolean pageSuivante = emprunts.size() > tailleEffective;
+        if (pageSuivante) {
+            emprunts = emprunts.subList(0, tailleEffective);
+        }
+
+        return EmpruntPageRespDto.builder()
+                .emprunts(enrichirEmpruntsAvecClients(emprunts))
+                .curseurSuivant(pageSuivante ? emprunts.get(emprunts.size() - 1).getId() : null)
+                .build();
+    }
+
+    // Parcourt toute la sélection par lots : seul le lot courant est en mémoire
+    private void ecrireFlux(OutputStream out, LecturePage lecture) throws IOException {
+        Limit lot = Limit.of(properties.getPagination().getTailleLotFlux());
+        Long apresId = 0L;
+        List<Emprunt> emprunts = lecture.lire(apresId, lot);
+
+        while (!emprunts.isEmpty()) {
+            for (EmpruntRespDto dto : enrichirEmpruntsAvecClients(emprunts)) {
+                out.write(objectMapper.writeValueAsBytes(dto));
+                out.write('\n');
+            }
+            out.flush();
+
+            apresId = emprunts.get(emprunts.size() - 1).getId();
+            emprunts = emprunts.size() < lot.max() ? List.of() : lecture.lire(apresId, lot);
+        }
     }
 
     // Méthode helper pour enrichir un emprunt avec les données des clients Feign
     private EmpruntRespDto enrichirEmpruntAvecClients(Emprunt emprunt) {
-        UserDto user = null;
-        LivreDto livre = null;
+        // Les deux appels partent en parallèle ; si l'utilisateur ou le livre
+        // n'existe plus, on continue sans ses données
+        CompletableFuture<Lecture<UserDto>> userFuture = appelsDistants.lancer(
+                () -> lireUser(emprunt.getUtilisateurId()));
+        CompletableFuture<Lecture<LivreDto>> livreFuture = appelsDistants.lancer(
+                () -> lireLivre(emprunt.getLivreId()));
+        try {
+            appelsDistants.attendre(userFuture, livreFuture);
+        } catch (IllegalStateException | ResponseStatusException e) {
+            // Délai dépassé ou pool saturé : on répond avec la copie stockée sur l'emprunt
+            log.warn("Enrichissement de l'emprunt {} hors délai : {}", emprunt.getId(), e.getMessage());
+            return enrichirEmprunt(emprunt, null, null, true);
+        }
+
+        Lecture<UserDto> user = appelsDistants.resultat(userFuture);
+        Lecture<LivreDto> livre = appelsDistants.resultat(livreFuture);
+        return enrichirEmprunt(emprunt, user.valeur(), livre.valeur(), user.degrade() || livre.degrade());
+    }
+
+    // Résultat d'une lecture distante ; "degrade" si le service n'a pas répondu
+    // (la valeur vient alors du cache de secours, ou manque)
+    private record Lecture<T>(T valeur, boolean degrade) {
+    }
 
+    private UserDto chargerUser(Long userId) {
         try {
-            user = userClient.getUserById(emprunt.getUtilisateurId());
+            return referentielService.getUser(userId);
+        } catch (FeignException.NotFound e) {
+            throw new EntityNotFoundException("Utilisateur avec l'id " + userId + " introuvable");
+        }
+    }
+
+    private LivreDto chargerLivre(Long livreId) {
+        try {
+            // Lecture directe sur ms-livre : le contrôle de stock ne doit pas utiliser le cache
+            return referentielService.getLivreFrais(livreId);
+        } catch (FeignException.NotFound e) {
+            throw new EntityNotFoundException("Livre avec l'id " + livreId + " introuvable");
+        }
+    }
+
+    private Lecture<UserDto> lireUser(Long userId) {
+        try {
+            return new Lecture<>(referentielService.getUser(userId), false);
+        } catch (FeignException.NotFound e) {
+            // Utilisateur supprimé depuis : réponse normale, sans ses données
+            return new Lecture<>(null, false);
         } catch (FeignException e) {
-            // Si l'utilisateur n'existe plus, on continue sans ses données
+            log.warn("ms-users indisponible, utilisateur {} lu dans le cache de secours : {}", userId, e.getMessage());
+            return new Lecture<>(referentielService.getUsersEnSecours(List.of(userId)).get(userId), true);
         }
+    }
 
+    private Lecture<LivreDto> lireLivre(Long livreId) {
         try {
-            livre = livreClient.getLivreById(emprunt.getLivreId());
+            return new Lecture<>(referentielService.getLivre(livreId), false);
+        } catch (FeignException.NotFound e) {
+            return new Lecture<>(null, false);
         } catch (FeignException e) {
-            // Si le livre n'existe plus, on continue sans ses données
+            log.warn("ms-livre indisponible, livre {} lu dans le cache de secours : {}", livreId, e.getMessage());
+            return new Lecture<>(referentielService.getLivresEnSecours(List.of(livreId)).get(livreId), true);
+        }
+    }
+
+    private UserDto chargerUserOuNull(Long userId) {
+        return lireUser(userId).valeur();
+    }
+
+    private LivreDto chargerLivreOuNull(Long livreId) {
+        return lireLivre(livreId).valeur();
+    }
+
+    // Méthode helper pour enrichir une liste d'emprunts. Les données d'affichage viennent de
+    // la copie stockée sur chaque emprunt ; seuls les emprunts antérieurs à cette copie
+    // déclenchent un appel groupé par microservice (ids distincts), qui sert aussi à la compléter
+    private List<EmpruntRespDto> enrichirEmpruntsAvecClients(List<Emprunt> emprunts) {
+        if (emprunts.isEmpty()) {
+            return List.of();
+        }
+
+        Set<Long> userIds = emprunts.stream()
+                .filter(e -> e.getUtilisateurNom() == null)
+                .map(Emprunt::getUtilisateurId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Set<Long> livreIds = emprunts.stream()
+                .filter(e -> e.getLivreTitre() == null)
+                .map(Emprunt::getLivreId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        if (userIds.isEmpty() && livreIds.isEmpty()) {
+            return emprunts.stream()
+                    .map(emprunt -> enrichirEmprunt(emprunt, null, null))
+                    .collect(Collectors.toList());
+        }
+
+        // Les deux appels groupés partent en parallèle
+        CompletableFuture<Lecture<Map<Long, UserDto>>> usersFuture = appelsDistants.lancer(() -> {
+            try {
+                Map<Long, UserDto> charges = userIds.isEmpty() ? Map.of() : referentielService.getUsers(userIds);
+                return new Lecture<>(charges, false);
+            } catch (FeignException e) {
+                // Si ms-users ne répond pas, on continue avec ce que le cache de secours connaît
+                log.warn("ms-users indisponible, enrichissement partiel de {} emprunts : {}",
+                        emprunts.size(), e.getMessage());
+                return new Lecture<>(referentielService.getUsersEnSecours(userIds), true);
+            }
+        });
+        CompletableFuture<Lecture<Map<Long, LivreDto>>> livresFuture = appelsDistants.lancer(() -> {
+            try {
+                Map<Long, LivreDto> charges = livreIds.isEmpty() ? Map.of() : referentielService.getLivres(livreIds);
+                return new Lecture<>(charges, false);
+            } catch (FeignException e) {
+                log.warn("ms-livre indisponible, enrichissement partiel de {} emprunts : {}",
+                        emprunts.size(), e.getMessage());
+                return new Lecture<>(referentielService.getLivresEnSecours(livreIds), true);
+            }
+        });
+        Lecture<Map<Long, UserDto>> users;
+        Lecture<Map<Long, LivreDto>> livres;
+        try {
+            appelsDistants.attendre(usersFuture, livresFuture);
+            users = appelsDistants.resultat(usersFuture);
+            livres = appelsDistants.resultat(livresFuture);
+            users.valeur().values().forEach(instantanesEmprunts::userModifie);
+            livres.valeur().values().forEach(instantanesEmprunts::livreModifie);
+        } catch (IllegalStateException | ResponseStatusException e) {
+            log.warn("Enrichissement de {} emprunts hors délai : {}", emprunts.size(), e.getMessage());
+            users = new Lecture<>(referentielService.getUsersEnSecours(userIds), true);
+            livres = new Lecture<>(referentielService.getLivresEnSecours(livreIds), true);
         }
 
-        return enrichirEmprunt(emprunt, user, livre);
+        Map<Long, UserDto> usersParId = users.valeur();
+        Map<Long, LivreDto> livresParId = livres.valeur();
+        boolean usersDegrades = users.degrade();
+        boolean livresDegrades = livres.degrade();
+        return emprunts.stream()
+                .map(emprunt -> enrichirEmprunt(
+                        emprunt,
+                        usersParId.get(emprunt.getUtilisateurId()),
+                        livresParId.get(emprunt.getLivreId()),
+                        (usersDegrades && emprunt.getUtilisateurNom() == null)
+                                || (livresDegrades && emprunt.getLivreTitre() == null)))
+                .collect(Collectors.toList());
+    }
+
+    // Diffuse l'emprunt aux abonnés du flux SSE (après validation si dans une transaction)
+    private EmpruntRespDto publier(EmpruntRespDto emprunt) {
+        fluxChangements.emprunt(emprunt);
+        return emprunt;
     }
 
-    // Méthode helper pour construire EmpruntRespDto avec données enrichies
+    // Méthode helper pour construire EmpruntRespDto avec données enrichies ; à défaut de
+    // données distantes, on reprend la copie stockée sur l'emprunt
     private EmpruntRespDto enrichirEmprunt(Emprunt emprunt, UserDto user, LivreDto livre) {
+        return enrichirEmprunt(emprunt, user, livre, false);
+    }
+
+    private EmpruntRespDto enrichirEmprunt(Emprunt emprunt, UserDto user, LivreDto livre, boolean degrade) {
         EmpruntRespDto dto = empruntMapper.toDto(emprunt);
-        dto.setUtilisateur(user);
-        dto.setLivre(livre);
+        dto.setUtilisateur(user != null ? user : userInstantane(emprunt));
+        dto.setLivre(livre != null ? livre : livreInstantane(emprunt));
+        dto.setDegrade(degrade);
         return dto;
     }
 
+    private static UserDto userInstantane(Emprunt emprunt) {
+        if (emprunt.getUtilisateurNom() == null) {
+            return null;
+        }
+        return UserDto.builder()
+                .id(emprunt.getUtilisateurId())
+                .nom(emprunt.getUtilisateurNom())
+                .email(emprunt.getUtilisateurEmail())
+                .build();
+    }
+
+    private static LivreDto livreInstantane(Emprunt emprunt) {
+        if (emprunt.getLivreTitre() == null) {
+            return null;
+        }
+        return LivreDto.builder()
+                .id(emprunt.getLivreId())
+                .titre(emprunt.getLivreTitre())
+                .auteur(emprunt.getLivreAuteur())
+                .isbn(emprunt.getLivreIsbn())
+                .build();
+    }
+
     @Override
     @Transactional
     public EmpruntRespDto modifierEmprunt(Long id, EmpruntReqDto empruntReqDto) {
@@ -259,25 +919,13 @@ public class EmpruntServiceImpl implements EmpruntService {
         // DTO or just use the duration logic.
 
         Emprunt savedEmprunt = empruntRepo.save(emprunt);
-        return enrichirEmpruntAvecClients(savedEmprunt);
+        retardScheduler.signalerEcheance(savedEmprunt.getDateRetourPrevue());
+        return publier(enrichirEmpruntAvecClients(savedEmprunt));
     }
 
     @Override
-    @Transactional
-    @org.springframework.scheduling.annotation.Scheduled(fixedRate = 60000) // Toutes les minutes
-    public void updateEmpruntsEnRetard() {
-        System.out.println("Vérification des emprunts en retard...");
-        List<Emprunt> empruntsEnRetard = empruntRepo.findByDateRetourPrevueBeforeAndStatut(
-                LocalDateTime.now(),
-                StatutEmprunt.EN_COURS);
-
-        if (!empruntsEnRetard.isEmpty()) {
-            empruntsEnRetard.forEach(emprunt -> {
-                emprunt.setStatut(StatutEmprunt.EN_RETARD);
-            });
-            empruntRepo.saveAll(empruntsEnRetard);
-            System.out.println(
-                    "Mise à jour des emprunts en retard : " + empruntsEnRetard.size() + " emprunts mis à jour.");
-        }
+    public int updateEmpruntsEnRetard() {
+        // Mise à jour groupée en base ; la planification est gérée par RetardScheduler
+        return retardScheduler.executer();
     }
 }
\ No newline at end of file
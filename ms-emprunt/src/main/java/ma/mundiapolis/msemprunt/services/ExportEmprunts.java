@@ -0,0 +1,202 @@
+package ma.mundiapolis.msemprunt.services;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import lombok.extern.slf4j.Slf4j;
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import ma.mundiapolis.msemprunt.entities.Emprunt;
+import ma.mundiapolis.msemprunt.enums.FormatFichier;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Export de l'historique des emprunts (GET /api/emprunts/export) en CSV ou NDJSON.
+ * <p>
+ * Contrairement aux flux NDJSON de l'API, aucun appel à ms-users / ms-livre : les noms et titres
+ * viennent de la copie stockée sur l'emprunt. Les lignes sont lues par un curseur MySQL
+ * (useCursorFetch + fetch size) et chaque emprunt est détaché une fois écrit : la mémoire
+ * utilisée ne dépend pas de la taille de l'historique.
+ */
+@Slf4j
+@Component
+public class ExportEmprunts {
+
+    private static final String ENTETE_CSV = "id,utilisateurId,utilisateurNom,utilisateurEmail,livreId,livreTitre,"
+            + "livreAuteur,livreIsbn,dateEmprunt,dateRetourPrevue,dateRetourEffective,statut\n";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final TransactionTemplate lecture;
+    private final ObjectMapper objectMapper;
+    private final EmpruntProperties properties;
+
+    public ExportEmprunts(PlatformTransactionManager transactionManager,
+                          ObjectMapper objectMapper,
+                          EmpruntProperties properties) {
+        // Transaction en lecture seule : le curseur reste ouvert pendant toute l'écriture
+        this.lecture = new TransactionTemplate(transactionManager);
+        this.lecture.setReadOnly(true);
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+    }
+
+    /**
+     * Écrit les emprunts d'id compris dans ]depuisId, jusquaId] et empruntés entre les jours du et au
+     * (inclus), par id croissant. Tous les filtres sont facultatifs.
+     */
+    public void exporter(FormatFichier format, Long depuisId, Long jusquaId, LocalDate du, LocalDate au,
+                         OutputStream sortie) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(sortie, StandardCharsets.UTF_8), 64 * 1024);
+        JsonGenerator json = null;
+        if (format == FormatFichier.NDJSON) {
+            // Écrit dans le tampon sans le vider à chaque ligne ; le saut de ligne est ajouté à la main
+            json = objectMapper.getFactory().createGenerator(writer)
+                    .setRootValueSeparator(null)
+                    .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        }
+        if (format == FormatFichier.CSV) {
+            writer.write(ENTETE_CSV);
+        }
+        JsonGenerator generateur = json;
+        long debut = System.nanoTime();
+        Long total;
+        try {
+            total = lecture.execute(status -> {
+                try (Stream<Emprunt> emprunts = requete(depuisId, jusquaId, du, au).getResultStream()) {
+                    long n = 0;
+                    Iterator<Emprunt> iterateur = emprunts.iterator();
+                    while (iterateur.hasNext()) {
+                        Emprunt emprunt = iterateur.next();
+                        if (generateur != null) {
+                            ecrireJson(generateur, emprunt);
+                            generateur.flush();
+                        } else {
+                            ecrireCsv(writer, emprunt);
+                        }
+                        writer.write('\n');
+                        entityManager.detach(emprunt);
+                        n++;
+                    }
+                    return n;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            // Client déconnecté : la transaction et le curseur sont déjà refermés
+            throw e.getCause();
+        }
+        writer.flush();
+        log.info("Export des emprunts ({}) : {} lignes en {} ms", format, total, (System.nanoTime() - debut) / 1_000_000);
+    }
+
+    private TypedQuery<Emprunt> requete(Long depuisId, Long jusquaId, LocalDate du, LocalDate au) {
+        // Conditions de date ajoutées seulement si demandées : les emprunts sans date restent exportés sinon
+        StringBuilder jpql = new StringBuilder("select e from Emprunt e where e.id > :depuisId and e.id <= :jusquaId");
+        if (du != null) {
+            jpql.append(" and e.dateEmprunt >= :du");
+        }
+        if (au != null) {
+            jpql.append(" and e.dateEmprunt < :au");
+        }
+        jpql.append(" order by e.id");
+
+        TypedQuery<Emprunt> requete = entityManager.createQuery(jpql.toString(), Emprunt.class)
+                .setParameter("depuisId", depuisId == null ? 0L : depuisId)
+                .setParameter("jusquaId", jusquaId == null ? Long.MAX_VALUE : jusquaId)
+                .setHint(HibernateHints.HINT_FETCH_SIZE, properties.getExport().getTailleFetch())
+                .setHint(HibernateHints.HINT_READ_ONLY, true);
+        if (du != null) {
+            requete.setParameter("du", du.atStartOfDay());
+        }
+        if (au != null) {
+            requete.setParameter("au", au.plusDays(1).atStartOfDay());
+        }
+        return requete;
+    }
+
+    private static void ecrireJson(JsonGenerator json, Emprunt emprunt) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("id", emprunt.getId());
+        nombre(json, "utilisateurId", emprunt.getUtilisateurId());
+        json.writeStringField("utilisateurNom", emprunt.getUtilisateurNom());
+        json.writeStringField("utilisateurEmail", emprunt.getUtilisateurEmail());
+        nombre(json, "livreId", emprunt.getLivreId());
+        json.writeStringField("livreTitre", emprunt.getLivreTitre());
+        json.writeStringField("livreAuteur", emprunt.getLivreAuteur());
+        json.writeStringField("livreIsbn", emprunt.getLivreIsbn());
+        json.writeStringField("dateEmprunt", date(emprunt.getDateEmprunt()));
+        json.writeStringField("dateRetourPrevue", date(emprunt.getDateRetourPrevue()));
+        json.writeStringField("dateRetourEffective", date(emprunt.getDateRetourEffective()));
+        json.writeStringField("statut", emprunt.getStatut() == null ? null : emprunt.getStatut().name());
+        json.writeEndObject();
+    }
+
+    private static void ecrireCsv(Writer writer, Emprunt emprunt) throws IOException {
+        writer.write(String.valueOf(emprunt.getId()));
+        writer.write(',');
+        writer.write(emprunt.getUtilisateurId() == null ? "" : emprunt.getUtilisateurId().toString());
+        writer.write(',');
+        writer.write(csv(emprunt.getUtilisateurNom()));
+        writer.write(',');
+        writer.write(csv(emprunt.getUtilisateurEmail()));
+        writer.write(',');
+        writer.write(emprunt.getLivreId() == null ? "" : emprunt.getLivreId().toString());
+        writer.write(',');
+        writer.write(csv(emprunt.getLivreTitre()));
+        writer.write(',');
+        writer.write(csv(emprunt.getLivreAuteur()));
+        writer.write(',');
+        writer.write(csv(emprunt.getLivreIsbn()));
+        writer.write(',');
+        writer.write(csv(date(emprunt.getDateEmprunt())));
+        writer.write(',');
+        writer.write(csv(date(emprunt.getDateRetourPrevue())));
+        writer.write(',');
+        writer.write(csv(date(emprunt.getDateRetourEffective())));
+        writer.write(',');
+        writer.write(emprunt.getStatut() == null ? "" : emprunt.getStatut().name());
+    }
+
+    private static void nombre(JsonGenerator json, String champ, Long valeur) throws IOException {
+        if (valeur == null) {
+            json.writeNullField(champ);
+        } else {
+            json.writeNumberField(champ, valeur);
+        }
+    }
+
+    // Dates ISO-8601, comme dans les réponses JSON de l'API
+    private static String date(LocalDateTime date) {
+        return date == null ? null : date.toString();
+    }
+
+    // Champ entre guillemets s'il contient un séparateur, un guillemet ou un retour à la ligne
+    private static String csv(String valeur) {
+        if (valeur == null) {
+            return "";
+        }
+        if (valeur.indexOf(',') < 0 && valeur.indexOf('"') < 0 && valeur.indexOf('\n') < 0 && valeur.indexOf('\r') < 0) {
+            return valeur;
+        }
+        return '"' + valeur.replace("\"", "\"\"") + '"';
+    }
+}
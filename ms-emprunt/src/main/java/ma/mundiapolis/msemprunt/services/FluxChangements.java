@@ -0,0 +1,263 @@
+package ma.mundiapolis.msemprunt.services;
+
+import lombok.extern.slf4j.Slf4j;
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import ma.mundiapolis.msemprunt.dto.ChangementsRespDto;
+import ma.mundiapolis.msemprunt.dto.EmpruntRespDto;
+import ma.mundiapolis.msemprunt.dto.LivreDto;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Flux SSE des changements d'emprunts et de stock (GET /api/emprunts/evenements).
+ * <p>
+ * Les changements sont regroupés par id et diffusés à chaque tick : un emprunt modifié
+ * plusieurs fois entre deux ticks n'est envoyé qu'une fois, dans son dernier état.
+ * Un abonné n'a qu'un envoi en cours à la fois ; tant qu'il n'est pas terminé (client lent),
+ * les lots suivants sont fusionnés dans son delta au lieu de s'accumuler en file.
+ * Un abonné inactif ne coûte qu'une connexion asynchrone, aucun thread.
+ * <p>
+ * Local à l'instance : seuls les emprunts créés ou retournés par cette instance sont diffusés ;
+ * les modifications de livres, publiées par ms-livre à toutes les instances, le sont partout.
+ */
+@Slf4j
+@Component
+public class FluxChangements {
+
+    private final Executor fluxExecutor;
+    private final EmpruntProperties.Flux config;
+
+    private final Set<Abonne> abonnes = ConcurrentHashMap.newKeySet();
+    private final Map<Long, EmpruntRespDto> empruntsEnAttente = new ConcurrentHashMap<>();
+    private final Map<Long, LivreDto> livresEnAttente = new ConcurrentHashMap<>();
+    private final AtomicReference<LocalDateTime> retardsEnAttente = new AtomicReference<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile long dernierePulsation = System.nanoTime();
+
+    public FluxChangements(@Qualifier("fluxExecutor") Executor fluxExecutor,
+                           EmpruntProperties properties) {
+        this.fluxExecutor = fluxExecutor;
+        this.config = properties.getFlux();
+    }
+
+    /**
+     * Nouvel abonné. Le premier événement ("connecte") invite le client à charger l'état
+     * courant ; il applique ensuite les deltas "changements".
+     */
+    public SseEmitter abonner() {
+        if (abonnes.size() >= config.getAbonnesMax()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Trop d'abonnés au flux des changements");
+        }
+        SseEmitter emitter = new SseEmitter(config.getDureeMax().toMillis());
+        Abonne abonne = new Abonne(emitter);
+        abonnes.add(abonne);
+        emitter.onCompletion(() -> abonnes.remove(abonne));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> abonnes.remove(abonne));
+        try {
+            emitter.send(SseEmitter.event()
+                    .name("connecte")
+                    .id(String.valueOf(sequence.get()))
+                    .reconnectTime(config.getReconnexion().toMillis())
+                    .data(sequence.get()));
+        } catch (IOException e) {
+            abonnes.remove(abonne);
+        }
+        return emitter;
+    }
+
+    public int getNombreAbonnes() {
+        return abonnes.size();
+    }
+
+    public void emprunt(EmpruntRespDto emprunt) {
+        if (emprunt == null || emprunt.getId() == null || abonnes.isEmpty()) {
+            return;
+        }
+        apresValidation(() -> empruntsEnAttente.put(emprunt.getId(), emprunt));
+    }
+
+    public void livre(LivreDto livre) {
+        if (livre == null || livre.getId() == null || abonnes.isEmpty()) {
+            return;
+        }
+        apresValidation(() -> livresEnAttente.put(livre.getId(), livre));
+    }
+
+    /**
+     * Passage groupé EN_COURS → EN_RETARD (UPDATE sans ids) : le client applique la règle
+     * lui-même à partir de la date plutôt que de recevoir chaque emprunt.
+     */
+    public void retards(LocalDateTime avant) {
+        if (avant == null || abonnes.isEmpty()) {
+            return;
+        }
+        retardsEnAttente.accumulateAndGet(avant, FluxChangements::plusRecente);
+    }
+
+    @Scheduled(fixedDelayString = "${emprunt.flux.intervalle-ms:1000}")
+    public void diffuser() {
+        List<EmpruntRespDto> emprunts = extraire(empruntsEnAttente);
+        List<LivreDto> livres = extraire(livresEnAttente);
+        LocalDateTime retards = retardsEnAttente.getAndSet(null);
+        if (abonnes.isEmpty()) {
+            return;
+        }
+
+        if (!emprunts.isEmpty() || !livres.isEmpty() || retards != null) {
+            long numero = sequence.incrementAndGet();
+            abonnes.forEach(abonne -> abonne.fusionner(numero, emprunts, livres, retards, config.getDeltaMax()));
+        }
+
+        // Commentaire périodique : garde la connexion ouverte à travers les proxys
+        // et détecte les clients partis sans fermer proprement
+        boolean pulsation = System.nanoTime() - dernierePulsation >= config.getPulsation().toNanos();
+        if (pulsation) {
+            dernierePulsation = System.nanoTime();
+        }
+        for (Abonne abonne : abonnes) {
+            if (pulsation || abonne.aEnvoyer()) {
+                envoyer(abonne, pulsation);
+            }
+        }
+    }
+
+    private void envoyer(Abonne abonne, boolean pulsation) {
+        // Envoi précédent pas terminé : le delta continue d'être fusionné jusqu'au prochain tick
+        if (!abonne.enCours.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            fluxExecutor.execute(() -> {
+                try {
+                    ChangementsRespDto delta = abonne.prendre();
+                    if (delta != null) {
+                        abonne.emitter.send(SseEmitter.event()
+                                .name("changements")
+                                .id(String.valueOf(delta.getSequence()))
+                                .data(delta, MediaType.APPLICATION_JSON));
+                    } else if (pulsation) {
+                        abonne.emitter.send(SseEmitter.event().comment("ping"));
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // Client déconnecté ou flux déjà terminé
+                    abonnes.remove(abonne);
+                    log.debug("Abonné du flux des changements retiré : {}", e.getMessage());
+                } finally {
+                    abonne.enCours.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            abonne.enCours.set(false);
+        }
+    }
+
+    // Dans une transaction, le changement n'est publié qu'après sa validation
+    private static void apresValidation(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private static <T> List<T> extraire(Map<Long, T> enAttente) {
+        List<T> extraits = new ArrayList<>();
+        for (Long id : enAttente.keySet()) {
+            T valeur = enAttente.remove(id);
+            if (valeur != null) {
+                extraits.add(valeur);
+            }
+        }
+        return extraits;
+    }
+
+    private static LocalDateTime plusRecente(LocalDateTime a, LocalDateTime b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || a.isAfter(b) ? a : b;
+    }
+
+    private static final class Abonne {
+
+        private final SseEmitter emitter;
+        private final AtomicBoolean enCours = new AtomicBoolean();
+
+        // Delta pas encore envoyé (protégé par le moniteur de l'abonné)
+        private final Map<Long, EmpruntRespDto> emprunts = new LinkedHashMap<>();
+        private final Map<Long, LivreDto> livres = new LinkedHashMap<>();
+        private LocalDateTime retardsAvant;
+        private boolean resynchroniser;
+        private long sequence;
+
+        private Abonne(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        synchronized void fusionner(long numero, List<EmpruntRespDto> nouveauxEmprunts, List<LivreDto> nouveauxLivres,
+                                    LocalDateTime retards, int deltaMax) {
+            sequence = numero;
+            retardsAvant = plusRecente(retardsAvant, retards);
+            if (resynchroniser) {
+                return;
+            }
+            nouveauxEmprunts.forEach(emprunt -> emprunts.put(emprunt.getId(), emprunt));
+            nouveauxLivres.forEach(livre -> livres.put(livre.getId(), livre));
+            // Client trop lent : plutôt que de garder un delta sans limite, il rechargera tout
+            if (emprunts.size() + livres.size() > deltaMax) {
+                emprunts.clear();
+                livres.clear();
+                resynchroniser = true;
+            }
+        }
+
+        synchronized boolean aEnvoyer() {
+            return resynchroniser || retardsAvant != null || !emprunts.isEmpty() || !livres.isEmpty();
+        }
+
+        synchronized ChangementsRespDto prendre() {
+            if (!aEnvoyer()) {
+                return null;
+            }
+            ChangementsRespDto delta = ChangementsRespDto.builder()
+                    .sequence(sequence)
+                    .emprunts(new ArrayList<>(emprunts.values()))
+                    .livres(new ArrayList<>(livres.values()))
+                    .retardsAvant(retardsAvant)
+                    .resynchroniser(resynchroniser)
+                    .build();
+            emprunts.clear();
+            livres.clear();
+            retardsAvant = null;
+            resynchroniser = false;
+            return delta;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package ma.mundiapolis.msemprunt.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import ma.mundiapolis.msemprunt.entities.RequeteIdempotente;
+import ma.mundiapolis.msemprunt.enums.StatutRequeteIdempotente;
+import ma.mundiapolis.msemprunt.repositories.RequeteIdempotenteRepo;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.function.Supplier;
+
+/**
+ * Exécution au plus une fois des requêtes portant un en-tête Idempotency-Key.
+ * <p>
+ * La clé est réservée avant le traitement (ligne EN_COURS, clé unique), puis la réponse
+ * est enregistrée. Une requête répétée avec la même clé reçoit la réponse enregistrée,
+ * 409 si la première est encore en cours, 422 si la clé a servi pour une autre requête.
+ * Un traitement en échec libère la clé : le client peut réessayer. Une clé restée EN_COURS
+ * au-delà de verrouMax (instance arrêtée en plein traitement) est reprise par le doublon suivant.
+ */
+@Slf4j
+@Component
+public class Idempotence {
+
+    public static final String ENTETE = "Idempotency-Key";
+    private static final int TAILLE_MAX_CLE = 255;
+
+    private final RequeteIdempotenteRepo requeteIdempotenteRepo;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final EmpruntProperties properties;
+
+    public Idempotence(RequeteIdempotenteRepo requeteIdempotenteRepo,
+                       TransactionTemplate transactionTemplate,
+                       ObjectMapper objectMapper,
+                       EmpruntProperties properties) {
+        this.requeteIdempotenteRepo = requeteIdempotenteRepo;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+    }
+
+    /**
+     * @param cle       valeur de l'en-tête Idempotency-Key (sans clé : exécution directe)
+     * @param operation méthode et chemin de la requête
+     * @param corps     corps de la requête (null si aucun), inclus dans l'empreinte
+     */
+    public <T> T executer(String cle, String operation, Object corps, Class<T> type, Supplier<T> action) {
+        if (cle == null || cle.isBlank()) {
+            return action.get();
+        }
+        if (cle.length() > TAILLE_MAX_CLE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    ENTETE + " dépasse " + TAILLE_MAX_CLE + " caractères");
+        }
+
+        RequeteIdempotente requete = reserver(cle, empreinte(operation, corps));
+        if (requete.getStatut() == StatutRequeteIdempotente.TERMINEE) {
+            return lire(requete.getReponse(), type);
+        }
+
+        T resultat;
+        try {
+            resultat = action.get();
+        } catch (RuntimeException e) {
+            liberer(requete.getId());
+            throw e;
+        }
+        terminer(requete.getId(), resultat);
+        return resultat;
+    }
+
+    private RequeteIdempotente reserver(String cle, String empreinte) {
+        LocalDateTime maintenant = LocalDateTime.now();
+        try {
+            return transactionTemplate.execute(status -> requeteIdempotenteRepo.saveAndFlush(
+                    RequeteIdempotente.builder()
+                            .cle(cle)
+                            .empreinte(empreinte)
+                            .statut(StatutRequeteIdempotente.EN_COURS)
+                            .dateCreation(maintenant)
+                            .dateExpiration(maintenant.plus(properties.getIdempotence().getRetention()))
+                            .build()));
+        } catch (DataIntegrityViolationException e) {
+            // Clé déjà réservée : doublon
+        }
+
+        RequeteIdempotente existante = requeteIdempotenteRepo.findByCle(cle)
+                .orElseThrow(Idempotence::enCours);
+        if (!existante.getEmpreinte().equals(empreinte)) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                    "Cette clé d'idempotence a déjà servi pour une autre requête");
+        }
+        if (existante.getStatut() == StatutRequeteIdempotente.TERMINEE) {
+            return existante;
+        }
+        LocalDateTime dateLue = existante.getDateCreation();
+        if (dateLue.plus(properties.getIdempotence().getVerrouMax()).isBefore(maintenant)
+                && reprendre(existante.getId(), dateLue, maintenant)) {
+            log.warn("Requête idempotente {} abandonnée depuis le {}, reprise", cle, dateLue);
+            return existante;
+        }
+        throw enCours();
+    }
+
+    private boolean reprendre(Long id, LocalDateTime dateLue, LocalDateTime maintenant) {
+        Integer reprises = transactionTemplate.execute(
+                status -> requeteIdempotenteRepo.reprendre(id, dateLue, maintenant));
+        return reprises != null && reprises == 1;
+    }
+
+    private void terminer(Long id, Object resultat) {
+        String reponse;
+        try {
+            reponse = objectMapper.writeValueAsString(resultat);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Réponse non sérialisable : " + e.getMessage(), e);
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> requeteIdempotenteRepo.terminer(id, reponse));
+        } catch (DataAccessException e) {
+            // Le traitement a réussi : la réponse est rendue, seul un doublon ultérieur le rejouera
+            log.error("Réponse de la requête idempotente {} non enregistrée : {}", id, e.getMessage());
+        }
+    }
+
+    private void liberer(Long id) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> requeteIdempotenteRepo.deleteById(id));
+        } catch (DataAccessException e) {
+            // La clé sera reprise après verrouMax
+            log.warn("Clé de la requête idempotente {} non libérée : {}", id, e.getMessage());
+        }
+    }
+
+    private <T> T lire(String reponse, Class<T> type) {
+        try {
+            return objectMapper.readValue(reponse, type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Réponse enregistrée illisible : " + e.getMessage(), e);
+        }
+    }
+
+    private String empreinte(String operation, Object corps) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(operation.getBytes(StandardCharsets.UTF_8));
+            if (corps != null) {
+                sha256.update(objectMapper.writeValueAsBytes(corps));
+            }
+            return HexFormat.of().formatHex(sha256.digest());
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ResponseStatusException enCours() {
+        return new ResponseStatusException(HttpStatus.CONFLICT,
+                "Une requête avec cette clé d'idempotence est en cours de traitement");
+    }
+
+    // Rétention bornée : les clés expirées sont supprimées par lots
+    @Scheduled(fixedDelayString = "${emprunt.idempotence.intervalle-ms:60000}")
+    public void purger() {
+        int taille = properties.getIdempotence().getTailleLotPurge();
+        LocalDateTime maintenant = LocalDateTime.now();
+        Integer supprimees;
+        do {
+            supprimees = transactionTemplate.execute(
+                    status -> requeteIdempotenteRepo.purger(maintenant, taille));
+        } while (supprimees != null && supprimees == taille);
+    }
+}
@@ -0,0 +1,92 @@
+package ma.mundiapolis.msemprunt.services;
+
+import lombok.extern.slf4j.Slf4j;
+import ma.mundiapolis.msemprunt.dto.LivreDto;
+import ma.mundiapolis.msemprunt.dto.UserDto;
+import ma.mundiapolis.msemprunt.repositories.EmpruntBatchRepo;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Mise à jour de la copie des données utilisateur / livre stockée sur les emprunts.
+ * <p>
+ * Les modifications publiées par ms-users et ms-livre, et les données relues pendant
+ * l'enrichissement des listes, sont mises en file (la version la plus récente de chaque id
+ * remplace les autres, quel que soit leur ordre d'arrivée), puis appliquées par lots en une
+ * transaction ; en base, une ligne n'est remplacée que par une copie plus récente. La file est en mémoire : un arrêt brutal peut perdre les modifications
+ * de la dernière seconde, qui seront reprises à la prochaine modification de l'entité.
+ */
+@Slf4j
+@Component
+public class InstantanesEmprunts {
+
+    private final EmpruntBatchRepo empruntBatchRepo;
+    private final TransactionTemplate transactionTemplate;
+
+    private final Map<Long, UserDto> usersEnAttente = new ConcurrentHashMap<>();
+    private final Map<Long, LivreDto> livresEnAttente = new ConcurrentHashMap<>();
+
+    public InstantanesEmprunts(EmpruntBatchRepo empruntBatchRepo, TransactionTemplate transactionTemplate) {
+        this.empruntBatchRepo = empruntBatchRepo;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    public void userModifie(UserDto user) {
+        if (user != null && user.getId() != null) {
+            usersEnAttente.merge(user.getId(), user, (actuel, nouveau) -> plusRecent(actuel, nouveau, UserDto::getVersion));
+        }
+    }
+
+    public void livreModifie(LivreDto livre) {
+        if (livre != null && livre.getId() != null) {
+            livresEnAttente.merge(livre.getId(), livre, (actuel, nouveau) -> plusRecent(actuel, nouveau, LivreDto::getVersion));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${emprunt.instantane.intervalle-ms:1000}")
+    public void appliquer() {
+        List<UserDto> users = extraire(usersEnAttente);
+        List<LivreDto> livres = extraire(livresEnAttente);
+        if (users.isEmpty() && livres.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                empruntBatchRepo.majInstantanesUsers(users);
+                empruntBatchRepo.majInstantanesLivres(livres);
+            });
+        } catch (DataAccessException e) {
+            // Remises en file, sauf si une version plus récente est arrivée entre-temps
+            log.warn("Mise à jour des copies utilisateur / livre reportée : {}", e.getMessage());
+            users.forEach(this::userModifie);
+            livres.forEach(this::livreModifie);
+        }
+    }
+
+    // À version égale ou inconnue, la dernière reçue l'emporte
+    private static <T> T plusRecent(T actuel, T nouveau, Function<T, Long> version) {
+        Long va = version.apply(actuel);
+        Long vn = version.apply(nouveau);
+        return va != null && (vn == null || va > vn) ? actuel : nouveau;
+    }
+
+    // Vide la file en retirant chaque entrée (une entrée ajoutée pendant l'extraction reste pour le prochain passage)
+    private static <T> List<T> extraire(Map<Long, T> enAttente) {
+        List<T> extraits = new ArrayList<>();
+        for (Long id : enAttente.keySet()) {
+            T valeur = enAttente.remove(id);
+            if (valeur != null) {
+                extraits.add(valeur);
+            }
+        }
+        return extraits;
+    }
+}
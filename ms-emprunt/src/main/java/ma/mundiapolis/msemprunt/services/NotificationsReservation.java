@@ -0,0 +1,54 @@
+package ma.mundiapolis.msemprunt.services;
+
+import ma.mundiapolis.msemprunt.dto.ReservationRespDto;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Clients en attente (long-poll) d'un changement d'état de leur réservation.
+ * Local à l'instance : un changement fait par une autre instance est vu à l'expiration
+ * du long-poll, qui relit la réservation en base.
+ */
+@Component
+public class NotificationsReservation {
+
+    private final Map<Long, Set<DeferredResult<ReservationRespDto>>> attentes = new ConcurrentHashMap<>();
+
+    public void abonner(Long reservationId, DeferredResult<ReservationRespDto> resultat) {
+        attentes.computeIfAbsent(reservationId, id -> ConcurrentHashMap.newKeySet()).add(resultat);
+        resultat.onCompletion(() -> attentes.computeIfPresent(reservationId, (id, abonnes) -> {
+            abonnes.remove(resultat);
+            return abonnes.isEmpty() ? null : abonnes;
+        }));
+    }
+
+    /**
+     * Répond aux clients en attente sur cette réservation. Dans une transaction,
+     * la réponse part après sa validation.
+     */
+    public void publier(ReservationRespDto reservation) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    repondre(reservation);
+                }
+            });
+        } else {
+            repondre(reservation);
+        }
+    }
+
+    private void repondre(ReservationRespDto reservation) {
+        Set<DeferredResult<ReservationRespDto>> abonnes = attentes.remove(reservation.getId());
+        if (abonnes != null) {
+            abonnes.forEach(resultat -> resultat.setResult(reservation));
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package ma.mundiapolis.msemprunt.services;
+
+import feign.FeignException;
+import feign.RetryableException;
+import lombok.extern.slf4j.Slf4j;
+import ma.mundiapolis.msemprunt.clients.LivreClient;
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import ma.mundiapolis.msemprunt.dto.LivreDto;
+import ma.mundiapolis.msemprunt.dto.MouvementStockDto;
+import ma.mundiapolis.msemprunt.entities.OperationStock;
+import ma.mundiapolis.msemprunt.enums.StatutOperationStock;
+import ma.mundiapolis.msemprunt.enums.TypeOperationStock;
+import ma.mundiapolis.msemprunt.repositories.OperationStockRepo;
+import org.springframework.data.domain.Limit;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Envoi à ms-livre des mouvements de stock enregistrés dans l'outbox (OperationStock).
+ * <p>
+ * Les appels HTTP sont faits hors de toute transaction : une connexion JDBC n'est
+ * tenue que le temps de réserver l'opération puis d'enregistrer son résultat.
+ * Une opération en échec est retentée avec un délai croissant, puis abandonnée (ECHEC).
+ */
+@Slf4j
+@Component
+public class OperationStockDispatcher {
+
+    private static final int TAILLE_MAX_ERREUR = 255;
+
+    private final OperationStockRepo operationStockRepo;
+    private final LivreClient livreClient;
+    private final ReferentielService referentielService;
+    private final TransactionTemplate transactionTemplate;
+    private final EmpruntProperties properties;
+
+    public OperationStockDispatcher(OperationStockRepo operationStockRepo,
+                                    LivreClient livreClient,
+                                    ReferentielService referentielService,
+                                    TransactionTemplate transactionTemplate,
+                                    EmpruntProperties properties) {
+        this.operationStockRepo = operationStockRepo;
+        this.livreClient = livreClient;
+        this.referentielService = referentielService;
+        this.transactionTemplate = transactionTemplate;
+        this.properties = properties;
+    }
+
+    /**
+     * Ajoute une opération à l'outbox. Appelée dans la transaction locale de l'emprunt,
+     * elle est validée ou annulée avec lui.
+     */
+    public OperationStock enregistrer(TypeOperationStock type, Long livreId, Long empruntId) {
+        return enregistrer(type, livreId, empruntId, null, LocalDateTime.now());
+    }
+
+    /**
+     * Annulation enregistrée avant de demander un exemplaire à ms-livre avec la clé cleEmprunt,
+     * et différée de delaiMax. L'emprunt enregistré la retire dans sa transaction (retirer) ;
+     * sinon elle est envoyée par l'appelant, ou par la reprise périodique si l'instance s'est
+     * arrêtée entre-temps. Un exemplaire réservé sans réponse (délai dépassé) est ainsi toujours rendu.
+     */
+    public OperationStock enregistrerAnnulation(Long livreId, String cleEmprunt) {
+        return enregistrer(TypeOperationStock.ANNULATION_EMPRUNT, livreId, null, cleEmprunt,
+                LocalDateTime.now().plus(properties.getOutbox().getDelaiMax()));
+    }
+
+    // Appelée dans la transaction de l'emprunt enregistré : la réservation est confirmée
+    public void retirer(Long operationId) {
+        operationStockRepo.deleteById(operationId);
+    }
+
+    /**
+     * Annulation d'un exemplaire demandé dans l'emprunt groupé cleLot, enregistrée avant l'appel
+     * à ms-livre comme enregistrerAnnulation. Les annulations du lot sont retirées ensemble
+     * (retirerLot) ; sinon le lot est rejoué avec sa clé et les exemplaires accordés sont rendus.
+     */
+    public OperationStock enregistrerAnnulationLot(Long livreId, String cleLot) {
+        return enregistrer(TypeOperationStock.ANNULATION_EMPRUNT, livreId, null, null, cleLot,
+                LocalDateTime.now().plus(properties.getOutbox().getDelaiMax()));
+    }
+
+    public void retirerLot(String cleLot) {
+        operationStockRepo.supprimerLot(cleLot);
+    }
+
+    /**
+     * Variante pour les envois groupés : l'opération est réservée (non reprise par le
+     * dispatcher) le temps que l'appelant l'envoie lui-même avec tout le lot sous la clé cleLot,
+     * puis la termine par marquerEnvoyees(), la rend au lot par liberer() (issue inconnue : le lot
+     * est rejoué avec sa clé) ou l'en détache par detacherDuLot() (lot refusé : envoi unitaire).
+     */
+    public OperationStock enregistrerPourEnvoiGroupe(TypeOperationStock type, Long livreId, Long empruntId,
+                                                     String cleLot) {
+        return enregistrer(type, livreId, empruntId, null, cleLot,
+                LocalDateTime.now().plus(properties.getOutbox().getDelaiMax()));
+    }
+
+    private OperationStock enregistrer(TypeOperationStock type, Long livreId, Long empruntId, String cleEmprunt,
+                                       LocalDateTime prochaineTentative) {
+        return enregistrer(type, livreId, empruntId, cleEmprunt, null, prochaineTentative);
+    }
+
+    private OperationStock enregistrer(TypeOperationStock type, Long livreId, Long empruntId, String cleEmprunt,
+                                       String cleLot, LocalDateTime prochaineTentative) {
+        return operationStockRepo.save(OperationStock.builder()
+                .type(type)
+                .livreId(livreId)
+                .empruntId(empruntId)
+                .cleEmprunt(cleEmprunt)
+                .cleLot(cleLot)
+                .statut(StatutOperationStock.EN_ATTENTE)
+                .tentatives(0)
+                .prochaineTentative(prochaineTentative)
+                .dateCreation(LocalDateTime.now())
+                .build());
+    }
+
+    public void marquerEnvoyees(Collection<Long> operationIds) {
+        transactionTemplate.executeWithoutResult(status -> operationStockRepo.marquerEnvoyees(operationIds));
+    }
+
+    public void liberer(Collection<Long> operationIds) {
+        transactionTemplate.executeWithoutResult(
+                status -> operationStockRepo.liberer(operationIds, LocalDateTime.now()));
+    }
+
+    public void detacherDuLot(Collection<Long> operationIds) {
+        transactionTemplate.executeWithoutResult(
+                status -> operationStockRepo.detacherDuLot(operationIds, LocalDateTime.now()));
+    }
+
+    /**
+     * Tente d'envoyer une opération en attente.
+     *
+     * @return le livre à jour renvoyé par ms-livre, ou null si l'envoi n'a pas abouti
+     * (l'opération reste alors en attente d'une nouvelle tentative) ou s'il n'y avait rien à rendre
+     */
+    public LivreDto envoyer(Long operationId) {
+        OperationStock operation = reserver(operationId);
+        if (operation == null) {
+            return null;
+        }
+
+        try {
+            if (operation.getCleLot() != null) {
+                envoyerLot(operation);
+                return null;
+            }
+            if (operation.getCleEmprunt() != null && !empruntApplique(operation)) {
+                terminer(operationId, StatutOperationStock.ENVOYEE, "Emprunt non appliqué par ms-livre : rien à rendre");
+                return null;
+            }
+            // Clé propre à l'opération : un renvoi après une réponse perdue n'incrémente pas deux fois
+            LivreDto livre = livreClient.retournerLivre(operation.getLivreId(), "outbox-" + operationId);
+            referentielService.majLivre(livre);
+            terminer(operationId, StatutOperationStock.ENVOYEE, null);
+            return livre;
+        } catch (FeignException e) {
+            // Livre supprimé : inutile de réessayer
+            boolean abandon = e instanceof FeignException.NotFound
+                    || operation.getTentatives() >= properties.getOutbox().getMaxTentatives();
+            terminer(operationId, abandon ? StatutOperationStock.ECHEC : StatutOperationStock.EN_ATTENTE, e.getMessage());
+            if (abandon) {
+                log.error("Opération de stock {} ({} du livre {}) abandonnée après {} tentatives : {}",
+                        operationId, operation.getType(), operation.getLivreId(), operation.getTentatives(), e.getMessage());
+            } else {
+                log.warn("Échec de l'opération de stock {} (tentative {}), nouvelle tentative le {}",
+                        operationId, operation.getTentatives(), operation.getProchaineTentative());
+            }
+            return null;
+        }
+    }
+
+    // Opération d'un envoi groupé à l'issue inconnue : tout le lot est rejoué avec sa clé. ms-livre
+    // renvoie la réponse enregistrée s'il l'avait appliqué, sinon l'applique maintenant. Une autre
+    // opération du même lot reprise en parallèle rejoue les mêmes appels, sans effet de plus.
+    private void envoyerLot(OperationStock operation) {
+        List<OperationStock> lot = operationStockRepo.findByCleLot(operation.getCleLot());
+        List<Long> ids = lot.stream().map(OperationStock::getId).toList();
+        Map<Long, Integer> quantites = lot.stream()
+                .collect(Collectors.toMap(OperationStock::getLivreId, o -> 1, Integer::sum));
+
+        if (operation.getType() == TypeOperationStock.RETOUR) {
+            try {
+                majLivres(livreClient.retournerLot(quantites, operation.getCleLot()));
+            } catch (FeignException e) {
+                if (issueInconnue(e)) {
+                    throw e;
+                }
+                // Lot refusé, rien n'a été rendu : chaque retour repart seul avec sa propre clé
+                detacherDuLot(ids);
+                return;
+            }
+        } else {
+            List<MouvementStockDto> accordes;
+            try {
+                accordes = livreClient.emprunterLot(quantites, operation.getCleLot());
+            } catch (FeignException e) {
+                if (issueInconnue(e)) {
+                    throw e;
+                }
+                // Réponse d'erreur de ms-livre : l'emprunt groupé n'a jamais été appliqué, rien à rendre
+                marquerEnvoyees(ids);
+                return;
+            }
+            Map<Long, Integer> aRendre = accordes.stream()
+                    .filter(m -> m.getAccorde() != null && m.getAccorde() > 0)
+                    .collect(Collectors.toMap(MouvementStockDto::getLivreId, MouvementStockDto::getAccorde));
+            if (!aRendre.isEmpty()) {
+                // Clé dérivée de celle du lot : un renvoi de la compensation ne rend pas deux fois
+                majLivres(livreClient.retournerLot(aRendre, "annulation-" + operation.getCleLot()));
+            }
+        }
+        marquerEnvoyees(ids);
+    }
+
+    private void majLivres(List<MouvementStockDto> mouvements) {
+        mouvements.forEach(mouvement -> referentielService.majLivre(mouvement.getLivre()));
+    }
+
+    // Rejoue l'emprunt avec sa clé : ms-livre renvoie la réponse enregistrée s'il l'avait appliqué,
+    // sinon l'applique maintenant ; dans les deux cas un exemplaire est réservé et doit être rendu.
+    // ms-livre écrit la clé dans la transaction du décrément : une réponse d'erreur de sa part
+    // signifie que l'emprunt n'a jamais été appliqué.
+    private boolean empruntApplique(OperationStock operation) {
+        try {
+            livreClient.emprunterLivre(operation.getLivreId(), operation.getCleEmprunt());
+            return true;
+        } catch (FeignException.NotFound e) {
+            throw e;
+        } catch (FeignException e) {
+            if (issueInconnue(e)) {
+                throw e;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Erreur sans réponse de ms-livre lui-même (réseau, délai dépassé, circuit ouvert, aucune
+     * instance) : la demande a pu être appliquée ou non. Toute autre erreur est une réponse
+     * de ms-livre, dont la transaction a été annulée.
+     */
+    public static boolean issueInconnue(FeignException e) {
+        return e instanceof RetryableException || e.status() >= 502;
+    }
+
+    // Reprise périodique des opérations en attente (échecs précédents, instance redémarrée...)
+    @Scheduled(fixedDelayString = "${emprunt.outbox.intervalle-ms:5000}")
+    public void traiterEnAttente() {
+        operationStockRepo.findByStatutAndProchaineTentativeLessThanEqualOrderByIdAsc(
+                        StatutOperationStock.EN_ATTENTE,
+                        LocalDateTime.now(),
+                        Limit.of(properties.getOutbox().getTailleLot()))
+                .forEach(operation -> envoyer(operation.getId()));
+    }
+
+    // Prend l'opération pour une tentative : la prochaine tentative est repoussée avant l'appel,
+    // si bien qu'une instance arrêtée en plein envoi laisse l'opération reprenable plus tard.
+    // Le verrou optimiste empêche une autre instance de la prendre au même moment.
+    private OperationStock reserver(Long operationId) {
+        try {
+            return transactionTemplate.execute(status -> {
+                OperationStock operation = operationStockRepo.findById(operationId).orElse(null);
+                if (operation == null || operation.getStatut() != StatutOperationStock.EN_ATTENTE) {
+                    return null;
+                }
+                operation.setTentatives(operation.getTentatives() + 1);
+                operation.setProchaineTentative(LocalDateTime.now().plus(delaiAvant(operation.getTentatives())));
+                return operationStockRepo.saveAndFlush(operation);
+            });
+        } catch (ObjectOptimisticLockingFailureException e) {
+            return null;
+        }
+    }
+
+    private void terminer(Long operationId, StatutOperationStock statut, String erreur) {
+        transactionTemplate.executeWithoutResult(status -> operationStockRepo.findById(operationId)
+                .ifPresent(operation -> {
+                    operation.setStatut(statut);
+                    operation.setDerniereErreur(erreur == null || erreur.length() <= TAILLE_MAX_ERREUR
+                            ? erreur : erreur.substring(0, TAILLE_MAX_ERREUR));
+                    operationStockRepo.save(operation);
+                }));
+    }
+
+    // Délai exponentiel : delaiInitial, 2 x delaiInitial, 4 x ... plafonné à delaiMax
+    private Duration delaiAvant(int tentative) {
+        EmpruntProperties.Outbox outbox = properties.getOutbox();
+        Duration delai = outbox.getDelaiInitial().multipliedBy(1L << Math.min(tentative - 1, 20));
+        return delai.compareTo(outbox.getDelaiMax()) > 0 ? outbox.getDelaiMax() : delai;
+    }
+}
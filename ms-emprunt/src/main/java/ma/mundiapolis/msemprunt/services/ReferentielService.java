@@ -0,0 +1,45 @@
+package ma.mundiapolis.msemprunt.services;
+
+import ma.mundiapolis.msemprunt.dto.LivreDto;
+import ma.mundiapolis.msemprunt.dto.UserDto;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Accès en lecture aux données de ms-users et ms-livre, avec cache local borné.
+ * Chaque valeur lue est aussi gardée plus longtemps dans un cache de secours,
+ * utilisé seulement quand le service ne répond pas.
+ */
+public interface ReferentielService {
+
+    // Utilisateur (depuis le cache si possible)
+    UserDto getUser(Long id);
+
+    // Lot d'utilisateurs : seuls les ids absents du cache partent dans un appel groupé
+    Map<Long, UserDto> getUsers(Collection<Long> ids);
+
+    // Livre pour affichage (le stock peut dater de la dernière mise en cache)
+    LivreDto getLivre(Long id);
+
+    // Livre relu directement sur ms-livre (stock à jour), puis remis en cache
+    LivreDto getLivreFrais(Long id);
+
+    // Lot de livres pour affichage
+    Map<Long, LivreDto> getLivres(Collection<Long> ids);
+
+    // Lot de livres relu directement sur ms-livre (stock à jour), puis remis en cache
+    Map<Long, LivreDto> getLivresFrais(Collection<Long> ids);
+
+    // Remplace l'entrée du cache par une version fraîche (ex : réponse de emprunter/retourner)
+    void majLivre(LivreDto livre);
+
+    // Dernières valeurs connues (même expirées du cache principal), pour répondre en mode dégradé
+    Map<Long, UserDto> getUsersEnSecours(Collection<Long> ids);
+
+    Map<Long, LivreDto> getLivresEnSecours(Collection<Long> ids);
+
+    void invaliderUser(Long id);
+
+    void invaliderLivre(Long id);
+}
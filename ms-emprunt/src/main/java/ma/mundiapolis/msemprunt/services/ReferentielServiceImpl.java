@@ -0,0 +1,166 @@
+package ma.mundiapolis.msemprunt.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import ma.mundiapolis.msemprunt.clients.LivreClient;
+import ma.mundiapolis.msemprunt.clients.UserClient;
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import ma.mundiapolis.msemprunt.dto.LivreDto;
+import ma.mundiapolis.msemprunt.dto.UserDto;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+@Service
+public class ReferentielServiceImpl implements ReferentielService {
+
+    private final UserClient userClient;
+    private final LivreClient livreClient;
+    private final Cache<Long, UserDto> usersCache;
+    private final Cache<Long, LivreDto> livresCache;
+    private final Cache<Long, UserDto> usersSecours;
+    private final Cache<Long, LivreDto> livresSecours;
+    private final FluxChangements fluxChangements;
+
+    public ReferentielServiceImpl(UserClient userClient,
+                                  LivreClient livreClient,
+                                  EmpruntProperties properties,
+                                  MeterRegistry meterRegistry,
+                                  FluxChangements fluxChangements) {
+        this.userClient = userClient;
+        this.livreClient = livreClient;
+        this.fluxChangements = fluxChangements;
+        this.usersCache = creerCache(properties.getCache().getTailleMax(), properties.getCache().getTtl());
+        this.livresCache = creerCache(properties.getCache().getTailleMax(), properties.getCache().getTtl());
+        this.usersSecours = creerCache(properties.getCache().getTailleMax(), properties.getCache().getTtlSecours());
+        this.livresSecours = creerCache(properties.getCache().getTailleMax(), properties.getCache().getTtlSecours());
+        // Compteurs hit / miss / eviction exposés via /actuator/metrics (cache.*)
+        CaffeineCacheMetrics.monitor(meterRegistry, usersCache, "referentiel-users");
+        CaffeineCacheMetrics.monitor(meterRegistry, livresCache, "referentiel-livres");
+    }
+
+    private static <V> Cache<Long, V> creerCache(long tailleMax, Duration ttl) {
+        return Caffeine.newBuilder()
+                .maximumSize(tailleMax)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public UserDto getUser(Long id) {
+        return usersCache.get(id, cle -> garder(usersSecours, cle, userClient.getUserById(cle)));
+    }
+
+    @Override
+    public Map<Long, UserDto> getUsers(Collection<Long> ids) {
+        return getTous(ids, usersCache, usersSecours, userClient::getUsersByIds);
+    }
+
+    @Override
+    public LivreDto getLivre(Long id) {
+        return livresCache.get(id, cle -> garder(livresSecours, cle, livreClient.getLivreById(cle)));
+    }
+
+    @Override
+    public LivreDto getLivreFrais(Long id) {
+        LivreDto livre = livreClient.getLivreById(id);
+        majLivre(livre);
+        return livre;
+    }
+
+    @Override
+    public Map<Long, LivreDto> getLivres(Collection<Long> ids) {
+        return getTous(ids, livresCache, livresSecours, livreClient::getLivresByIds);
+    }
+
+    @Override
+    public Map<Long, LivreDto> getLivresFrais(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Map.of();
+        }
+        Map<Long, LivreDto> livres = livreClient.getLivresByIds(ids);
+        livresCache.putAll(livres);
+        livresSecours.putAll(livres);
+        return livres;
+    }
+
+    @Override
+    public void majLivre(LivreDto livre) {
+        if (livre != null && livre.getId() != null) {
+            LivreDto precedent = livresSecours.getIfPresent(livre.getId());
+            livresCache.put(livre.getId(), livre);
+            livresSecours.put(livre.getId(), livre);
+            // Stock modifié (emprunt, retour, lecture fraîche) : diffusé aux abonnés du flux SSE
+            if (precedent == null || !Objects.equals(precedent.getQuantiteDisponible(), livre.getQuantiteDisponible())
+                    || !Objects.equals(precedent.getQuantiteTotale(), livre.getQuantiteTotale())) {
+                fluxChangements.livre(livre);
+            }
+        }
+    }
+
+    @Override
+    public Map<Long, UserDto> getUsersEnSecours(Collection<Long> ids) {
+        return enSecours(ids, usersCache, usersSecours);
+    }
+
+    @Override
+    public Map<Long, LivreDto> getLivresEnSecours(Collection<Long> ids) {
+        return enSecours(ids, livresCache, livresSecours);
+    }
+
+    // Entrée retirée aussi du cache de secours : un utilisateur supprimé ou modifié ne doit
+    // pas reparaître dans son ancien état quand ms-users ne répond pas
+    @Override
+    public void invaliderUser(Long id) {
+        usersCache.invalidate(id);
+        usersSecours.invalidate(id);
+    }
+
+    @Override
+    public void invaliderLivre(Long id) {
+        livresCache.invalidate(id);
+        livresSecours.invalidate(id);
+    }
+
+    // Sert les ids présents en cache et récupère les manquants en un seul appel groupé
+    private static <V> Map<Long, V> getTous(Collection<Long> ids,
+                                           Cache<Long, V> cache,
+                                           Cache<Long, V> secours,
+                                           Function<Set<Long>, Map<Long, V>> chargementGroupe) {
+        Map<Long, V> resultat = new HashMap<>(cache.getAllPresent(ids));
+        Set<Long> manquants = new HashSet<>(ids);
+        manquants.removeAll(resultat.keySet());
+
+        if (!manquants.isEmpty()) {
+            Map<Long, V> charges = chargementGroupe.apply(manquants);
+            cache.putAll(charges);
+            secours.putAll(charges);
+            resultat.putAll(charges);
+        }
+        return resultat;
+    }
+
+    private static <V> V garder(Cache<Long, V> secours, Long id, V valeur) {
+        if (valeur != null) {
+            secours.put(id, valeur);
+        }
+        return valeur;
+    }
+
+    // Cache principal d'abord (valeur la plus récente), puis cache de secours
+    private static <V> Map<Long, V> enSecours(Collection<Long> ids, Cache<Long, V> cache, Cache<Long, V> secours) {
+        Map<Long, V> resultat = new HashMap<>(secours.getAllPresent(ids));
+        resultat.putAll(cache.getAllPresent(ids));
+        return resultat;
+    }
+}
@@ -0,0 +1,41 @@
+package ma.mundiapolis.msemprunt.services;
+
+import ma.mundiapolis.msemprunt.dto.ReservationReqDto;
+import ma.mundiapolis.msemprunt.dto.ReservationRespDto;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public interface ReservationService {
+
+    // Prendre place dans la file d'attente d'un livre sans exemplaire disponible
+    ReservationRespDto reserver(ReservationReqDto reservationReqDto);
+
+    ReservationRespDto getReservation(Long id);
+
+    List<ReservationRespDto> getReservationsByUserId(Long userId);
+
+    // Quitter la file, ou renoncer à l'exemplaire mis de côté (passé au suivant)
+    ReservationRespDto annuler(Long id);
+
+    // Long-poll : répond dès que la réservation change d'état, ou à l'expiration du délai
+    DeferredResult<ReservationRespDto> attendre(Long id, Long delaiSecondes);
+
+    // Retour d'un exemplaire, dans la transaction du retour : true s'il est mis de côté
+    // pour la tête de la file d'attente (il ne doit alors pas être rendu à ms-livre)
+    boolean attribuerExemplaire(Long livreId);
+
+    // Réservation DISPONIBLE de l'utilisateur pour ce livre, ou null
+    Long getReservationDisponible(Long utilisateurId, Long livreId);
+
+    // Réservations DISPONIBLE de ces utilisateurs, en une requête : utilisateurId -> (livreId -> reservationId)
+    Map<Long, Map<Long, Long>> getReservationsDisponibles(Collection<Long> utilisateurIds);
+
+    // Emprunt de l'exemplaire mis de côté, dans la transaction qui enregistre l'emprunt
+    void honorer(Long reservationId, Long empruntId);
+
+    // Fin des mises à disposition échues ; retourne le nombre de réservations expirées
+    int expirerMisesADisposition();
+}
@@ -0,0 +1,262 @@
+package ma.mundiapolis.msemprunt.services;
+
+import feign.FeignException;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import ma.mundiapolis.msemprunt.dto.LivreDto;
+import ma.mundiapolis.msemprunt.dto.ReservationReqDto;
+import ma.mundiapolis.msemprunt.dto.ReservationRespDto;
+import ma.mundiapolis.msemprunt.entities.OperationStock;
+import ma.mundiapolis.msemprunt.entities.Reservation;
+import ma.mundiapolis.msemprunt.enums.StatutEmprunt;
+import ma.mundiapolis.msemprunt.enums.StatutReservation;
+import ma.mundiapolis.msemprunt.enums.TypeOperationStock;
+import ma.mundiapolis.msemprunt.mappers.ReservationMapper;
+import ma.mundiapolis.msemprunt.repositories.EmpruntRepo;
+import ma.mundiapolis.msemprunt.repositories.ReservationRepo;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * File d'attente par livre. Un exemplaire rendu alors que des utilisateurs attendent est mis
+ * de côté pour le premier (DISPONIBLE) au lieu d'être rendu à ms-livre : il reste compté
+ * comme emprunté là-bas, personne d'autre ne peut le prendre. S'il n'est pas emprunté à temps,
+ * il passe au suivant, ou retourne au stock par l'outbox quand la file est vide.
+ */
+@Slf4j
+@Service
+public class ReservationServiceImpl implements ReservationService {
+
+    private static final Set<StatutReservation> ACTIVES =
+            EnumSet.of(StatutReservation.EN_ATTENTE, StatutReservation.DISPONIBLE);
+
+    private final ReservationRepo reservationRepo;
+    private final EmpruntRepo empruntRepo;
+    private final ReservationMapper reservationMapper;
+    private final ReferentielService referentielService;
+    private final OperationStockDispatcher operationStockDispatcher;
+    private final NotificationsReservation notificationsReservation;
+    private final TransactionTemplate transactionTemplate;
+    private final EmpruntProperties properties;
+
+    public ReservationServiceImpl(ReservationRepo reservationRepo,
+                                  EmpruntRepo empruntRepo,
+                                  ReservationMapper reservationMapper,
+                                  ReferentielService referentielService,
+                                  OperationStockDispatcher operationStockDispatcher,
+                                  NotificationsReservation notificationsReservation,
+                                  TransactionTemplate transactionTemplate,
+                                  EmpruntProperties properties) {
+        this.reservationRepo = reservationRepo;
+        this.empruntRepo = empruntRepo;
+        this.reservationMapper = reservationMapper;
+        this.referentielService = referentielService;
+        this.operationStockDispatcher = operationStockDispatcher;
+        this.notificationsReservation = notificationsReservation;
+        this.transactionTemplate = transactionTemplate;
+        this.properties = properties;
+    }
+
+    @Override
+    public ReservationRespDto reserver(ReservationReqDto reservationReqDto) {
+        Long utilisateurId = reservationReqDto.getUtilisateurId();
+        Long livreId = reservationReqDto.getLivreId();
+        try {
+            referentielService.getUser(utilisateurId);
+        } catch (FeignException.NotFound e) {
+            throw new EntityNotFoundException("Utilisateur avec l'id " + utilisateurId + " introuvable");
+        }
+        LivreDto livre;
+        try {
+            livre = referentielService.getLivreFrais(livreId);
+        } catch (FeignException.NotFound e) {
+            throw new EntityNotFoundException("Livre avec l'id " + livreId + " introuvable");
+        }
+
+        if (livre.getQuantiteDisponible() != null && livre.getQuantiteDisponible() > 0) {
+            throw new IllegalStateException("Des exemplaires sont disponibles : le livre peut être emprunté directement");
+        }
+        if (empruntRepo.compterEmpruntsActifs(utilisateurId, livreId, StatutEmprunt.EN_COURS).getMemeLivre() > 0) {
+            throw new IllegalStateException("L'utilisateur a déjà emprunté ce livre et ne l'a pas encore retourné");
+        }
+        if (reservationRepo.existsByUtilisateurIdAndLivreIdAndStatutIn(utilisateurId, livreId, ACTIVES)) {
+            throw new IllegalStateException("L'utilisateur a déjà réservé ce livre");
+        }
+        int maxParUtilisateur = properties.getReservation().getMaxParUtilisateur();
+        if (reservationRepo.countByUtilisateurIdAndStatutIn(utilisateurId, ACTIVES) >= maxParUtilisateur) {
+            throw new IllegalStateException(
+                    "L'utilisateur a atteint la limite de " + maxParUtilisateur + " réservations actives");
+        }
+
+        Reservation reservation;
+        try {
+            reservation = reservationRepo.save(Reservation.builder()
+                    .utilisateurId(utilisateurId)
+                    .livreId(livreId)
+                    .statut(StatutReservation.EN_ATTENTE)
+                    .dateDemande(LocalDateTime.now())
+                    .build());
+        } catch (DataIntegrityViolationException e) {
+            // Demande simultanée déjà enregistrée : uk_reservation_active
+            throw new IllegalStateException("L'utilisateur a déjà réservé ce livre");
+        }
+        return versDto(reservation);
+    }
+
+    @Override
+    public ReservationRespDto getReservation(Long id) {
+        return versDto(trouver(id));
+    }
+
+    @Override
+    public List<ReservationRespDto> getReservationsByUserId(Long userId) {
+        return reservationRepo.findByUtilisateurIdOrderByIdDesc(userId).stream()
+                .map(this::versDto)
+                .toList();
+    }
+
+    @Override
+    public ReservationRespDto annuler(Long id) {
+        return terminer(id, StatutReservation.ANNULEE, LocalDateTime.now());
+    }
+
+    @Override
+    public DeferredResult<ReservationRespDto> attendre(Long id, Long delaiSecondes) {
+        ReservationRespDto actuelle = getReservation(id);
+        long delaiMax = properties.getReservation().getAttenteMax().toMillis();
+        long delai = delaiSecondes == null ? delaiMax : Math.min(delaiSecondes * 1000, delaiMax);
+        DeferredResult<ReservationRespDto> resultat = new DeferredResult<>(delai, () -> getReservation(id));
+        if (actuelle.getStatut() != StatutReservation.EN_ATTENTE) {
+            resultat.setResult(actuelle);
+            return resultat;
+        }
+        notificationsReservation.abonner(id, resultat);
+        // Attribution validée entre la lecture et l'abonnement : elle ne serait pas notifiée
+        ReservationRespDto relue = getReservation(id);
+        if (relue.getStatut() != StatutReservation.EN_ATTENTE) {
+            resultat.setResult(relue);
+        }
+        return resultat;
+    }
+
+    @Override
+    public boolean attribuerExemplaire(Long livreId) {
+        return reservationRepo.findFirstByLivreIdAndStatutOrderByIdAsc(livreId, StatutReservation.EN_ATTENTE)
+                .map(reservation -> {
+                    LocalDateTime maintenant = LocalDateTime.now();
+                    reservation.setStatut(StatutReservation.DISPONIBLE);
+                    reservation.setDateMiseADisposition(maintenant);
+                    reservation.setDateExpiration(maintenant.plus(properties.getReservation().getDureeMiseADisposition()));
+                    notificationsReservation.publier(versDto(reservationRepo.save(reservation)));
+                    return true;
+                })
+                .orElse(false);
+    }
+
+    @Override
+    public Long getReservationDisponible(Long utilisateurId, Long livreId) {
+        return reservationRepo.findFirstByUtilisateurIdAndLivreIdAndStatut(
+                        utilisateurId, livreId, StatutReservation.DISPONIBLE)
+                .map(Reservation::getId)
+                .orElse(null);
+    }
+
+    @Override
+    public Map<Long, Map<Long, Long>> getReservationsDisponibles(Collection<Long> utilisateurIds) {
+        Map<Long, Map<Long, Long>> disponibles = new HashMap<>();
+        if (utilisateurIds.isEmpty()) {
+            return disponibles;
+        }
+        reservationRepo.findByUtilisateurIdInAndStatut(utilisateurIds, StatutReservation.DISPONIBLE).forEach(r ->
+                disponibles.computeIfAbsent(r.getUtilisateurId(), id -> new HashMap<>()).put(r.getLivreId(), r.getId()));
+        return disponibles;
+    }
+
+    @Override
+    public void honorer(Long reservationId, Long empruntId) {
+        Reservation reservation = reservationRepo.findByIdForUpdate(reservationId)
+                .filter(r -> r.getStatut() == StatutReservation.DISPONIBLE)
+                .orElseThrow(() -> new IllegalStateException("L'exemplaire mis de côté n'est plus disponible"));
+        reservation.setStatut(StatutReservation.HONOREE);
+        reservation.setEmpruntId(empruntId);
+        notificationsReservation.publier(versDto(reservationRepo.save(reservation)));
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${emprunt.reservation.intervalle-ms:60000}")
+    public int expirerMisesADisposition() {
+        LocalDateTime maintenant = LocalDateTime.now();
+        List<Reservation> echues = reservationRepo.findByStatutAndDateExpirationBeforeOrderByDateExpirationAsc(
+                StatutReservation.DISPONIBLE, maintenant, Limit.of(properties.getReservation().getTailleLot()));
+        int expirees = 0;
+        for (Reservation reservation : echues) {
+            try {
+                terminer(reservation.getId(), StatutReservation.EXPIREE, maintenant);
+                expirees++;
+            } catch (IllegalStateException e) {
+                // Honorée ou annulée entre-temps
+            }
+        }
+        if (expirees > 0) {
+            log.info("{} mise(s) à disposition expirée(s)", expirees);
+        }
+        return expirees;
+    }
+
+    // Fin d'une réservation active. Un exemplaire mis de côté passe au suivant de la file,
+    // ou retourne au stock de ms-livre (outbox) si personne n'attend.
+    private ReservationRespDto terminer(Long id, StatutReservation statutFinal, LocalDateTime maintenant) {
+        Terminee terminee = transactionTemplate.execute(status -> {
+            Reservation reservation = reservationRepo.findByIdForUpdate(id)
+                    .orElseThrow(() -> new EntityNotFoundException("Réservation avec l'id " + id + " introuvable"));
+            StatutReservation ancien = reservation.getStatut();
+            if (!ACTIVES.contains(ancien)
+                    || (statutFinal == StatutReservation.EXPIREE && !reservation.getDateExpiration().isBefore(maintenant))) {
+                throw new IllegalStateException("La réservation n'est plus active (" + ancien + ")");
+            }
+            reservation.setStatut(statutFinal);
+            ReservationRespDto dto = versDto(reservationRepo.save(reservation));
+            notificationsReservation.publier(dto);
+
+            OperationStock operation = null;
+            if (ancien == StatutReservation.DISPONIBLE && !attribuerExemplaire(reservation.getLivreId())) {
+                operation = operationStockDispatcher.enregistrer(TypeOperationStock.RETOUR, reservation.getLivreId(), null);
+            }
+            return new Terminee(dto, operation);
+        });
+        if (terminee.operation() != null) {
+            operationStockDispatcher.envoyer(terminee.operation().getId());
+        }
+        return terminee.reservation();
+    }
+
+    private record Terminee(ReservationRespDto reservation, OperationStock operation) {
+    }
+
+    private Reservation trouver(Long id) {
+        return reservationRepo.findById(id)
+                .orElseThrow(() -> new EntityNotFoundException("Réservation avec l'id " + id + " introuvable"));
+    }
+
+    private ReservationRespDto versDto(Reservation reservation) {
+        ReservationRespDto dto = reservationMapper.toDto(reservation);
+        if (reservation.getStatut() == StatutReservation.EN_ATTENTE) {
+            dto.setPosition(reservationRepo.countByLivreIdAndStatutAndIdLessThan(
+                    reservation.getLivreId(), StatutReservation.EN_ATTENTE, reservation.getId()) + 1);
+        }
+        return dto;
+    }
+}
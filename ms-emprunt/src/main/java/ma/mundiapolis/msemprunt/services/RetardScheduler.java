@@ -0,0 +1,126 @@
+package ma.mundiapolis.msemprunt.services;
+
+import lombok.extern.slf4j.Slf4j;
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import ma.mundiapolis.msemprunt.enums.StatutEmprunt;
+import ma.mundiapolis.msemprunt.repositories.EmpruntRepo;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Passage des emprunts EN_COURS échus au statut EN_RETARD.
+ * <p>
+ * La mise à jour est faite en base par lots (UPDATE ... LIMIT), sans charger les entités.
+ * Au lieu de tourner à intervalle fixe, la prochaine exécution est planifiée à la plus
+ * proche date de retour prévue encore à venir (bornée par un intervalle maximal).
+ */
+@Slf4j
+@Component
+public class RetardScheduler {
+
+    private final EmpruntRepo empruntRepo;
+    private final TransactionTemplate transactionTemplate;
+    private final TaskScheduler taskScheduler;
+    private final EmpruntProperties properties;
+    private final CompteursEmprunts compteursEmprunts;
+    private final FluxChangements fluxChangements;
+
+    private ScheduledFuture<?> prochaineExecution;
+    private Instant prochaineDate;
+
+    public RetardScheduler(EmpruntRepo empruntRepo,
+                           TransactionTemplate transactionTemplate,
+                           TaskScheduler taskScheduler,
+                           EmpruntProperties properties,
+                           CompteursEmprunts compteursEmprunts,
+                           FluxChangements fluxChangements) {
+        this.empruntRepo = empruntRepo;
+        this.transactionTemplate = transactionTemplate;
+        this.taskScheduler = taskScheduler;
+        this.properties = properties;
+        this.compteursEmprunts = compteursEmprunts;
+        this.fluxChangements = fluxChangements;
+    }
+
+    // Au démarrage : rattraper les retards survenus pendant l'arrêt du service
+    @EventListener(ApplicationReadyEvent.class)
+    public void demarrer() {
+        taskScheduler.schedule(this::executer, Instant.now());
+    }
+
+    /**
+     * Marque les emprunts échus en retard et replanifie la prochaine vérification.
+     *
+     * @return le nombre d'emprunts passés EN_RETARD
+     */
+    public int executer() {
+        int lot = properties.getRetard().getTailleLot();
+        LocalDateTime maintenant = LocalDateTime.now();
+        int total = 0;
+        int misAJour;
+
+        // Une transaction courte par lot : pas de verrou long sur la table
+        do {
+            Integer resultat = transactionTemplate.execute(status -> {
+                int n = empruntRepo.marquerEnRetard(maintenant, lot);
+                compteursEmprunts.transferer(StatutEmprunt.EN_COURS, StatutEmprunt.EN_RETARD, n);
+                return n;
+            });
+            misAJour = resultat == null ? 0 : resultat;
+            total += misAJour;
+        } while (misAJour == lot);
+
+        if (total > 0) {
+            log.info("Mise à jour des emprunts en retard : {} emprunts mis à jour", total);
+            fluxChangements.retards(maintenant);
+        }
+
+        planifier(empruntRepo.findProchaineEcheance());
+        return total;
+    }
+
+    /**
+     * À appeler quand un emprunt est créé ou modifié : avance la prochaine vérification
+     * si sa date de retour prévue tombe avant celle déjà planifiée.
+     */
+    public synchronized void signalerEcheance(LocalDateTime dateRetourPrevue) {
+        if (dateRetourPrevue == null) {
+            return;
+        }
+        Instant echeance = versInstant(dateRetourPrevue);
+        if (prochaineDate == null || echeance.isBefore(prochaineDate)) {
+            planifier(dateRetourPrevue);
+        }
+    }
+
+    private synchronized void planifier(LocalDateTime prochaineEcheance) {
+        Instant plafond = Instant.now().plus(properties.getRetard().getIntervalleMax());
+        Instant date = plafond;
+        if (prochaineEcheance != null) {
+            // Un emprunt est en retard strictement après sa date prévue
+            Instant echeance = versInstant(prochaineEcheance).plusSeconds(1);
+            if (echeance.isBefore(plafond)) {
+                date = echeance;
+            }
+        }
+
+        if (prochaineExecution != null) {
+            prochaineExecution.cancel(false);
+        }
+        prochaineDate = date;
+        prochaineExecution = taskScheduler.schedule(this::executer, date);
+        log.debug("Prochaine vérification des retards planifiée le {}", date);
+    }
+
+    private static Instant versInstant(LocalDateTime date) {
+        return date.atZone(ZoneId.systemDefault()).toInstant();
+    }
+}
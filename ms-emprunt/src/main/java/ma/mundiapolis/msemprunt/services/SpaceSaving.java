@@ -0,0 +1,99 @@
+package ma.mundiapolis.msemprunt.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Résumé "heavy hitters" (algorithme Space-Saving) : suit au plus "capacite" éléments.
+ * Quand le résumé est plein, un nouvel élément remplace le moins compté et hérite de son
+ * compte : chaque compte est alors surestimé d'au plus "erreur", jamais sous-estimé.
+ * Les éléments dont le vrai compte dépasse total / capacite sont toujours présents.
+ * <p>
+ * Non thread-safe : l'appelant synchronise.
+ */
+class SpaceSaving<K> {
+
+    // Compte d'un élément suivi ; "ordre" départage les égalités dans le TreeSet
+    static final class Compteur<K> {
+        private final K element;
+        private final long ordre;
+        private long nombre;
+        private long erreur;
+
+        private Compteur(K element, long ordre, long nombre, long erreur) {
+            this.element = element;
+            this.ordre = ordre;
+            this.nombre = nombre;
+            this.erreur = erreur;
+        }
+
+        K getElement() {
+            return element;
+        }
+
+        long getNombre() {
+            return nombre;
+        }
+
+        long getErreur() {
+            return erreur;
+        }
+    }
+
+    private static final Comparator<Compteur<?>> PAR_NOMBRE = Comparator
+            .<Compteur<?>>comparingLong(c -> c.nombre)
+            .thenComparingLong(c -> c.ordre);
+
+    private final int capacite;
+    private final Map<K, Compteur<K>> compteurs = new HashMap<>();
+    private final TreeSet<Compteur<K>> parNombre = new TreeSet<>(PAR_NOMBRE);
+    private long sequence;
+
+    SpaceSaving(int capacite) {
+        this.capacite = capacite;
+    }
+
+    /**
+     * Ajoute "poids" occurrences de l'élément.
+     */
+    void ajouter(K element, long poids) {
+        Compteur<K> compteur = compteurs.get(element);
+        if (compteur != null) {
+            parNombre.remove(compteur);
+            compteur.nombre += poids;
+            parNombre.add(compteur);
+            return;
+        }
+        if (compteurs.size() < capacite) {
+            inserer(new Compteur<>(element, sequence++, poids, 0));
+            return;
+        }
+        // Résumé plein : l'élément le moins compté laisse sa place
+        Compteur<K> minimum = parNombre.pollFirst();
+        compteurs.remove(minimum.element);
+        inserer(new Compteur<>(element, sequence++, minimum.nombre + poids, minimum.nombre));
+    }
+
+    /**
+     * Les k éléments les plus comptés, du plus au moins fréquent.
+     */
+    List<Compteur<K>> top(int k) {
+        List<Compteur<K>> resultat = new ArrayList<>(Math.min(k, compteurs.size()));
+        for (Compteur<K> compteur : parNombre.descendingSet()) {
+            if (resultat.size() >= k) {
+                break;
+            }
+            resultat.add(compteur);
+        }
+        return resultat;
+    }
+
+    private void inserer(Compteur<K> compteur) {
+        compteurs.put(compteur.element, compteur);
+        parNombre.add(compteur);
+    }
+}
@@ -0,0 +1,37 @@
+package ma.mundiapolis.msemprunt.web;
+
+import lombok.RequiredArgsConstructor;
+import ma.mundiapolis.msemprunt.services.ReferentielService;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Invalidation du cache local, appelée par ms-users et ms-livre après une modification.
+ * Appels de service à service : la gateway refuse /internal/** et /{service}/internal/**
+ * (route internes-bloquees), y compris via les routes du locator de découverte.
+ */
+@RestController
+@RequestMapping("/internal/cache")
+@RequiredArgsConstructor
+public class CacheController {
+
+    private final ReferentielService referentielService;
+
+    /**
+     * DELETE /internal/cache/users/{id}
+     */
+    @DeleteMapping("/users/{id}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void invaliderUser(@PathVariable Long id) {
+        referentielService.invaliderUser(id);
+    }
+
+    /**
+     * DELETE /internal/cache/livres/{id}
+     */
+    @DeleteMapping("/livres/{id}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void invaliderLivre(@PathVariable Long id) {
+        referentielService.invaliderLivre(id);
+    }
+}
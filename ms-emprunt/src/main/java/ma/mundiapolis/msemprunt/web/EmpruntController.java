@@ -1,29 +1,68 @@
 package ma.mundiapolis.msemprunt.web;
 
 import lombok.RequiredArgsConstructor;
+import ma.mundiapolis.msemprunt.dto.CategorieStatsRespDto;
+import ma.mundiapolis.msemprunt.dto.EmpruntLotRespDto;
+import ma.mundiapolis.msemprunt.dto.EmpruntPageRespDto;
 import ma.mundiapolis.msemprunt.dto.EmpruntReqDto;
 import ma.mundiapolis.msemprunt.dto.EmpruntRespDto;
+import ma.mundiapolis.msemprunt.dto.StatistiquesEmpruntRespDto;
+import ma.mundiapolis.msemprunt.dto.TopLivreRespDto;
+import ma.mundiapolis.msemprunt.enums.FenetreStats;
+import ma.mundiapolis.msemprunt.enums.FormatFichier;
 import ma.mundiapolis.msemprunt.services.EmpruntService;
+import ma.mundiapolis.msemprunt.services.ExportEmprunts;
+import ma.mundiapolis.msemprunt.services.Idempotence;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.util.List;
 
+
 @RestController
 @RequestMapping("/api/emprunts")
 @RequiredArgsConstructor
 public class EmpruntController {
 
     private final EmpruntService empruntService;
+    private final Idempotence idempotence;
+    private final ExportEmprunts exportEmprunts;
 
     /**
      * Créer un nouvel emprunt
-     * POST /api/emprunts
+     * POST /api/emprunts (Idempotency-Key facultatif : une requête répétée reçoit la même réponse)
      */
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
-    public EmpruntRespDto creerEmprunt(@RequestBody EmpruntReqDto empruntReqDto) {
-        return empruntService.creerEmprunt(empruntReqDto);
+    public EmpruntRespDto creerEmprunt(@RequestBody EmpruntReqDto empruntReqDto,
+                                       @RequestHeader(name = Idempotence.ENTETE, required = false) String cle) {
+        return idempotence.executer(cle, "POST /api/emprunts", empruntReqDto, EmpruntRespDto.class,
+                () -> empruntService.creerEmprunt(empruntReqDto));
+    }
+
+    /**
+     * Créer plusieurs emprunts en une fois (ex : une classe)
+     * POST /api/emprunts/batch
+     */
+    @PostMapping("/batch")
+    public List<EmpruntLotRespDto> creerEmprunts(@RequestBody List<EmpruntReqDto> demandes) {
+        return empruntService.creerEmprunts(demandes);
+    }
+
+    /**
+     * Retourner plusieurs emprunts en une fois
+     * PUT /api/emprunts/retourner/batch
+     */
+    @PutMapping("/retourner/batch")
+    public List<EmpruntLotRespDto> retournerLivres(@RequestBody List<Long> empruntIds) {
+        return empruntService.retournerLivres(empruntIds);
     }
 
     /**
@@ -37,11 +76,13 @@ public class EmpruntController {
 
     /**
      * Retourner un livre emprunté
-     * PUT /api/emprunts/{id}/retourner
+     * PUT /api/emprunts/{id}/retourner (Idempotency-Key facultatif)
      */
     @PutMapping("/{id}/retourner")
-    public EmpruntRespDto retournerLivre(@PathVariable Long id) {
-        return empruntService.retournerLivre(id);
+    public EmpruntRespDto retournerLivre(@PathVariable Long id,
+                                         @RequestHeader(name = Idempotence.ENTETE, required = false) String cle) {
+        return idempotence.executer(cle, "PUT /api/emprunts/" + id + "/retourner", null, EmpruntRespDto.class,
+                () -> empruntService.retournerLivre(id));
     }
 
     /**
@@ -54,48 +95,154 @@ public class EmpruntController {
     }
 
     /**
-     * Récupérer tous les emprunts d'un utilisateur
-     * GET /api/emprunts/user/{userId}
+     * Récupérer les emprunts d'un utilisateur, page par page
+     * GET /api/emprunts/user/{userId}?apres={dernierId}&taille={n}
      */
     @GetMapping("/user/{userId}")
-    public List<EmpruntRespDto> getEmpruntsByUserId(@PathVariable Long userId) {
-        return empruntService.getEmpruntsByUserId(userId);
+    public EmpruntPageRespDto getEmpruntsByUserId(@PathVariable Long userId,
+                                                  @RequestParam(required = false) Long apres,
+                                                  @RequestParam(required = false) Integer taille) {
+        return empruntService.getEmpruntsByUserId(userId, apres, taille);
     }
 
     /**
-     * Récupérer l'historique des emprunts d'un livre
-     * GET /api/emprunts/livre/{livreId}
+     * Tous les emprunts d'un utilisateur en flux NDJSON
+     * GET /api/emprunts/user/{userId} (Accept: application/x-ndjson)
+     */
+    @GetMapping(value = "/user/{userId}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody streamEmpruntsByUserId(@PathVariable Long userId) {
+        return out -> empruntService.streamEmpruntsByUserId(userId, out);
+    }
+
+    /**
+     * Récupérer l'historique des emprunts d'un livre, page par page
+     * GET /api/emprunts/livre/{livreId}?apres={dernierId}&taille={n}
      */
     @GetMapping("/livre/{livreId}")
-    public List<EmpruntRespDto> getEmpruntsByLivreId(@PathVariable Long livreId) {
-        return empruntService.getEmpruntsByLivreId(livreId);
+    public EmpruntPageRespDto getEmpruntsByLivreId(@PathVariable Long livreId,
+                                                   @RequestParam(required = false) Long apres,
+                                                   @RequestParam(required = false) Integer taille) {
+        return empruntService.getEmpruntsByLivreId(livreId, apres, taille);
+    }
+
+    /**
+     * Historique complet d'un livre en flux NDJSON
+     * GET /api/emprunts/livre/{livreId} (Accept: application/x-ndjson)
+     */
+    @GetMapping(value = "/livre/{livreId}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody streamEmpruntsByLivreId(@PathVariable Long livreId) {
+        return out -> empruntService.streamEmpruntsByLivreId(livreId, out);
     }
 
     /**
-     * Récupérer tous les emprunts en cours
-     * GET /api/emprunts/en-cours
+     * Récupérer les emprunts en cours, page par page
+     * GET /api/emprunts/en-cours?apres={dernierId}&taille={n}
      */
     @GetMapping("/en-cours")
-    public List<EmpruntRespDto> getEmpruntsEnCours() {
-        return empruntService.getEmpruntsEnCours();
+    public EmpruntPageRespDto getEmpruntsEnCours(@RequestParam(required = false) Long apres,
+                                                 @RequestParam(required = false) Integer taille) {
+        return empruntService.getEmpruntsEnCours(apres, taille);
     }
 
     /**
-     * Récupérer tous les emprunts en retard
-     * GET /api/emprunts/en-retard
+     * Tous les emprunts en cours en flux NDJSON
+     * GET /api/emprunts/en-cours (Accept: application/x-ndjson)
+     */
+    @GetMapping(value = "/en-cours", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody streamEmpruntsEnCours() {
+        return empruntService::streamEmpruntsEnCours;
+    }
+
+    /**
+     * Récupérer les emprunts en retard, page par page
+     * GET /api/emprunts/en-retard?apres={dernierId}&taille={n}
      */
     @GetMapping("/en-retard")
-    public List<EmpruntRespDto> getEmpruntsEnRetard() {
-        return empruntService.getEmpruntsEnRetard();
+    public EmpruntPageRespDto getEmpruntsEnRetard(@RequestParam(required = false) Long apres,
+                                                  @RequestParam(required = false) Integer taille) {
+        return empruntService.getEmpruntsEnRetard(apres, taille);
     }
 
     /**
-     * Récupérer tous les emprunts
-     * GET /api/emprunts
+     * Récupérer tous les emprunts, page par page
+     * GET /api/emprunts?apres={dernierId}&taille={n}
      */
     @GetMapping
-    public List<EmpruntRespDto> getAllEmprunts() {
-        return empruntService.getAllEmprunts();
+    public EmpruntPageRespDto getAllEmprunts(@RequestParam(required = false) Long apres,
+                                             @RequestParam(required = false) Integer taille) {
+        return empruntService.getAllEmprunts(apres, taille);
+    }
+
+    /**
+     * Tous les emprunts en flux NDJSON
+     * GET /api/emprunts (Accept: application/x-ndjson)
+     */
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody streamAllEmprunts() {
+        return empruntService::streamAllEmprunts;
+    }
+
+    /**
+     * Export de l'historique (copie stockée des noms et titres, sans appel distant)
+     * GET /api/emprunts/export?format=csv|ndjson&depuisId=&jusquaId=&du=2024-01-01&au=2024-12-31
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exporter(
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(required = false) Long depuisId,
+            @RequestParam(required = false) Long jusquaId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate du,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate au) {
+        FormatFichier fichier = "ndjson".equalsIgnoreCase(format) ? FormatFichier.NDJSON : FormatFichier.CSV;
+        StreamingResponseBody corps = out -> exportEmprunts.exporter(fichier, depuisId, jusquaId, du, au, out);
+        return ResponseEntity.ok()
+                .contentType(fichier == FormatFichier.NDJSON
+                        ? MediaType.APPLICATION_NDJSON
+                        : new MediaType("text", "csv", StandardCharsets.UTF_8))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        fichier == FormatFichier.NDJSON ? "attachment; filename=\"emprunts.ndjson\"" : "attachment; filename=\"emprunts.csv\"")
+                .body(corps);
+    }
+
+    /**
+     * Statistiques du tableau de bord : totaux par statut et derniers emprunts
+     * GET /api/emprunts/stats?recents=5
+     */
+    @GetMapping("/stats")
+    public StatistiquesEmpruntRespDto getStatistiques(@RequestParam(required = false) Integer recents) {
+        return empruntService.getStatistiques(recents);
+    }
+
+    /**
+     * Livres les plus empruntés sur une fenêtre glissante
+     * GET /api/emprunts/stats/top-livres?window=SEMAINE&k=10 (window : JOUR, SEMAINE, MOIS)
+     */
+    @GetMapping("/stats/top-livres")
+    public List<TopLivreRespDto> getTopLivres(
+            @RequestParam(name = "window", defaultValue = "SEMAINE") FenetreStats fenetre,
+            @RequestParam(required = false) Integer k) {
+        return empruntService.getTopLivres(fenetre, k);
+    }
+
+    /**
+     * Nombre d'emprunts par catégorie sur une fenêtre glissante
+     * GET /api/emprunts/stats/categories?window=MOIS
+     */
+    @GetMapping("/stats/categories")
+    public List<CategorieStatsRespDto> getStatistiquesParCategorie(
+            @RequestParam(name = "window", defaultValue = "SEMAINE") FenetreStats fenetre) {
+        return empruntService.getStatistiquesParCategorie(fenetre);
+    }
+
+    /**
+     * Recalculer les statistiques d'emprunts depuis l'historique, en arrière-plan
+     * POST /api/emprunts/stats/reconstruire
+     * 202 dès le lancement, 409 si une reconstruction est déjà en cours
+     */
+    @PostMapping("/stats/reconstruire")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public void reconstruireStatistiques() {
+        empruntService.reconstruireStatistiques();
     }
 
     /**
@@ -103,7 +250,7 @@ public class EmpruntController {
      * POST /api/emprunts/force-update-retards
      */
     @PostMapping("/force-update-retards")
-    public void forceUpdateRetards() {
-        empruntService.updateEmpruntsEnRetard();
+    public int forceUpdateRetards() {
+        return empruntService.updateEmpruntsEnRetard();
     }
 }
@@ -0,0 +1,42 @@
+package ma.mundiapolis.msemprunt.web;
+
+import lombok.RequiredArgsConstructor;
+import ma.mundiapolis.msemprunt.dto.LivreDto;
+import ma.mundiapolis.msemprunt.dto.UserDto;
+import ma.mundiapolis.msemprunt.services.FluxChangements;
+import ma.mundiapolis.msemprunt.services.InstantanesEmprunts;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Modifications publiées par ms-users et ms-livre, appliquées en différé aux emprunts.
+ * Appels de service à service : la gateway refuse /internal/** et /{service}/internal/**
+ * (route internes-bloquees), y compris via les routes du locator de découverte.
+ */
+@RestController
+@RequestMapping("/internal/evenements")
+@RequiredArgsConstructor
+public class EvenementController {
+
+    private final InstantanesEmprunts instantanesEmprunts;
+    private final FluxChangements fluxChangements;
+
+    /**
+     * POST /internal/evenements/users
+     */
+    @PostMapping("/users")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public void userModifie(@RequestBody UserDto user) {
+        instantanesEmprunts.userModifie(user);
+    }
+
+    /**
+     * POST /internal/evenements/livres
+     */
+    @PostMapping("/livres")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public void livreModifie(@RequestBody LivreDto livre) {
+        instantanesEmprunts.livreModifie(livre);
+        fluxChangements.livre(livre);
+    }
+}
@@ -0,0 +1,28 @@
+package ma.mundiapolis.msemprunt.web;
+
+import lombok.RequiredArgsConstructor;
+import ma.mundiapolis.msemprunt.services.FluxChangements;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@RestController
+@RequestMapping("/api/emprunts/evenements")
+@RequiredArgsConstructor
+public class FluxController {
+
+    private final FluxChangements fluxChangements;
+
+    /**
+     * Flux SSE des emprunts créés / retournés / en retard et des stocks de livres modifiés
+     * GET /api/emprunts/evenements
+     * Événement "connecte" à l'ouverture (charger l'état courant), puis "changements" (deltas)
+     * Emprunts : ceux traités par l'instance qui sert le flux ; livres : toutes les modifications
+     */
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter abonner() {
+        return fluxChangements.abonner();
+    }
+}
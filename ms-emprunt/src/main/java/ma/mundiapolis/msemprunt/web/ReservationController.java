@@ -0,0 +1,66 @@
+package ma.mundiapolis.msemprunt.web;
+
+import lombok.RequiredArgsConstructor;
+import ma.mundiapolis.msemprunt.dto.ReservationReqDto;
+import ma.mundiapolis.msemprunt.dto.ReservationRespDto;
+import ma.mundiapolis.msemprunt.services.ReservationService;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/emprunts/reservations")
+@RequiredArgsConstructor
+public class ReservationController {
+
+    private final ReservationService reservationService;
+
+    /**
+     * Réserver un livre sans exemplaire disponible (file d'attente FIFO)
+     * POST /api/emprunts/reservations
+     */
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    public ReservationRespDto reserver(@RequestBody ReservationReqDto reservationReqDto) {
+        return reservationService.reserver(reservationReqDto);
+    }
+
+    /**
+     * État d'une réservation (rang dans la file, date limite si un exemplaire est mis de côté)
+     * GET /api/emprunts/reservations/{id}
+     */
+    @GetMapping("/{id}")
+    public ReservationRespDto getReservation(@PathVariable Long id) {
+        return reservationService.getReservation(id);
+    }
+
+    /**
+     * Attendre un changement d'état (long-poll) plutôt que d'interroger le stock en boucle
+     * GET /api/emprunts/reservations/{id}/attendre?delai=30
+     */
+    @GetMapping("/{id}/attendre")
+    public DeferredResult<ReservationRespDto> attendre(@PathVariable Long id,
+                                                       @RequestParam(required = false) Long delai) {
+        return reservationService.attendre(id, delai);
+    }
+
+    /**
+     * Réservations d'un utilisateur, les plus récentes d'abord
+     * GET /api/emprunts/reservations/user/{userId}
+     */
+    @GetMapping("/user/{userId}")
+    public List<ReservationRespDto> getReservationsByUserId(@PathVariable Long userId) {
+        return reservationService.getReservationsByUserId(userId);
+    }
+
+    /**
+     * Annuler une réservation
+     * PUT /api/emprunts/reservations/{id}/annuler
+     */
+    @PutMapping("/{id}/annuler")
+    public ReservationRespDto annuler(@PathVariable Long id) {
+        return reservationService.annuler(id);
+    }
+}
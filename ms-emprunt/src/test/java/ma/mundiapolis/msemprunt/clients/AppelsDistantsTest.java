@@ -0,0 +1,213 @@
+package ma.mundiapolis.msemprunt.clients;
+
+import com.sun.net.httpserver.HttpServer;
+import feign.Feign;
+import feign.Param;
+import feign.Request;
+import feign.RequestLine;
+import feign.Retryer;
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import ma.mundiapolis.msemprunt.config.RemoteCallConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Appels parallèles avec délai global : parallélisme effectif, délai, refus quand le pool est
+ * saturé ; puis mesure de la phase de contrôles de POST /api/emprunts (utilisateur + livre)
+ * contre deux services locaux, en séquence puis en parallèle (profil benchmark).
+ */
+class AppelsDistantsTest {
+
+    private ThreadPoolTaskExecutor executor;
+
+    @AfterEach
+    void arreterPool() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void appelsIndependantsEnParallele() {
+        AppelsDistants appels = appels(4, 4, 10, 2000);
+        // Chacun des deux appels attend l'autre : ils ne finissent que s'ils tournent en même temps
+        CountDownLatch ensemble = new CountDownLatch(2);
+        Supplier<Boolean> appel = () -> {
+            ensemble.countDown();
+            try {
+                return ensemble.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        CompletableFuture<Boolean> premier = appels.lancer(appel);
+        CompletableFuture<Boolean> second = appels.lancer(appel);
+        appels.attendre(premier, second);
+        assertTrue(appels.resultat(premier) && appels.resultat(second));
+    }
+
+    @Test
+    void delaiGlobalDepasse() {
+        AppelsDistants appels = appels(2, 2, 0, 100);
+        CountDownLatch jamais = new CountDownLatch(1);
+        CompletableFuture<Object> lent = appels.lancer(() -> {
+            try {
+                jamais.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        assertThrows(IllegalStateException.class, () -> appels.attendre(lent, appels.lancer(() -> "ok")));
+        jamais.countDown();
+    }
+
+    @Test
+    void poolSatureRefuseEn503SansBloquerLAppelant() throws InterruptedException {
+        AppelsDistants appels = appels(1, 1, 0, 2000);
+        CountDownLatch libere = new CountDownLatch(1);
+        CountDownLatch occupe = new CountDownLatch(1);
+        appels.lancer(() -> {
+            occupe.countDown();
+            try {
+                libere.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        occupe.await();
+
+        AtomicBoolean execute = new AtomicBoolean();
+        CompletableFuture<Object> refuse = appels.lancer(() -> {
+            execute.set(true);
+            return null;
+        });
+        ResponseStatusException erreur = assertThrows(ResponseStatusException.class, () -> appels.attendre(refuse));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, erreur.getStatusCode());
+        // L'appel refusé ne s'est pas exécuté dans le thread appelant (pas de CallerRunsPolicy)
+        assertFalse(execute.get());
+        libere.countDown();
+    }
+
+    private AppelsDistants appels(int core, int max, int file, long delaiMs) {
+        EmpruntProperties properties = new EmpruntProperties();
+        properties.getRemote().setPoolCore(core);
+        properties.getRemote().setPoolMax(max);
+        properties.getRemote().setFileAttente(file);
+        properties.getRemote().setDelaiGlobalMs(delaiMs);
+        executor = new RemoteCallConfig().remoteCallExecutor(properties);
+        return new AppelsDistants(executor, properties);
+    }
+
+    interface Referentiel {
+        @RequestLine("GET /api/users/{id}")
+        String user(@Param("id") long id);
+
+        @RequestLine("GET /api/livre/{id}")
+        String livre(@Param("id") long id);
+    }
+
+    @Nested
+    @Tag("benchmark")
+    class Mesure {
+
+        private static final int REQUETES = 200;
+
+        private HttpServer serveur;
+        private ExecutorService threadsServeur;
+
+        @BeforeEach
+        void demarrer() throws IOException {
+            threadsServeur = Executors.newCachedThreadPool();
+            serveur = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            serveur.setExecutor(threadsServeur);
+            Random aleatoire = new Random(7);
+            serveur.createContext("/api/", echange -> {
+                // 10 à 30 ms, et 2 % de réponses lentes (150 ms) pour la queue de distribution
+                long latence;
+                synchronized (aleatoire) {
+                    latence = aleatoire.nextInt(100) < 2 ? 150 : 10 + aleatoire.nextInt(21);
+                }
+                try {
+                    Thread.sleep(latence);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] corps = "{}".getBytes(StandardCharsets.UTF_8);
+                echange.sendResponseHeaders(200, corps.length);
+                try (OutputStream out = echange.getResponseBody()) {
+                    out.write(corps);
+                }
+            });
+            serveur.start();
+        }
+
+        @AfterEach
+        void arreter() {
+            serveur.stop(0);
+            threadsServeur.shutdownNow();
+        }
+
+        @Test
+        void controlesDeCreationEnSequenceEtEnParallele() {
+            Referentiel referentiel = Feign.builder()
+                    .retryer(Retryer.NEVER_RETRY)
+                    .options(new Request.Options(500, TimeUnit.MILLISECONDS, 2000, TimeUnit.MILLISECONDS, true))
+                    .target(Referentiel.class, "http://localhost:" + serveur.getAddress().getPort());
+            AppelsDistants appels = appels(16, 64, 500, 4000);
+
+            long[] sequence = mesurer(i -> {
+                referentiel.user(i);
+                referentiel.livre(i);
+            });
+            long[] parallele = mesurer(i -> {
+                CompletableFuture<String> user = appels.lancer(() -> referentiel.user(i));
+                CompletableFuture<String> livre = appels.lancer(() -> referentiel.livre(i));
+                appels.attendre(user, livre);
+            });
+            System.out.printf("Contrôles de POST /api/emprunts (%d requêtes) : en séquence p50 %d ms / p99 %d ms, "
+                    + "en parallèle p50 %d ms / p99 %d ms%n", REQUETES, sequence[0], sequence[1], parallele[0], parallele[1]);
+            assertTrue(parallele[0] < sequence[0]);
+        }
+
+        private long[] mesurer(java.util.function.LongConsumer requete) {
+            for (int i = 0; i < 20; i++) {
+                requete.accept(i);
+            }
+            long[] durees = new long[REQUETES];
+            for (int i = 0; i < REQUETES; i++) {
+                long debut = System.nanoTime();
+                requete.accept(i);
+                durees[i] = (System.nanoTime() - debut) / 1_000_000;
+            }
+            Arrays.sort(durees);
+            return new long[]{durees[REQUETES / 2], durees[REQUETES * 99 / 100]};
+        }
+    }
+}
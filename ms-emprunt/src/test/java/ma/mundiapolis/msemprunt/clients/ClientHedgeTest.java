@@ -0,0 +1,212 @@
+package ma.mundiapolis.msemprunt.clients;
+
+import com.sun.net.httpserver.HttpServer;
+import feign.Client;
+import feign.Feign;
+import feign.FeignException;
+import feign.Request;
+import feign.RequestLine;
+import feign.Retryer;
+import feign.Target;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ClientHedge face à deux instances locales de ms-livre, l'une lente, l'autre rapide,
+ * servies à tour de rôle comme le ferait le load balancer. Les tests par défaut vérifient les
+ * compteurs de doublement ; la mesure du p99 est un benchmark (-Pbenchmark).
+ */
+class ClientHedgeTest {
+
+    private static final String SERVICE = "ms-livre";
+    private static final String HOTE_LOGIQUE = "http://" + SERVICE;
+
+    interface LivreStub {
+        @LectureIdempotente
+        @RequestLine("GET /api/livre/1")
+        String lire();
+
+        @RequestLine("PUT /api/livre/1/quantite")
+        String modifier();
+    }
+
+    private final List<HttpServer> instances = new ArrayList<>();
+    private ExecutorService threadsServeur;
+    private ThreadPoolExecutor hedgingExecutor;
+    private final AtomicInteger lectures = new AtomicInteger();
+    private final AtomicInteger ecritures = new AtomicInteger();
+    private volatile int statut = 200;
+
+    @BeforeEach
+    void demarrerInstances() throws IOException {
+        threadsServeur = Executors.newCachedThreadPool();
+        instances.add(instance(300));
+        instances.add(instance(5));
+        hedgingExecutor = new ThreadPoolExecutor(16, 16, 0, TimeUnit.SECONDS, new SynchronousQueue<>());
+    }
+
+    @AfterEach
+    void arreterInstances() {
+        instances.forEach(instance -> instance.stop(0));
+        threadsServeur.shutdownNow();
+        hedgingExecutor.shutdownNow();
+    }
+
+    private HttpServer instance(long latenceMs) throws IOException {
+        HttpServer serveur = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        serveur.setExecutor(threadsServeur);
+        serveur.createContext("/api/livre/1", echange -> {
+            (echange.getRequestMethod().equals("GET") ? lectures : ecritures).incrementAndGet();
+            try {
+                Thread.sleep(latenceMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] corps = "ok".getBytes(StandardCharsets.UTF_8);
+            echange.sendResponseHeaders(statut, corps.length);
+            try (OutputStream out = echange.getResponseBody()) {
+                out.write(corps);
+            } catch (IOException ignored) {
+                // Réponse perdante déjà abandonnée
+            }
+        });
+        serveur.start();
+        return serveur;
+    }
+
+    // Round robin entre les instances, comme le client load balancé de Spring Cloud
+    private Client roundRobin() {
+        AtomicInteger suivant = new AtomicInteger();
+        Client http = new Client.Default(null, null);
+        return (request, options) -> {
+            HttpServer instance = instances.get(Math.floorMod(suivant.getAndIncrement(), instances.size()));
+            String url = request.url().replace(HOTE_LOGIQUE, "http://localhost:" + instance.getAddress().getPort());
+            return http.execute(Request.create(request.httpMethod(), url, request.headers(),
+                    request.body(), request.charset(), request.requestTemplate()), options);
+        };
+    }
+
+    private LivreStub client(EmpruntProperties.Hedging config, MeterRegistry meterRegistry) {
+        return Feign.builder()
+                .client(new ClientHedge(roundRobin(), hedgingExecutor, config, meterRegistry))
+                .retryer(Retryer.NEVER_RETRY)
+                .options(new Request.Options(500, TimeUnit.MILLISECONDS, 2000, TimeUnit.MILLISECONDS, true))
+                .target(new Target.HardCodedTarget<>(LivreStub.class, SERVICE, HOTE_LOGIQUE));
+    }
+
+    private static EmpruntProperties.Hedging config(boolean actif, double tauxMax) {
+        EmpruntProperties.Hedging config = new EmpruntProperties.Hedging();
+        config.setActif(actif);
+        config.setDelaiDefaut(Duration.ofMillis(50));
+        config.setEchantillonMin(Integer.MAX_VALUE);
+        config.setTauxMax(tauxMax);
+        config.setRepriseBase(Duration.ofMillis(1));
+        config.setRepriseMax(Duration.ofMillis(5));
+        return config;
+    }
+
+    private static long p99Ms(LivreStub livres, int appels) {
+        long[] durees = new long[appels];
+        for (int i = 0; i < appels; i++) {
+            long debut = System.nanoTime();
+            assertEquals("ok", livres.lire());
+            durees[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - debut);
+        }
+        Arrays.sort(durees);
+        return durees[(int) Math.ceil(appels * 0.99) - 1];
+    }
+
+    private static double compteur(MeterRegistry registry, String evenement) {
+        return registry.counter("emprunt.hedging", "service", SERVICE, "evenement", evenement).count();
+    }
+
+    private static void lire(LivreStub livres, int appels) {
+        for (int i = 0; i < appels; i++) {
+            assertEquals("ok", livres.lire());
+        }
+    }
+
+    @Test
+    void lecturesLentesDoubleesEtGagneesParLeDouble() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        lire(client(config(true, 1.0), registry), 40);
+
+        // Les lectures servies par l'instance lente dépassent le délai et sont doublées
+        assertEquals(40, compteur(registry, "requete"));
+        assertTrue(compteur(registry, "double") > 0);
+        assertTrue(compteur(registry, "gagne_par_double") > 0);
+        assertTrue(lectures.get() > 40, "lectures reçues : " + lectures.get());
+    }
+
+    @Test
+    void aucunDoublementSiDesactive() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        lire(client(config(false, 1.0), registry), 10);
+
+        assertEquals(0, compteur(registry, "double"));
+        assertEquals(10, lectures.get());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void doublementCoupeLaQueueDeLatenceDueALInstanceLente() {
+        long sansDoublement = p99Ms(client(config(false, 1.0), new SimpleMeterRegistry()), 40);
+
+        MeterRegistry registry = new SimpleMeterRegistry();
+        long avecDoublement = p99Ms(client(config(true, 1.0), registry), 40);
+
+        assertTrue(sansDoublement >= 250, "p99 sans doublement : " + sansDoublement + " ms");
+        assertTrue(avecDoublement < 200, "p99 avec doublement : " + avecDoublement + " ms");
+        assertTrue(compteur(registry, "double") > 0);
+        assertTrue(compteur(registry, "gagne_par_double") > 0);
+        assertEquals(40, compteur(registry, "requete"));
+    }
+
+    @Test
+    void budgetLimiteLeNombreDeDoublements() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        lire(client(config(true, 0.1), registry), 40);
+
+        // Plafond initial (10) + 10 % des 40 requêtes
+        assertTrue(compteur(registry, "double") <= 14, "doublements : " + compteur(registry, "double"));
+        assertTrue(compteur(registry, "budget_epuise") > 0);
+    }
+
+    @Test
+    void erreur502RepriseSurLectureMaisJamaisSurEcriture() {
+        statut = 502;
+        EmpruntProperties.Hedging config = config(true, 1.0);
+        config.setDelaiDefaut(Duration.ofSeconds(5));
+        LivreStub livres = client(config, new SimpleMeterRegistry());
+
+        assertThrows(FeignException.BadGateway.class, livres::modifier);
+        assertEquals(1, ecritures.get());
+
+        assertThrows(FeignException.BadGateway.class, livres::lire);
+        assertEquals(config.getReprisesMax() + 1, lectures.get());
+    }
+}
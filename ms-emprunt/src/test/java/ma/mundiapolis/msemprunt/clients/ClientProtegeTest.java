@@ -0,0 +1,165 @@
+package ma.mundiapolis.msemprunt.clients;
+
+import com.sun.net.httpserver.HttpServer;
+import feign.Client;
+import feign.Feign;
+import feign.FeignException;
+import feign.Request;
+import feign.RequestLine;
+import feign.Target;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ClientProtege face à un faux ms-livre local dont on règle la latence et le statut.
+ */
+class ClientProtegeTest {
+
+    private static final String SERVICE = "ms-livre";
+
+    interface LivreStub {
+        @RequestLine("GET /api/livre/1")
+        String lire();
+    }
+
+    private HttpServer serveur;
+    private ExecutorService threadsServeur;
+    private final AtomicInteger appelsRecus = new AtomicInteger();
+    private volatile long latenceMs;
+    private volatile int statut = 200;
+    private volatile CountDownLatch appelEnCours = new CountDownLatch(1);
+
+    private CircuitBreakerRegistry circuitBreakerRegistry;
+    private BulkheadRegistry bulkheadRegistry;
+
+    @BeforeEach
+    void demarrerServeur() throws IOException {
+        serveur = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        threadsServeur = Executors.newCachedThreadPool();
+        serveur.setExecutor(threadsServeur);
+        serveur.createContext("/api/livre/1", echange -> {
+            appelsRecus.incrementAndGet();
+            appelEnCours.countDown();
+            try {
+                Thread.sleep(latenceMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] corps = "ok".getBytes(StandardCharsets.UTF_8);
+            echange.sendResponseHeaders(statut, corps.length);
+            try (OutputStream out = echange.getResponseBody()) {
+                out.write(corps);
+            } catch (IOException ignored) {
+                // Le client a abandonné (délai de lecture dépassé)
+            }
+        });
+        serveur.start();
+
+        circuitBreakerRegistry = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .slidingWindowSize(4)
+                .minimumNumberOfCalls(4)
+                .failureRateThreshold(50)
+                .slowCallDurationThreshold(Duration.ofMillis(100))
+                .slowCallRateThreshold(50)
+                .waitDurationInOpenState(Duration.ofMinutes(1))
+                .build());
+        bulkheadRegistry = BulkheadRegistry.of(BulkheadConfig.custom()
+                .maxConcurrentCalls(1)
+                .maxWaitDuration(Duration.ZERO)
+                .build());
+    }
+
+    @AfterEach
+    void arreterServeur() {
+        serveur.stop(0);
+        threadsServeur.shutdownNow();
+    }
+
+    private LivreStub client(long delaiLectureMs) {
+        String url = "http://localhost:" + serveur.getAddress().getPort();
+        return Feign.builder()
+                .client(new ClientProtege(new Client.Default(null, null), circuitBreakerRegistry, bulkheadRegistry))
+                .options(new Request.Options(500, TimeUnit.MILLISECONDS, delaiLectureMs, TimeUnit.MILLISECONDS, true))
+                .target(new Target.HardCodedTarget<>(LivreStub.class, SERVICE, url));
+    }
+
+    @Test
+    void appelsLentsOuvrentLeCircuitEtLesSuivantsEchouentSansAttendre() {
+        latenceMs = 200;
+        LivreStub livres = client(2000);
+        for (int i = 0; i < 4; i++) {
+            assertEquals("ok", livres.lire());
+        }
+
+        long debut = System.nanoTime();
+        assertThrows(FeignException.ServiceUnavailable.class, livres::lire);
+        long dureeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - debut);
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreakerRegistry.circuitBreaker(SERVICE).getState());
+        assertEquals(4, appelsRecus.get());
+        assertTrue(dureeMs < latenceMs, "refus immédiat attendu, obtenu " + dureeMs + " ms");
+    }
+
+    @Test
+    void delaiDeLectureDepasseCompteCommeEchec() {
+        latenceMs = 500;
+        LivreStub livres = client(100);
+        for (int i = 0; i < 4; i++) {
+            assertThrows(FeignException.class, livres::lire);
+        }
+
+        CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker(SERVICE);
+        assertEquals(4, circuitBreaker.getMetrics().getNumberOfFailedCalls());
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertThrows(FeignException.ServiceUnavailable.class, livres::lire);
+    }
+
+    @Test
+    void reponse404NeComptePasCommeEchec() {
+        statut = 404;
+        LivreStub livres = client(1000);
+        for (int i = 0; i < 4; i++) {
+            assertThrows(FeignException.NotFound.class, livres::lire);
+        }
+
+        CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker(SERVICE);
+        assertEquals(0, circuitBreaker.getMetrics().getNumberOfFailedCalls());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    void bulkheadRefuseLesAppelsAuDelaDeLaLimite() throws Exception {
+        latenceMs = 300;
+        appelEnCours = new CountDownLatch(1);
+        LivreStub livres = client(2000);
+
+        CompletableFuture<String> premier = CompletableFuture.supplyAsync(livres::lire);
+        assertTrue(appelEnCours.await(1, TimeUnit.SECONDS));
+        assertThrows(FeignException.ServiceUnavailable.class, livres::lire);
+
+        assertEquals("ok", premier.get(2, TimeUnit.SECONDS));
+        assertEquals(1, appelsRecus.get());
+    }
+}
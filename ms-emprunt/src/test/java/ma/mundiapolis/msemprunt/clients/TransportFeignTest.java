@@ -0,0 +1,181 @@
+package ma.mundiapolis.msemprunt.clients;
+
+import com.sun.net.httpserver.HttpServer;
+import feign.Client;
+import feign.Feign;
+import feign.Request;
+import feign.RequestLine;
+import feign.Retryer;
+import feign.hc5.ApacheHttp5Client;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.pool.PoolReusePolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Transport par défaut (HttpURLConnection) contre le pool Apache HttpClient 5 configuré
+ * comme dans application.yml : nombre de sockets ouvertes sur des rafales d'appels
+ * concurrents, comme l'enrichissement d'une page d'emprunts ; débit mesuré par le benchmark
+ * (-Pbenchmark).
+ */
+class TransportFeignTest {
+
+    static {
+        // Sans TCP_NODELAY, le serveur de test ajoute ~40 ms par réponse (Nagle + ACK retardé)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private static final int THREADS = 16;
+    private static final int RAFALES = 50;
+    private static final String LISTE = "[" + "{\"id\":1,\"titre\":\"Les Misérables\"},".repeat(200) + "{}]";
+
+    interface LivreStub {
+        @RequestLine("GET /api/livre/1")
+        String lire();
+
+        @RequestLine("GET /api/livre")
+        String lister();
+    }
+
+    private HttpServer serveur;
+    private ExecutorService threadsServeur;
+    // Une socket = un couple (adresse, port) client distinct vu par le serveur
+    private final Set<InetSocketAddress> sockets = ConcurrentHashMap.newKeySet();
+    private final AtomicReference<String> encodageRecu = new AtomicReference<>();
+
+    @BeforeEach
+    void demarrerServeur() throws IOException {
+        serveur = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        threadsServeur = Executors.newFixedThreadPool(THREADS * 2);
+        serveur.setExecutor(threadsServeur);
+        serveur.createContext("/api/livre/1", echange -> {
+            sockets.add(echange.getRemoteAddress());
+            byte[] corps = "{\"id\":1}".getBytes(StandardCharsets.UTF_8);
+            echange.sendResponseHeaders(200, corps.length);
+            try (OutputStream out = echange.getResponseBody()) {
+                out.write(corps);
+            }
+        });
+        serveur.createContext("/api/livre", echange -> {
+            String acceptEncoding = echange.getRequestHeaders().getFirst("Accept-Encoding");
+            encodageRecu.set(acceptEncoding);
+            byte[] corps = LISTE.getBytes(StandardCharsets.UTF_8);
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                echange.getResponseHeaders().set("Content-Encoding", "gzip");
+                echange.sendResponseHeaders(200, 0);
+                try (OutputStream out = new GZIPOutputStream(echange.getResponseBody())) {
+                    out.write(corps);
+                }
+            } else {
+                echange.sendResponseHeaders(200, corps.length);
+                try (OutputStream out = echange.getResponseBody()) {
+                    out.write(corps);
+                }
+            }
+        });
+        serveur.start();
+    }
+
+    @AfterEach
+    void arreterServeur() {
+        serveur.stop(0);
+        threadsServeur.shutdownNow();
+    }
+
+    private LivreStub client(Client transport) {
+        return Feign.builder()
+                .client(transport)
+                .retryer(Retryer.NEVER_RETRY)
+                .options(new Request.Options(1000, TimeUnit.MILLISECONDS, 2000, TimeUnit.MILLISECONDS, true))
+                .target(LivreStub.class, "http://localhost:" + serveur.getAddress().getPort());
+    }
+
+    // Mêmes réglages que spring.cloud.openfeign.httpclient dans application.yml
+    private static CloseableHttpClient pool() {
+        return HttpClients.custom()
+                .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                        .setMaxConnTotal(128)
+                        .setMaxConnPerRoute(32)
+                        .setConnPoolPolicy(PoolReusePolicy.LIFO)
+                        .build())
+                .evictExpiredConnections()
+                .build();
+    }
+
+    private long appelsParSeconde(LivreStub livres) throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(THREADS);
+        List<Callable<String>> rafale = IntStream.range(0, THREADS)
+                .<Callable<String>>mapToObj(i -> livres::lire)
+                .toList();
+        try {
+            long debut = System.nanoTime();
+            for (int i = 0; i < RAFALES; i++) {
+                for (Future<String> reponse : clients.invokeAll(rafale)) {
+                    reponse.get();
+                }
+            }
+            long duree = System.nanoTime() - debut;
+            return THREADS * RAFALES * TimeUnit.SECONDS.toNanos(1) / duree;
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    void poolReutiliseLesConnexionsSousCharge() throws Exception {
+        appelsParSeconde(client(new Client.Default(null, null)));
+        int socketsDefaut = sockets.size();
+        sockets.clear();
+
+        try (CloseableHttpClient http = pool()) {
+            appelsParSeconde(client(new ApacheHttp5Client(http)));
+            int socketsPool = sockets.size();
+
+            // Une connexion par appel simultané au plus : aucune socket rouverte entre les rafales,
+            // alors que HttpURLConnection n'en garde que 5 au repos (http.maxConnections)
+            assertTrue(socketsPool <= THREADS, "sockets ouvertes : " + socketsPool);
+            assertTrue(socketsDefaut > socketsPool, "sockets HttpURLConnection : " + socketsDefaut);
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void mesureDebit() throws Exception {
+        long debitDefaut = appelsParSeconde(client(new Client.Default(null, null)));
+        try (CloseableHttpClient http = pool()) {
+            long debitPool = appelsParSeconde(client(new ApacheHttp5Client(http)));
+            System.out.printf("HttpURLConnection : %d appels/s ; HttpClient 5 : %d appels/s%n", debitDefaut, debitPool);
+        }
+    }
+
+    @Test
+    void reponseGzipDecompresseeDeFaconTransparente() throws IOException {
+        try (CloseableHttpClient http = pool()) {
+            assertEquals(LISTE, client(new ApacheHttp5Client(http)).lister());
+            assertTrue(encodageRecu.get().contains("gzip"));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package ma.mundiapolis.msemprunt.config;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import feign.Feign;
+import feign.RequestInterceptor;
+import feign.Retryer;
+import feign.hc5.ApacheHttp5Client;
+import ma.mundiapolis.msemprunt.clients.LivreClient;
+import ma.mundiapolis.msemprunt.dto.LivreDto;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.cloud.openfeign.support.SpringEncoder;
+import org.springframework.cloud.openfeign.support.SpringMvcContract;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * JSON contre Smile sur la recherche groupée de livres (500 ids, taille d'un lot du flux NDJSON) :
+ * octets et aller-retour Feign complet contre un faux ms-livre. Temps CPU de (dé)sérialisation
+ * et latence des appels mesurés par les benchmarks (-Pbenchmark).
+ */
+class TransportInterneConfigTest {
+
+    static {
+        // Sans TCP_NODELAY, le serveur de test ajoute ~40 ms par réponse (Nagle + ACK retardé)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private static final int IDS = 500;
+    private static final int ITERATIONS = 300;
+
+    private static final ObjectMapper JSON = Jackson2ObjectMapperBuilder.json().build();
+    private static final ObjectMapper SMILE = Jackson2ObjectMapperBuilder.smile().build();
+    private static final TypeReference<Map<Long, LivreDto>> TYPE = new TypeReference<>() {
+    };
+
+    private final ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+    private final Map<Long, LivreDto> livres = new LinkedHashMap<>();
+    private final AtomicLong octetsEnvoyes = new AtomicLong();
+    private HttpServer serveur;
+    private ExecutorService threadsServeur;
+
+    @BeforeEach
+    void demarrerServeur() throws IOException {
+        LongStream.rangeClosed(1, IDS).forEach(id -> livres.put(id, new LivreDto(id,
+                "Titre du livre numéro " + id, "Auteur " + id % 37, "ROMAN",
+                "978-2-07-0" + (100000 + id), 5, 3, 2, 1L)));
+
+        serveur = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        threadsServeur = Executors.newFixedThreadPool(4);
+        serveur.setExecutor(threadsServeur);
+        serveur.createContext("/api/livre/bulk", echange -> {
+            echange.getRequestBody().readAllBytes();
+            String accept = echange.getRequestHeaders().getFirst("Accept");
+            boolean smile = accept != null && accept.startsWith("application/x-jackson-smile");
+            byte[] corps = (smile ? SMILE : JSON).writeValueAsBytes(livres);
+            octetsEnvoyes.addAndGet(corps.length);
+            echange.getResponseHeaders().set("Content-Type",
+                    smile ? "application/x-jackson-smile" : "application/json");
+            echange.sendResponseHeaders(200, corps.length);
+            try (OutputStream out = echange.getResponseBody()) {
+                out.write(corps);
+            }
+        });
+        serveur.start();
+    }
+
+    @AfterEach
+    void arreterServeur() {
+        serveur.stop(0);
+        threadsServeur.shutdownNow();
+    }
+
+    private long cpuNanos(ObjectMapper mapper) throws IOException {
+        for (int i = 0; i < ITERATIONS; i++) {
+            mapper.readValue(mapper.writeValueAsBytes(livres), TYPE);
+        }
+        long debut = cpu.getCurrentThreadCpuTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mapper.readValue(mapper.writeValueAsBytes(livres), TYPE);
+        }
+        return (cpu.getCurrentThreadCpuTime() - debut) / ITERATIONS;
+    }
+
+    @Test
+    void smilePlusCompactQueJsonSansPerte() throws IOException {
+        assertTrue(SMILE.writeValueAsBytes(livres).length < JSON.writeValueAsBytes(livres).length);
+        assertEquals(livres, SMILE.readValue(SMILE.writeValueAsBytes(livres), TYPE));
+    }
+
+    @Test
+    @Tag("benchmark")
+    void mesureSerialisation() throws IOException {
+        long cpuJson = cpuNanos(JSON);
+        long cpuSmile = cpuNanos(SMILE);
+        System.out.printf("Sérialisation %d livres : JSON %d o, %d µs CPU ; Smile %d o, %d µs CPU%n",
+                IDS, JSON.writeValueAsBytes(livres).length, cpuJson / 1000,
+                SMILE.writeValueAsBytes(livres).length, cpuSmile / 1000);
+    }
+
+    private LivreClient client(CloseableHttpClient http, List<RequestInterceptor> intercepteurs) {
+        // Convertisseurs JSON de l'application ; Smile est ajouté par le décodeur de TransportInterneConfig
+        HttpMessageConverters convertisseurs = new HttpMessageConverters(false, List.of(
+                new MappingJackson2HttpMessageConverter(JSON)));
+        return Feign.builder()
+                .client(new ApacheHttp5Client(http))
+                .contract(new SpringMvcContract())
+                .encoder(new SpringEncoder(() -> convertisseurs))
+                .decoder(new TransportInterneConfig().feignDecoder(() -> convertisseurs, Jackson2ObjectMapperBuilder.json()))
+                .requestInterceptors(intercepteurs)
+                .retryer(Retryer.NEVER_RETRY)
+                .target(LivreClient.class, "http://localhost:" + serveur.getAddress().getPort());
+    }
+
+    private record Mesure(long p50Micros, long octetsParAppel, long cpuMicrosParAppel) {
+    }
+
+    private Mesure mesurer(LivreClient client) {
+        List<Long> ids = List.copyOf(livres.keySet());
+        for (int i = 0; i < ITERATIONS / 3; i++) {
+            assertEquals(livres, client.getLivresByIds(ids));
+        }
+        octetsEnvoyes.set(0);
+        long[] durees = new long[ITERATIONS];
+        long cpuDebut = cpu.getCurrentThreadCpuTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            long debut = System.nanoTime();
+            client.getLivresByIds(ids);
+            durees[i] = System.nanoTime() - debut;
+        }
+        long cpuAppels = cpu.getCurrentThreadCpuTime() - cpuDebut;
+        Arrays.sort(durees);
+        return new Mesure(TimeUnit.NANOSECONDS.toMicros(durees[ITERATIONS / 2]),
+                octetsEnvoyes.get() / ITERATIONS, TimeUnit.NANOSECONDS.toMicros(cpuAppels / ITERATIONS));
+    }
+
+    // Octets reçus pour un appel, réponse décodée à l'identique
+    private long octetsPourUnAppel(LivreClient client) {
+        octetsEnvoyes.set(0);
+        assertEquals(livres, client.getLivresByIds(List.copyOf(livres.keySet())));
+        return octetsEnvoyes.get();
+    }
+
+    @Test
+    void appelFeignNegocieSmileAvecLIntercepteur() throws IOException {
+        try (CloseableHttpClient http = HttpClients.createDefault()) {
+            long octetsJson = octetsPourUnAppel(client(http, List.of()));
+            long octetsSmile = octetsPourUnAppel(client(http,
+                    List.of(new TransportInterneConfig().acceptSmileInterceptor())));
+            assertTrue(octetsSmile < octetsJson);
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void mesureAppelsFeign() throws IOException {
+        try (CloseableHttpClient http = HttpClients.createDefault()) {
+            Mesure json = mesurer(client(http, List.of()));
+            Mesure smile = mesurer(client(http, List.of(new TransportInterneConfig().acceptSmileInterceptor())));
+            System.out.printf("Feign getLivresByIds(%d) : JSON %s ; Smile %s%n", IDS, json, smile);
+        }
+    }
+}
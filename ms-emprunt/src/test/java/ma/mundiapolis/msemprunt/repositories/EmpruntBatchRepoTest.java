@@ -0,0 +1,152 @@
+package ma.mundiapolis.msemprunt.repositories;
+
+import ma.mundiapolis.msemprunt.dto.UserDto;
+import ma.mundiapolis.msemprunt.entities.Emprunt;
+import ma.mundiapolis.msemprunt.enums.StatutEmprunt;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Insertion par lots des emprunts d'une classe (H2 en mode MySQL) : ids générés rendus dans
+ * l'ordre, copies utilisateur tenues à jour ; puis lot JDBC contre save() ligne par ligne
+ * (profil benchmark).
+ */
+@DataJpaTest(showSql = false, properties = {
+        "spring.datasource.url=jdbc:h2:mem:lots;MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(EmpruntBatchRepo.class)
+// Une transaction par lot, comme dans EmpruntServiceImpl
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class EmpruntBatchRepoTest {
+
+    private static final int CLASSE = 40;
+    private static final int CLASSES = 250;
+
+    @Autowired
+    private EmpruntBatchRepo empruntBatchRepo;
+
+    @Autowired
+    private EmpruntRepo empruntRepo;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void viderTable() {
+        jdbcTemplate.update("DELETE FROM emprunt");
+    }
+
+    @Test
+    void idsGeneresRendusDansLOrdreDuLot() {
+        List<Emprunt> lot = classe(7L);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> empruntBatchRepo.insererTous(lot));
+
+        for (Emprunt emprunt : lot) {
+            assertNotNull(emprunt.getId());
+            Emprunt relu = empruntRepo.findById(emprunt.getId()).orElseThrow();
+            assertEquals(emprunt.getLivreId(), relu.getLivreId());
+            assertEquals("Livre " + emprunt.getLivreId(), relu.getLivreTitre());
+            assertEquals(StatutEmprunt.EN_COURS, relu.getStatut());
+        }
+        assertEquals(CLASSE, empruntRepo.count());
+    }
+
+    @Test
+    void copiesUtilisateurMisesAJourEnUnLot() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            empruntBatchRepo.insererTous(classe(1L));
+            empruntBatchRepo.insererTous(classe(2L));
+        });
+        UserDto renomme = new UserDto();
+        renomme.setId(1L);
+        renomme.setNom("Nouveau nom");
+        renomme.setEmail("nouveau@ecole.ma");
+        empruntBatchRepo.majInstantanesUsers(List.of(renomme));
+
+        assertEquals(CLASSE, compter("SELECT COUNT(*) FROM emprunt WHERE utilisateur_nom = 'Nouveau nom'"));
+        assertEquals(CLASSE, compter("SELECT COUNT(*) FROM emprunt WHERE utilisateur_id = 2 AND utilisateur_nom = 'Élève 2'"));
+    }
+
+    @Test
+    @Tag("benchmark")
+    void lotContreSaveLigneParLigne() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        long[] unitaire = mesurer(lot -> transaction.executeWithoutResult(status -> lot.forEach(empruntRepo::save)));
+        long[] parLot = mesurer(lot -> transaction.executeWithoutResult(status -> empruntBatchRepo.insererTous(lot)));
+
+        assertEquals(2L * (CLASSES + 20) * CLASSE, empruntRepo.count());
+        System.out.printf("Création de %d classes de %d emprunts : save() p50 %d µs / p99 %d µs, "
+                        + "lot JDBC p50 %d µs / p99 %d µs%n", CLASSES, CLASSE,
+                unitaire[0], unitaire[1], parLot[0], parLot[1]);
+        assertTrue(parLot[0] < unitaire[0]);
+    }
+
+    // Durées par classe (p50, p99) après 20 classes de chauffe
+    private long[] mesurer(Consumer<List<Emprunt>> creer) {
+        for (int i = 0; i < 20; i++) {
+            creer.accept(classe(i));
+        }
+        long[] durees = new long[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            List<Emprunt> lot = classe(i);
+            long debut = System.nanoTime();
+            creer.accept(lot);
+            durees[i] = (System.nanoTime() - debut) / 1_000;
+        }
+        Arrays.sort(durees);
+        return new long[]{durees[CLASSES / 2], durees[CLASSES * 99 / 100]};
+    }
+
+    private long compter(String sql) {
+        return jdbcTemplate.queryForObject(sql, Long.class);
+    }
+
+    // Une classe de 40 livres distincts empruntés par le même utilisateur
+    private static List<Emprunt> classe(long utilisateurId) {
+        LocalDateTime maintenant = LocalDateTime.now();
+        List<Emprunt> lot = new ArrayList<>();
+        for (long livreId = 1; livreId <= CLASSE; livreId++) {
+            lot.add(Emprunt.builder()
+                    .utilisateurId(utilisateurId)
+                    .livreId(livreId)
+                    .dateEmprunt(maintenant)
+                    .dateRetourPrevue(maintenant.plusDays(14))
+                    .statut(StatutEmprunt.EN_COURS)
+                    .utilisateurNom("Élève " + utilisateurId)
+                    .utilisateurEmail("eleve" + utilisateurId + "@ecole.ma")
+                    .livreTitre("Livre " + livreId)
+                    .livreAuteur("Auteur")
+                    .build());
+        }
+        return lot;
+    }
+}
@@ -0,0 +1,220 @@
+package ma.mundiapolis.msemprunt.services;
+
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import ma.mundiapolis.msemprunt.enums.StatutEmprunt;
+import ma.mundiapolis.msemprunt.repositories.CompteurEmpruntRepo;
+import ma.mundiapolis.msemprunt.repositories.EmpruntRepo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compteurs par statut répartis en tranches (H2 en mode MySQL) : initialisation depuis la table
+ * emprunt, sommes exactes sous mises à jour concurrentes, retours groupés sans interblocage
+ * (une tranche par transaction, statuts dans un ordre fixe), tranches ajoutées après coup.
+ */
+@DataJpaTest(showSql = false, properties = {
+        "spring.datasource.url=jdbc:h2:mem:compteurs;MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+// Chaque mise à jour dans sa propre transaction, comme les emprunts en production
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class CompteursEmpruntsTest {
+
+    private static final int TRANCHES = 8;
+
+    @Autowired
+    private CompteurEmpruntRepo compteurEmpruntRepo;
+
+    @Autowired
+    private EmpruntRepo empruntRepo;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void viderTables() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        jdbcTemplate.update("DELETE FROM emprunt");
+        jdbcTemplate.update("DELETE FROM compteur_emprunt_tranche");
+    }
+
+    @Test
+    void initialisesDepuisLaTableEmprunt() {
+        inserer(5, StatutEmprunt.EN_COURS);
+        inserer(2, StatutEmprunt.EN_RETARD);
+
+        CompteursEmprunts compteurs = compteurs(TRANCHES);
+        compteurs.afterSingletonsInstantiated();
+
+        assertEquals(StatutEmprunt.values().length * TRANCHES, compteurEmpruntRepo.count());
+        Map<StatutEmprunt, Long> nombres = compteurs.lire();
+        assertEquals(5L, nombres.get(StatutEmprunt.EN_COURS));
+        assertEquals(2L, nombres.get(StatutEmprunt.EN_RETARD));
+        assertEquals(0L, nombres.get(StatutEmprunt.RETOURNE));
+
+        // Déjà initialisés : un second démarrage ne recompte pas
+        inserer(3, StatutEmprunt.EN_COURS);
+        compteurs(TRANCHES).afterSingletonsInstantiated();
+        assertEquals(5L, compteurs.lire().get(StatutEmprunt.EN_COURS));
+    }
+
+    @Test
+    void sommesExactesSousMisesAJourConcurrentes() throws Exception {
+        CompteursEmprunts compteurs = compteurs(TRANCHES);
+        compteurs.afterSingletonsInstantiated();
+
+        // 32 threads × 50 transactions : création, passage en retard, retour
+        int threads = 32;
+        int iterations = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch depart = new CountDownLatch(1);
+        try {
+            List<Future<?>> resultats = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                resultats.add(executor.submit(() -> {
+                    depart.await();
+                    for (int i = 0; i < iterations; i++) {
+                        transactionTemplate.executeWithoutResult(s -> compteurs.ajouter(StatutEmprunt.EN_COURS, 3));
+                        transactionTemplate.executeWithoutResult(s ->
+                                compteurs.transferer(StatutEmprunt.EN_COURS, StatutEmprunt.EN_RETARD, 1));
+                        transactionTemplate.executeWithoutResult(s ->
+                                compteurs.transferer(StatutEmprunt.EN_RETARD, StatutEmprunt.RETOURNE, 1));
+                    }
+                    return null;
+                }));
+            }
+            depart.countDown();
+            for (Future<?> resultat : resultats) {
+                resultat.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long operations = (long) threads * iterations;
+        Map<StatutEmprunt, Long> nombres = compteurs.lire();
+        assertEquals(2 * operations, nombres.get(StatutEmprunt.EN_COURS));
+        assertEquals(0L, nombres.get(StatutEmprunt.EN_RETARD));
+        assertEquals(operations, nombres.get(StatutEmprunt.RETOURNE));
+        // Les incréments se répartissent sur plusieurs lignes
+        Long tranchesUtilisees = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM compteur_emprunt_tranche "
+                + "WHERE statut = 'RETOURNE' AND nombre <> 0", Long.class);
+        assertTrue(tranchesUtilisees > 1, String.valueOf(tranchesUtilisees));
+    }
+
+    @Test
+    void retoursGroupesConcurrentsSansInterblocage() throws Exception {
+        CompteursEmprunts compteurs = compteurs(2);
+        compteurs.afterSingletonsInstantiated();
+
+        // Lots mêlant emprunts en cours et en retard, avec peu de tranches : chaque transaction
+        // reprend plusieurs lignes de statut, toujours dans le même ordre
+        int threads = 16;
+        int iterations = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch depart = new CountDownLatch(1);
+        try {
+            List<Future<?>> resultats = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                resultats.add(executor.submit(() -> {
+                    depart.await();
+                    for (int i = 0; i < iterations; i++) {
+                        transactionTemplate.executeWithoutResult(s -> {
+                            compteurs.ajouter(StatutEmprunt.EN_COURS, 2);
+                            compteurs.ajouter(StatutEmprunt.EN_RETARD, 1);
+                        });
+                        transactionTemplate.executeWithoutResult(s -> compteurs.appliquer(Map.of(
+                                StatutEmprunt.EN_RETARD, -1L,
+                                StatutEmprunt.EN_COURS, -1L,
+                                StatutEmprunt.RETOURNE, 2L)));
+                    }
+                    return null;
+                }));
+            }
+            depart.countDown();
+            for (Future<?> resultat : resultats) {
+                resultat.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long operations = (long) threads * iterations;
+        Map<StatutEmprunt, Long> nombres = compteurs.lire();
+        assertEquals(operations, nombres.get(StatutEmprunt.EN_COURS));
+        assertEquals(0L, nombres.get(StatutEmprunt.EN_RETARD));
+        assertEquals(2 * operations, nombres.get(StatutEmprunt.RETOURNE));
+    }
+
+    @Test
+    void uneSeuleTrancheParTransaction() {
+        CompteursEmprunts compteurs = compteurs(TRANCHES);
+        compteurs.afterSingletonsInstantiated();
+
+        transactionTemplate.executeWithoutResult(s -> {
+            for (int i = 0; i < 20; i++) {
+                compteurs.ajouter(StatutEmprunt.EN_COURS, 1);
+                compteurs.transferer(StatutEmprunt.EN_COURS, StatutEmprunt.RETOURNE, 1);
+            }
+        });
+
+        assertEquals(20L, compteurs.lire().get(StatutEmprunt.RETOURNE));
+        Long lignesModifiees = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM compteur_emprunt_tranche "
+                + "WHERE nombre <> 0", Long.class);
+        assertEquals(1L, lignesModifiees);
+    }
+
+    @Test
+    void tranchesAjouteesApresInitialisationRetombentSurLaPremiere() {
+        compteurs(2).afterSingletonsInstantiated();
+
+        CompteursEmprunts plusDeTranches = compteurs(64);
+        for (int i = 0; i < 200; i++) {
+            transactionTemplate.executeWithoutResult(s -> plusDeTranches.ajouter(StatutEmprunt.EN_COURS, 1));
+        }
+        assertEquals(200L, plusDeTranches.lire().get(StatutEmprunt.EN_COURS));
+    }
+
+    private CompteursEmprunts compteurs(int tranches) {
+        EmpruntProperties properties = new EmpruntProperties();
+        properties.getCompteurs().setTranches(tranches);
+        return new CompteursEmprunts(compteurEmpruntRepo, empruntRepo, transactionTemplate, properties);
+    }
+
+    private void inserer(int nombre, StatutEmprunt statut) {
+        for (int i = 0; i < nombre; i++) {
+            jdbcTemplate.update("INSERT INTO emprunt (utilisateur_id, livre_id, date_emprunt, statut) "
+                    + "VALUES (1, ?, CURRENT_TIMESTAMP, ?)", i + 1, statut.name());
+        }
+    }
+}
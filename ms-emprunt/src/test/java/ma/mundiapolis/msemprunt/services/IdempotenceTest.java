@@ -0,0 +1,164 @@
+package ma.mundiapolis.msemprunt.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import ma.mundiapolis.msemprunt.dto.EmpruntReqDto;
+import ma.mundiapolis.msemprunt.dto.EmpruntRespDto;
+import ma.mundiapolis.msemprunt.entities.RequeteIdempotente;
+import ma.mundiapolis.msemprunt.enums.StatutEmprunt;
+import ma.mundiapolis.msemprunt.enums.StatutRequeteIdempotente;
+import ma.mundiapolis.msemprunt.repositories.RequeteIdempotenteRepo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Requêtes avec Idempotency-Key (H2 en mode MySQL) : réponse rejouée, 409 tant que la première
+ * est en cours, 422 pour une autre requête sous la même clé, clé libérée après un échec,
+ * clé abandonnée reprise après verrouMax.
+ */
+@DataJpaTest(showSql = false, properties = {
+        "spring.datasource.url=jdbc:h2:mem:idempotence;MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+// Réservation, réponse et libération de la clé dans leurs propres transactions, comme en production
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class IdempotenceTest {
+
+    private static final String OPERATION = "POST /api/emprunts";
+
+    @Autowired
+    private RequeteIdempotenteRepo requeteIdempotenteRepo;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private Idempotence idempotence;
+    private final AtomicInteger traitements = new AtomicInteger();
+
+    @BeforeEach
+    void initialiser() {
+        requeteIdempotenteRepo.deleteAll();
+        EmpruntProperties properties = new EmpruntProperties();
+        properties.getIdempotence().setVerrouMax(Duration.ofSeconds(30));
+        idempotence = new Idempotence(requeteIdempotenteRepo, new TransactionTemplate(transactionManager),
+                new ObjectMapper().findAndRegisterModules(), properties);
+    }
+
+    @Test
+    void reponseRejoueeSansNouveauTraitement() {
+        EmpruntRespDto premiere = idempotence.executer("cle-1", OPERATION, demande(10L), EmpruntRespDto.class,
+                () -> emprunt(1L));
+        EmpruntRespDto rejouee = idempotence.executer("cle-1", OPERATION, demande(10L), EmpruntRespDto.class,
+                () -> emprunt(2L));
+
+        assertEquals(1L, premiere.getId());
+        assertEquals(premiere.getId(), rejouee.getId());
+        assertEquals(premiere.getStatut(), rejouee.getStatut());
+        assertEquals(1, traitements.get());
+        assertEquals(StatutRequeteIdempotente.TERMINEE, requeteIdempotenteRepo.findByCle("cle-1").orElseThrow().getStatut());
+    }
+
+    @Test
+    void doublonPendantLeTraitementRecoit409() {
+        ResponseStatusException doublon = assertThrows(ResponseStatusException.class, () ->
+                idempotence.executer("cle-2", OPERATION, demande(10L), EmpruntRespDto.class, () -> {
+                    // Même clé reçue pendant que la première requête est encore traitée
+                    idempotence.executer("cle-2", OPERATION, demande(10L), EmpruntRespDto.class, () -> emprunt(9L));
+                    return emprunt(1L);
+                }));
+        assertEquals(HttpStatus.CONFLICT, doublon.getStatusCode());
+        // Le 409 a interrompu la première : la clé est libérée et le client peut réessayer
+        assertTrue(requeteIdempotenteRepo.findByCle("cle-2").isEmpty());
+        assertEquals(1L, idempotence.executer("cle-2", OPERATION, demande(10L), EmpruntRespDto.class,
+                () -> emprunt(1L)).getId());
+    }
+
+    @Test
+    void autreRequeteSousLaMemeCleRecoit422() {
+        idempotence.executer("cle-3", OPERATION, demande(10L), EmpruntRespDto.class, () -> emprunt(1L));
+
+        ResponseStatusException autreCorps = assertThrows(ResponseStatusException.class, () ->
+                idempotence.executer("cle-3", OPERATION, demande(11L), EmpruntRespDto.class, () -> emprunt(2L)));
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, autreCorps.getStatusCode());
+        ResponseStatusException autreOperation = assertThrows(ResponseStatusException.class, () ->
+                idempotence.executer("cle-3", "PUT /api/emprunts/1/retourner", null, EmpruntRespDto.class,
+                        () -> emprunt(2L)));
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, autreOperation.getStatusCode());
+        assertEquals(1, traitements.get());
+    }
+
+    @Test
+    void echecLibereLaCle() {
+        assertThrows(IllegalStateException.class, () ->
+                idempotence.executer("cle-4", OPERATION, demande(10L), EmpruntRespDto.class, () -> {
+                    throw new IllegalStateException("Aucun exemplaire disponible");
+                }));
+        assertTrue(requeteIdempotenteRepo.findByCle("cle-4").isEmpty());
+
+        assertEquals(1L, idempotence.executer("cle-4", OPERATION, demande(10L), EmpruntRespDto.class,
+                () -> emprunt(1L)).getId());
+    }
+
+    @Test
+    void cleAbandonneeRepriseApresVerrouMax() {
+        EmpruntRespDto reponse = idempotence.executer("cle-5", OPERATION, demande(10L), EmpruntRespDto.class, () -> {
+            // Première requête figée (instance bloquée) : tant qu'elle est récente, le doublon reçoit 409
+            ResponseStatusException recente = assertThrows(ResponseStatusException.class, () ->
+                    idempotence.executer("cle-5", OPERATION, demande(10L), EmpruntRespDto.class, () -> emprunt(9L)));
+            assertEquals(HttpStatus.CONFLICT, recente.getStatusCode());
+
+            // Au-delà de verrouMax, le doublon suivant reprend la clé et traite la requête
+            RequeteIdempotente abandonnee = requeteIdempotenteRepo.findByCle("cle-5").orElseThrow();
+            abandonnee.setDateCreation(LocalDateTime.now().minusMinutes(5));
+            requeteIdempotenteRepo.save(abandonnee);
+            return idempotence.executer("cle-5", OPERATION, demande(10L), EmpruntRespDto.class, () -> emprunt(2L));
+        });
+
+        assertEquals(2L, reponse.getId());
+        assertEquals(1, traitements.get());
+        assertEquals(StatutRequeteIdempotente.TERMINEE, requeteIdempotenteRepo.findByCle("cle-5").orElseThrow().getStatut());
+        assertEquals(2L, idempotence.executer("cle-5", OPERATION, demande(10L), EmpruntRespDto.class,
+                () -> emprunt(3L)).getId());
+    }
+
+    @Test
+    void cleTropLongueRefusee() {
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> idempotence.executer(
+                "x".repeat(256), OPERATION, demande(10L), EmpruntRespDto.class, () -> emprunt(1L)));
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+    }
+
+    private EmpruntRespDto emprunt(Long id) {
+        traitements.incrementAndGet();
+        return EmpruntRespDto.builder().id(id).utilisateurId(1L).livreId(10L).statut(StatutEmprunt.EN_COURS).build();
+    }
+
+    private static EmpruntReqDto demande(Long livreId) {
+        EmpruntReqDto demande = new EmpruntReqDto();
+        demande.setUtilisateurId(1L);
+        demande.setLivreId(livreId);
+        return demande;
+    }
+}
@@ -0,0 +1,107 @@
+package ma.mundiapolis.msemprunt.services;
+
+import ma.mundiapolis.msemprunt.dto.LivreDto;
+import ma.mundiapolis.msemprunt.dto.UserDto;
+import ma.mundiapolis.msemprunt.repositories.EmpruntBatchRepo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Copies utilisateur / livre sur les emprunts (H2 en mode MySQL) : une copie plus ancienne,
+ * arrivée en retard ou relue d'un cache, ne remplace jamais une copie plus récente.
+ */
+@DataJpaTest(showSql = false, properties = {
+        "spring.datasource.url=jdbc:h2:mem:instantanes;MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(EmpruntBatchRepo.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class InstantanesEmpruntsTest {
+
+    @Autowired
+    private EmpruntBatchRepo empruntBatchRepo;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private InstantanesEmprunts instantanes;
+
+    @BeforeEach
+    void initialiser() {
+        jdbcTemplate.update("DELETE FROM emprunt");
+        // Copie prise à la création : utilisateur en version 5, livre sans version (service pas encore à jour)
+        jdbcTemplate.update("INSERT INTO emprunt (utilisateur_id, livre_id, date_emprunt, statut, "
+                + "utilisateur_nom, utilisateur_version, livre_titre) "
+                + "VALUES (1, 10, CURRENT_TIMESTAMP, 'EN_COURS', 'Nom v5', 5, 'Titre')");
+        instantanes = new InstantanesEmprunts(empruntBatchRepo, new TransactionTemplate(transactionManager));
+    }
+
+    @Test
+    void laPlusRecenteEnFileLEmporteQuelQueSoitLOrdreDArrivee() {
+        instantanes.userModifie(user(7, "Nom v7"));
+        instantanes.userModifie(user(6, "Nom v6"));
+        instantanes.appliquer();
+
+        assertEquals(Map.of("utilisateur_nom", "Nom v7", "utilisateur_version", 7L), copieUser());
+    }
+
+    @Test
+    void copiePlusAncienneQueLaBaseIgnoree() {
+        // Relue d'un cache pendant l'enrichissement d'une liste, après une modification déjà appliquée
+        instantanes.userModifie(user(4, "Nom v4"));
+        instantanes.userModifie(user(5, "Nom v5 rejouée"));
+        instantanes.appliquer();
+        assertEquals(Map.of("utilisateur_nom", "Nom v5", "utilisateur_version", 5L), copieUser());
+
+        // Sans version : ne touche pas une copie versionnée
+        instantanes.userModifie(user(null, "Nom sans version"));
+        instantanes.appliquer();
+        assertEquals("Nom v5", copieUser().get("utilisateur_nom"));
+    }
+
+    @Test
+    void copieSansVersionCompleteePuisVersionnee() {
+        LivreDto livre = LivreDto.builder().id(10L).titre("Titre v2").auteur("Auteur").version(2L).build();
+        instantanes.livreModifie(livre);
+        instantanes.appliquer();
+        assertEquals("Titre v2", titreLivre());
+
+        instantanes.livreModifie(LivreDto.builder().id(10L).titre("Titre v1").auteur("Auteur").version(1L).build());
+        instantanes.appliquer();
+        assertEquals("Titre v2", titreLivre());
+    }
+
+    private static UserDto user(Integer version, String nom) {
+        return UserDto.builder().id(1L).nom(nom).email("eleve@ecole.ma")
+                .version(version == null ? null : version.longValue()).build();
+    }
+
+    private Map<String, Object> copieUser() {
+        return jdbcTemplate.queryForMap("SELECT utilisateur_nom, utilisateur_version FROM emprunt WHERE utilisateur_id = 1");
+    }
+
+    private String titreLivre() {
+        return jdbcTemplate.queryForObject("SELECT livre_titre FROM emprunt WHERE livre_id = 10", String.class);
+    }
+}
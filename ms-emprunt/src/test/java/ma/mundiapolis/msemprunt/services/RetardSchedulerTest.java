@@ -0,0 +1,163 @@
+package ma.mundiapolis.msemprunt.services;
+
+import ma.mundiapolis.msemprunt.config.EmpruntProperties;
+import ma.mundiapolis.msemprunt.enums.StatutEmprunt;
+import ma.mundiapolis.msemprunt.repositories.EmpruntRepo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Passage EN_COURS → EN_RETARD par lots en base (H2 en mode MySQL) et planification de la
+ * prochaine exécution à la plus proche échéance ; mesure sur un million d'emprunts (profil benchmark).
+ */
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:retards;MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+// Le job ouvre ses propres transactions, une par lot, comme en production
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RetardSchedulerTest {
+
+    @Autowired
+    private EmpruntRepo empruntRepo;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final TaskScheduler taskScheduler = mock(TaskScheduler.class);
+    private final CompteursEmprunts compteursEmprunts = mock(CompteursEmprunts.class);
+    private final FluxChangements fluxChangements = mock(FluxChangements.class);
+
+    @BeforeEach
+    void viderTable() {
+        jdbcTemplate.update("DELETE FROM emprunt");
+    }
+
+    @Test
+    void empruntsEchusPassesEnRetardParLotsEtProchaineEcheancePlanifiee() {
+        // 1 000 emprunts échus, 500 à venir (le plus proche dans 30 min), 200 déjà retournés
+        inserer(1_000, -1_000, 1, StatutEmprunt.EN_COURS);
+        inserer(500, 30, 1, StatutEmprunt.EN_COURS);
+        inserer(200, -1_000, 1, StatutEmprunt.RETOURNE);
+
+        RetardScheduler scheduler = scheduler(300);
+        assertEquals(1_000, scheduler.executer());
+
+        assertEquals(1_000, compter(StatutEmprunt.EN_RETARD));
+        assertEquals(500, compter(StatutEmprunt.EN_COURS));
+        assertEquals(200, compter(StatutEmprunt.RETOURNE));
+        // Lots de 300 : 300 + 300 + 300 + 100, chaque lot reporté sur les compteurs
+        verify(compteursEmprunts, times(3))
+                .transferer(StatutEmprunt.EN_COURS, StatutEmprunt.EN_RETARD, 300);
+        verify(compteursEmprunts).transferer(StatutEmprunt.EN_COURS, StatutEmprunt.EN_RETARD, 100);
+        verify(fluxChangements).retards(any());
+
+        // Prochaine exécution juste après la plus proche échéance, pas à intervalle fixe
+        Instant prochaine = planifiee();
+        Instant attendue = Instant.now().plus(Duration.ofMinutes(30));
+        assertTrue(Math.abs(Duration.between(attendue, prochaine).toSeconds()) < 90, prochaine.toString());
+
+        // Rien d'échu : aucune mise à jour, le job se replanifie simplement
+        assertEquals(0, scheduler(300).executer());
+    }
+
+    @Test
+    void sansEmpruntEnCoursProchaineExecutionAuPlafond() {
+        inserer(10, -60, 1, StatutEmprunt.RETOURNE);
+        scheduler(100).executer();
+
+        Instant plafond = Instant.now().plus(Duration.ofHours(1));
+        assertTrue(Math.abs(Duration.between(plafond, planifiee()).toSeconds()) < 60);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void unMillionDEmprunts() {
+        int total = 1_000_000;
+        // Moitié échue, moitié à venir
+        inserer(total / 2, -(total / 2), 1, StatutEmprunt.EN_COURS);
+        inserer(total / 2, 60, 1, StatutEmprunt.EN_COURS);
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        System.gc();
+        long heapAvant = heapUtilise();
+        long allouesAvant = threads.getCurrentThreadAllocatedBytes();
+        long debut = System.nanoTime();
+        int misAJour = scheduler(new EmpruntProperties().getRetard().getTailleLot()).executer();
+        long dureeMs = (System.nanoTime() - debut) / 1_000_000;
+        long allouesMo = (threads.getCurrentThreadAllocatedBytes() - allouesAvant) / (1024 * 1024);
+        System.gc();
+        long retenuMo = Math.max(0, heapUtilise() - heapAvant) / (1024 * 1024);
+
+        assertEquals(total / 2, misAJour);
+        System.out.printf("Retards sur %d emprunts : %d mis à jour en %d ms, %d Mo alloués (moteur H2 compris), "
+                + "%d Mo retenus après le job%n", total, misAJour, dureeMs, allouesMo, retenuMo);
+    }
+
+    private RetardScheduler scheduler(int tailleLot) {
+        EmpruntProperties properties = new EmpruntProperties();
+        properties.getRetard().setTailleLot(tailleLot);
+        properties.getRetard().setIntervalleMax(Duration.ofHours(1));
+        return new RetardScheduler(empruntRepo, new TransactionTemplate(transactionManager), taskScheduler,
+                properties, compteursEmprunts, fluxChangements);
+    }
+
+    // "nombre" emprunts dont la date de retour prévue s'échelonne à partir de maintenant + debutMinutes
+    private void inserer(int nombre, int debutMinutes, int pasMinutes, StatutEmprunt statut) {
+        LocalDateTime origine = LocalDateTime.now().plusMinutes(debutMinutes).truncatedTo(ChronoUnit.SECONDS);
+        jdbcTemplate.update("INSERT INTO emprunt (utilisateur_id, livre_id, date_emprunt, date_retour_prevue, statut) "
+                        + "SELECT MOD(\"X\", 1000), MOD(\"X\", 5000), DATEADD('DAY', -14, CAST(? AS TIMESTAMP)), "
+                        + "DATEADD('MINUTE', (\"X\" - 1) * CAST(? AS INT), CAST(? AS TIMESTAMP)), CAST(? AS VARCHAR) "
+                        + "FROM SYSTEM_RANGE(1, CAST(? AS INT))",
+                origine, pasMinutes, origine, statut.name(), nombre);
+    }
+
+    private long compter(StatutEmprunt statut) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM emprunt WHERE statut = ?", Long.class, statut.name());
+    }
+
+    private Instant planifiee() {
+        ArgumentCaptor<Instant> date = ArgumentCaptor.forClass(Instant.class);
+        verify(taskScheduler, atLeastOnce()).schedule(any(Runnable.class), date.capture());
+        return date.getValue();
+    }
+
+    private static long heapUtilise() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,862 @@
+package ma.mundiapolis.msemprunt.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ma.mundiapolis.msemprunt.dto.EmpruntLotRespDto;
+import ma.mundiapolis.msemprunt.dto.EmpruntReqDto;
+import ma.mundiapolis.msemprunt.dto.EmpruntRespDto;
+import ma.mundiapolis.msemprunt.dto.ReservationReqDto;
+import ma.mundiapolis.msemprunt.dto.ReservationRespDto;
+import ma.mundiapolis.msemprunt.entities.OperationStock;
+import ma.mundiapolis.msemprunt.entities.Reservation;
+import ma.mundiapolis.msemprunt.enums.StatutEmprunt;
+import ma.mundiapolis.msemprunt.enums.StatutOperationStock;
+import ma.mundiapolis.msemprunt.enums.StatutReservation;
+import ma.mundiapolis.msemprunt.repositories.EmpruntRepo;
+import ma.mundiapolis.msemprunt.repositories.OperationStockRepo;
+import ma.mundiapolis.msemprunt.repositories.ReservationRepo;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doThrow;
+
+/**
+ * Saga de création d'un emprunt face à un faux ms-livre local (stock, Idempotency-Key) dont on
+ * injecte les pannes : enregistrement local en échec, réponse perdue après ou sans décrément,
+ * retour appliqué mais réponse perdue, ms-livre indisponible, instance arrêtée en plein emprunt.
+ * Dans tous les cas l'exemplaire réservé est rendu exactement une fois. Mêmes pannes pour les
+ * emprunts et retours groupés : un lot à l'issue inconnue est rejoué avec sa clé, jamais
+ * remplacé par des mouvements unitaires. File d'attente des réservations : exemplaire rendu
+ * mis de côté pour le premier, passé au suivant à l'expiration, rendu au stock par l'outbox
+ * quand plus personne n'attend, une seule réservation active même pour des demandes simultanées.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:saga;MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false",
+        "eureka.client.enabled=false",
+        "spring.cloud.openfeign.client.config.ms-livre.read-timeout=300",
+        // Les pannes injectées ne doivent pas ouvrir le circuit vers ms-livre
+        "resilience4j.circuitbreaker.configs.default.minimum-number-of-calls=1000",
+        // Reprises de l'outbox déclenchées explicitement par les tests
+        "emprunt.outbox.intervalle-ms=3600000",
+        "emprunt.transport.binaire=false"
+})
+class SagaEmpruntTest {
+
+    private static final long LATENCE_PERDUE_MS = 1000;
+    private static final FauxMsLivre MS_LIVRE = new FauxMsLivre();
+    private static final AtomicLong IDS = new AtomicLong(100);
+
+    @DynamicPropertySource
+    static void services(DynamicPropertyRegistry registry) {
+        registry.add("spring.cloud.discovery.client.simple.instances.ms-livre[0].uri", MS_LIVRE::uri);
+        registry.add("spring.cloud.discovery.client.simple.instances.ms-users[0].uri", MS_LIVRE::uri);
+    }
+
+    @AfterAll
+    static void arreter() {
+        MS_LIVRE.arreter();
+    }
+
+    @Autowired
+    private EmpruntService empruntService;
+
+    @Autowired
+    private EmpruntRepo empruntRepo;
+
+    @Autowired
+    private OperationStockRepo operationStockRepo;
+
+    @Autowired
+    private OperationStockDispatcher operationStockDispatcher;
+
+    @Autowired
+    private ReservationService reservationService;
+
+    @Autowired
+    private ReservationRepo reservationRepo;
+
+    @MockitoSpyBean
+    private CompteursEmprunts compteursEmprunts;
+
+    private long livreId;
+    private long utilisateurId;
+
+    @BeforeEach
+    void nouveauLivre() {
+        // Un livre et un utilisateur par test : ni cache ni limite d'emprunts partagés
+        livreId = IDS.incrementAndGet();
+        utilisateurId = IDS.incrementAndGet();
+        MS_LIVRE.ajouterLivre(livreId, 2);
+        MS_LIVRE.reinitialiserLots();
+    }
+
+    @Test
+    void empruntEnregistreRetireLAnnulationPreparee() {
+        EmpruntRespDto emprunt = empruntService.creerEmprunt(demande());
+
+        assertEquals(StatutEmprunt.EN_COURS, emprunt.getStatut());
+        assertEquals(1, MS_LIVRE.disponibles(livreId));
+        assertTrue(operations().isEmpty());
+        assertTrue(MS_LIVRE.retours(livreId).isEmpty());
+    }
+
+    @Test
+    void enregistrementEnEchecRendLExemplaireUneFois() {
+        echecEnregistrement();
+
+        assertThrows(IllegalStateException.class, () -> empruntService.creerEmprunt(demande()));
+
+        assertEquals(2, MS_LIVRE.disponibles(livreId));
+        OperationStock annulation = seuleOperation();
+        assertEquals(StatutOperationStock.ENVOYEE, annulation.getStatut());
+        assertEquals(List.of("outbox-" + annulation.getId()), MS_LIVRE.retours(livreId));
+        assertTrue(empruntRepo.findByLivreIdAndIdGreaterThanOrderByIdAsc(livreId, 0L, Limit.of(10)).isEmpty());
+    }
+
+    @Test
+    void reponsePerdueApresDecrementCompensee() {
+        // ms-livre décrémente puis répond trop tard : sans compensation, l'exemplaire serait perdu
+        MS_LIVRE.empruntLent(livreId, true);
+
+        assertThrows(IllegalStateException.class, () -> empruntService.creerEmprunt(demande()));
+
+        assertEquals(2, MS_LIVRE.disponibles(livreId));
+        assertEquals(1, MS_LIVRE.retours(livreId).size());
+        assertEquals(StatutOperationStock.ENVOYEE, seuleOperation().getStatut());
+    }
+
+    @Test
+    void reponsePerdueSansDecrementRienARendre() {
+        // La demande n'a pas été appliquée, et le dernier exemplaire part ailleurs entre-temps
+        MS_LIVRE.empruntLent(livreId, false);
+        MS_LIVRE.apresEmpruntLent(() -> MS_LIVRE.ajouterLivre(livreId, 0));
+
+        assertThrows(IllegalStateException.class, () -> empruntService.creerEmprunt(demande()));
+
+        // Le rejeu avec la clé est refusé : rien n'avait été réservé, rien n'est rendu
+        assertTrue(MS_LIVRE.retours(livreId).isEmpty());
+        assertEquals(0, MS_LIVRE.disponibles(livreId));
+        assertEquals(StatutOperationStock.ENVOYEE, seuleOperation().getStatut());
+    }
+
+    @Test
+    void retourAppliqueMaisReponsePerdueNeCompteQuUneFois() {
+        echecEnregistrement();
+        MS_LIVRE.retourLent(livreId);
+
+        assertThrows(IllegalStateException.class, () -> empruntService.creerEmprunt(demande()));
+        OperationStock annulation = seuleOperation();
+        // Réponse perdue : l'opération reste à renvoyer, sans retour direct de secours
+        assertEquals(StatutOperationStock.EN_ATTENTE, annulation.getStatut());
+        assertEquals(2, MS_LIVRE.disponibles(livreId));
+
+        // Renvoi par le dispatcher avec la même clé : ms-livre rejoue sa réponse
+        assertNotNull(operationStockDispatcher.envoyer(annulation.getId()));
+        assertEquals(2, MS_LIVRE.disponibles(livreId));
+        assertEquals(0, MS_LIVRE.empruntes(livreId));
+        String cle = "outbox-" + annulation.getId();
+        assertEquals(List.of(cle, cle), MS_LIVRE.retours(livreId));
+        assertEquals(StatutOperationStock.ENVOYEE, seuleOperation().getStatut());
+    }
+
+    @Test
+    void msLivreIndisponiblePendantLaCompensation() {
+        echecEnregistrement();
+        MS_LIVRE.retoursIndisponibles(livreId, true);
+
+        assertThrows(IllegalStateException.class, () -> empruntService.creerEmprunt(demande()));
+        OperationStock annulation = seuleOperation();
+        assertEquals(StatutOperationStock.EN_ATTENTE, annulation.getStatut());
+        assertEquals(1, MS_LIVRE.disponibles(livreId));
+
+        MS_LIVRE.retoursIndisponibles(livreId, false);
+        operationStockDispatcher.envoyer(annulation.getId());
+        assertEquals(2, MS_LIVRE.disponibles(livreId));
+        assertEquals(StatutOperationStock.ENVOYEE, seuleOperation().getStatut());
+    }
+
+    @Test
+    void refusDeMsLivreNeLaissePasDAnnulation() {
+        MS_LIVRE.refuserEmprunts(livreId);
+
+        assertThrows(IllegalStateException.class, () -> empruntService.creerEmprunt(demande()));
+
+        assertTrue(operations().isEmpty());
+        assertTrue(MS_LIVRE.retours(livreId).isEmpty());
+        assertEquals(2, MS_LIVRE.disponibles(livreId));
+    }
+
+    @Test
+    void annulationPrepareeRepriseApresArret() {
+        // L'instance s'est arrêtée après avoir obtenu l'exemplaire, avant d'enregistrer l'emprunt
+        OperationStock annulation = operationStockDispatcher.enregistrerAnnulation(livreId, "emprunt-arret");
+        MS_LIVRE.emprunter(livreId, "emprunt-arret");
+        assertEquals(1, MS_LIVRE.disponibles(livreId));
+
+        // À l'échéance de l'annulation, la reprise périodique rend l'exemplaire
+        annulation.setProchaineTentative(LocalDateTime.now().minusSeconds(1));
+        operationStockRepo.save(annulation);
+        operationStockDispatcher.traiterEnAttente();
+
+        assertEquals(2, MS_LIVRE.disponibles(livreId));
+        assertEquals(StatutOperationStock.ENVOYEE, seuleOperation().getStatut());
+    }
+
+    @Test
+    void lotEnregistreRetireLesAnnulationsPreparees() {
+        long autreLivreId = autreLivre();
+
+        List<EmpruntLotRespDto> resultats = empruntService.creerEmprunts(demandesLot(autreLivreId));
+
+        assertTrue(resultats.stream().allMatch(EmpruntLotRespDto::isSucces));
+        assertEquals(1, MS_LIVRE.disponibles(livreId));
+        assertEquals(1, MS_LIVRE.disponibles(autreLivreId));
+        assertTrue(operations(livreId, autreLivreId).isEmpty());
+    }
+
+    @Test
+    void lotReponsePerdueApresDecrementRejoueEtCompense() {
+        long autreLivreId = autreLivre();
+        // ms-livre applique le lot puis répond trop tard
+        MS_LIVRE.lotLent("emprunter", true);
+
+        List<EmpruntLotRespDto> resultats = empruntService.creerEmprunts(demandesLot(autreLivreId));
+
+        assertTrue(resultats.stream().noneMatch(EmpruntLotRespDto::isSucces));
+        // Lot rejoué avec sa clé (réponse enregistrée), puis exemplaires accordés rendus une fois
+        assertEquals(2, MS_LIVRE.disponibles(livreId));
+        assertEquals(2, MS_LIVRE.disponibles(autreLivreId));
+        String cle = cleLot(MS_LIVRE.lots().get(0));
+        assertEquals(List.of("emprunter " + cle, "emprunter " + cle, "retourner annulation-" + cle), MS_LIVRE.lots());
+        assertTrue(operations(livreId, autreLivreId).stream().allMatch(o -> o.getStatut() == StatutOperationStock.ENVOYEE));
+        assertTrue(empruntRepo.findByLivreIdAndIdGreaterThanOrderByIdAsc(livreId, 0L, Limit.of(10)).isEmpty());
+    }
+
+    @Test
+    void lotSansReponseRejoueParLeDispatcher() {
+        long autreLivreId = autreLivre();
+        MS_LIVRE.lotsIndisponibles("emprunter", true);
+
+        assertTrue(empruntService.creerEmprunts(demandesLot(autreLivreId)).stream()
+                .noneMatch(EmpruntLotRespDto::isSucces));
+        List<OperationStock> annulations = operations(livreId, autreLivreId);
+        assertEquals(2, annulations.size());
+        assertTrue(annulations.stream().allMatch(o -> o.getStatut() == StatutOperationStock.EN_ATTENTE));
+
+        // ms-livre de retour : le lot est rejoué (appliqué maintenant) puis compensé, une seule fois
+        // même si chacune des annulations du lot est reprise
+        MS_LIVRE.lotsIndisponibles("emprunter", false);
+        annulations.forEach(o -> operationStockDispatcher.envoyer(o.getId()));
+        assertEquals(2, MS_LIVRE.disponibles(livreId));
+        assertEquals(2, MS_LIVRE.disponibles(autreLivreId));
+        assertEquals(0, MS_LIVRE.empruntes(livreId));
+        assertTrue(operations(livreId, autreLivreId).stream().allMatch(o -> o.getStatut() == StatutOperationStock.ENVOYEE));
+    }
+
+    @Test
+    void lotRefuseNeLaissePasDAnnulation() {
+        long autreLivreId = autreLivre();
+        MS_LIVRE.lotsRefuses("emprunter", true);
+
+        assertTrue(empruntService.creerEmprunts(demandesLot(autreLivreId)).stream()
+                .noneMatch(EmpruntLotRespDto::isSucces));
+
+        assertTrue(operations(livreId, autreLivreId).isEmpty());
+        assertEquals(2, MS_LIVRE.disponibles(livreId));
+        assertEquals(1, MS_LIVRE.lots().size());
+    }
+
+    @Test
+    void lotEnregistrementEnEchecRendLesExemplaires() {
+        long autreLivreId = autreLivre();
+        doThrow(new IllegalStateException("Base indisponible"))
+                .when(compteursEmprunts).ajouter(StatutEmprunt.EN_COURS, 2);
+
+        List<EmpruntLotRespDto> resultats = empruntService.creerEmprunts(demandesLot(autreLivreId));
+
+        assertTrue(resultats.stream().noneMatch(EmpruntLotRespDto::isSucces));
+        assertEquals(2, MS_LIVRE.disponibles(livreId));
+        assertEquals(2, MS_LIVRE.disponibles(autreLivreId));
+        assertTrue(operations(livreId, autreLivreId).stream().allMatch(o -> o.getStatut() == StatutOperationStock.ENVOYEE));
+        assertTrue(empruntRepo.findByLivreIdAndIdGreaterThanOrderByIdAsc(livreId, 0L, Limit.of(10)).isEmpty());
+    }
+
+    @Test
+    void retourGroupeReponsePerdueRejoueSansDoubleRetour() {
+        long autreLivreId = autreLivre();
+        List<Long> empruntIds = empruntService.creerEmprunts(demandesLot(autreLivreId)).stream()
+                .map(r -> r.getEmprunt().getId()).toList();
+        // ms-livre rend les exemplaires puis répond trop tard
+        MS_LIVRE.lotLent("retourner", true);
+
+        List<EmpruntLotRespDto> resultats = empruntService.retournerLivres(empruntIds);
+
+        assertTrue(resultats.stream().allMatch(EmpruntLotRespDto::isSucces));
+        List<OperationStock> retours = operations(livreId, autreLivreId);
+        assertEquals(2, retours.size());
+        assertTrue(retours.stream().allMatch(o -> o.getStatut() == StatutOperationStock.EN_ATTENTE));
+
+        // Reprise : le même lot avec la même clé, ms-livre rejoue sa réponse
+        operationStockDispatcher.traiterEnAttente();
+        assertEquals(2, MS_LIVRE.disponibles(livreId));
+        assertEquals(2, MS_LIVRE.disponibles(autreLivreId));
+        assertEquals(0, MS_LIVRE.empruntes(autreLivreId));
+        List<String> lots = MS_LIVRE.lots();
+        String retour = lots.get(lots.size() - 1);
+        assertTrue(retour.startsWith("retourner retour-lot-"), retour);
+        assertEquals(retour, lots.get(lots.size() - 2));
+        assertTrue(MS_LIVRE.retours(livreId).isEmpty());
+        assertTrue(operations(livreId, autreLivreId).stream().allMatch(o -> o.getStatut() == StatutOperationStock.ENVOYEE));
+    }
+
+    @Test
+    void retourGroupeRefuseRepartUnParUn() {
+        long autreLivreId = autreLivre();
+        List<Long> empruntIds = empruntService.creerEmprunts(demandesLot(autreLivreId)).stream()
+                .map(r -> r.getEmprunt().getId()).toList();
+        MS_LIVRE.lotsRefuses("retourner", true);
+
+        empruntService.retournerLivres(empruntIds);
+        assertEquals(1, MS_LIVRE.disponibles(livreId));
+
+        // Rien n'a été rendu : chaque retour est envoyé seul, avec sa propre clé
+        operationStockDispatcher.traiterEnAttente();
+        assertEquals(2, MS_LIVRE.disponibles(livreId));
+        assertEquals(2, MS_LIVRE.disponibles(autreLivreId));
+        OperationStock retour = operations(livreId).get(0);
+        assertEquals(List.of("outbox-" + retour.getId()), MS_LIVRE.retours(livreId));
+        assertTrue(operations(livreId, autreLivreId).stream().allMatch(o -> o.getStatut() == StatutOperationStock.ENVOYEE));
+    }
+
+    @Test
+    void fileAttenteServieDansLOrdreAuRetour() {
+        MS_LIVRE.ajouterLivre(livreId, 1);
+        EmpruntRespDto emprunt = empruntService.creerEmprunt(demande());
+        long premier = IDS.incrementAndGet();
+        long second = IDS.incrementAndGet();
+        ReservationRespDto enTete = reservationService.reserver(reservation(premier));
+        ReservationRespDto suivante = reservationService.reserver(reservation(second));
+        assertEquals(2L, suivante.getPosition());
+
+        // L'exemplaire rendu est mis de côté pour la tête de la file, pas rendu à ms-livre
+        empruntService.retournerLivre(emprunt.getId());
+        assertEquals(StatutReservation.DISPONIBLE, reservationService.getReservation(enTete.getId()).getStatut());
+        assertEquals(StatutReservation.EN_ATTENTE, reservationService.getReservation(suivante.getId()).getStatut());
+        assertEquals(0, MS_LIVRE.disponibles(livreId));
+        assertTrue(operations().isEmpty());
+
+        // Emprunt groupé : l'exemplaire mis de côté est pris sans passer par le stock de ms-livre
+        EmpruntReqDto demande = new EmpruntReqDto();
+        demande.setUtilisateurId(premier);
+        demande.setLivreId(livreId);
+        List<EmpruntLotRespDto> resultats = empruntService.creerEmprunts(List.of(demande));
+        assertTrue(resultats.get(0).isSucces(), resultats.get(0).getErreur());
+        ReservationRespDto honoree = reservationService.getReservation(enTete.getId());
+        assertEquals(StatutReservation.HONOREE, honoree.getStatut());
+        assertEquals(resultats.get(0).getEmprunt().getId(), honoree.getEmpruntId());
+        assertTrue(MS_LIVRE.lots().isEmpty());
+        assertEquals(0, MS_LIVRE.disponibles(livreId));
+    }
+
+    @Test
+    void miseADispositionExpireePasseAuSuivantPuisAuStock() {
+        MS_LIVRE.ajouterLivre(livreId, 1);
+        EmpruntRespDto emprunt = empruntService.creerEmprunt(demande());
+        ReservationRespDto premiere = reservationService.reserver(reservation(IDS.incrementAndGet()));
+        ReservationRespDto seconde = reservationService.reserver(reservation(IDS.incrementAndGet()));
+        empruntService.retournerLivre(emprunt.getId());
+
+        echoir(premiere.getId());
+        assertEquals(1, reservationService.expirerMisesADisposition());
+        assertEquals(StatutReservation.EXPIREE, reservationService.getReservation(premiere.getId()).getStatut());
+        assertEquals(StatutReservation.DISPONIBLE, reservationService.getReservation(seconde.getId()).getStatut());
+        assertEquals(0, MS_LIVRE.disponibles(livreId));
+
+        // Plus personne n'attend : l'exemplaire retourne au stock par l'outbox
+        echoir(seconde.getId());
+        assertEquals(1, reservationService.expirerMisesADisposition());
+        assertEquals(1, MS_LIVRE.disponibles(livreId));
+        OperationStock retour = seuleOperation();
+        assertEquals(StatutOperationStock.ENVOYEE, retour.getStatut());
+        assertEquals(List.of("outbox-" + retour.getId()), MS_LIVRE.retours(livreId));
+    }
+
+    @Test
+    void annulationRendLExemplaireAuStockParLOutbox() {
+        MS_LIVRE.ajouterLivre(livreId, 1);
+        EmpruntRespDto emprunt = empruntService.creerEmprunt(demande());
+        ReservationRespDto reservation = reservationService.reserver(reservation(IDS.incrementAndGet()));
+        empruntService.retournerLivre(emprunt.getId());
+        assertEquals(0, MS_LIVRE.disponibles(livreId));
+
+        assertEquals(StatutReservation.ANNULEE, reservationService.annuler(reservation.getId()).getStatut());
+
+        assertEquals(1, MS_LIVRE.disponibles(livreId));
+        OperationStock retour = seuleOperation();
+        assertEquals(StatutOperationStock.ENVOYEE, retour.getStatut());
+        assertEquals(List.of("outbox-" + retour.getId()), MS_LIVRE.retours(livreId));
+    }
+
+    @Test
+    void reservationsSimultaneesUneSeuleActive() throws Exception {
+        MS_LIVRE.ajouterLivre(livreId, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<ReservationRespDto>> demandes = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                demandes.add(executor.submit(() -> reservationService.reserver(reservation(utilisateurId))));
+            }
+            int acceptees = 0;
+            for (Future<ReservationRespDto> demande : demandes) {
+                try {
+                    demande.get(10, TimeUnit.SECONDS);
+                    acceptees++;
+                } catch (ExecutionException e) {
+                    assertEquals("L'utilisateur a déjà réservé ce livre", e.getCause().getMessage());
+                }
+            }
+            assertEquals(1, acceptees);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // La base refuse elle-même une seconde réservation active ; une réservation terminée ne compte plus
+        Reservation active = reservationRepo.findByUtilisateurIdOrderByIdDesc(utilisateurId).get(0);
+        assertThrows(DataIntegrityViolationException.class, () -> reservationRepo.save(Reservation.builder()
+                .utilisateurId(utilisateurId).livreId(livreId).statut(StatutReservation.DISPONIBLE).build()));
+        reservationService.annuler(active.getId());
+        assertEquals(StatutReservation.EN_ATTENTE, reservationService.reserver(reservation(utilisateurId)).getStatut());
+    }
+
+    private ReservationReqDto reservation(long utilisateur) {
+        ReservationReqDto reservation = new ReservationReqDto();
+        reservation.setUtilisateurId(utilisateur);
+        reservation.setLivreId(livreId);
+        return reservation;
+    }
+
+    private void echoir(Long reservationId) {
+        Reservation reservation = reservationRepo.findById(reservationId).orElseThrow();
+        reservation.setDateExpiration(LocalDateTime.now().minusSeconds(1));
+        reservationRepo.save(reservation);
+    }
+
+    private EmpruntReqDto demande() {
+        EmpruntReqDto demande = new EmpruntReqDto();
+        demande.setUtilisateurId(utilisateurId);
+        demande.setLivreId(livreId);
+        return demande;
+    }
+
+    // Un exemplaire de chacun des deux livres pour l'utilisateur du test
+    private List<EmpruntReqDto> demandesLot(long autreLivreId) {
+        EmpruntReqDto autre = new EmpruntReqDto();
+        autre.setUtilisateurId(utilisateurId);
+        autre.setLivreId(autreLivreId);
+        return List.of(demande(), autre);
+    }
+
+    private long autreLivre() {
+        long id = IDS.incrementAndGet();
+        MS_LIVRE.ajouterLivre(id, 2);
+        return id;
+    }
+
+    private static String cleLot(String appel) {
+        return appel.substring(appel.indexOf(' ') + 1);
+    }
+
+    private void echecEnregistrement() {
+        doThrow(new IllegalStateException("Base indisponible"))
+                .when(compteursEmprunts).ajouter(StatutEmprunt.EN_COURS, 1);
+    }
+
+    private List<OperationStock> operations() {
+        return operations(livreId);
+    }
+
+    private List<OperationStock> operations(Long... livreIds) {
+        List<Long> ids = List.of(livreIds);
+        return operationStockRepo.findAll().stream().filter(o -> ids.contains(o.getLivreId())).toList();
+    }
+
+    private OperationStock seuleOperation() {
+        List<OperationStock> operations = operations();
+        assertEquals(1, operations.size());
+        return operations.get(0);
+    }
+
+    /**
+     * Faux ms-users / ms-livre : stock par livre, emprunts et retours appliqués au plus une fois
+     * par Idempotency-Key (la clé n'est enregistrée que si le mouvement est appliqué, comme
+     * dans ms-livre), pannes réglables par livre.
+     */
+    static class FauxMsLivre {
+
+        private static final Pattern MOUVEMENT = Pattern.compile("/api/livre/(\\d+)/(emprunter|retourner)");
+        private static final Pattern LOT = Pattern.compile("/api/livre/batch/(emprunter|retourner)");
+        private static final ObjectMapper JSON = new ObjectMapper();
+        private static final Pattern LIVRE = Pattern.compile("/api/livre/(\\d+)");
+
+        private final HttpServer serveur;
+        private final ExecutorService threads = Executors.newCachedThreadPool();
+        private final Map<Long, int[]> stocks = new HashMap<>();
+        private final Map<String, String> reponses = new HashMap<>();
+        private final Map<Long, List<String>> retours = new HashMap<>();
+        private final Map<Long, Boolean> empruntsLents = new HashMap<>();
+        private final Map<Long, Boolean> retoursLents = new HashMap<>();
+        private final Map<Long, Boolean> retoursIndisponibles = new HashMap<>();
+        private final Map<Long, Boolean> empruntsRefuses = new HashMap<>();
+        private final List<String> lots = new ArrayList<>();
+        private final Map<String, Boolean> lotsLents = new HashMap<>();
+        private final Set<String> lotsIndisponibles = new HashSet<>();
+        private final Set<String> lotsRefuses = new HashSet<>();
+        private volatile Runnable apresEmpruntLent = () -> {
+        };
+
+        FauxMsLivre() {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            try {
+                serveur = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            serveur.setExecutor(threads);
+            serveur.createContext("/api/users/", echange -> {
+                if (echange.getRequestURI().getPath().equals("/api/users/bulk")) {
+                    repondre(echange, 200, parId(echange, FauxMsLivre::user));
+                } else {
+                    repondre(echange, 200, user(Long.parseLong(dernierSegment(echange))));
+                }
+            });
+            serveur.createContext("/api/livre/", this::livre);
+            serveur.start();
+        }
+
+        String uri() {
+            return "http://localhost:" + serveur.getAddress().getPort();
+        }
+
+        void arreter() {
+            serveur.stop(0);
+            threads.shutdownNow();
+        }
+
+        synchronized void ajouterLivre(long id, int exemplaires) {
+            stocks.put(id, new int[]{exemplaires, 0});
+        }
+
+        synchronized int disponibles(long id) {
+            return stocks.get(id)[0];
+        }
+
+        synchronized int empruntes(long id) {
+            return stocks.get(id)[1];
+        }
+
+        synchronized List<String> retours(long id) {
+            return new ArrayList<>(retours.getOrDefault(id, Collections.emptyList()));
+        }
+
+        synchronized void reinitialiserLots() {
+            lots.clear();
+            lotsLents.clear();
+            lotsIndisponibles.clear();
+            lotsRefuses.clear();
+        }
+
+        // Mouvements groupés reçus, "emprunter <clé>" / "retourner <clé>"
+        synchronized List<String> lots() {
+            return new ArrayList<>(lots);
+        }
+
+        // Réponse au prochain lot de ce type après le délai de lecture, appliqué ou non
+        synchronized void lotLent(String type, boolean appliquer) {
+            lotsLents.put(type, appliquer);
+        }
+
+        // 503 sans rien appliquer
+        synchronized void lotsIndisponibles(String type, boolean indisponibles) {
+            if (indisponibles) {
+                lotsIndisponibles.add(type);
+            } else {
+                lotsIndisponibles.remove(type);
+            }
+        }
+
+        // Réponse d'erreur de ms-livre (transaction annulée)
+        synchronized void lotsRefuses(String type, boolean refuses) {
+            if (refuses) {
+                lotsRefuses.add(type);
+            } else {
+                lotsRefuses.remove(type);
+            }
+        }
+
+        // Réponse à la prochaine demande d'emprunt après le délai de lecture de ms-emprunt,
+        // le stock étant décrémenté (appliquer) ou non
+        synchronized void empruntLent(long id, boolean appliquer) {
+            empruntsLents.put(id, appliquer);
+        }
+
+        void apresEmpruntLent(Runnable action) {
+            apresEmpruntLent = action;
+        }
+
+        synchronized void retourLent(long id) {
+            retoursLents.put(id, true);
+        }
+
+        synchronized void retoursIndisponibles(long id, boolean indisponibles) {
+            retoursIndisponibles.put(id, indisponibles);
+        }
+
+        synchronized void refuserEmprunts(long id) {
+            empruntsRefuses.put(id, true);
+        }
+
+        // Emprunt appliqué directement, comme par une instance arrêtée juste après l'appel
+        synchronized String emprunter(long id, String cle) {
+            return mouvement(id, "emprunter", cle);
+        }
+
+        private void livre(HttpExchange echange) throws IOException {
+            String chemin = echange.getRequestURI().getPath();
+            Matcher mouvement = MOUVEMENT.matcher(chemin);
+            if (mouvement.matches()) {
+                long id = Long.parseLong(mouvement.group(1));
+                String cle = echange.getRequestHeaders().getFirst("Idempotency-Key");
+                if (mouvement.group(2).equals("emprunter")) {
+                    emprunterAvecPannes(echange, id, cle);
+                } else {
+                    retournerAvecPannes(echange, id, cle);
+                }
+                return;
+            }
+            Matcher lot = LOT.matcher(chemin);
+            if (lot.matches()) {
+                lotAvecPannes(echange, lot.group(1), echange.getRequestHeaders().getFirst("Idempotency-Key"));
+                return;
+            }
+            if (chemin.equals("/api/livre/bulk")) {
+                repondre(echange, 200, parId(echange, this::json));
+                return;
+            }
+            Matcher livre = LIVRE.matcher(chemin);
+            if (livre.matches()) {
+                repondre(echange, 200, json(Long.parseLong(livre.group(1))));
+                return;
+            }
+            repondre(echange, 404, "{}");
+        }
+
+        private void emprunterAvecPannes(HttpExchange echange, long id, String cle) throws IOException {
+            Boolean lent;
+            synchronized (this) {
+                lent = empruntsLents.remove(id);
+                if (Boolean.TRUE.equals(empruntsRefuses.get(id))) {
+                    repondre(echange, 500, "{\"message\":\"Aucun exemplaire disponible pour ce livre\"}");
+                    return;
+                }
+            }
+            if (lent == null) {
+                repondreMouvement(echange, id, "emprunter", cle);
+                return;
+            }
+            String reponse = lent ? emprunter(id, cle) : null;
+            apresEmpruntLent.run();
+            apresEmpruntLent = () -> {
+            };
+            dormir();
+            repondre(echange, reponse == null ? 500 : 200, reponse == null ? "{}" : reponse);
+        }
+
+        private void retournerAvecPannes(HttpExchange echange, long id, String cle) throws IOException {
+            boolean lent;
+            synchronized (this) {
+                retours.computeIfAbsent(id, k -> new ArrayList<>()).add(cle);
+                if (Boolean.TRUE.equals(retoursIndisponibles.get(id))) {
+                    repondre(echange, 503, "{}");
+                    return;
+                }
+                lent = Boolean.TRUE.equals(retoursLents.remove(id));
+            }
+            if (!lent) {
+                repondreMouvement(echange, id, "retourner", cle);
+                return;
+            }
+            String reponse;
+            synchronized (this) {
+                reponse = mouvement(id, "retourner", cle);
+            }
+            dormir();
+            repondre(echange, reponse == null ? 500 : 200, reponse == null ? "{}" : reponse);
+        }
+
+        private void lotAvecPannes(HttpExchange echange, String type, String cle) throws IOException {
+            Map<Long, Integer> quantites = JSON.readValue(echange.getRequestBody(), new TypeReference<>() {
+            });
+            Boolean lent;
+            synchronized (this) {
+                lots.add(type + " " + cle);
+                if (lotsIndisponibles.contains(type)) {
+                    repondre(echange, 503, "{}");
+                    return;
+                }
+                if (lotsRefuses.contains(type)) {
+                    repondre(echange, 500, "{\"message\":\"Lot refusé\"}");
+                    return;
+                }
+                lent = lotsLents.remove(type);
+            }
+            String reponse = null;
+            if (lent == null || lent) {
+                synchronized (this) {
+                    reponse = mouvementLot(type, quantites, cle);
+                }
+            }
+            if (lent != null) {
+                dormir();
+            }
+            repondre(echange, reponse == null ? 500 : 200, reponse == null ? "{}" : reponse);
+        }
+
+        // Lot appliqué au plus une fois par clé : chaque livre accorde ce que son stock permet
+        private String mouvementLot(String type, Map<Long, Integer> quantites, String cle) {
+            if (cle != null && reponses.containsKey(cle)) {
+                return reponses.get(cle);
+            }
+            List<String> mouvements = new ArrayList<>();
+            quantites.forEach((id, demande) -> {
+                int[] stock = stocks.get(id);
+                int accorde = Math.min(demande, type.equals("emprunter") ? stock[0] : stock[1]);
+                int sens = type.equals("emprunter") ? 1 : -1;
+                stock[0] -= sens * accorde;
+                stock[1] += sens * accorde;
+                mouvements.add("{\"livreId\":" + id + ",\"demande\":" + demande + ",\"accorde\":" + accorde
+                        + ",\"livre\":" + json(id) + "}");
+            });
+            String reponse = "[" + String.join(",", mouvements) + "]";
+            if (cle != null) {
+                reponses.put(cle, reponse);
+            }
+            return reponse;
+        }
+
+        // Réponse d'un POST .../bulk : un objet par id demandé
+        private static String parId(HttpExchange echange, Function<Long, String> objet) throws IOException {
+            List<Long> ids = JSON.readValue(echange.getRequestBody(), new TypeReference<>() {
+            });
+            return ids.stream().map(id -> "\"" + id + "\":" + objet.apply(id))
+                    .collect(Collectors.joining(",", "{", "}"));
+        }
+
+        private static String user(long id) {
+            return "{\"id\":" + id + ",\"nom\":\"Lecteur\",\"email\":\"lecteur@exemple.ma\"}";
+        }
+
+        private void repondreMouvement(HttpExchange echange, long id, String type, String cle) throws IOException {
+            String reponse;
+            synchronized (this) {
+                reponse = mouvement(id, type, cle);
+            }
+            if (reponse == null) {
+                repondre(echange, 500, "{\"message\":\"Aucun exemplaire " + (type.equals("emprunter")
+                        ? "disponible" : "emprunté") + " pour ce livre\"}");
+            } else {
+                repondre(echange, 200, reponse);
+            }
+        }
+
+        // Mouvement appliqué au plus une fois par clé ; null si le stock ne le permet pas
+        private String mouvement(long id, String type, String cle) {
+            if (cle != null && reponses.containsKey(cle)) {
+                return reponses.get(cle);
+            }
+            int[] stock = stocks.get(id);
+            if (type.equals("emprunter") ? stock[0] <= 0 : stock[1] <= 0) {
+                return null;
+            }
+            int sens = type.equals("emprunter") ? 1 : -1;
+            stock[0] -= sens;
+            stock[1] += sens;
+            String reponse = json(id);
+            if (cle != null) {
+                reponses.put(cle, reponse);
+            }
+            return reponse;
+        }
+
+        private synchronized String json(long id) {
+            int[] stock = stocks.getOrDefault(id, new int[]{0, 0});
+            return "{\"id\":" + id + ",\"titre\":\"Livre " + id + "\",\"auteur\":\"Auteur\",\"categorie\":\"ROMAN\","
+                    + "\"quantiteTotale\":" + (stock[0] + stock[1]) + ",\"quantiteDisponible\":" + stock[0]
+                    + ",\"quantiteEmpruntee\":" + stock[1] + "}";
+        }
+
+        private static String dernierSegment(HttpExchange echange) {
+            String chemin = echange.getRequestURI().getPath();
+            return chemin.substring(chemin.lastIndexOf('/') + 1);
+        }
+
+        private static void dormir() {
+            try {
+                Thread.sleep(LATENCE_PERDUE_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private static void repondre(HttpExchange echange, int statut, String corps) throws IOException {
+            byte[] octets = corps.getBytes(StandardCharsets.UTF_8);
+            echange.getResponseHeaders().add("Content-Type", "application/json");
+            echange.sendResponseHeaders(statut, octets.length);
+            try (OutputStream out = echange.getResponseBody()) {
+                out.write(octets);
+            }
+        }
+    }
+}
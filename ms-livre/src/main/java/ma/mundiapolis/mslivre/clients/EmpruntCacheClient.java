@@ -0,0 +1,64 @@
+package ma.mundiapolis.mslivre.clients;
+
+import lombok.extern.slf4j.Slf4j;
+import ma.mundiapolis.mslivre.dto.LivreRespDto;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Prévient chaque instance de ms-emprunt qu'une entrée de son cache local est périmée,
+ * et publie les modifications à recopier sur les emprunts.
+ * Envoi asynchrone et sans garantie : en cas d'échec, l'entrée expire d'elle-même (TTL).
+ */
+@Slf4j
+@Component
+public class EmpruntCacheClient {
+
+    private static final String SERVICE_EMPRUNT = "ms-emprunt";
+
+    private final DiscoveryClient discoveryClient;
+    private final RestClient restClient;
+
+    public EmpruntCacheClient(DiscoveryClient discoveryClient, RestClient.Builder restClientBuilder) {
+        this.discoveryClient = discoveryClient;
+        this.restClient = restClientBuilder.build();
+    }
+
+    @Async
+    public void invalider(Long id) {
+        // Toutes les instances, pas seulement celle choisie par le load balancer
+        for (ServiceInstance instance : discoveryClient.getInstances(SERVICE_EMPRUNT)) {
+            try {
+                restClient.delete()
+                        .uri(instance.getUri() + "/internal/cache/livres/{id}", id)
+                        .retrieve()
+                        .toBodilessEntity();
+            } catch (RestClientException e) {
+                log.warn("Invalidation du cache de {} impossible pour l'id {} : {}",
+                        instance.getUri(), id, e.getMessage());
+            }
+        }
+    }
+
+    @Async
+    public void publierModification(LivreRespDto livre) {
+        // Toutes les instances : chacune diffuse le changement de stock à ses abonnés SSE. La recopie
+        // sur les emprunts est conditionnée par la version du livre, seule la première écrit
+        for (ServiceInstance instance : discoveryClient.getInstances(SERVICE_EMPRUNT)) {
+            try {
+                restClient.post()
+                        .uri(instance.getUri() + "/internal/evenements/livres")
+                        .body(livre)
+                        .retrieve()
+                        .toBodilessEntity();
+            } catch (RestClientException e) {
+                log.warn("Publication de la modification de l'id {} vers {} impossible : {}",
+                        livre.getId(), instance.getUri(), e.getMessage());
+            }
+        }
+    }
+}
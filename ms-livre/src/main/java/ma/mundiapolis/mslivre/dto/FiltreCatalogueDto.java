@@ -0,0 +1,29 @@
+package ma.mundiapolis.mslivre.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Filtres, tri et page de GET /api/livre/catalogue (paramètres de requête, tous facultatifs)
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class FiltreCatalogueDto {
+
+    private Category categorie;
+    // true : quantiteDisponible > 0 ; false : aucun exemplaire disponible
+    private Boolean disponible;
+    // Début du nom de l'auteur
+    private String auteur;
+    private String isbn;
+    // titre, auteur, categorie, quantiteDisponible ou id
+    private String tri;
+    // asc ou desc
+    private String ordre;
+    private Integer page;
+    private Integer taille;
+}
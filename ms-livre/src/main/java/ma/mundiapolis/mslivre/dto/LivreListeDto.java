@@ -0,0 +1,24 @@
+package ma.mundiapolis.mslivre.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Ligne du catalogue : champs affichés dans les listes, lus par projection (pas d'entité chargée)
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class LivreListeDto {
+
+    private Long id;
+    private String titre;
+    private String auteur;
+    private Category categorie;
+    private String isbn;
+    private Integer quantiteDisponible;
+    private Integer quantiteTotale;
+}
@@ -0,0 +1,24 @@
+package ma.mundiapolis.mslivre.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Page du catalogue filtré et trié (GET /api/livre/catalogue)
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class LivrePageRespDto {
+
+    private List<LivreListeDto> livres;
+    // Nombre total de livres correspondant aux filtres
+    private long total;
+    private int page;
+    private int taille;
+}
@@ -21,4 +21,7 @@ public class LivreRespDto {
     private Integer quantiteTotale;
     private Integer quantiteDisponible;
     private Integer quantiteEmpruntee;
+
+    // Version de l'entité : ms-emprunt n'applique pas une copie plus ancienne que celle qu'il a déjà
+    private Long version;
 }
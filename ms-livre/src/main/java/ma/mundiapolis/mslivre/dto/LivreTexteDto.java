@@ -0,0 +1,17 @@
+package ma.mundiapolis.mslivre.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Projection des champs indexés pour la recherche (sans le stock), lue par pages au démarrage
+ */
+@Data
+@AllArgsConstructor
+public class LivreTexteDto {
+
+    private Long id;
+    private String titre;
+    private String auteur;
+    private String isbn;
+}
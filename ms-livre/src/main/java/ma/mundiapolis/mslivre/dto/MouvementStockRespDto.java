@@ -0,0 +1,23 @@
+package ma.mundiapolis.mslivre.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Résultat d'un mouvement de stock groupé pour un livre.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class MouvementStockRespDto {
+
+    private Long livreId;
+    // Nombre d'exemplaires demandés / réellement empruntés ou retournés
+    private Integer demande;
+    private Integer accorde;
+    // État du livre après le mouvement (null si le livre est introuvable)
+    private LivreRespDto livre;
+}
@@ -0,0 +1,32 @@
+package ma.mundiapolis.mslivre.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ma.mundiapolis.mslivre.enums.TypeRapportImport;
+
+/**
+ * Ligne du rapport NDJSON de POST /api/livre/import : une par ligne rejetée ou en double,
+ * une par lot écrit (PROGRESSION) et une en fin d'import (TERMINE)
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RapportImportDto {
+
+    private TypeRapportImport type;
+    // Numéro de la ligne dans le fichier (1 = première ligne, en-tête CSV compris)
+    private Long ligne;
+    private String isbn;
+    private String message;
+
+    // Compteurs cumulés (PROGRESSION, TERMINE)
+    private Long lues;
+    private Long inserees;
+    private Long doublons;
+    private Long erreurs;
+}
@@ -0,0 +1,24 @@
+package ma.mundiapolis.mslivre.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Page de résultats de GET /api/livre/search, du plus pertinent au moins pertinent
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class RechercheLivresRespDto {
+
+    private List<LivreRespDto> livres;
+    // Nombre total de livres correspondant à la requête
+    private long total;
+    private int page;
+    private int taille;
+}
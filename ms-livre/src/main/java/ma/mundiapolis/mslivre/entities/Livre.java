@@ -1,17 +1,34 @@
 package ma.mundiapolis.mslivre.entities;
 
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import jakarta.persistence.Version;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import ma.mundiapolis.mslivre.dto.Category;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.UpdateTimestamp;
 
+import java.time.LocalDateTime;
 
+
+// Index des filtres du catalogue (GET /api/livre/catalogue) : catégorie (seule ou avec la
+// disponibilité), disponibilité, auteur (égalité ou début du nom) ; isbn unique
 @Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_livre_isbn", columnNames = "isbn"),
+        indexes = {
+                @Index(name = "idx_livre_categorie_disponible", columnList = "categorie, quantite_disponible"),
+                @Index(name = "idx_livre_disponible", columnList = "quantite_disponible"),
+                @Index(name = "idx_livre_auteur", columnList = "auteur")
+        })
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
@@ -30,4 +47,15 @@ public class Livre {
     private Integer quantiteTotale;      // Nombre total de livres
     private Integer quantiteDisponible;  // Nombre de livres disponibles
     private Integer quantiteEmpruntee;
+
+    // Verrou optimiste pour les modifications des autres champs (updateBook) ; également
+    // incrémenté par les mises à jour atomiques du stock
+    @Version
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Long version;
+
+    // Dernière modification (en-tête Last-Modified) ; renseignée aussi par l'import et les mises à jour du stock
+    @UpdateTimestamp
+    private LocalDateTime dateModification;
 }
@@ -0,0 +1,49 @@
+package ma.mundiapolis.mslivre.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Mouvement de stock reçu avec un en-tête Idempotency-Key et sa réponse, conservés
+ * jusqu'à dateExpiration. La ligne est écrite dans la transaction du mouvement :
+ * elle n'existe que si le mouvement a été validé.
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_requete_idempotente_cle", columnNames = "cle"),
+        indexes = @Index(name = "idx_requete_idempotente_expiration", columnList = "date_expiration"))
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class RequeteIdempotente {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String cle;
+
+    // SHA-256 de l'opération : une clé réutilisée pour un autre mouvement est refusée
+    @Column(nullable = false, length = 64)
+    private String empreinte;
+
+    @Lob
+    private String reponse;
+
+    private LocalDateTime dateCreation;
+    private LocalDateTime dateExpiration;
+}
@@ -0,0 +1,9 @@
+package ma.mundiapolis.mslivre.enums;
+
+// Format des fichiers d'import / export du catalogue
+public enum FormatFichier {
+    // Import : en-tête obligatoire titre,auteur,categorie,isbn,quantiteTotale (dans n'importe quel ordre)
+    CSV,
+    // Un livre JSON par ligne
+    NDJSON
+}
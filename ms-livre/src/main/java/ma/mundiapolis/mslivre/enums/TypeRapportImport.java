@@ -0,0 +1,12 @@
+package ma.mundiapolis.mslivre.enums;
+
+public enum TypeRapportImport {
+    // Ligne rejetée (format, champ manquant ou invalide)
+    ERREUR,
+    // ISBN déjà importé plus haut dans le fichier ou déjà présent en base
+    DOUBLON,
+    // Avancement, après chaque lot écrit
+    PROGRESSION,
+    // Dernière ligne du rapport
+    TERMINE
+}
@@ -0,0 +1,14 @@
+package ma.mundiapolis.mslivre.repositories;
+
+/**
+ * Projection agrégée du catalogue (une seule requête) servant d'ETag à la liste complète :
+ * un ajout change total et idMax, une suppression total, une modification sommeVersions.
+ */
+public interface EtatLivres {
+
+    long getTotal();
+
+    long getIdMax();
+
+    long getSommeVersions();
+}
@@ -0,0 +1,84 @@
+package ma.mundiapolis.mslivre.repositories;
+
+import lombok.RequiredArgsConstructor;
+import ma.mundiapolis.mslivre.entities.Livre;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Écritures par lots JDBC pour l'import du catalogue. Avec des ids IDENTITY, Hibernate insère
+ * ligne par ligne ; ici un seul executeBatch par lot (réécrit en INSERT multi-lignes par le
+ * driver MySQL avec rewriteBatchedStatements=true), les ids générés étant relus ensuite.
+ */
+@Repository
+@RequiredArgsConstructor
+public class LivreBatchRepo {
+
+    private static final String INSERT_LIVRE = "INSERT INTO livre "
+            + "(titre, auteur, categorie, isbn, quantite_totale, quantite_disponible, quantite_empruntee, version, date_modification) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, 0, ?)";
+
+    // Comparaison sur la forme normalisée (sans tirets ni espaces, X majuscule) : un livre ajouté
+    // un par un garde son ISBN tel que saisi. L'index unique n'est plus utilisable, d'où un
+    // parcours de la table par lot importé
+    private static final String ISBNS_EXISTANTS = "SELECT isbn_normalise FROM ("
+            + "SELECT UPPER(REPLACE(REPLACE(isbn, '-', ''), ' ', '')) AS isbn_normalise FROM livre) livres "
+            + "WHERE isbn_normalise IN (:isbns)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    // Insère les livres et renseigne leurs ids générés (à appeler dans une transaction)
+    public void insererTous(List<Livre> livres) {
+        if (livres.isEmpty()) {
+            return;
+        }
+        LocalDateTime maintenant = LocalDateTime.now();
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(INSERT_LIVRE, Statement.RETURN_GENERATED_KEYS)) {
+                for (Livre livre : livres) {
+                    ps.setString(1, livre.getTitre());
+                    ps.setString(2, livre.getAuteur());
+                    // Catégorie stockée par son rang (mapping ORDINAL de l'entité)
+                    ps.setInt(3, livre.getCategorie().ordinal());
+                    ps.setString(4, livre.getIsbn());
+                    ps.setInt(5, livre.getQuantiteTotale());
+                    ps.setInt(6, livre.getQuantiteDisponible());
+                    ps.setInt(7, livre.getQuantiteEmpruntee());
+                    ps.setObject(8, maintenant);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+
+                try (ResultSet ids = ps.getGeneratedKeys()) {
+                    int i = 0;
+                    while (ids.next() && i < livres.size()) {
+                        livres.get(i++).setId(ids.getLong(1));
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    // ISBN du lot (normalisés) déjà présents en base, sous leur forme normalisée ; une requête par lot
+    public Set<String> isbnsExistants(Collection<String> isbns) {
+        if (isbns.isEmpty()) {
+            return Set.of();
+        }
+        return new HashSet<>(namedParameterJdbcTemplate.queryForList(ISBNS_EXISTANTS,
+                new MapSqlParameterSource("isbns", isbns), String.class));
+    }
+}
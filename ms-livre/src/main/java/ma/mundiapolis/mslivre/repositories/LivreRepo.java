@@ -1,7 +1,56 @@
 package ma.mundiapolis.mslivre.repositories;
 
+import jakarta.persistence.LockModeType;
+import ma.mundiapolis.mslivre.dto.LivreTexteDto;
 import ma.mundiapolis.mslivre.entities.Livre;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
-public interface LivreRepo extends JpaRepository<Livre, Long> {
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface LivreRepo extends JpaRepository<Livre, Long>, JpaSpecificationExecutor<Livre>, LivreRepoCustom {
+
+    boolean existsByIsbn(String isbn);
+
+    boolean existsByIsbnAndIdNot(String isbn, Long id);
+
+    // Emprunt d'un exemplaire en une seule instruction conditionnelle : pas de lecture-modification-écriture,
+    // donc pas de mise à jour perdue ni de survente. Retourne 0 si aucun exemplaire n'est disponible.
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("update Livre l set l.quantiteDisponible = l.quantiteDisponible - 1, " +
+            "l.quantiteEmpruntee = l.quantiteEmpruntee + 1, l.version = l.version + 1, l.dateModification = :maintenant " +
+            "where l.id = :id and l.quantiteDisponible > 0")
+    int emprunterExemplaire(@Param("id") Long id, @Param("maintenant") LocalDateTime maintenant);
+
+    // Retour d'un exemplaire ; retourne 0 si aucun exemplaire n'est emprunté
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("update Livre l set l.quantiteDisponible = l.quantiteDisponible + 1, " +
+            "l.quantiteEmpruntee = l.quantiteEmpruntee - 1, l.version = l.version + 1, l.dateModification = :maintenant " +
+            "where l.id = :id and l.quantiteEmpruntee > 0")
+    int retournerExemplaire(@Param("id") Long id, @Param("maintenant") LocalDateTime maintenant);
+
+    // Mouvements groupés : verrouille les livres concernés, toujours dans l'ordre des ids
+    // pour que deux lots concurrents ne puissent pas s'interbloquer
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select l from Livre l where l.id in :ids order by l.id")
+    List<Livre> findAllByIdForUpdate(@Param("ids") Collection<Long> ids);
+
+    // Page suivante (par id) des champs indexés pour la recherche, sans charger les entités
+    List<LivreTexteDto> findByIdGreaterThanOrderByIdAsc(Long id, Limit limit);
+
+    // Version d'un livre sans charger l'entité (requêtes conditionnelles GET /api/livre/{id})
+    @Query("select l.version as version, l.dateModification as dateModification from Livre l where l.id = :id")
+    Optional<VersionLivre> findVersionById(@Param("id") Long id);
+
+    // État agrégé du catalogue : change à chaque ajout, suppression ou modification (GET /api/livre)
+    @Query("select count(l) as total, coalesce(max(l.id), 0) as idMax, coalesce(sum(l.version), 0) as sommeVersions from Livre l")
+    EtatLivres findEtat();
 }
@@ -0,0 +1,13 @@
+package ma.mundiapolis.mslivre.repositories;
+
+import ma.mundiapolis.mslivre.dto.LivreListeDto;
+import ma.mundiapolis.mslivre.entities.Livre;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+
+public interface LivreRepoCustom {
+
+    // Page de lignes de catalogue (projection LivreListeDto) filtrée par une Specification
+    Page<LivreListeDto> findListe(Specification<Livre> specification, Pageable pageable);
+}
@@ -0,0 +1,60 @@
+package ma.mundiapolis.mslivre.repositories;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import ma.mundiapolis.mslivre.dto.LivreListeDto;
+import ma.mundiapolis.mslivre.entities.Livre;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+
+import java.util.List;
+
+/**
+ * Les Specification de JpaSpecificationExecutor chargent des entités complètes ; ici le même
+ * filtre alimente un select new LivreListeDto(...) : seules les colonnes affichées sont lues.
+ */
+public class LivreRepoCustomImpl implements LivreRepoCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Page<LivreListeDto> findListe(Specification<Livre> specification, Pageable pageable) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+
+        CriteriaQuery<LivreListeDto> query = cb.createQuery(LivreListeDto.class);
+        Root<Livre> root = query.from(Livre.class);
+        query.select(cb.construct(LivreListeDto.class,
+                root.get("id"), root.get("titre"), root.get("auteur"), root.get("categorie"),
+                root.get("isbn"), root.get("quantiteDisponible"), root.get("quantiteTotale")));
+        Predicate filtre = specification.toPredicate(root, query, cb);
+        if (filtre != null) {
+            query.where(filtre);
+        }
+        query.orderBy(QueryUtils.toOrders(pageable.getSort(), root, cb));
+        List<LivreListeDto> livres = entityManager.createQuery(query)
+                .setFirstResult((int) pageable.getOffset())
+                .setMaxResults(pageable.getPageSize())
+                .getResultList();
+
+        // Le total n'est compté que si la page ne suffit pas à le déduire
+        if (pageable.getOffset() == 0 && livres.size() < pageable.getPageSize()) {
+            return new PageImpl<>(livres, pageable, livres.size());
+        }
+        CriteriaQuery<Long> comptage = cb.createQuery(Long.class);
+        Root<Livre> rootComptage = comptage.from(Livre.class);
+        comptage.select(cb.count(rootComptage));
+        Predicate filtreComptage = specification.toPredicate(rootComptage, comptage, cb);
+        if (filtreComptage != null) {
+            comptage.where(filtreComptage);
+        }
+        return new PageImpl<>(livres, pageable, entityManager.createQuery(comptage).getSingleResult());
+    }
+}
@@ -0,0 +1,45 @@
+package ma.mundiapolis.mslivre.repositories;
+
+import ma.mundiapolis.mslivre.dto.Category;
+import ma.mundiapolis.mslivre.entities.Livre;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Filtres du catalogue, combinés par and(). Chaque filtre porte sur une colonne indexée
+ * et reste utilisable par l'index (pas de fonction appliquée à la colonne).
+ */
+public final class LivreSpecifications {
+
+    private LivreSpecifications() {
+    }
+
+    public static Specification<Livre> categorie(Category categorie) {
+        return (root, query, cb) -> categorie == null ? null : cb.equal(root.get("categorie"), categorie);
+    }
+
+    public static Specification<Livre> disponible(Boolean disponible) {
+        if (disponible == null) {
+            return (root, query, cb) -> null;
+        }
+        return (root, query, cb) -> disponible
+                ? cb.greaterThan(root.get("quantiteDisponible"), 0)
+                : cb.lessThanOrEqualTo(root.get("quantiteDisponible"), 0);
+    }
+
+    // LIKE 'début%' : parcours de l'index sur auteur ; la collation MySQL ignore déjà casse et accents
+    public static Specification<Livre> auteurCommencePar(String auteur) {
+        if (auteur == null || auteur.isBlank()) {
+            return (root, query, cb) -> null;
+        }
+        String motif = echapper(auteur.strip()) + "%";
+        return (root, query, cb) -> cb.like(root.get("auteur"), motif, '\\');
+    }
+
+    public static Specification<Livre> isbn(String isbn) {
+        return (root, query, cb) -> isbn == null || isbn.isBlank() ? null : cb.equal(root.get("isbn"), isbn.strip());
+    }
+
+    private static String echapper(String texte) {
+        return texte.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
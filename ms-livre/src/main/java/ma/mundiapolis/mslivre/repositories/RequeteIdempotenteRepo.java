@@ -0,0 +1,21 @@
+package ma.mundiapolis.mslivre.repositories;
+
+import ma.mundiapolis.mslivre.entities.RequeteIdempotente;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+public interface RequeteIdempotenteRepo extends JpaRepository<RequeteIdempotente, Long> {
+
+    Optional<RequeteIdempotente> findByCle(String cle);
+
+    // Purge par lots des requêtes expirées
+    @Modifying
+    @Query(value = "DELETE FROM requete_idempotente WHERE date_expiration < :date LIMIT :limite",
+            nativeQuery = true)
+    int purger(@Param("date") LocalDateTime date, @Param("limite") int limite);
+}
@@ -0,0 +1,14 @@
+package ma.mundiapolis.mslivre.repositories;
+
+import java.time.LocalDateTime;
+
+/**
+ * Projection de la version d'un livre, lue par clé primaire sans charger l'entité.
+ */
+public interface VersionLivre {
+
+    Long getVersion();
+
+    // Null pour les livres créés avant l'ajout de la colonne et jamais modifiés depuis
+    LocalDateTime getDateModification();
+}
@@ -0,0 +1,136 @@
+package ma.mundiapolis.mslivre.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.extern.slf4j.Slf4j;
+import ma.mundiapolis.mslivre.entities.Livre;
+import ma.mundiapolis.mslivre.enums.FormatFichier;
+import ma.mundiapolis.mslivre.mappers.LivreMapper;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Export du catalogue (GET /api/livre/export) en CSV ou NDJSON, lu par un curseur en avant
+ * seulement : le pilote MySQL ramène les lignes par paquets de taille-fetch (useCursorFetch),
+ * chaque livre est écrit puis détaché du contexte de persistance. La mémoire utilisée ne
+ * dépend pas du nombre de livres exportés.
+ */
+@Slf4j
+@Component
+public class ExportCatalogue {
+
+    private static final String ENTETE_CSV =
+            "id,titre,auteur,categorie,isbn,quantiteTotale,quantiteDisponible,quantiteEmpruntee\n";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final TransactionTemplate lecture;
+    private final ObjectMapper objectMapper;
+    private final LivreMapper livreMapper;
+    private final int tailleFetch;
+
+    public ExportCatalogue(PlatformTransactionManager transactionManager,
+                           ObjectMapper objectMapper,
+                           LivreMapper livreMapper,
+                           @Value("${livre.export.taille-fetch:1000}") int tailleFetch) {
+        // Transaction en lecture seule : le curseur reste ouvert pendant toute l'écriture
+        this.lecture = new TransactionTemplate(transactionManager);
+        this.lecture.setReadOnly(true);
+        this.objectMapper = objectMapper;
+        this.livreMapper = livreMapper;
+        this.tailleFetch = tailleFetch;
+    }
+
+    /**
+     * Écrit les livres d'id compris dans ]depuisId, jusquaId] (bornes facultatives), par id croissant.
+     */
+    public void exporter(FormatFichier format, Long depuisId, Long jusquaId, OutputStream sortie) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(sortie, StandardCharsets.UTF_8), 64 * 1024);
+        if (format == FormatFichier.CSV) {
+            writer.write(ENTETE_CSV);
+        }
+        long debut = System.nanoTime();
+        Long total;
+        try {
+            total = lecture.execute(status -> {
+                try (Stream<Livre> livres = entityManager
+                        .createQuery("select l from Livre l where l.id > :depuisId and l.id <= :jusquaId order by l.id", Livre.class)
+                        .setParameter("depuisId", depuisId == null ? 0L : depuisId)
+                        .setParameter("jusquaId", jusquaId == null ? Long.MAX_VALUE : jusquaId)
+                        .setHint(HibernateHints.HINT_FETCH_SIZE, tailleFetch)
+                        .setHint(HibernateHints.HINT_READ_ONLY, true)
+                        .getResultStream()) {
+                    long n = 0;
+                    Iterator<Livre> iterateur = livres.iterator();
+                    while (iterateur.hasNext()) {
+                        Livre livre = iterateur.next();
+                        ecrire(writer, format, livre);
+                        entityManager.detach(livre);
+                        n++;
+                    }
+                    return n;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            // Client déconnecté : la transaction et le curseur sont déjà refermés
+            throw e.getCause();
+        }
+        writer.flush();
+        log.info("Export du catalogue ({}) : {} livres en {} ms", format, total, (System.nanoTime() - debut) / 1_000_000);
+    }
+
+    private void ecrire(Writer writer, FormatFichier format, Livre livre) throws IOException {
+        if (format == FormatFichier.NDJSON) {
+            writer.write(objectMapper.writeValueAsString(livreMapper.toDto(livre)));
+        } else {
+            writer.write(String.valueOf(livre.getId()));
+            writer.write(',');
+            writer.write(csv(livre.getTitre()));
+            writer.write(',');
+            writer.write(csv(livre.getAuteur()));
+            writer.write(',');
+            writer.write(livre.getCategorie() == null ? "" : livre.getCategorie().name());
+            writer.write(',');
+            writer.write(csv(livre.getIsbn()));
+            writer.write(',');
+            writer.write(nombre(livre.getQuantiteTotale()));
+            writer.write(',');
+            writer.write(nombre(livre.getQuantiteDisponible()));
+            writer.write(',');
+            writer.write(nombre(livre.getQuantiteEmpruntee()));
+        }
+        writer.write('\n');
+    }
+
+    // Champ entre guillemets s'il contient un séparateur, un guillemet ou un retour à la ligne
+    private static String csv(String valeur) {
+        if (valeur == null) {
+            return "";
+        }
+        if (valeur.indexOf(',') < 0 && valeur.indexOf('"') < 0 && valeur.indexOf('\n') < 0 && valeur.indexOf('\r') < 0) {
+            return valeur;
+        }
+        return '"' + valeur.replace("\"", "\"\"") + '"';
+    }
+
+    private static String nombre(Integer valeur) {
+        return valeur == null ? "" : valeur.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package ma.mundiapolis.mslivre.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ma.mundiapolis.mslivre.entities.RequeteIdempotente;
+import ma.mundiapolis.mslivre.repositories.RequeteIdempotenteRepo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.function.Supplier;
+
+/**
+ * Mouvements de stock appliqués au plus une fois par Idempotency-Key.
+ * <p>
+ * La clé et la réponse sont insérées dans la même transaction que le mouvement. Un doublon
+ * concurrent attend sur l'index unique de la clé que la première transaction se termine :
+ * validée, il reçoit la réponse enregistrée ; annulée, il applique le mouvement à son tour.
+ */
+@Component
+public class Idempotence {
+
+    public static final String ENTETE = "Idempotency-Key";
+    private static final int TAILLE_MAX_CLE = 255;
+    private static final int TAILLE_LOT_PURGE = 1000;
+
+    private final RequeteIdempotenteRepo requeteIdempotenteRepo;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final Duration retention;
+
+    public Idempotence(RequeteIdempotenteRepo requeteIdempotenteRepo,
+                       TransactionTemplate transactionTemplate,
+                       ObjectMapper objectMapper,
+                       @Value("${livre.idempotence.retention:24h}") Duration retention) {
+        this.requeteIdempotenteRepo = requeteIdempotenteRepo;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.retention = retention;
+    }
+
+    public <T> T executer(String cle, String operation, Class<T> type, Supplier<T> action) {
+        if (cle == null || cle.isBlank()) {
+            return action.get();
+        }
+        if (cle.length() > TAILLE_MAX_CLE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    ENTETE + " dépasse " + TAILLE_MAX_CLE + " caractères");
+        }
+
+        String empreinte = empreinte(operation);
+        try {
+            return transactionTemplate.execute(status -> {
+                LocalDateTime maintenant = LocalDateTime.now();
+                // Bloque tant qu'une transaction concurrente détient la même clé
+                RequeteIdempotente requete = requeteIdempotenteRepo.saveAndFlush(RequeteIdempotente.builder()
+                        .cle(cle)
+                        .empreinte(empreinte)
+                        .dateCreation(maintenant)
+                        .dateExpiration(maintenant.plus(retention))
+                        .build());
+                T resultat = action.get();
+                // save explicite : les mises à jour conditionnelles du stock vident le contexte de
+                // persistance, la requête n'y est plus suivie et sa réponse serait perdue
+                requete.setReponse(ecrire(resultat));
+                requeteIdempotenteRepo.save(requete);
+                return resultat;
+            });
+        } catch (DataIntegrityViolationException e) {
+            RequeteIdempotente existante = requeteIdempotenteRepo.findByCle(cle).orElseThrow(() -> e);
+            if (!existante.getEmpreinte().equals(empreinte)) {
+                throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                        "Cette clé d'idempotence a déjà servi pour une autre requête");
+            }
+            return lire(existante.getReponse(), type);
+        }
+    }
+
+    private String ecrire(Object resultat) {
+        try {
+            return objectMapper.writeValueAsString(resultat);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Réponse non sérialisable : " + e.getMessage(), e);
+        }
+    }
+
+    private <T> T lire(String reponse, Class<T> type) {
+        try {
+            return objectMapper.readValue(reponse, type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Réponse enregistrée illisible : " + e.getMessage(), e);
+        }
+    }
+
+    private static String empreinte(String operation) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(operation.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Rétention bornée : les clés expirées sont supprimées par lots
+    @Scheduled(fixedDelayString = "${livre.idempotence.intervalle-ms:60000}")
+    public void purger() {
+        LocalDateTime maintenant = LocalDateTime.now();
+        Integer supprimees;
+        do {
+            supprimees = transactionTemplate.execute(
+                    status -> requeteIdempotenteRepo.purger(maintenant, TAILLE_LOT_PURGE));
+        } while (supprimees != null && supprimees == TAILLE_LOT_PURGE);
+    }
+}
@@ -0,0 +1,324 @@
+package ma.mundiapolis.mslivre.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import ma.mundiapolis.mslivre.dto.Category;
+import ma.mundiapolis.mslivre.dto.LivreReqDto;
+import ma.mundiapolis.mslivre.dto.RapportImportDto;
+import ma.mundiapolis.mslivre.entities.Livre;
+import ma.mundiapolis.mslivre.enums.FormatFichier;
+import ma.mundiapolis.mslivre.enums.TypeRapportImport;
+import ma.mundiapolis.mslivre.repositories.LivreBatchRepo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Import du catalogue (POST /api/livre/import) en CSV ou NDJSON.
+ * <p>
+ * Le fichier est lu enregistrement par enregistrement : seuls le lot courant et les ISBN déjà
+ * vus sont en mémoire. Chaque ligne est validée, les ISBN en double (dans le fichier ou déjà
+ * en base) sont écartés, puis chaque lot est inséré par JDBC dans sa propre transaction.
+ * Le rapport NDJSON est écrit au fil de l'eau : lignes rejetées, avancement après chaque lot,
+ * bilan final. Un lot en échec n'annule pas les lots déjà écrits.
+ */
+@Slf4j
+@Component
+public class ImportCatalogue {
+
+    private static final int TAILLE_MAX_TEXTE = 255;
+    // ISBN-10 ou ISBN-13, tirets et espaces acceptés
+    private static final Pattern ISBN = Pattern.compile("[0-9][0-9\\- ]{8,15}[0-9Xx]");
+    private static final List<String> COLONNES = List.of("titre", "auteur", "categorie", "isbn", "quantiteTotale");
+
+    private final LivreBatchRepo livreBatchRepo;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final IndexCatalogue indexCatalogue;
+    private final int tailleLot;
+
+    public ImportCatalogue(LivreBatchRepo livreBatchRepo,
+                           TransactionTemplate transactionTemplate,
+                           ObjectMapper objectMapper,
+                           IndexCatalogue indexCatalogue,
+                           @Value("${livre.import.taille-lot:1000}") int tailleLot) {
+        this.livreBatchRepo = livreBatchRepo;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.indexCatalogue = indexCatalogue;
+        this.tailleLot = tailleLot;
+    }
+
+    public void importer(InputStream entree, FormatFichier format, OutputStream sortie) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(entree, StandardCharsets.UTF_8), 64 * 1024);
+        Import encours = new Import(sortie);
+        try {
+            if (format == FormatFichier.CSV) {
+                lireCsv(reader, encours);
+            } else {
+                lireNdjson(reader, encours);
+            }
+        } catch (IllegalArgumentException e) {
+            // Fichier illisible au-delà de ce point (en-tête, guillemet non fermé) : on garde ce qui précède
+            encours.rejeter(TypeRapportImport.ERREUR, null, null, e.getMessage());
+        }
+        encours.ecrireLot();
+        encours.terminer();
+        log.info("Import du catalogue : {} lignes lues, {} livres insérés, {} doublons, {} erreurs",
+                encours.lues, encours.inserees, encours.doublons, encours.erreurs);
+    }
+
+    private void lireCsv(BufferedReader reader, Import encours) throws IOException {
+        LecteurCsv lecteur = new LecteurCsv(reader);
+        List<String> entete = lecteur.lireEntete();
+        if (entete == null) {
+            return;
+        }
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < entete.size(); i++) {
+            String colonne = entete.get(i);
+            int position = i;
+            COLONNES.stream().filter(c -> c.equalsIgnoreCase(colonne)).findFirst()
+                    .ifPresent(c -> positions.put(c, position));
+        }
+        for (String obligatoire : List.of("titre", "auteur", "isbn")) {
+            if (!positions.containsKey(obligatoire)) {
+                throw new IllegalArgumentException("Colonne " + obligatoire + " absente de l'en-tête (attendu : " + COLONNES + ")");
+            }
+        }
+
+        List<String> champs;
+        while ((champs = lecteur.lire()) != null) {
+            encours.lues++;
+            long ligne = lecteur.getLigne();
+            LivreReqDto demande;
+            try {
+                demande = LivreReqDto.builder()
+                        .titre(champ(champs, positions, "titre"))
+                        .auteur(champ(champs, positions, "auteur"))
+                        .isbn(champ(champs, positions, "isbn"))
+                        .categorie(categorie(champ(champs, positions, "categorie")))
+                        .quantiteTotale(quantite(champ(champs, positions, "quantiteTotale")))
+                        .build();
+            } catch (IllegalArgumentException e) {
+                encours.rejeter(TypeRapportImport.ERREUR, ligne, champ(champs, positions, "isbn"), e.getMessage());
+                continue;
+            }
+            encours.traiter(ligne, demande);
+        }
+    }
+
+    private void lireNdjson(BufferedReader reader, Import encours) throws IOException {
+        String texte;
+        long ligne = 0;
+        while ((texte = reader.readLine()) != null) {
+            ligne++;
+            if (texte.isBlank()) {
+                continue;
+            }
+            encours.lues++;
+            LivreReqDto demande;
+            try {
+                demande = objectMapper.readValue(texte, LivreReqDto.class);
+            } catch (JsonProcessingException e) {
+                encours.rejeter(TypeRapportImport.ERREUR, ligne, null, "JSON invalide : " + e.getOriginalMessage());
+                continue;
+            }
+            if (demande == null) {
+                encours.rejeter(TypeRapportImport.ERREUR, ligne, null, "objet JSON attendu");
+                continue;
+            }
+            encours.traiter(ligne, demande);
+        }
+    }
+
+    private static String champ(List<String> champs, Map<String, Integer> positions, String colonne) {
+        Integer position = positions.get(colonne);
+        if (position == null || position >= champs.size()) {
+            return null;
+        }
+        String valeur = champs.get(position);
+        return valeur.isEmpty() ? null : valeur;
+    }
+
+    private static Category categorie(String valeur) {
+        if (valeur == null) {
+            return null;
+        }
+        try {
+            return Category.valueOf(valeur.strip().toUpperCase(Locale.ROOT).replace(' ', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Catégorie inconnue : " + valeur);
+        }
+    }
+
+    private static Integer quantite(String valeur) {
+        if (valeur == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(valeur.strip());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("quantiteTotale n'est pas un nombre : " + valeur);
+        }
+    }
+
+    // Motif du rejet, ou null si la demande est acceptable
+    private static String valider(LivreReqDto demande) {
+        if (demande.getTitre() == null || demande.getTitre().isBlank()) {
+            return "titre obligatoire";
+        }
+        if (demande.getAuteur() == null || demande.getAuteur().isBlank()) {
+            return "auteur obligatoire";
+        }
+        if (demande.getIsbn() == null || demande.getIsbn().isBlank()) {
+            return "isbn obligatoire";
+        }
+        if (demande.getTitre().length() > TAILLE_MAX_TEXTE || demande.getAuteur().length() > TAILLE_MAX_TEXTE) {
+            return "titre et auteur limités à " + TAILLE_MAX_TEXTE + " caractères";
+        }
+        String isbn = demande.getIsbn().strip();
+        int chiffres = isbn.replaceAll("[\\- ]", "").length();
+        if (!ISBN.matcher(isbn).matches() || (chiffres != 10 && chiffres != 13)) {
+            return "isbn invalide : " + isbn;
+        }
+        return null;
+    }
+
+    // Forme enregistrée : sans tirets ni espaces, X final en majuscule, pour que
+    // "978-2-07-040850-4" et "9782070408504" soient reconnus comme le même livre
+    static String normaliserIsbn(String isbn) {
+        return isbn.replaceAll("[\\- ]", "").toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * État d'un import : compteurs, ISBN déjà vus, lot en cours et rapport.
+     */
+    private final class Import {
+
+        private final OutputStream sortie;
+        private final Set<String> isbnsVus = new HashSet<>();
+        private final List<Livre> lot = new ArrayList<>();
+        private final List<Long> lignesLot = new ArrayList<>();
+        private long lues;
+        private long inserees;
+        private long doublons;
+        private long erreurs;
+
+        private Import(OutputStream sortie) {
+            this.sortie = sortie;
+        }
+
+        void traiter(long ligne, LivreReqDto demande) throws IOException {
+            String motif = valider(demande);
+            if (motif != null) {
+                rejeter(TypeRapportImport.ERREUR, ligne, demande.getIsbn(), motif);
+                return;
+            }
+            String isbn = normaliserIsbn(demande.getIsbn());
+            if (!isbnsVus.add(isbn)) {
+                rejeter(TypeRapportImport.DOUBLON, ligne, isbn, "isbn déjà présent plus haut dans le fichier");
+                return;
+            }
+
+            // Mêmes règles que addBook : au moins un exemplaire, tous disponibles
+            int quantite = demande.getQuantiteTotale() == null || demande.getQuantiteTotale() <= 0
+                    ? 1 : demande.getQuantiteTotale();
+            lot.add(Livre.builder()
+                    .titre(demande.getTitre().strip())
+                    .auteur(demande.getAuteur().strip())
+                    .categorie(demande.getCategorie() == null ? Category.AUTRE : demande.getCategorie())
+                    .isbn(isbn)
+                    .quantiteTotale(quantite)
+                    .quantiteDisponible(quantite)
+                    .quantiteEmpruntee(0)
+                    .version(0L)
+                    .build());
+            lignesLot.add(ligne);
+            if (lot.size() >= tailleLot) {
+                ecrireLot();
+            }
+        }
+
+        void ecrireLot() throws IOException {
+            if (lot.isEmpty()) {
+                return;
+            }
+            Set<String> existants = livreBatchRepo.isbnsExistants(lot.stream().map(Livre::getIsbn).toList());
+            List<Livre> aInserer = new ArrayList<>(lot.size());
+            List<Long> lignesAInserer = new ArrayList<>(lot.size());
+            for (int i = 0; i < lot.size(); i++) {
+                Livre livre = lot.get(i);
+                if (existants.contains(livre.getIsbn())) {
+                    rejeter(TypeRapportImport.DOUBLON, lignesLot.get(i), livre.getIsbn(), "isbn déjà présent dans le catalogue");
+                } else {
+                    aInserer.add(livre);
+                    lignesAInserer.add(lignesLot.get(i));
+                }
+            }
+            lot.clear();
+            lignesLot.clear();
+
+            try {
+                transactionTemplate.executeWithoutResult(status -> livreBatchRepo.insererTous(aInserer));
+                inserees += aInserer.size();
+                aInserer.forEach(livre -> indexCatalogue.indexer(livre.getId(), livre.getTitre(), livre.getAuteur(), livre.getIsbn()));
+            } catch (DataAccessException e) {
+                // Ex : même ISBN inséré entre-temps par un autre import ; le lot est annulé en entier
+                log.warn("Échec d'un lot de l'import du catalogue : {}", e.getMostSpecificCause().getMessage());
+                for (int i = 0; i < aInserer.size(); i++) {
+                    rejeter(TypeRapportImport.ERREUR, lignesAInserer.get(i), aInserer.get(i).getIsbn(),
+                            "Échec de l'écriture du lot : " + e.getMostSpecificCause().getMessage());
+                }
+            }
+            ecrire(compteurs(TypeRapportImport.PROGRESSION));
+            sortie.flush();
+        }
+
+        void rejeter(TypeRapportImport type, Long ligne, String isbn, String message) throws IOException {
+            if (type == TypeRapportImport.DOUBLON) {
+                doublons++;
+            } else {
+                erreurs++;
+            }
+            ecrire(RapportImportDto.builder().type(type).ligne(ligne).isbn(isbn).message(message).build());
+        }
+
+        void terminer() throws IOException {
+            ecrire(compteurs(TypeRapportImport.TERMINE));
+            sortie.flush();
+        }
+
+        private RapportImportDto compteurs(TypeRapportImport type) {
+            return RapportImportDto.builder()
+                    .type(type)
+                    .lues(lues)
+                    .inserees(inserees)
+                    .doublons(doublons)
+                    .erreurs(erreurs)
+                    .build();
+        }
+
+        private void ecrire(RapportImportDto rapport) throws IOException {
+            sortie.write(objectMapper.writeValueAsBytes(rapport));
+            sortie.write('\n');
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package ma.mundiapolis.mslivre.services;
+
+import lombok.extern.slf4j.Slf4j;
+import ma.mundiapolis.mslivre.dto.LivreTexteDto;
+import ma.mundiapolis.mslivre.repositories.LivreRepo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Index inversé en mémoire du catalogue (titre, auteur, isbn) pour GET /api/livre/search.
+ * <p>
+ * Les termes sont normalisés (minuscules, sans accents) et rangés dans un TreeMap : un terme
+ * de la requête est cherché comme préfixe (sous-map [terme, terme + Character.MAX_VALUE[). Chaque terme
+ * donne une liste triée d'ids ; la requête part du terme le plus sélectif et vérifie les
+ * autres sur les termes du livre (ET), puis classe les livres trouvés.
+ * <p>
+ * Construit au démarrage par pages d'ids, tenu à jour par addBook / updateBook / deleteBook
+ * après validation de leur transaction. Local à l'instance : une modification faite par une
+ * autre instance de ms-livre n'y apparaît qu'au redémarrage.
+ */
+@Slf4j
+@Component
+public class IndexCatalogue {
+
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATEURS = Pattern.compile("[^\\p{Alnum}]+");
+    // Requête qui ressemble à un ISBN (avec ou sans tirets) : cherchée comme un seul terme
+    private static final Pattern ISBN = Pattern.compile("[0-9xX][0-9xX\\- ]{3,}");
+    private static final int TERMES_MAX = 8;
+
+    // Poids d'un terme selon le champ et le type de correspondance
+    private static final double ISBN_EXACT = 10;
+    private static final double ISBN_PREFIXE = 5;
+    private static final double TITRE_EXACT = 3;
+    private static final double TITRE_PREFIXE = 2;
+    private static final double AUTEUR_EXACT = 2;
+    private static final double AUTEUR_PREFIXE = 1.5;
+    // Bonus si le terme correspond au premier mot du titre
+    private static final double DEBUT_TITRE = 0.5;
+
+    private final LivreRepo livreRepo;
+    private final int tailleLotChargement;
+
+    private final ReadWriteLock verrou = new ReentrantReadWriteLock();
+    private final TreeMap<String, Postings> termes = new TreeMap<>();
+    private final Map<Long, Document> documents = new HashMap<>();
+    // Suppressions reçues pendant la construction : les pages déjà lues ne doivent pas les réintroduire
+    private final Set<Long> retiresPendantChargement = new HashSet<>();
+    private volatile boolean pret;
+
+    public IndexCatalogue(LivreRepo livreRepo,
+                          @Value("${livre.recherche.taille-lot-chargement:5000}") int tailleLotChargement) {
+        this.livreRepo = livreRepo;
+        this.tailleLotChargement = tailleLotChargement;
+    }
+
+    /**
+     * Construction au démarrage, par pages d'ids (projection sans le stock) : le catalogue
+     * n'est jamais chargé en entier sous forme d'entités.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void charger() {
+        long debut = System.nanoTime();
+        long apres = 0;
+        int total = 0;
+        List<LivreTexteDto> page;
+        do {
+            page = livreRepo.findByIdGreaterThanOrderByIdAsc(apres, Limit.of(tailleLotChargement));
+            verrou.writeLock().lock();
+            try {
+                for (LivreTexteDto livre : page) {
+                    if (!documents.containsKey(livre.getId()) && !retiresPendantChargement.contains(livre.getId())) {
+                        ajouter(livre.getId(), livre.getTitre(), livre.getAuteur(), livre.getIsbn());
+                    }
+                }
+            } finally {
+                verrou.writeLock().unlock();
+            }
+            total += page.size();
+            if (!page.isEmpty()) {
+                apres = page.get(page.size() - 1).getId();
+            }
+        } while (page.size() == tailleLotChargement);
+
+        verrou.writeLock().lock();
+        try {
+            retiresPendantChargement.clear();
+            pret = true;
+        } finally {
+            verrou.writeLock().unlock();
+        }
+        log.info("Index de recherche construit : {} livres, {} termes en {} ms",
+                total, termes.size(), (System.nanoTime() - debut) / 1_000_000);
+    }
+
+    public boolean isPret() {
+        return pret;
+    }
+
+    /**
+     * Ajoute ou remplace un livre ; dans une transaction, après sa validation.
+     */
+    public void indexer(Long id, String titre, String auteur, String isbn) {
+        if (id == null) {
+            return;
+        }
+        apresValidation(() -> {
+            verrou.writeLock().lock();
+            try {
+                retirerDocument(id);
+                ajouter(id, titre, auteur, isbn);
+            } finally {
+                verrou.writeLock().unlock();
+            }
+        });
+    }
+
+    public void retirer(Long id) {
+        if (id == null) {
+            return;
+        }
+        apresValidation(() -> {
+            verrou.writeLock().lock();
+            try {
+                retirerDocument(id);
+                if (!pret) {
+                    retiresPendantChargement.add(id);
+                }
+            } finally {
+                verrou.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Ids des livres correspondant à tous les termes de la requête, du plus pertinent au moins
+     * pertinent, pour la page demandée (numérotée à partir de 0).
+     */
+    public Resultat rechercher(String requete, int page, int taille) {
+        List<String> recherches = termesRequete(requete);
+        if (recherches.isEmpty()) {
+            return new Resultat(List.of(), 0);
+        }
+
+        verrou.readLock().lock();
+        try {
+            // 1. Terme le plus sélectif : le moins d'ids sur l'ensemble des termes qu'il préfixe
+            NavigableMap<String, Postings> selectif = null;
+            long minimum = Long.MAX_VALUE;
+            for (String terme : recherches) {
+                NavigableMap<String, Postings> correspondances = prefixes(terme);
+                long nombre = 0;
+                for (Postings postings : correspondances.values()) {
+                    nombre += postings.taille;
+                }
+                if (nombre == 0) {
+                    return new Resultat(List.of(), 0);
+                }
+                if (nombre < minimum) {
+                    minimum = nombre;
+                    selectif = correspondances;
+                }
+            }
+
+            // 2. Candidats sans doublon (un livre peut contenir plusieurs termes du même préfixe)
+            long[] candidats = new long[(int) minimum];
+            int n = 0;
+            for (Postings postings : selectif.values()) {
+                System.arraycopy(postings.ids, 0, candidats, n, postings.taille);
+                n += postings.taille;
+            }
+            if (selectif.size() > 1) {
+                Arrays.sort(candidats, 0, n);
+            }
+
+            // 3. Score de chaque candidat ; on ne garde que les meilleurs jusqu'à la fin de la page
+            int garder = (int) Math.min((long) (page + 1) * taille, Integer.MAX_VALUE);
+            // Tas inversé : le moins bon des livres gardés est en tête
+            PriorityQueue<Classe> meilleurs = new PriorityQueue<>(Comparator.reverseOrder());
+            long total = 0;
+            long precedent = -1;
+            for (int i = 0; i < n; i++) {
+                long id = candidats[i];
+                if (id == precedent) {
+                    continue;
+                }
+                precedent = id;
+                Document document = documents.get(id);
+                double score = document == null ? 0 : score(document, recherches);
+                if (score <= 0) {
+                    continue;
+                }
+                total++;
+                Classe classe = new Classe(id, score, document.longueurTitre);
+                if (meilleurs.size() < garder) {
+                    meilleurs.add(classe);
+                } else if (classe.compareTo(meilleurs.peek()) < 0) {
+                    meilleurs.poll();
+                    meilleurs.add(classe);
+                }
+            }
+
+            List<Classe> classes = new ArrayList<>(meilleurs);
+            classes.sort(null);
+            int debut = (int) Math.min((long) page * taille, classes.size());
+            List<Long> ids = classes.subList(debut, classes.size()).stream().map(Classe::id).toList();
+            return new Resultat(ids, total);
+        } finally {
+            verrou.readLock().unlock();
+        }
+    }
+
+    public int getNombreLivres() {
+        verrou.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            verrou.readLock().unlock();
+        }
+    }
+
+    /**
+     * Minuscules, sans accents ni ligatures, découpé sur tout ce qui n'est ni lettre ni chiffre.
+     */
+    static List<String> normaliser(String texte) {
+        if (texte == null || texte.isBlank()) {
+            return List.of();
+        }
+        String simple = texte;
+        // Décomposition des accents seulement si le texte n'est pas en ASCII (cas le plus courant évité)
+        if (!simple.chars().allMatch(c -> c < 0x80)) {
+            simple = ACCENTS.matcher(Normalizer.normalize(simple, Normalizer.Form.NFD)).replaceAll("")
+                    .replace("œ", "oe").replace("Œ", "oe")
+                    .replace("æ", "ae").replace("Æ", "ae")
+                    .replace("ß", "ss");
+        }
+        simple = simple.toLowerCase(Locale.ROOT);
+        List<String> mots = new ArrayList<>();
+        int debut = -1;
+        for (int i = 0; i <= simple.length(); i++) {
+            boolean lettre = i < simple.length() && Character.isLetterOrDigit(simple.charAt(i));
+            if (lettre && debut < 0) {
+                debut = i;
+            } else if (!lettre && debut >= 0) {
+                mots.add(simple.substring(debut, i));
+                debut = -1;
+            }
+        }
+        return mots;
+    }
+
+    // ISBN sans tirets ni espaces, en minuscules (le "x" de contrôle)
+    static String isbnCompact(String isbn) {
+        if (isbn == null) {
+            return null;
+        }
+        String compact = SEPARATEURS.matcher(isbn).replaceAll("").toLowerCase(Locale.ROOT);
+        return compact.isEmpty() ? null : compact;
+    }
+
+    private static List<String> termesRequete(String requete) {
+        if (requete == null || requete.isBlank()) {
+            return List.of();
+        }
+        String nettoyee = requete.strip();
+        if (ISBN.matcher(nettoyee).matches()) {
+            return List.of(isbnCompact(nettoyee));
+        }
+        Set<String> uniques = new LinkedHashSet<>(normaliser(nettoyee));
+        return uniques.stream().limit(TERMES_MAX).toList();
+    }
+
+    // Meilleur poids de chaque terme sur les champs du livre ; 0 si un terme est absent (ET)
+    private static double score(Document document, List<String> recherches) {
+        double total = 0;
+        for (String terme : recherches) {
+            double meilleur = 0;
+            if (document.isbn != null) {
+                if (document.isbn.equals(terme)) {
+                    meilleur = ISBN_EXACT;
+                } else if (document.isbn.startsWith(terme)) {
+                    meilleur = ISBN_PREFIXE;
+                }
+            }
+            for (int i = 0; i < document.titre.length; i++) {
+                String mot = document.titre[i];
+                double poids = mot.equals(terme) ? TITRE_EXACT : mot.startsWith(terme) ? TITRE_PREFIXE : 0;
+                if (poids > 0 && i == 0) {
+                    poids += DEBUT_TITRE;
+                }
+                meilleur = Math.max(meilleur, poids);
+            }
+            for (String mot : document.auteur) {
+                meilleur = Math.max(meilleur,
+                        mot.equals(terme) ? AUTEUR_EXACT : mot.startsWith(terme) ? AUTEUR_PREFIXE : 0);
+            }
+            if (meilleur == 0) {
+                return 0;
+            }
+            total += meilleur;
+        }
+        return total;
+    }
+
+    private NavigableMap<String, Postings> prefixes(String terme) {
+        return termes.subMap(terme, true, terme + Character.MAX_VALUE, false);
+    }
+
+    // Sous le verrou d'écriture
+    private void ajouter(long id, String titre, String auteur, String isbn) {
+        String[] motsTitre = enregistrer(id, normaliser(titre));
+        String[] motsAuteur = enregistrer(id, normaliser(auteur));
+        String compact = isbnCompact(isbn);
+        if (compact != null) {
+            compact = enregistrer(id, List.of(compact))[0];
+        }
+        documents.put(id, new Document(motsTitre, motsAuteur, compact, titre == null ? 0 : titre.length()));
+    }
+
+    // Ajoute l'id aux listes des mots ; retourne les mots partagés avec l'index (une seule instance par terme)
+    private String[] enregistrer(long id, List<String> mots) {
+        String[] partages = new String[mots.size()];
+        for (int i = 0; i < partages.length; i++) {
+            Postings postings = termes.computeIfAbsent(mots.get(i), Postings::new);
+            postings.ajouter(id);
+            partages[i] = postings.terme;
+        }
+        return partages;
+    }
+
+    // Sous le verrou d'écriture
+    private void retirerDocument(long id) {
+        Document document = documents.remove(id);
+        if (document == null) {
+            return;
+        }
+        for (String mot : document.titre) {
+            desenregistrer(id, mot);
+        }
+        for (String mot : document.auteur) {
+            desenregistrer(id, mot);
+        }
+        if (document.isbn != null) {
+            desenregistrer(id, document.isbn);
+        }
+    }
+
+    private void desenregistrer(long id, String mot) {
+        Postings postings = termes.get(mot);
+        if (postings != null && postings.retirer(id) && postings.taille == 0) {
+            termes.remove(mot);
+        }
+    }
+
+    private static void apresValidation(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    public record Resultat(List<Long> ids, long total) {
+    }
+
+    // Termes normalisés d'un livre, partagés avec les clés de l'index
+    private record Document(String[] titre, String[] auteur, String isbn, int longueurTitre) {
+    }
+
+    // Ordre de classement : score décroissant, puis titre le plus court, puis id
+    private record Classe(long id, double score, int longueurTitre) implements Comparable<Classe> {
+        @Override
+        public int compareTo(Classe autre) {
+            int c = Double.compare(autre.score, score);
+            if (c == 0) {
+                c = Integer.compare(longueurTitre, autre.longueurTitre);
+            }
+            return c != 0 ? c : Long.compare(id, autre.id);
+        }
+    }
+
+    /**
+     * Ids triés des livres contenant un terme. Les ids étant attribués en ordre croissant,
+     * un ajout se fait presque toujours en fin de tableau.
+     */
+    private static final class Postings {
+
+        private final String terme;
+        private long[] ids = new long[2];
+        private int taille;
+
+        private Postings(String terme) {
+            this.terme = terme;
+        }
+
+        void ajouter(long id) {
+            if (taille > 0 && ids[taille - 1] >= id) {
+                int position = Arrays.binarySearch(ids, 0, taille, id);
+                if (position >= 0) {
+                    return;
+                }
+                inserer(-position - 1, id);
+                return;
+            }
+            inserer(taille, id);
+        }
+
+        boolean retirer(long id) {
+            int position = Arrays.binarySearch(ids, 0, taille, id);
+            if (position < 0) {
+                return false;
+            }
+            System.arraycopy(ids, position + 1, ids, position, taille - position - 1);
+            taille--;
+            return true;
+        }
+
+        private void inserer(int position, long id) {
+            if (taille == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length + (ids.length >> 1) + 1);
+            }
+            System.arraycopy(ids, position, ids, position + 1, taille - position);
+            ids[position] = id;
+            taille++;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ma.mundiapolis.mslivre.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lecture d'un CSV (RFC 4180) enregistrement par enregistrement : séparateur virgule ou
+ * point-virgule (détecté sur l'en-tête), champs entre guillemets avec "" pour un guillemet,
+ * retours à la ligne possibles dans un champ entre guillemets.
+ */
+final class LecteurCsv {
+
+    // Un guillemet jamais fermé ne doit pas faire lire tout le fichier comme un seul champ
+    private static final int TAILLE_MAX_ENREGISTREMENT = 64 * 1024;
+
+    private final BufferedReader reader;
+    private char separateur = ',';
+    private long lignesLues;
+    private long ligneDebut;
+
+    LecteurCsv(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Lit l'en-tête et en déduit le séparateur ; null si le fichier est vide.
+     */
+    List<String> lireEntete() throws IOException {
+        String premiere = reader.readLine();
+        if (premiere == null) {
+            return null;
+        }
+        lignesLues = 1;
+        ligneDebut = 1;
+        if (!premiere.isEmpty() && premiere.charAt(0) == '\uFEFF') {
+            premiere = premiere.substring(1);
+        }
+        if (premiere.indexOf(';') >= 0 && premiere.indexOf(',') < 0) {
+            separateur = ';';
+        }
+        return decouper(premiere);
+    }
+
+    /**
+     * Champs de l'enregistrement suivant (lignes vides ignorées), null en fin de fichier.
+     */
+    List<String> lire() throws IOException {
+        String ligne;
+        do {
+            ligne = reader.readLine();
+            if (ligne == null) {
+                return null;
+            }
+            lignesLues++;
+        } while (ligne.isBlank());
+        ligneDebut = lignesLues;
+        return decouper(ligne);
+    }
+
+    // Numéro (à partir de 1) de la première ligne du dernier enregistrement lu
+    long getLigne() {
+        return ligneDebut;
+    }
+
+    private List<String> decouper(String ligne) throws IOException {
+        List<String> champs = new ArrayList<>();
+        StringBuilder champ = new StringBuilder();
+        boolean entreGuillemets = false;
+        int i = 0;
+        while (true) {
+            if (i == ligne.length()) {
+                if (!entreGuillemets) {
+                    break;
+                }
+                // Champ entre guillemets sur plusieurs lignes
+                String suite = reader.readLine();
+                if (suite == null) {
+                    throw new IllegalArgumentException("Guillemet non fermé (ligne " + ligneDebut + ")");
+                }
+                lignesLues++;
+                champ.append('\n');
+                ligne = suite;
+                i = 0;
+                continue;
+            }
+            char c = ligne.charAt(i++);
+            if (entreGuillemets) {
+                if (c == '"') {
+                    if (i < ligne.length() && ligne.charAt(i) == '"') {
+                        champ.append('"');
+                        i++;
+                    } else {
+                        entreGuillemets = false;
+                    }
+                } else {
+                    champ.append(c);
+                }
+            } else if (c == '"' && champ.isEmpty()) {
+                entreGuillemets = true;
+            } else if (c == separateur) {
+                champs.add(champ.toString().strip());
+                champ.setLength(0);
+            } else {
+                champ.append(c);
+            }
+            if (champ.length() > TAILLE_MAX_ENREGISTREMENT) {
+                throw new IllegalArgumentException("Champ de plus de " + TAILLE_MAX_ENREGISTREMENT
+                        + " caractères (ligne " + ligneDebut + "), guillemet non fermé ?");
+            }
+        }
+        champs.add(champ.toString().strip());
+        return champs;
+    }
+}
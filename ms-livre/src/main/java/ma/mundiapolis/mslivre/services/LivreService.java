@@ -1,12 +1,20 @@
 package ma.mundiapolis.mslivre.services;
 
+import ma.mundiapolis.mslivre.dto.FiltreCatalogueDto;
+import ma.mundiapolis.mslivre.dto.LivrePageRespDto;
 import ma.mundiapolis.mslivre.dto.LivreReqDto;
 import ma.mundiapolis.mslivre.dto.LivreRespDto;
+import ma.mundiapolis.mslivre.dto.MouvementStockRespDto;
+import ma.mundiapolis.mslivre.dto.RechercheLivresRespDto;
 import ma.mundiapolis.mslivre.entities.Livre;
+import ma.mundiapolis.mslivre.repositories.EtatLivres;
+import ma.mundiapolis.mslivre.repositories.VersionLivre;
 
 import ma.mundiapolis.mslivre.services.LivreServiceImp;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface LivreService {
 
@@ -14,6 +22,22 @@ public interface LivreService {
 
     List<LivreRespDto> getAllBooks();
 
+    // Version et date de modification d'un livre, sans charger l'entité (ETag / Last-Modified)
+    VersionLivre getBookVersion(Long id);
+
+    // Nombre de livres, plus grand id et somme des versions : ETag de la liste complète
+    EtatLivres getBooksState();
+
+    long countBooks();
+
+    // Catalogue filtré (catégorie, disponibilité, auteur, isbn), trié et paginé, en lignes légères
+    LivrePageRespDto getCatalogue(FiltreCatalogueDto filtre);
+
+    // Recherche plein texte (titre, auteur, isbn) dans l'index en mémoire, page numérotée à partir de 0
+    RechercheLivresRespDto searchBooks(String requete, int page, int taille);
+
+    Map<Long, LivreRespDto> getBooksByIds(Collection<Long> ids);
+
     LivreRespDto addBook(LivreReqDto livreReqDto);
 
     LivreRespDto updateBook(Long id, LivreReqDto livreReqDto);
@@ -23,4 +47,10 @@ public interface LivreService {
     LivreRespDto emprunterLivre(Long id);
 
     LivreRespDto retournerLivre(Long id);
+
+    // Emprunt groupé : livreId -> nombre d'exemplaires demandés (accordés dans la limite du stock)
+    List<MouvementStockRespDto> emprunterLivres(Map<Long, Integer> quantites);
+
+    // Retour groupé : livreId -> nombre d'exemplaires rendus
+    List<MouvementStockRespDto> retournerLivres(Map<Long, Integer> quantites);
 }
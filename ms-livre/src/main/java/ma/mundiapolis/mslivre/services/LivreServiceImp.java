@@ -2,19 +2,47 @@ package ma.mundiapolis.mslivre.services;
 
 import jakarta.persistence.EntityNotFoundException;
 import lombok.RequiredArgsConstructor;
+import ma.mundiapolis.mslivre.clients.EmpruntCacheClient;
+import ma.mundiapolis.mslivre.dto.FiltreCatalogueDto;
+import ma.mundiapolis.mslivre.dto.LivreListeDto;
+import ma.mundiapolis.mslivre.dto.LivrePageRespDto;
 import ma.mundiapolis.mslivre.dto.LivreReqDto;
 import ma.mundiapolis.mslivre.dto.LivreRespDto;
+import ma.mundiapolis.mslivre.dto.MouvementStockRespDto;
+import ma.mundiapolis.mslivre.dto.RechercheLivresRespDto;
 import ma.mundiapolis.mslivre.entities.Livre;
 import ma.mundiapolis.mslivre.mappers.LivreMapper;
+import ma.mundiapolis.mslivre.repositories.EtatLivres;
 import ma.mundiapolis.mslivre.repositories.LivreRepo;
+import ma.mundiapolis.mslivre.repositories.LivreSpecifications;
+import ma.mundiapolis.mslivre.repositories.VersionLivre;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDateTime;
 
 @Service
 @RequiredArgsConstructor
 public class LivreServiceImp implements LivreService {
 
+    private static final int TAILLE_MAX_RECHERCHE = 100;
+    private static final int TAILLE_DEFAUT_CATALOGUE = 50;
+    private static final int TAILLE_MAX_CATALOGUE = 500;
+    // Colonnes de tri acceptées (toutes indexées, sauf titre)
+    private static final java.util.Set<String> TRIS = java.util.Set.of("titre", "auteur", "categorie", "quantiteDisponible", "id");
+
     private final LivreMapper livreMapper;
     private final LivreRepo livreRepo;
+    private final EmpruntCacheClient empruntCacheClient;
+    private final IndexCatalogue indexCatalogue;
 
     @Override
     public LivreRespDto getBookById(Long id) {
@@ -30,8 +58,83 @@ public class LivreServiceImp implements LivreService {
                 .collect(java.util.stream.Collectors.toList());
     }
 
+    @Override
+    public VersionLivre getBookVersion(Long id) {
+        return livreRepo.findVersionById(id)
+                .orElseThrow(() -> new EntityNotFoundException("Livre with id " + id + " not found"));
+    }
+
+    @Override
+    public EtatLivres getBooksState() {
+        return livreRepo.findEtat();
+    }
+
+    @Override
+    public long countBooks() {
+        // COUNT(*) en base : le tableau de bord n'a pas besoin de charger les livres
+        return livreRepo.count();
+    }
+
+    @Override
+    public LivrePageRespDto getCatalogue(FiltreCatalogueDto filtre) {
+        String tri = filtre.getTri() == null || filtre.getTri().isBlank() ? "titre" : filtre.getTri();
+        if (!TRIS.contains(tri)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Tri non supporté : " + tri + " (accepté : " + TRIS + ")");
+        }
+        Sort.Direction direction = "desc".equalsIgnoreCase(filtre.getOrdre()) ? Sort.Direction.DESC : Sort.Direction.ASC;
+        // L'id départage les égalités : l'ordre des pages reste stable
+        Sort ordre = Sort.by(direction, tri).and(Sort.by(direction, "id"));
+        int page = filtre.getPage() == null ? 0 : Math.max(filtre.getPage(), 0);
+        int taille = filtre.getTaille() == null ? TAILLE_DEFAUT_CATALOGUE
+                : Math.min(Math.max(filtre.getTaille(), 1), TAILLE_MAX_CATALOGUE);
+
+        Specification<Livre> specification = Specification.allOf(
+                LivreSpecifications.categorie(filtre.getCategorie()),
+                LivreSpecifications.disponible(filtre.getDisponible()),
+                LivreSpecifications.auteurCommencePar(filtre.getAuteur()),
+                LivreSpecifications.isbn(filtre.getIsbn()));
+        Page<LivreListeDto> resultat = livreRepo.findListe(specification, PageRequest.of(page, taille, ordre));
+        return LivrePageRespDto.builder()
+                .livres(resultat.getContent())
+                .total(resultat.getTotalElements())
+                .page(page)
+                .taille(taille)
+                .build();
+    }
+
+    @Override
+    public RechercheLivresRespDto searchBooks(String requete, int page, int taille) {
+        if (!indexCatalogue.isPret()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Index de recherche en cours de construction");
+        }
+        int pageValide = Math.max(page, 0);
+        int tailleValide = Math.min(Math.max(taille, 1), TAILLE_MAX_RECHERCHE);
+        IndexCatalogue.Resultat resultat = indexCatalogue.rechercher(requete, pageValide, tailleValide);
+
+        // Seule la page est lue en base (stock à jour), puis remise dans l'ordre du classement ;
+        // un livre supprimé entre-temps est simplement absent
+        java.util.Map<Long, LivreRespDto> livres = getBooksByIds(resultat.ids());
+        return RechercheLivresRespDto.builder()
+                .livres(resultat.ids().stream().map(livres::get).filter(java.util.Objects::nonNull).toList())
+                .total(resultat.total())
+                .page(pageValide)
+                .taille(tailleValide)
+                .build();
+    }
+
+    @Override
+    public java.util.Map<Long, LivreRespDto> getBooksByIds(java.util.Collection<Long> ids) {
+        // Les ids inconnus sont simplement absents de la map retournée
+        return livreRepo.findAllById(ids).stream()
+                .map(livreMapper::toDto)
+                .collect(java.util.stream.Collectors.toMap(LivreRespDto::getId, java.util.function.Function.identity()));
+    }
+
     @Override
     public LivreRespDto addBook(LivreReqDto livreReqDto) {
+        if (livreReqDto.getIsbn() != null && livreRepo.existsByIsbn(livreReqDto.getIsbn())) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Un livre avec l'isbn " + livreReqDto.getIsbn() + " existe déjà");
+        }
         Livre livre = livreMapper.toEntity(livreReqDto);
 
         // ✅ Initialiser les quantités lors de l'ajout
@@ -42,14 +145,20 @@ public class LivreServiceImp implements LivreService {
         livre.setQuantiteDisponible(livre.getQuantiteTotale()); // disponible = totale au début
 
         Livre savedLivre = livreRepo.save(livre);
+        indexCatalogue.indexer(savedLivre.getId(), savedLivre.getTitre(), savedLivre.getAuteur(), savedLivre.getIsbn());
         return livreMapper.toDto(savedLivre);
     }
 
     @Override
+    @Transactional
     public LivreRespDto updateBook(Long id, LivreReqDto livreReqDto) {
         Livre existingLivre = livreRepo.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException("Livre with id " + id + " not found"));
 
+        if (livreReqDto.getIsbn() != null && livreRepo.existsByIsbnAndIdNot(livreReqDto.getIsbn(), id)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Un livre avec l'isbn " + livreReqDto.getIsbn() + " existe déjà");
+        }
+
         // ✅ Mettre à jour les informations basiques
         existingLivre.setTitre(livreReqDto.getTitre());
         existingLivre.setAuteur(livreReqDto.getAuteur());
@@ -77,8 +186,17 @@ public class LivreServiceImp implements LivreService {
                     existingLivre.getQuantiteTotale() - existingLivre.getQuantiteEmpruntee());
         }
 
-        Livre updatedLivre = livreRepo.save(existingLivre);
-        return livreMapper.toDto(updatedLivre);
+        // Flush : la version publiée est celle de la ligne modifiée
+        Livre updatedLivre = livreRepo.saveAndFlush(existingLivre);
+        indexCatalogue.indexer(id, updatedLivre.getTitre(), updatedLivre.getAuteur(), updatedLivre.getIsbn());
+        LivreRespDto livreRespDto = livreMapper.toDto(updatedLivre);
+        // Après le commit seulement : ms-emprunt relirait sinon l'ancienne version, ou recopierait
+        // une modification finalement annulée
+        apresValidation(() -> {
+            empruntCacheClient.invalider(id);
+            empruntCacheClient.publierModification(livreRespDto);
+        });
+        return livreRespDto;
     }
 
     @Override
@@ -86,45 +204,95 @@ public class LivreServiceImp implements LivreService {
         Livre livre = livreRepo.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException("Livre with id " + id + " not found"));
         livreRepo.delete(livre);
+        indexCatalogue.retirer(id);
+        empruntCacheClient.invalider(id);
     }
 
     @Override
+    @Transactional
     public LivreRespDto emprunterLivre(Long id) {
-        Livre livre = livreRepo.findById(id)
-                .orElseThrow(() -> new EntityNotFoundException("Livre with id " + id + " not found"));
-
-        // ✅ Vérifier qu'il y a des exemplaires disponibles
-        if (livre.getQuantiteDisponible() <= 0) {
+        // ✅ Décrément atomique en base : la condition "quantiteDisponible > 0" est vérifiée
+        // par le même UPDATE, deux emprunts concurrents ne peuvent pas prendre le dernier exemplaire
+        if (livreRepo.emprunterExemplaire(id, LocalDateTime.now()) == 0) {
+            if (!livreRepo.existsById(id)) {
+                throw new EntityNotFoundException("Livre with id " + id + " not found");
+            }
             throw new IllegalStateException("Aucun exemplaire disponible pour ce livre");
         }
 
-        // ✅ Incrémenter les emprunts
-        livre.setQuantiteEmpruntee(livre.getQuantiteEmpruntee() + 1);
-
-        // ✅ Recalculer la disponibilité : disponible = totale - empruntée
-        livre.setQuantiteDisponible(livre.getQuantiteTotale() - livre.getQuantiteEmpruntee());
-
-        Livre updatedLivre = livreRepo.save(livre);
-        return livreMapper.toDto(updatedLivre);
+        return getBookById(id);
     }
 
     @Override
+    @Transactional
     public LivreRespDto retournerLivre(Long id) {
-        Livre livre = livreRepo.findById(id)
-                .orElseThrow(() -> new EntityNotFoundException("Livre with id " + id + " not found"));
-
-        // ✅ Vérifier qu'il y a des livres empruntés
-        if (livre.getQuantiteEmpruntee() <= 0) {
+        // ✅ Incrément atomique, conditionné à l'existence d'un exemplaire emprunté
+        if (livreRepo.retournerExemplaire(id, LocalDateTime.now()) == 0) {
+            if (!livreRepo.existsById(id)) {
+                throw new EntityNotFoundException("Livre with id " + id + " not found");
+            }
             throw new IllegalStateException("Aucun exemplaire emprunté pour ce livre");
         }
 
-        // ✅ Décrémenter les emprunts
-        livre.setQuantiteEmpruntee(livre.getQuantiteEmpruntee() - 1);
+        return getBookById(id);
+    }
+
+    @Override
+    @Transactional
+    public java.util.List<MouvementStockRespDto> emprunterLivres(java.util.Map<Long, Integer> quantites) {
+        // ✅ Une transaction et un verrou par livre pour tout le lot ; chaque livre accorde
+        // au plus son stock disponible
+        return mouvementGroupe(quantites, (livre, demande) -> {
+            int accorde = Math.min(demande, livre.getQuantiteDisponible());
+            livre.setQuantiteEmpruntee(livre.getQuantiteEmpruntee() + accorde);
+            livre.setQuantiteDisponible(livre.getQuantiteTotale() - livre.getQuantiteEmpruntee());
+            return accorde;
+        });
+    }
+
+    @Override
+    @Transactional
+    public java.util.List<MouvementStockRespDto> retournerLivres(java.util.Map<Long, Integer> quantites) {
+        return mouvementGroupe(quantites, (livre, demande) -> {
+            int accorde = Math.min(demande, livre.getQuantiteEmpruntee());
+            livre.setQuantiteEmpruntee(livre.getQuantiteEmpruntee() - accorde);
+            livre.setQuantiteDisponible(livre.getQuantiteTotale() - livre.getQuantiteEmpruntee());
+            return accorde;
+        });
+    }
+
+    // Applique un mouvement à chaque livre verrouillé ; les livres introuvables sont rapportés avec accorde = 0
+    private java.util.List<MouvementStockRespDto> mouvementGroupe(
+            java.util.Map<Long, Integer> quantites,
+            java.util.function.ToIntBiFunction<Livre, Integer> mouvement) {
+        java.util.Map<Long, Livre> livres = livreRepo.findAllByIdForUpdate(quantites.keySet()).stream()
+                .collect(java.util.stream.Collectors.toMap(Livre::getId, java.util.function.Function.identity()));
 
-        // ✅ Recalculer la disponibilité : disponible = totale - empruntée
-        livre.setQuantiteDisponible(livre.getQuantiteTotale() - livre.getQuantiteEmpruntee());
+        java.util.List<MouvementStockRespDto> resultats = new java.util.ArrayList<>();
+        quantites.forEach((livreId, demande) -> {
+            Livre livre = livres.get(livreId);
+            int demandeValide = demande == null ? 0 : Math.max(demande, 0);
+            int accorde = livre == null ? 0 : mouvement.applyAsInt(livre, demandeValide);
+            resultats.add(MouvementStockRespDto.builder()
+                    .livreId(livreId)
+                    .demande(demandeValide)
+                    .accorde(accorde)
+                    .livre(livre == null ? null : livreMapper.toDto(livre))
+                    .build());
+        });
+        return resultats;
+    }
 
-        Livre updatedLivre = livreRepo.save(livre);
-        return livreMapper.toDto(updatedLivre);
+    private static void apresValidation(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,12 +1,33 @@
 package ma.mundiapolis.mslivre.web;
 
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import ma.mundiapolis.mslivre.dto.FiltreCatalogueDto;
+import ma.mundiapolis.mslivre.dto.LivrePageRespDto;
 import ma.mundiapolis.mslivre.dto.LivreReqDto;
 import ma.mundiapolis.mslivre.dto.LivreRespDto;
+import ma.mundiapolis.mslivre.dto.MouvementStockRespDto;
+import ma.mundiapolis.mslivre.dto.RechercheLivresRespDto;
+import ma.mundiapolis.mslivre.enums.FormatFichier;
 import ma.mundiapolis.mslivre.mappers.LivreMapper;
+import ma.mundiapolis.mslivre.repositories.EtatLivres;
+import ma.mundiapolis.mslivre.repositories.VersionLivre;
+import ma.mundiapolis.mslivre.services.ExportCatalogue;
+import ma.mundiapolis.mslivre.services.ImportCatalogue;
+import ma.mundiapolis.mslivre.services.Idempotence;
 import ma.mundiapolis.mslivre.services.LivreService;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 
 @RestController
 @RequestMapping("/api/livre")
@@ -15,23 +36,92 @@ public class LivreController {
 
     final LivreService livreService;
     final LivreMapper livreMapper;
+    final Idempotence idempotence;
+    final ImportCatalogue importCatalogue;
+    final ExportCatalogue exportCatalogue;
 
+    // ETag (id + version) et Last-Modified ; If-None-Match / If-Modified-Since à jour : 304,
+    // après une seule lecture de la version par clé primaire, sans charger ni sérialiser le livre.
+    // ETag faible : JSON et Smile (appels de ms-emprunt) encodent les mêmes données, octets différents ;
+    // Vary: Accept sépare les deux représentations dans les caches
     @GetMapping("/{id}")
-    public LivreRespDto findById(@PathVariable Long id) {
+    public LivreRespDto findById(@PathVariable Long id, WebRequest requete, HttpServletResponse reponse) {
+        reponse.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        VersionLivre version = livreService.getBookVersion(id);
+        if (requete.checkNotModified("W/\"" + id + "-" + version.getVersion() + "\"", millis(version.getDateModification()))) {
+            return null;
+        }
         return livreService.getBookById(id);
     }
 
+    // ETag de la liste calculé par une requête d'agrégat ; pas de Last-Modified : une suppression
+    // ne ferait pas avancer la date de dernière modification
     @GetMapping
-    public java.util.List<LivreRespDto> getAll() {
+    public java.util.List<LivreRespDto> getAll(WebRequest requete, HttpServletResponse reponse) {
+        reponse.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        EtatLivres etat = livreService.getBooksState();
+        if (requete.checkNotModified("W/\"livres-" + etat.getTotal() + "-" + etat.getIdMax() + "-" + etat.getSommeVersions() + "\"")) {
+            return null;
+        }
         return livreService.getAllBooks();
     }
 
+    // Catalogue filtré et paginé : ?categorie=ROMAN&disponible=true&auteur=Hug&isbn=...&tri=titre&ordre=asc&page=0&taille=50
+    @GetMapping("/catalogue")
+    public LivrePageRespDto catalogue(FiltreCatalogueDto filtre) {
+        return livreService.getCatalogue(filtre);
+    }
+
+    // Recherche par titre, auteur ou isbn (sans accents, préfixes acceptés), classée et paginée
+    @GetMapping("/search")
+    public RechercheLivresRespDto search(@RequestParam("q") String q,
+                                         @RequestParam(defaultValue = "0") int page,
+                                         @RequestParam(defaultValue = "20") int taille) {
+        return livreService.searchBooks(q, page, taille);
+    }
+
+    @GetMapping("/count")
+    public long count() {
+        return livreService.countBooks();
+    }
+
+    // Recherche groupée (ids en entrée, map id -> livre en sortie), utilisée par ms-emprunt
+    @PostMapping("/bulk")
+    public java.util.Map<Long, LivreRespDto> findByIds(@RequestBody java.util.List<Long> ids) {
+        return livreService.getBooksByIds(ids);
+    }
+
     @PostMapping("/add")
     @ResponseStatus(HttpStatus.CREATED)
     public LivreRespDto add(@RequestBody LivreReqDto livre) {
         return livreService.addBook(livre);
     }
 
+    // Import en masse (Content-Type: text/csv ou application/x-ndjson) ; rapport NDJSON écrit au fil de l'import
+    @PostMapping(value = "/import", consumes = {"text/csv", MediaType.APPLICATION_NDJSON_VALUE},
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody importer(InputStream corps,
+                                          @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType type) {
+        FormatFichier format = MediaType.APPLICATION_NDJSON.includes(type) ? FormatFichier.NDJSON : FormatFichier.CSV;
+        return sortie -> importCatalogue.importer(corps, format, sortie);
+    }
+
+    // Export complet ou par plage d'ids ]depuisId, jusquaId] (format=csv|ndjson), écrit au fil de la lecture
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exporter(@RequestParam(defaultValue = "csv") String format,
+                                                          @RequestParam(required = false) Long depuisId,
+                                                          @RequestParam(required = false) Long jusquaId) {
+        FormatFichier fichier = "ndjson".equalsIgnoreCase(format) ? FormatFichier.NDJSON : FormatFichier.CSV;
+        StreamingResponseBody corps = sortie -> exportCatalogue.exporter(fichier, depuisId, jusquaId, sortie);
+        return ResponseEntity.ok()
+                .contentType(fichier == FormatFichier.NDJSON
+                        ? MediaType.APPLICATION_NDJSON
+                        : new MediaType("text", "csv", StandardCharsets.UTF_8))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        fichier == FormatFichier.NDJSON ? "attachment; filename=\"catalogue.ndjson\"" : "attachment; filename=\"catalogue.csv\"")
+                .body(corps);
+    }
+
     @PutMapping("/{id}")
     public LivreRespDto update(@PathVariable Long id, @RequestBody LivreReqDto livre) {
         return livreService.updateBook(id, livre);
@@ -44,13 +134,48 @@ public class LivreController {
     }
 
     // ✅ NOUVEAUX ENDPOINTS POUR EMPRUNTS
+    // Idempotency-Key facultatif : un appel répété avec la même clé rejoue la réponse sans nouveau mouvement
     @PutMapping("/{id}/emprunter")
-    public LivreRespDto emprunter(@PathVariable Long id) {
-        return livreService.emprunterLivre(id);
+    public LivreRespDto emprunter(@PathVariable Long id,
+                                  @RequestHeader(name = Idempotence.ENTETE, required = false) String cle) {
+        return idempotence.executer(cle, "PUT /api/livre/" + id + "/emprunter", LivreRespDto.class,
+                () -> livreService.emprunterLivre(id));
     }
 
     @PutMapping("/{id}/retourner")
-    public LivreRespDto retourner(@PathVariable Long id) {
-        return livreService.retournerLivre(id);
+    public LivreRespDto retourner(@PathVariable Long id,
+                                  @RequestHeader(name = Idempotence.ENTETE, required = false) String cle) {
+        return idempotence.executer(cle, "PUT /api/livre/" + id + "/retourner", LivreRespDto.class,
+                () -> livreService.retournerLivre(id));
+    }
+
+    // Mouvements groupés (livreId -> nombre d'exemplaires), utilisés par les emprunts / retours par lot.
+    // Idempotency-Key facultatif, comme pour un seul livre ; l'empreinte couvre tout le lot
+    @PutMapping("/batch/emprunter")
+    public java.util.List<MouvementStockRespDto> emprunterLot(
+            @RequestBody java.util.Map<Long, Integer> quantites,
+            @RequestHeader(name = Idempotence.ENTETE, required = false) String cle) {
+        return mouvementGroupe(cle, "PUT /api/livre/batch/emprunter", quantites, livreService::emprunterLivres);
+    }
+
+    @PutMapping("/batch/retourner")
+    public java.util.List<MouvementStockRespDto> retournerLot(
+            @RequestBody java.util.Map<Long, Integer> quantites,
+            @RequestHeader(name = Idempotence.ENTETE, required = false) String cle) {
+        return mouvementGroupe(cle, "PUT /api/livre/batch/retourner", quantites, livreService::retournerLivres);
+    }
+
+    // Lot trié par livre dans l'empreinte : le même lot rejoué donne la même empreinte quel que soit l'ordre du JSON
+    private java.util.List<MouvementStockRespDto> mouvementGroupe(
+            String cle, String operation, java.util.Map<Long, Integer> quantites,
+            java.util.function.Function<java.util.Map<Long, Integer>, java.util.List<MouvementStockRespDto>> mouvement) {
+        return java.util.Arrays.asList(idempotence.executer(cle, operation + " " + new java.util.TreeMap<>(quantites),
+                MouvementStockRespDto[].class,
+                () -> mouvement.apply(quantites).toArray(new MouvementStockRespDto[0])));
+    }
+
+    // -1 : pas d'en-tête Last-Modified (livre jamais modifié depuis l'ajout de la colonne)
+    private static long millis(LocalDateTime date) {
+        return date == null ? -1 : date.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
-}
\ No newline at end of file
+}
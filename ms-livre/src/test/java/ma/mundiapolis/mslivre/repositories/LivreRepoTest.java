@@ -0,0 +1,143 @@
+package ma.mundiapolis.mslivre.repositories;
+
+import ma.mundiapolis.mslivre.dto.Category;
+import ma.mundiapolis.mslivre.dto.LivreListeDto;
+import ma.mundiapolis.mslivre.entities.Livre;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Requêtes du catalogue (H2 en mode MySQL) : filtres combinés, tri stable et pages de la
+ * projection LivreListeDto, comptage, index déclarés utilisés par les filtres, et ISBN déjà
+ * présents comparés sans tirets ni espaces pour l'import.
+ */
+@DataJpaTest(showSql = false, properties = {
+        "spring.datasource.url=jdbc:h2:mem:catalogue;MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class LivreRepoTest {
+
+    private static final Sort PAR_TITRE = Sort.by("titre").and(Sort.by("id"));
+
+    @Autowired
+    private LivreRepo livreRepo;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void catalogue() {
+        // 30 romans (un sur trois sans exemplaire disponible), 10 livres techniques tous disponibles
+        List<Livre> livres = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            livres.add(livre("Roman " + (char) ('A' + i % 26) + i, i % 2 == 0 ? "Hugo" : "Zola",
+                    Category.ROMAN, "978-1-" + i, i % 3 == 0 ? 0 : 2));
+        }
+        for (int i = 0; i < 10; i++) {
+            livres.add(livre("Technique " + i, "Knuth", Category.TECHNIQUE, "978-2-" + i, 1));
+        }
+        livreRepo.saveAll(livres);
+    }
+
+    @Test
+    void filtresCombinesSurLaProjection() {
+        Page<LivreListeDto> romansDisponibles = livreRepo.findListe(Specification.allOf(
+                LivreSpecifications.categorie(Category.ROMAN),
+                LivreSpecifications.disponible(true)), PageRequest.of(0, 50, PAR_TITRE));
+        assertEquals(20, romansDisponibles.getTotalElements());
+        assertTrue(romansDisponibles.getContent().stream()
+                .allMatch(l -> l.getCategorie() == Category.ROMAN && l.getQuantiteDisponible() > 0));
+        // Colonnes de la liste renseignées, stock total compris
+        LivreListeDto premier = romansDisponibles.getContent().get(0);
+        assertEquals(2, premier.getQuantiteTotale());
+        assertTrue(premier.getIsbn().startsWith("978-1-"));
+
+        assertEquals(10, livreRepo.findListe(LivreSpecifications.disponible(false), PageRequest.of(0, 50))
+                .getTotalElements());
+        // Début du nom, espaces retirés (la casse est ignorée par la collation MySQL, pas par H2)
+        assertEquals(15, livreRepo.findListe(LivreSpecifications.auteurCommencePar(" Hu"), PageRequest.of(0, 50))
+                .getTotalElements());
+        List<LivreListeDto> parIsbn = livreRepo.findListe(LivreSpecifications.isbn("978-2-7"), PageRequest.of(0, 50))
+                .getContent();
+        assertEquals(List.of("Technique 7"), parIsbn.stream().map(LivreListeDto::getTitre).toList());
+        // Caractères LIKE échappés : "%" n'est pas un joker
+        assertEquals(0, livreRepo.findListe(LivreSpecifications.auteurCommencePar("%"), PageRequest.of(0, 50))
+                .getTotalElements());
+    }
+
+    @Test
+    void pagesTrieesSansDoublonNiTrou() {
+        Specification<Livre> tous = Specification.allOf(LivreSpecifications.categorie(null));
+        List<Long> parcourus = new ArrayList<>();
+        for (int page = 0; page < 4; page++) {
+            Page<LivreListeDto> resultat = livreRepo.findListe(tous, PageRequest.of(page, 12, PAR_TITRE));
+            assertEquals(40, resultat.getTotalElements());
+            resultat.getContent().forEach(l -> parcourus.add(l.getId()));
+        }
+        assertEquals(40, parcourus.size());
+        assertEquals(40, parcourus.stream().distinct().count());
+
+        // Même titre pour tous : l'id départage, l'ordre reste le même d'une page à l'autre
+        jdbcTemplate.update("UPDATE livre SET titre = 'Même titre'");
+        List<Long> ids = new ArrayList<>();
+        for (int page = 0; page < 4; page++) {
+            livreRepo.findListe(tous, PageRequest.of(page, 12, PAR_TITRE)).getContent().forEach(l -> ids.add(l.getId()));
+        }
+        assertEquals(ids.stream().sorted().toList(), ids);
+    }
+
+    @Test
+    void filtresServisParLesIndexDeclares() {
+        assertTrue(plan("SELECT id FROM livre WHERE categorie = 0 AND quantite_disponible > 0")
+                .contains("idx_livre_categorie_disponible"));
+        assertTrue(plan("SELECT id FROM livre WHERE quantite_disponible > 0").contains("idx_livre_disponible"));
+        assertTrue(plan("SELECT id FROM livre WHERE auteur LIKE 'Hu%'").contains("idx_livre_auteur"));
+        assertTrue(plan("SELECT id FROM livre WHERE isbn = '978-1-4'").contains("uk_livre_isbn"));
+    }
+
+    @Test
+    void isbnsExistantsComparesSousFormeNormalisee() {
+        livreRepo.save(livre("Saisi à la main", "Hugo", Category.ROMAN, "2-07-036002-x", 1));
+        LivreBatchRepo livreBatchRepo = new LivreBatchRepo(jdbcTemplate, new NamedParameterJdbcTemplate(jdbcTemplate));
+
+        assertEquals(Set.of("207036002X", "97814"), livreBatchRepo.isbnsExistants(
+                List.of("207036002X", "97814", "9999999999")));
+    }
+
+    private String plan(String requete) {
+        return jdbcTemplate.queryForObject("EXPLAIN " + requete, String.class).toLowerCase();
+    }
+
+    private static Livre livre(String titre, String auteur, Category categorie, String isbn, int disponibles) {
+        return Livre.builder()
+                .titre(titre)
+                .auteur(auteur)
+                .categorie(categorie)
+                .isbn(isbn)
+                .quantiteTotale(2)
+                .quantiteDisponible(disponibles)
+                .quantiteEmpruntee(2 - disponibles)
+                .build();
+    }
+}
@@ -0,0 +1,198 @@
+package ma.mundiapolis.mslivre.services;
+
+import ma.mundiapolis.mslivre.clients.EmpruntCacheClient;
+import ma.mundiapolis.mslivre.dto.LivreReqDto;
+import ma.mundiapolis.mslivre.dto.LivreRespDto;
+import ma.mundiapolis.mslivre.repositories.RequeteIdempotenteRepo;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Mouvements de stock avec Idempotency-Key (H2 en mode MySQL) : un lot rejoué avec sa clé
+ * ne bouge le stock qu'une fois, une clé réutilisée pour un autre lot est refusée (422), un
+ * mouvement refusé ne consomme pas la clé, un doublon concurrent attend la première requête.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:idempotence;MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false",
+        "eureka.client.enabled=false"
+})
+@AutoConfigureMockMvc
+class IdempotenceTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private LivreService livreService;
+
+    @Autowired
+    private Idempotence idempotence;
+
+    @Autowired
+    private RequeteIdempotenteRepo requeteIdempotenteRepo;
+
+    @MockitoBean
+    private EmpruntCacheClient empruntCacheClient;
+
+    @Test
+    void lotRejoueAvecSaCleAppliqueUneSeuleFois() throws Exception {
+        Long a = creerLivre(5);
+        Long b = creerLivre(5);
+        String cle = UUID.randomUUID().toString();
+
+        String premiere = lot("/api/livre/batch/emprunter", cle, "{\"" + a + "\":2,\"" + b + "\":1}")
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        // Même lot, clés JSON dans un autre ordre : réponse enregistrée, aucun nouveau mouvement
+        lot("/api/livre/batch/emprunter", cle, "{\"" + b + "\":1,\"" + a + "\":2}")
+                .andExpect(status().isOk())
+                .andExpect(content().json(premiere, true));
+        assertEquals(3, disponibles(a));
+        assertEquals(4, disponibles(b));
+
+        String cleRetour = UUID.randomUUID().toString();
+        for (int i = 0; i < 3; i++) {
+            lot("/api/livre/batch/retourner", cleRetour, "{\"" + a + "\":2}").andExpect(status().isOk());
+        }
+        assertEquals(5, disponibles(a));
+
+        // Sans clé : chaque appel est un nouveau mouvement
+        lot("/api/livre/batch/emprunter", null, "{\"" + a + "\":1}").andExpect(status().isOk());
+        lot("/api/livre/batch/emprunter", null, "{\"" + a + "\":1}").andExpect(status().isOk());
+        assertEquals(3, disponibles(a));
+    }
+
+    @Test
+    void cleReutiliseePourUnAutreLotRefusee() throws Exception {
+        Long a = creerLivre(5);
+        String cle = UUID.randomUUID().toString();
+
+        lot("/api/livre/batch/emprunter", cle, "{\"" + a + "\":1}").andExpect(status().isOk());
+        lot("/api/livre/batch/emprunter", cle, "{\"" + a + "\":2}").andExpect(status().isUnprocessableEntity());
+        lot("/api/livre/batch/retourner", cle, "{\"" + a + "\":1}").andExpect(status().isUnprocessableEntity());
+        mockMvc.perform(put("/api/livre/{id}/emprunter", a).header(Idempotence.ENTETE, cle))
+                .andExpect(status().isUnprocessableEntity());
+        assertEquals(4, disponibles(a));
+    }
+
+    @Test
+    void mouvementRefuseNeConsommePasLaCle() {
+        Long a = creerLivre(1);
+        livreService.emprunterLivre(a);
+        String cle = UUID.randomUUID().toString();
+
+        // Plus d'exemplaire : la transaction est annulée avec la clé
+        assertThrows(IllegalStateException.class, () -> idempotence.executer(cle, "PUT /api/livre/" + a + "/emprunter",
+                LivreRespDto.class, () -> livreService.emprunterLivre(a)));
+        assertTrue(requeteIdempotenteRepo.findByCle(cle).isEmpty());
+
+        // Exemplaire rendu entre-temps : la même clé applique maintenant l'emprunt
+        livreService.retournerLivre(a);
+        LivreRespDto livre = idempotence.executer(cle, "PUT /api/livre/" + a + "/emprunter",
+                LivreRespDto.class, () -> livreService.emprunterLivre(a));
+        assertEquals(0, livre.getQuantiteDisponible());
+    }
+
+    @Test
+    void doublonConcurrentAttendLaPremiereRequete() throws Exception {
+        Long a = creerLivre(5);
+        String cle = UUID.randomUUID().toString();
+        String operation = "PUT /api/livre/" + a + "/emprunter";
+        AtomicInteger mouvements = new AtomicInteger();
+        CountDownLatch premiereEnCours = new CountDownLatch(1);
+        CountDownLatch liberer = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<LivreRespDto> premiere = executor.submit(() -> idempotence.executer(cle, operation,
+                    LivreRespDto.class, () -> {
+                        premiereEnCours.countDown();
+                        attendre(liberer);
+                        mouvements.incrementAndGet();
+                        return livreService.emprunterLivre(a);
+                    }));
+            assertTrue(premiereEnCours.await(5, TimeUnit.SECONDS));
+            Future<LivreRespDto> doublon = executor.submit(() -> idempotence.executer(cle, operation,
+                    LivreRespDto.class, () -> {
+                        mouvements.incrementAndGet();
+                        return livreService.emprunterLivre(a);
+                    }));
+            // Le doublon bloque sur l'index unique de la clé tant que la première n'est pas validée
+            Thread.sleep(300);
+            assertFalse(doublon.isDone());
+            liberer.countDown();
+
+            assertEquals(premiere.get(10, TimeUnit.SECONDS).getQuantiteDisponible(),
+                    doublon.get(10, TimeUnit.SECONDS).getQuantiteDisponible());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, mouvements.get());
+        assertEquals(4, disponibles(a));
+    }
+
+    @Test
+    void cleTropLongueRefusee() {
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> idempotence.executer(
+                "x".repeat(256), "PUT /api/livre/1/emprunter", LivreRespDto.class, () -> null));
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+    }
+
+    private ResultActions lot(String chemin, String cle, String corps)
+            throws Exception {
+        var requete = put(chemin).contentType(MediaType.APPLICATION_JSON).content(corps);
+        if (cle != null) {
+            requete.header(Idempotence.ENTETE, cle);
+        }
+        return mockMvc.perform(requete);
+    }
+
+    private Long creerLivre(int exemplaires) {
+        return livreService.addBook(LivreReqDto.builder()
+                .titre("Livre " + UUID.randomUUID())
+                .auteur("Auteur")
+                .quantiteTotale(exemplaires)
+                .build()).getId();
+    }
+
+    private int disponibles(Long id) {
+        return livreService.getBookById(id).getQuantiteDisponible();
+    }
+
+    private static void attendre(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
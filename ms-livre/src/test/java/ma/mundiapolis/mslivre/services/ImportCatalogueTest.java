@@ -0,0 +1,186 @@
+package ma.mundiapolis.mslivre.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ma.mundiapolis.mslivre.dto.Category;
+import ma.mundiapolis.mslivre.entities.Livre;
+import ma.mundiapolis.mslivre.enums.FormatFichier;
+import ma.mundiapolis.mslivre.repositories.LivreBatchRepo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Import CSV / NDJSON : validation, doublons (fichier et base), lots, rapport ligne par ligne,
+ * et lecture d'un gros fichier généré à la volée (jamais présent en entier en mémoire).
+ */
+class ImportCatalogueTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<List<Livre>> lotsInseres = new ArrayList<>();
+    private final AtomicLong prochainId = new AtomicLong(1);
+    private LivreBatchRepo livreBatchRepo;
+    private IndexCatalogue indexCatalogue;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void preparer() {
+        livreBatchRepo = mock(LivreBatchRepo.class);
+        when(livreBatchRepo.isbnsExistants(any())).thenAnswer(appel -> {
+            Collection<String> isbns = appel.getArgument(0);
+            return isbns.contains("9782070360024") ? Set.of("9782070360024") : Set.of();
+        });
+        doAnswer(appel -> {
+            List<Livre> lot = appel.getArgument(0);
+            lot.forEach(livre -> livre.setId(prochainId.getAndIncrement()));
+            lotsInseres.add(List.copyOf(lot));
+            return null;
+        }).when(livreBatchRepo).insererTous(any());
+        indexCatalogue = new IndexCatalogue(null, 5000);
+    }
+
+    @Test
+    void csvValideDedoublonneEtRapporte() throws IOException {
+        String csv = """
+                titre;auteur;isbn;categorie;quantiteTotale
+                Les Misérables;Victor Hugo;978-2-07-040850-4;roman;3
+                "Vingt mille lieues; sous les mers";Jules Verne;978-2-253-00627-5;;
+                Sans isbn;Anonyme;;AUTRE;1
+                Doublon;Victor Hugo;978 2070408504;ROMAN;1
+                Déjà en base;Émile Zola;978-2-07-036002-4;ROMAN;1
+                "Titre sur
+                deux lignes";Auteur;2-07-036002-X;INCONNUE;1
+                Quantité;Auteur;978-1-11-111111-1;ROMAN;beaucoup
+                """;
+        List<JsonNode> rapport = importer(csv, FormatFichier.CSV, 2);
+
+        List<Livre> inseres = lotsInseres.stream().flatMap(List::stream).toList();
+        assertEquals(2, inseres.size());
+        assertEquals("Vingt mille lieues; sous les mers", inseres.get(1).getTitre());
+        assertEquals(Category.AUTRE, inseres.get(1).getCategorie());
+        assertEquals(1, inseres.get(1).getQuantiteDisponible());
+        assertEquals(3, inseres.get(0).getQuantiteDisponible());
+        // ISBN enregistrés sous forme normalisée
+        assertEquals("9782070408504", inseres.get(0).getIsbn());
+
+        assertEquals("ERREUR", type(rapport, 4));
+        assertEquals("DOUBLON", type(rapport, 5));
+        assertEquals("DOUBLON", type(rapport, 6));
+        assertTrue(message(rapport, 7).contains("Catégorie inconnue"));
+        assertTrue(message(rapport, 9).contains("quantiteTotale"));
+
+        JsonNode bilan = rapport.get(rapport.size() - 1);
+        assertEquals("TERMINE", bilan.get("type").asText());
+        assertEquals(7, bilan.get("lues").asLong());
+        assertEquals(2, bilan.get("inserees").asLong());
+        assertEquals(2, bilan.get("doublons").asLong());
+        assertEquals(3, bilan.get("erreurs").asLong());
+        // Livres insérés visibles dans la recherche
+        assertEquals(1, indexCatalogue.rechercher("miserables", 0, 10).total());
+    }
+
+    @Test
+    void ndjsonLigneInvalideNInterromptPasLImport() throws IOException {
+        String ndjson = """
+                {"titre":"Dune","auteur":"Frank Herbert","isbn":"978-0-441-17271-9","categorie":"SCIENCE_FICTION"}
+                {"titre":"Cassé",
+                {"titre":"Fondation","auteur":"Isaac Asimov","isbn":"978-0-553-29335-7","categorie":"PAS_UNE_CATEGORIE"}
+                {"titre":"Hypérion","auteur":"Dan Simmons","isbn":"9780553283686"}
+                """;
+        List<JsonNode> rapport = importer(ndjson, FormatFichier.NDJSON, 1000);
+
+        assertEquals(2, lotsInseres.get(0).size());
+        assertEquals("ERREUR", type(rapport, 2));
+        assertEquals("ERREUR", type(rapport, 3));
+        assertEquals(2, rapport.get(rapport.size() - 1).get("inserees").asLong());
+    }
+
+    @Test
+    void grosFichierParLots() throws IOException {
+        int lignes = 200_000;
+        int tailleLot = 1000;
+        // Fichier produit à la demande par le flux d'entrée
+        InputStream entree = new InputStream() {
+            private int ligne = -1;
+            private byte[] courante = new byte[0];
+            private int position;
+
+            @Override
+            public int read() {
+                if (position == courante.length) {
+                    if (++ligne > lignes) {
+                        return -1;
+                    }
+                    String texte = ligne == 0 ? "titre,auteur,isbn\n"
+                            : "Titre " + ligne + ",Auteur " + (ligne % 500) + "," + (9_780_000_000_000L + ligne) + "\n";
+                    courante = texte.getBytes(StandardCharsets.UTF_8);
+                    position = 0;
+                }
+                return courante[position++];
+            }
+        };
+        ImportCatalogue importCatalogue = nouvelImport(tailleLot);
+        ByteArrayOutputStream sortie = new ByteArrayOutputStream();
+        importCatalogue.importer(entree, FormatFichier.CSV, sortie);
+
+        assertEquals(lignes / tailleLot, lotsInseres.size());
+        assertTrue(lotsInseres.stream().allMatch(lot -> lot.size() == tailleLot));
+        List<JsonNode> rapport = lire(sortie);
+        // Une ligne d'avancement par lot, puis le bilan
+        assertEquals(lignes / tailleLot + 1, rapport.size());
+    }
+
+    private List<JsonNode> importer(String contenu, FormatFichier format, int tailleLot) throws IOException {
+        ByteArrayOutputStream sortie = new ByteArrayOutputStream();
+        nouvelImport(tailleLot).importer(new ByteArrayInputStream(contenu.getBytes(StandardCharsets.UTF_8)), format, sortie);
+        return lire(sortie);
+    }
+
+    private ImportCatalogue nouvelImport(int tailleLot) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+        return new ImportCatalogue(livreBatchRepo, transactionTemplate, objectMapper, indexCatalogue, tailleLot);
+    }
+
+    private List<JsonNode> lire(ByteArrayOutputStream sortie) throws IOException {
+        List<JsonNode> lignes = new ArrayList<>();
+        for (String ligne : sortie.toString(StandardCharsets.UTF_8).split("\n")) {
+            lignes.add(objectMapper.readTree(ligne));
+        }
+        return lignes;
+    }
+
+    // Rapport de la ligne du fichier donnée
+    private static JsonNode ligne(List<JsonNode> rapport, long numero) {
+        return rapport.stream()
+                .filter(r -> r.has("ligne") && r.get("ligne").asLong() == numero)
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("Pas de rapport pour la ligne " + numero + " : " + rapport));
+    }
+
+    private static String type(List<JsonNode> rapport, long numero) {
+        return ligne(rapport, numero).get("type").asText();
+    }
+
+    private static String message(List<JsonNode> rapport, long numero) {
+        return ligne(rapport, numero).get("message").asText();
+    }
+}
@@ -0,0 +1,179 @@
+package ma.mundiapolis.mslivre.services;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recherche dans l'index en mémoire : normalisation, préfixes, classement, mises à jour,
+ * puis mesure sur un catalogue synthétique d'un million de livres comparée à un filtrage
+ * linéaire de la liste complète (profil benchmark).
+ */
+class IndexCatalogueTest {
+
+    private static final int LIVRES = 1_000_000;
+    private static final int REPETITIONS = 200;
+
+    @Test
+    void rechercheSansAccentsParPrefixeEtClassee() {
+        IndexCatalogue index = new IndexCatalogue(null, 5000);
+        index.indexer(1L, "Les Misérables", "Victor Hugo", "978-2-07-040850-4");
+        index.indexer(2L, "Notre-Dame de Paris", "Victor Hugo", "978-2-253-00968-9");
+        index.indexer(3L, "Hugo et les misérables de son temps", "Jean Martin", "978-1-11-111111-1");
+        index.indexer(4L, "Œuvres complètes", "Émile Zola", "2-07-036002-X");
+
+        // Accents et casse ignorés, dernier mot en préfixe
+        assertEquals(List.of(1L, 3L), index.rechercher("MISERAB", 0, 10).ids());
+        // Titre exact au début > même mot plus loin dans le titre
+        assertEquals(1L, index.rechercher("misérables", 0, 10).ids().get(0));
+        // Tous les termes doivent correspondre (ET), sur titre ou auteur
+        assertEquals(List.of(2L), index.rechercher("hugo notre", 0, 10).ids());
+        // Auteur exact > titre en préfixe ; ligatures
+        assertEquals(List.of(4L), index.rechercher("oeuvres emile", 0, 10).ids());
+        // ISBN avec ou sans tirets, x de contrôle
+        assertEquals(List.of(1L), index.rechercher("9782070408504", 0, 10).ids());
+        assertEquals(List.of(4L), index.rechercher("2-07-036002-x", 0, 10).ids());
+        assertEquals(0, index.rechercher("inconnu", 0, 10).total());
+        assertEquals(0, index.rechercher("  ", 0, 10).total());
+    }
+
+    @Test
+    void paginationEtMisesAJour() {
+        IndexCatalogue index = new IndexCatalogue(null, 5000);
+        for (long id = 1; id <= 25; id++) {
+            index.indexer(id, "Manuel de Java " + id, "Auteur " + id, null);
+        }
+        IndexCatalogue.Resultat premiere = index.rechercher("java", 0, 10);
+        assertEquals(25, premiere.total());
+        assertEquals(10, premiere.ids().size());
+        assertEquals(5, index.rechercher("java", 2, 10).ids().size());
+        assertTrue(index.rechercher("java", 3, 10).ids().isEmpty());
+
+        // Modification : l'ancien titre ne correspond plus, le nouveau oui
+        index.indexer(7L, "Apprendre Kotlin", "Auteur 7", null);
+        assertEquals(24, index.rechercher("java", 0, 10).total());
+        assertEquals(List.of(7L), index.rechercher("kotlin", 0, 10).ids());
+
+        index.retirer(7L);
+        assertEquals(0, index.rechercher("kotlin", 0, 10).total());
+        assertEquals(24, index.getNombreLivres());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void millionDeLivres() {
+        Random aleatoire = new Random(42);
+        String[] vocabulaire = mots(aleatoire, 20_000);
+        String[] noms = mots(aleatoire, 5_000);
+        String[] titres = new String[LIVRES];
+        String[] auteurs = new String[LIVRES];
+        String[] isbns = new String[LIVRES];
+
+        IndexCatalogue index = new IndexCatalogue(null, 5000);
+        System.gc();
+        long memoireAvant = memoireUtilisee();
+        long debut = System.nanoTime();
+        for (int i = 0; i < LIVRES; i++) {
+            StringBuilder titre = new StringBuilder();
+            int longueur = 2 + aleatoire.nextInt(5);
+            for (int m = 0; m < longueur; m++) {
+                // Loi de Zipf approchée : quelques mots très fréquents, beaucoup de mots rares
+                int rang = (int) Math.min(vocabulaire.length - 1, Math.abs(aleatoire.nextGaussian()) * 3000);
+                titre.append(m == 0 ? "" : " ").append(vocabulaire[rang]);
+            }
+            titres[i] = titre.toString();
+            auteurs[i] = noms[aleatoire.nextInt(noms.length)] + " " + noms[aleatoire.nextInt(noms.length)];
+            isbns[i] = String.format("978-%010d", 1_000_000_000L + i);
+            index.indexer(i + 1L, titres[i], auteurs[i], isbns[i]);
+        }
+        long construction = (System.nanoTime() - debut) / 1_000_000;
+        System.gc();
+        long memoire = (memoireUtilisee() - memoireAvant) / (1024 * 1024);
+        assertEquals(LIVRES, index.getNombreLivres());
+
+        String rare = vocabulaire[6_000];
+        String frequent = vocabulaire[0];
+        String[] requetes = {
+                rare,
+                frequent,
+                frequent.substring(0, 2),
+                noms[10],
+                noms[10] + " " + frequent.substring(0, 1),
+                isbns[123_456],
+        };
+        System.out.printf("Index %d livres : construit en %d ms, ~%d Mo%n", LIVRES, construction, memoire);
+        for (String requete : requetes) {
+            long[] latences = mesurer(() -> index.rechercher(requete, 0, 20));
+            IndexCatalogue.Resultat resultat = index.rechercher(requete, 0, 20);
+            assertTrue(resultat.total() > 0, requete);
+            System.out.printf("  \"%s\" : %d résultats, p50 %d µs, p99 %d µs%n",
+                    requete, resultat.total(), latences[0], latences[1]);
+        }
+
+        // Filtrage linéaire (contains sur titre / auteur / isbn), comme le frontend sur la liste complète
+        String requete = rare;
+        long[] lineaire = mesurer(() -> {
+            List<Integer> trouves = new ArrayList<>();
+            for (int i = 0; i < LIVRES; i++) {
+                if (titres[i].toLowerCase(Locale.ROOT).contains(requete)
+                        || auteurs[i].toLowerCase(Locale.ROOT).contains(requete)
+                        || isbns[i].contains(requete)) {
+                    trouves.add(i);
+                }
+            }
+            return trouves;
+        }, 5);
+        long[] indexe = mesurer(() -> index.rechercher(requete, 0, 20));
+        System.out.printf("Filtrage linéaire \"%s\" : p50 %d µs ; index : p50 %d µs%n", requete, lineaire[0], indexe[0]);
+        assertTrue(indexe[0] * 10 < lineaire[0]);
+    }
+
+    // Mots pseudo-aléatoires prononçables, dont une part avec accents
+    private static String[] mots(Random aleatoire, int nombre) {
+        String consonnes = "bcdfghjlmnprstvz";
+        String voyelles = "aeiouéèàô";
+        String[] mots = new String[nombre];
+        for (int i = 0; i < nombre; i++) {
+            StringBuilder mot = new StringBuilder();
+            int syllabes = 2 + aleatoire.nextInt(3);
+            for (int s = 0; s < syllabes; s++) {
+                mot.append(consonnes.charAt(aleatoire.nextInt(consonnes.length())));
+                mot.append(voyelles.charAt(aleatoire.nextInt(s == 0 ? 5 : voyelles.length())));
+            }
+            mots[i] = mot.toString();
+        }
+        return mots;
+    }
+
+    private static long[] mesurer(java.util.function.Supplier<?> requete) {
+        return mesurer(requete, REPETITIONS);
+    }
+
+    // p50 et p99 en microsecondes, après échauffement
+    private static long[] mesurer(java.util.function.Supplier<?> requete, int repetitions) {
+        for (int i = 0; i < Math.min(repetitions, 20); i++) {
+            requete.get();
+        }
+        long[] durees = new long[repetitions];
+        for (int i = 0; i < repetitions; i++) {
+            long debut = System.nanoTime();
+            requete.get();
+            durees[i] = (System.nanoTime() - debut) / 1000;
+        }
+        Arrays.sort(durees);
+        return new long[]{durees[repetitions / 2], durees[Math.min(repetitions - 1, repetitions * 99 / 100)]};
+    }
+
+    private static long memoireUtilisee() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
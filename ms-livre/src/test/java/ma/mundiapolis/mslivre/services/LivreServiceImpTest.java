@@ -0,0 +1,194 @@
+package ma.mundiapolis.mslivre.services;
+
+import ma.mundiapolis.mslivre.clients.EmpruntCacheClient;
+import ma.mundiapolis.mslivre.dto.LivreReqDto;
+import ma.mundiapolis.mslivre.entities.Livre;
+import ma.mundiapolis.mslivre.repositories.LivreRepo;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+/**
+ * Stock d'un livre très demandé sous emprunts et retours concurrents (H2 en mode MySQL) :
+ * ni survente ni mise à jour perdue ; notifications de ms-emprunt envoyées après le commit
+ * seulement ; puis débit sur un même livre avec 64 emprunteurs simultanés (profil benchmark).
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:livres;MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false",
+        "eureka.client.enabled=false"
+})
+class LivreServiceImpTest {
+
+    private static final int EMPRUNTEURS = 64;
+
+    @Autowired
+    private LivreService livreService;
+
+    @Autowired
+    private LivreRepo livreRepo;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @MockitoBean
+    private EmpruntCacheClient empruntCacheClient;
+
+    @Test
+    void empruntsConcurrentsSansSurvente() throws Exception {
+        Long id = creerLivre(50);
+        AtomicInteger accordes = new AtomicInteger();
+        AtomicInteger refuses = new AtomicInteger();
+
+        // 64 emprunteurs, 2 tentatives chacun, pour 50 exemplaires
+        enParallele(EMPRUNTEURS, () -> {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    livreService.emprunterLivre(id);
+                    accordes.incrementAndGet();
+                } catch (IllegalStateException e) {
+                    refuses.incrementAndGet();
+                }
+            }
+            return null;
+        });
+
+        Livre livre = livreRepo.findById(id).orElseThrow();
+        assertEquals(50, accordes.get());
+        assertEquals(2 * EMPRUNTEURS - 50, refuses.get());
+        assertEquals(0, livre.getQuantiteDisponible());
+        assertEquals(50, livre.getQuantiteEmpruntee());
+        // Chaque décrément accordé incrémente la version, aucun n'est perdu
+        assertEquals(50, livre.getVersion());
+    }
+
+    @Test
+    void empruntsEtRetoursConcurrentsConserventLeStock() throws Exception {
+        Long id = creerLivre(10);
+        // Chaque emprunteur rend son exemplaire : le stock revient à l'état initial
+        enParallele(EMPRUNTEURS, () -> {
+            for (int i = 0; i < 20; i++) {
+                try {
+                    livreService.emprunterLivre(id);
+                    livreService.retournerLivre(id);
+                } catch (IllegalStateException e) {
+                    // Plus d'exemplaire à cet instant : réessayé au tour suivant
+                }
+            }
+            return null;
+        });
+
+        Livre livre = livreRepo.findById(id).orElseThrow();
+        assertEquals(10, livre.getQuantiteDisponible());
+        assertEquals(0, livre.getQuantiteEmpruntee());
+        assertEquals(10, livre.getQuantiteTotale());
+        assertThrows(IllegalStateException.class, () -> livreService.retournerLivre(id));
+    }
+
+    @Test
+    void modificationNotifieeApresLeCommitSeulement() {
+        Long id = creerLivre(3);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            livreService.updateBook(id, modification("Titre modifié"));
+            // Encore dans la transaction : ms-emprunt ne doit pas relire l'ancienne version
+            verifyNoInteractions(empruntCacheClient);
+        });
+        verify(empruntCacheClient).invalider(id);
+        verify(empruntCacheClient).publierModification(any());
+
+        Long autre = creerLivre(3);
+        transactionTemplate.executeWithoutResult(status -> {
+            livreService.updateBook(autre, modification("Modification annulée"));
+            status.setRollbackOnly();
+        });
+        verify(empruntCacheClient, never()).invalider(autre);
+        assertEquals("Livre", livreRepo.findById(autre).orElseThrow().getTitre());
+    }
+
+    @Nested
+    @Tag("benchmark")
+    class Mesure {
+
+        @Test
+        void debitSurUnLivreTresDemande() throws Exception {
+            int operations = 200;
+            Long id = creerLivre(EMPRUNTEURS * operations);
+            long[] durees = new long[EMPRUNTEURS * operations];
+            AtomicInteger indice = new AtomicInteger();
+
+            long debut = System.nanoTime();
+            enParallele(EMPRUNTEURS, () -> {
+                for (int i = 0; i < operations; i++) {
+                    long t = System.nanoTime();
+                    livreService.emprunterLivre(id);
+                    durees[indice.getAndIncrement()] = (System.nanoTime() - t) / 1_000;
+                }
+                return null;
+            });
+            long totalMs = (System.nanoTime() - debut) / 1_000_000;
+
+            assertEquals(0, livreRepo.findById(id).orElseThrow().getQuantiteDisponible());
+            Arrays.sort(durees);
+            System.out.printf("%d emprunteurs sur un même livre : %d emprunts en %d ms (%d emprunts/s), "
+                            + "p50 %d µs, p99 %d µs%n", EMPRUNTEURS, durees.length, totalMs,
+                    durees.length * 1000L / Math.max(totalMs, 1), durees[durees.length / 2],
+                    durees[durees.length * 99 / 100]);
+        }
+    }
+
+    private Long creerLivre(int exemplaires) {
+        LivreReqDto livre = LivreReqDto.builder().titre("Livre").auteur("Auteur").quantiteTotale(exemplaires).build();
+        return livreService.addBook(livre).getId();
+    }
+
+    private static LivreReqDto modification(String titre) {
+        return LivreReqDto.builder().titre(titre).auteur("Auteur").build();
+    }
+
+    // Lance "threads" tâches en même temps et propage la première erreur
+    private static void enParallele(int threads, Callable<Void> tache) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch depart = new CountDownLatch(1);
+        try {
+            List<Future<Void>> resultats = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                resultats.add(executor.submit(() -> {
+                    depart.await();
+                    return tache.call();
+                }));
+            }
+            depart.countDown();
+            for (Future<Void> resultat : resultats) {
+                resultat.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package ma.mundiapolis.mslivre.web;
+
+import ma.mundiapolis.mslivre.clients.EmpruntCacheClient;
+import ma.mundiapolis.mslivre.dto.LivreReqDto;
+import ma.mundiapolis.mslivre.services.LivreService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.hamcrest.Matchers.hasItem;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Requêtes conditionnelles sur GET /api/livre/{id} et GET /api/livre (H2 en mode MySQL) :
+ * ETag faible commun à JSON et Smile, Vary: Accept sur les réponses 200 comme 304.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:conditionnel;MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false",
+        "eureka.client.enabled=false"
+})
+@AutoConfigureMockMvc
+class LivreControllerTest {
+
+    private static final MediaType SMILE = MediaType.parseMediaType("application/x-jackson-smile");
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private LivreService livreService;
+
+    @MockitoBean
+    private EmpruntCacheClient empruntCacheClient;
+
+    @Test
+    void etagFaiblePartageParJsonEtSmileAvecVary() throws Exception {
+        Long id = livreService.addBook(livre("Titre")).getId();
+
+        MvcResult json = mockMvc.perform(get("/api/livre/{id}", id).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT)))
+                .andReturn();
+        String etag = json.getResponse().getHeader(HttpHeaders.ETAG);
+        assertTrue(etag.startsWith("W/\""), etag);
+
+        MvcResult smile = mockMvc.perform(get("/api/livre/{id}", id).accept(SMILE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(SMILE))
+                .andReturn();
+        assertEquals(etag, smile.getResponse().getHeader(HttpHeaders.ETAG));
+        assertNotEquals(json.getResponse().getContentAsString(), smile.getResponse().getContentAsString());
+
+        // 304 pour les deux formats, toujours avec Vary : un cache ne sert pas l'un pour l'autre
+        for (MediaType format : new MediaType[]{MediaType.APPLICATION_JSON, SMILE}) {
+            mockMvc.perform(get("/api/livre/{id}", id).accept(format).header(HttpHeaders.IF_NONE_MATCH, etag))
+                    .andExpect(status().isNotModified())
+                    .andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT)));
+        }
+
+        // Nouvelle version : l'ancien ETag ne correspond plus
+        livreService.updateBook(id, livre("Titre modifié"));
+        mockMvc.perform(get("/api/livre/{id}", id).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void listeConditionnelleAvecVary() throws Exception {
+        livreService.addBook(livre("Liste"));
+        String etag = mockMvc.perform(get("/api/livre"))
+                .andExpect(status().isOk())
+                .andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT)))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertTrue(etag.startsWith("W/\""), etag);
+
+        mockMvc.perform(get("/api/livre").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+    }
+
+    private static LivreReqDto livre(String titre) {
+        return LivreReqDto.builder().titre(titre).auteur("Auteur").quantiteTotale(2).build();
+    }
+}
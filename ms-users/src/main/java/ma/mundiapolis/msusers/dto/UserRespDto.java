@@ -17,4 +17,7 @@ public class UserRespDto {
     private String email;
     private String adresse;
     private String tel;
+
+    // Version de l'entité : ms-emprunt n'applique pas une copie plus ancienne que celle qu'il a déjà
+    private Long version;
 }
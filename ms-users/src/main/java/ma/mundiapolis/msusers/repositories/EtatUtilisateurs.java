@@ -0,0 +1,14 @@
+package ma.mundiapolis.msusers.repositories;
+
+/**
+ * Projection agrégée des utilisateurs (une seule requête) servant d'ETag à la liste complète :
+ * un ajout change total et idMax, une suppression total, une modification sommeVersions.
+ */
+public interface EtatUtilisateurs {
+
+    long getTotal();
+
+    long getIdMax();
+
+    long getSommeVersions();
+}
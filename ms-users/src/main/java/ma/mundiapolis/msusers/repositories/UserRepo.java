@@ -2,6 +2,8 @@ package ma.mundiapolis.msusers.repositories;
 
 import ma.mundiapolis.msusers.entities.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
@@ -17,4 +19,12 @@ public interface UserRepo extends JpaRepository<User, Long> {
 
     // Vérifie si un email existe pour un utilisateur différent de l'ID donné
     boolean existsByEmailAndIdNot(String email, Long id);
+
+    // Version d'un utilisateur sans charger l'entité (requêtes conditionnelles GET /api/users/{id})
+    @Query("select u.version as version, u.dateModification as dateModification from User u where u.id = :id")
+    Optional<VersionUtilisateur> findVersionById(@Param("id") Long id);
+
+    // État agrégé des utilisateurs : change à chaque ajout, suppression ou modification (GET /api/users/AllUser)
+    @Query("select count(u) as total, coalesce(max(u.id), 0) as idMax, coalesce(sum(u.version), 0) as sommeVersions from User u")
+    EtatUtilisateurs findEtat();
 }
@@ -0,0 +1,14 @@
+package ma.mundiapolis.msusers.repositories;
+
+import java.time.LocalDateTime;
+
+/**
+ * Projection de la version d'un utilisateur, lue par clé primaire sans charger l'entité.
+ */
+public interface VersionUtilisateur {
+
+    Long getVersion();
+
+    // Null pour les utilisateurs créés avant l'ajout de la colonne et jamais modifiés depuis
+    LocalDateTime getDateModification();
+}
@@ -2,15 +2,25 @@ package ma.mundiapolis.msusers.services;
 
 import ma.mundiapolis.msusers.dto.UserReqDto;
 import ma.mundiapolis.msusers.dto.UserRespDto;
+import ma.mundiapolis.msusers.repositories.EtatUtilisateurs;
+import ma.mundiapolis.msusers.repositories.VersionUtilisateur;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface UserService {
 
     UserRespDto createUser(UserReqDto userReqDto);
     UserRespDto getUserById(Long id);
     List<UserRespDto> getAllUsers();
+    // Version et date de modification, sans charger l'entité (ETag / Last-Modified)
+    VersionUtilisateur getUserVersion(Long id);
+    // Nombre d'utilisateurs, plus grand id et somme des versions : ETag de la liste complète
+    EtatUtilisateurs getUsersState();
     UserRespDto updateUser(Long id, UserReqDto userReqDto);
     void deleteUser(Long id);
     UserRespDto getUserByEmail(String email);
+    Map<Long, UserRespDto> getUsersByIds(Collection<Long> ids);
+    long countUsers();
 }
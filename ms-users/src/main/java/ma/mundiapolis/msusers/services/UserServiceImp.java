@@ -2,13 +2,19 @@ package ma.mundiapolis.msusers.services;
 
 import jakarta.persistence.EntityNotFoundException;
 import lombok.RequiredArgsConstructor;
+import ma.mundiapolis.msusers.clients.EmpruntCacheClient;
+import ma.mundiapolis.msusers.repositories.EtatUtilisateurs;
 import ma.mundiapolis.msusers.repositories.UserRepo;
+import ma.mundiapolis.msusers.repositories.VersionUtilisateur;
 import org.springframework.stereotype.Service;
 import ma.mundiapolis.msusers.dto.UserReqDto;
 import ma.mundiapolis.msusers.dto.UserRespDto;
 import ma.mundiapolis.msusers.entities.User;
 import ma.mundiapolis.msusers.mapper.UserMapper;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -17,6 +23,7 @@ public class UserServiceImp implements UserService{
 
     private final UserRepo userRepository;
     private final UserMapper userMapper;
+    private final EmpruntCacheClient empruntCacheClient;
 
     @Override
     public UserRespDto createUser(UserReqDto userReqDto) {
@@ -45,6 +52,23 @@ public class UserServiceImp implements UserService{
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public VersionUtilisateur getUserVersion(Long id) {
+        return userRepository.findVersionById(id)
+                .orElseThrow(() -> new EntityNotFoundException("Utilisateur avec l'id " + id + " introuvable"));
+    }
+
+    @Override
+    public EtatUtilisateurs getUsersState() {
+        return userRepository.findEtat();
+    }
+
+    @Override
+    public long countUsers() {
+        // COUNT(*) en base : le tableau de bord n'a pas besoin de charger les utilisateurs
+        return userRepository.count();
+    }
+
     @Override
     public UserRespDto updateUser(Long id, UserReqDto userReqDto) {
         User existingUser = userRepository.findById(id)
@@ -61,8 +85,12 @@ public class UserServiceImp implements UserService{
         existingUser.setAdresse(userReqDto.getAdresse());
         existingUser.setTel(userReqDto.getTel());
 
-        User updatedUser = userRepository.save(existingUser);
-        return userMapper.toDto(updatedUser);
+        // Flush : la version publiée est celle de la ligne modifiée
+        User updatedUser = userRepository.saveAndFlush(existingUser);
+        UserRespDto userRespDto = userMapper.toDto(updatedUser);
+        empruntCacheClient.invalider(id);
+        empruntCacheClient.publierModification(userRespDto);
+        return userRespDto;
     }
 
     @Override
@@ -70,6 +98,7 @@ public class UserServiceImp implements UserService{
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException("Utilisateur avec l'id " + id + " introuvable"));
         userRepository.delete(user);
+        empruntCacheClient.invalider(id);
         // ✅ Après suppression, l'email redevient automatiquement disponible
     }
 
@@ -79,4 +108,13 @@ public class UserServiceImp implements UserService{
                 .orElseThrow(() -> new EntityNotFoundException("Utilisateur avec l'email " + email + " introuvable"));
         return userMapper.toDto(user);
     }
+
+    @Override
+    public Map<Long, UserRespDto> getUsersByIds(Collection<Long> ids) {
+        // Les ids inconnus sont simplement absents de la map retournée
+        return userRepository.findAllById(ids)
+                .stream()
+                .map(userMapper::toDto)
+                .collect(Collectors.toMap(UserRespDto::getId, Function.identity()));
+    }
 }
\ No newline at end of file
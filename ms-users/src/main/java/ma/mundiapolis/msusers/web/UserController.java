@@ -1,13 +1,21 @@
 package ma.mundiapolis.msusers.web;
 
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import ma.mundiapolis.msusers.dto.UserReqDto;
 import ma.mundiapolis.msusers.dto.UserRespDto;
+import ma.mundiapolis.msusers.repositories.EtatUtilisateurs;
+import ma.mundiapolis.msusers.repositories.VersionUtilisateur;
 import ma.mundiapolis.msusers.services.UserService;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/users")
@@ -22,16 +30,40 @@ public class UserController {
         return userService.createUser(userReqDto);
     }
 
+    // ETag (id + version) et Last-Modified ; client à jour : 304 sans charger ni sérialiser l'utilisateur.
+    // ETag faible, le même pour JSON et Smile (mêmes données) ; Vary: Accept pour les caches
     @GetMapping("/{id}")
-    public UserRespDto getUserById(@PathVariable Long id) {
+    public UserRespDto getUserById(@PathVariable Long id, WebRequest requete, HttpServletResponse reponse) {
+        reponse.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        VersionUtilisateur version = userService.getUserVersion(id);
+        if (requete.checkNotModified("W/\"" + id + "-" + version.getVersion() + "\"", millis(version.getDateModification()))) {
+            return null;
+        }
         return userService.getUserById(id);
     }
 
+    // ETag de la liste par requête d'agrégat ; pas de Last-Modified (une suppression ne change pas la date max)
     @GetMapping("/AllUser")
-    public List<UserRespDto> getAllUsers() {
+    public List<UserRespDto> getAllUsers(WebRequest requete, HttpServletResponse reponse) {
+        reponse.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        EtatUtilisateurs etat = userService.getUsersState();
+        if (requete.checkNotModified("W/\"users-" + etat.getTotal() + "-" + etat.getIdMax() + "-" + etat.getSommeVersions() + "\"")) {
+            return null;
+        }
         return userService.getAllUsers();
     }
 
+    @GetMapping("/count")
+    public long countUsers() {
+        return userService.countUsers();
+    }
+
+    // Recherche groupée (ids en entrée, map id -> utilisateur en sortie), utilisée par ms-emprunt
+    @PostMapping("/bulk")
+    public Map<Long, UserRespDto> getUsersByIds(@RequestBody List<Long> ids) {
+        return userService.getUsersByIds(ids);
+    }
+
     @GetMapping("/email/{email}")
     public UserRespDto getUserByEmail(@PathVariable String email) {
         return userService.getUserByEmail(email);
@@ -47,4 +79,9 @@ public class UserController {
     public void deleteUser(@PathVariable Long id) {
         userService.deleteUser(id);
     }
-}
\ No newline at end of file
+
+    // -1 : pas d'en-tête Last-Modified (utilisateur jamais modifié depuis l'ajout de la colonne)
+    private static long millis(LocalDateTime date) {
+        return date == null ? -1 : date.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}